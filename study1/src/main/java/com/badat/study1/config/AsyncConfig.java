@@ -56,5 +56,26 @@ public class AsyncConfig {
         return executor;
     }
     
+    /**
+     * Thread pool cho import file kho - giới hạn nhỏ để upload lớn không chiếm hết DB connection,
+     * hàng đợi đầy thì upload mới bị từ chối thay vì giữ request thread
+     */
+    @Bean(name = "warehouseImportTaskExecutor")
+    public Executor warehouseImportTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(50);
+        executor.setThreadNamePrefix("warehouse-import-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        
+        log.info("Warehouse import task executor configured with core: {}, max: {}, queue: {}", 
+                executor.getCorePoolSize(), executor.getMaxPoolSize(), executor.getQueueCapacity());
+        
+        return executor;
+    }
+    
 }
 
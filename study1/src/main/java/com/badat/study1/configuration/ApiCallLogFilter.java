@@ -2,6 +2,7 @@ package com.badat.study1.configuration;
 
 import com.badat.study1.model.User;
 import com.badat.study1.service.ApiCallLogService;
+import com.badat.study1.service.LatencyMetricsService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -14,6 +15,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
 
 @Slf4j
 @Component
@@ -21,6 +23,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 public class ApiCallLogFilter extends OncePerRequestFilter {
     
     private final ApiCallLogService apiCallLogService;
+    private final LatencyMetricsService latencyMetricsService;
     
     private static final String START_TIME_ATTRIBUTE = "apiCallStartTime";
     
@@ -30,6 +33,7 @@ public class ApiCallLogFilter extends OncePerRequestFilter {
         
         // Record start time for duration calculation
         request.setAttribute(START_TIME_ATTRIBUTE, System.currentTimeMillis());
+        long startNanos = System.nanoTime();
         
         // Process the request and log exactly once (success OR fail)
         boolean hasException = false;
@@ -42,6 +46,7 @@ public class ApiCallLogFilter extends OncePerRequestFilter {
         } finally {
             Long userId = getCurrentUserId();
             int status = response.getStatus();
+            recordLatency(request, hasException && status < 400 ? 500 : status, System.nanoTime() - startNanos);
             if (hasException || status >= 400) {
                 logFailedRequest(request, response, userId, captured);
             } else {
@@ -117,6 +122,16 @@ public class ApiCallLogFilter extends OncePerRequestFilter {
         }
     }
     
+    private void recordLatency(HttpServletRequest request, int statusCode, long durationNanos) {
+        try {
+            // Pattern của handler đã khớp (/api/products/{id}), null nếu không có handler (404, static)
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            latencyMetricsService.record(pattern != null ? pattern.toString() : null, request.getMethod(), statusCode, durationNanos);
+        } catch (Exception e) {
+            log.error("Error recording API latency: {}", e.getMessage());
+        }
+    }
+    
     private Long getCurrentUserId() {
         try {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -42,19 +42,4 @@ public class AuditAsyncConfig {
                 executor.getCorePoolSize(), executor.getMaxPoolSize());
         return executor;
     }
-
-    @Bean(name = "apiLogExecutor")
-    public Executor apiLogExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(3);
-        executor.setMaxPoolSize(8);
-        executor.setQueueCapacity(200);
-        executor.setThreadNamePrefix("api-log-");
-        executor.setWaitForTasksToCompleteOnShutdown(true);
-        executor.setAwaitTerminationSeconds(60);
-        executor.initialize();
-        log.info("API log executor configured with core pool size: {}, max pool size: {}", 
-                executor.getCorePoolSize(), executor.getMaxPoolSize());
-        return executor;
-    }
 }
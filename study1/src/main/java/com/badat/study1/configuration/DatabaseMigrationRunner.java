@@ -10,6 +10,8 @@ import org.springframework.stereotype.Component;
 @Component
 public class DatabaseMigrationRunner implements CommandLineRunner {
 
+    private static final String REVIEW_SUMMARY_BACKFILL = "review_summary_backfill_v1";
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -82,6 +84,21 @@ public class DatabaseMigrationRunner implements CommandLineRunner {
             
             // Check and run avatar migration
             runAvatarMigration();
+            
+            // Payment queue lưu cart dạng binary snapshot
+            runPaymentQueueCartSnapshotMigration();
+            
+            // Composite index cho các query tồn kho trên bảng warehouse
+            runWarehouseIndexMigration();
+            
+            // Review summary + index keyset cho review
+            runReviewSummaryMigration();
+            
+            // Index keyset cho export audit log
+            runAuditLogIndexMigration();
+            
+            // Index (bộ lọc, created_at, id) cho phân trang keyset các trang log admin
+            runLogKeysetIndexMigration();
         } catch (Exception e) {
             log.error("Database migration failed: {}", e.getMessage(), e);
         }
@@ -89,17 +106,15 @@ public class DatabaseMigrationRunner implements CommandLineRunner {
     
     private void runAvatarMigration() {
         try {
-            // Check if avatar columns already exist
-            String checkAvatarDataQuery = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
-                    "WHERE TABLE_SCHEMA = 'mmo_market' AND TABLE_NAME = 'user' AND COLUMN_NAME = 'avatar_data'";
+            // Ảnh avatar đã chuyển sang stored_image (user.avatar_hash), không tạo lại cột avatar_data LONGBLOB
+            String checkAvatarUrlQuery = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = 'mmo_market' AND TABLE_NAME = 'user' AND COLUMN_NAME = 'avatar_url'";
             
-            Integer avatarDataExists = jdbcTemplate.queryForObject(checkAvatarDataQuery, Integer.class);
+            Integer avatarUrlExists = jdbcTemplate.queryForObject(checkAvatarUrlQuery, Integer.class);
             
-            if (avatarDataExists == null || avatarDataExists == 0) {
+            if (avatarUrlExists == null || avatarUrlExists == 0) {
                 log.info("Running avatar migration for user table...");
                 
-                // Add avatar columns
-                jdbcTemplate.execute("ALTER TABLE user ADD COLUMN avatar_data LONGBLOB NULL COMMENT 'Avatar image data'");
                 jdbcTemplate.execute("ALTER TABLE user ADD COLUMN avatar_url VARCHAR(500) NULL COMMENT 'Avatar URL from OAuth provider'");
                 
                 log.info("Avatar migration completed successfully!");
@@ -110,4 +125,140 @@ public class DatabaseMigrationRunner implements CommandLineRunner {
             log.error("Avatar migration failed: {}", e.getMessage(), e);
         }
     }
+    
+    private void runPaymentQueueCartSnapshotMigration() {
+        try {
+            // cart_data (JSON) không còn bắt buộc - payment mới chỉ ghi cart_snapshot
+            String checkCartDataNullableQuery = "SELECT IS_NULLABLE FROM INFORMATION_SCHEMA.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = 'mmo_market' AND TABLE_NAME = 'payment_queue' AND COLUMN_NAME = 'cart_data'";
+            
+            String isNullable = jdbcTemplate.queryForObject(checkCartDataNullableQuery, String.class);
+            
+            if ("NO".equalsIgnoreCase(isNullable)) {
+                log.info("Running cart snapshot migration for payment_queue table...");
+                jdbcTemplate.execute("ALTER TABLE payment_queue MODIFY COLUMN cart_data JSON NULL");
+                log.info("Cart snapshot migration completed successfully!");
+            } else {
+                log.info("Cart snapshot migration already applied, skipping...");
+            }
+        } catch (Exception e) {
+            log.error("Cart snapshot migration failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void runWarehouseIndexMigration() {
+        try {
+            createIndexIfMissing("warehouse", "idx_warehouse_variant_available",
+                    "product_variant_id, locked, is_delete, created_at");
+            createIndexIfMissing("warehouse", "idx_warehouse_product_available",
+                    "product_id, locked, is_delete, created_at");
+            createIndexIfMissing("warehouse", "idx_warehouse_shop_available",
+                    "shop_id, locked, is_delete");
+            // MySQL không có partial index - index (locked, reserved_until) cho range locked = true AND reserved_until < now
+            createIndexIfMissing("warehouse", "idx_warehouse_locked_reserved_until",
+                    "locked, reserved_until");
+            // Unique theo variant - item cũ có identifier_hash NULL nên không vi phạm, được backfill khi upload
+            if (columnExists("warehouse", "identifier_hash")) {
+                createIndexIfMissing("warehouse", "uk_warehouse_variant_identifier",
+                        "product_variant_id, identifier_hash", true);
+            }
+        } catch (Exception e) {
+            log.error("Warehouse index migration failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void runReviewSummaryMigration() {
+        try {
+            createIndexIfMissing("review", "idx_review_product_keyset", "product_id, is_delete, id");
+            createIndexIfMissing("review", "idx_review_variant_keyset", "product_variant_id, is_delete, id");
+            
+            // Gate theo marker, không theo review_summary rỗng: review mới tạo trước khi backfill chạy cũng ghi vào
+            // review_summary và sẽ làm backfill bị bỏ qua vĩnh viễn
+            if (isMigrationApplied(REVIEW_SUMMARY_BACKFILL)) {
+                log.info("Review summary backfill already applied, skipping...");
+                return;
+            }
+            // Dựng summary từ các review hiện có, ON DUPLICATE ghi đè bằng số liệu tính lại (chạy lại vẫn đúng)
+            log.info("Backfilling review_summary from review table...");
+            int products = backfillReviewSummary("PRODUCT", "product_id");
+            int variants = backfillReviewSummary("VARIANT", "product_variant_id");
+            markMigrationApplied(REVIEW_SUMMARY_BACKFILL);
+            log.info("Backfilled review_summary: {} products, {} variants", products, variants);
+        } catch (Exception e) {
+            log.error("Review summary migration failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void runAuditLogIndexMigration() {
+        try {
+            createIndexIfMissing("auditlog", "idx_auditlog_created_at", "created_at, id");
+        } catch (Exception e) {
+            log.error("Audit log index migration failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void runLogKeysetIndexMigration() {
+        try {
+            createIndexIfMissing("auditlog", "idx_auditlog_action_created", "action, created_at, id");
+            createIndexIfMissing("auditlog", "idx_auditlog_category_created", "category, created_at, id");
+            // api_call_log đã có (user_id | endpoint | status_code, created_at); PK (id, created_at) nằm sẵn trong index phụ
+            createIndexIfMissing("user_activity_log", "idx_user_activity_action_created", "action, created_at");
+            createIndexIfMissing("user_activity_log", "idx_user_activity_category_created", "category, created_at");
+        } catch (Exception e) {
+            log.error("Log keyset index migration failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Migration dữ liệu chạy 1 lần được ghi vào schema_migration sau khi xong (lỗi giữa chừng thì lần khởi động sau chạy lại)
+     */
+    private boolean isMigrationApplied(String name) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS schema_migration (" +
+                "name VARCHAR(100) NOT NULL PRIMARY KEY, applied_at DATETIME NOT NULL)");
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM schema_migration WHERE name = ?", Integer.class, name);
+        return count != null && count > 0;
+    }
+    
+    private void markMigrationApplied(String name) {
+        jdbcTemplate.update("INSERT IGNORE INTO schema_migration (name, applied_at) VALUES (?, NOW())", name);
+    }
+    
+    private int backfillReviewSummary(String scopeType, String scopeColumn) {
+        return jdbcTemplate.update(
+                "INSERT INTO review_summary (scope_type, scope_id, review_count, rating_sum, " +
+                "rating_1, rating_2, rating_3, rating_4, rating_5, updated_at) " +
+                "SELECT ?, " + scopeColumn + ", COUNT(*), SUM(rating), " +
+                "SUM(rating = 1), SUM(rating = 2), SUM(rating = 3), SUM(rating = 4), SUM(rating = 5), NOW() " +
+                "FROM review WHERE is_delete = false AND rating BETWEEN 1 AND 5 GROUP BY " + scopeColumn + " " +
+                "ON DUPLICATE KEY UPDATE review_count = VALUES(review_count), rating_sum = VALUES(rating_sum), " +
+                "rating_1 = VALUES(rating_1), rating_2 = VALUES(rating_2), rating_3 = VALUES(rating_3), " +
+                "rating_4 = VALUES(rating_4), rating_5 = VALUES(rating_5), updated_at = VALUES(updated_at)",
+                scopeType);
+    }
+    
+    private void createIndexIfMissing(String table, String indexName, String columns) {
+        createIndexIfMissing(table, indexName, columns, false);
+    }
+    
+    private void createIndexIfMissing(String table, String indexName, String columns, boolean unique) {
+        String checkIndexQuery = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.STATISTICS " +
+                "WHERE TABLE_SCHEMA = 'mmo_market' AND TABLE_NAME = ? AND INDEX_NAME = ?";
+        Integer indexExists = jdbcTemplate.queryForObject(checkIndexQuery, Integer.class, table, indexName);
+        
+        if (indexExists == null || indexExists == 0) {
+            log.info("Creating index {} on {}({})...", indexName, table, columns);
+            jdbcTemplate.execute("CREATE " + (unique ? "UNIQUE " : "") + "INDEX " + indexName + " ON " + table + "(" + columns + ")");
+            log.info("Created index {}", indexName);
+        } else {
+            log.info("Index {} already exists, skipping...", indexName);
+        }
+    }
+    
+    private boolean columnExists(String table, String column) {
+        String checkColumnQuery = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                "WHERE TABLE_SCHEMA = 'mmo_market' AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        Integer count = jdbcTemplate.queryForObject(checkColumnQuery, Integer.class, table, column);
+        return count != null && count > 0;
+    }
 }
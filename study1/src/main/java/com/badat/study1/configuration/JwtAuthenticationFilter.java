@@ -3,6 +3,9 @@ package com.badat.study1.configuration;
 import com.badat.study1.model.User;
 import com.badat.study1.repository.UserRepository;
 import com.badat.study1.service.JwtService;
+import com.badat.study1.service.PrincipalCacheService;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
 import lombok.extern.slf4j.Slf4j;
 
 import jakarta.servlet.FilterChain;
@@ -13,14 +16,14 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Optional;
 
@@ -32,8 +35,8 @@ import java.io.IOException;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
-    private final UserDetailsService userDetailsService;
     private final UserRepository userRepository;
+    private final PrincipalCacheService principalCacheService;
 
     @Override
     protected void doFilterInternal(
@@ -49,57 +52,11 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         String token = resolveToken(request);
-        log.info("JWT Filter - Request to: {}, Token found: {}", request.getRequestURI(), token != null);
+        log.debug("JWT Filter - Request to: {}, Token found: {}", request.getRequestURI(), token != null);
         
-        if (token != null) {
-            log.info("JWT Filter - Token: {}", token.substring(0, Math.min(50, token.length())) + "...");
-        }
-        
-        if (token != null) {
+        if (token != null && SecurityContextHolder.getContext().getAuthentication() == null) {
             try {
-                String username = jwtService.extractUsername(token);
-                log.info("JWT Filter - Extracted username: {}", username);
-                
-                if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                    // Check if user exists and get user details
-                    Optional<User> userOpt = userRepository.findByUsername(username);
-                    if (userOpt.isPresent()) {
-                        User user = userOpt.get();
-                        
-                        // For Google users, create authentication directly without password validation
-                        if ("GOOGLE".equals(user.getProvider())) {
-                            if (jwtService.verifyToken(token)) {
-                                UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                                        user,
-                                        null,
-                                        Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + user.getRole().name()))
-                                );
-                                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                                SecurityContextHolder.getContext().setAuthentication(authentication);
-                                log.info("JWT Filter - Google user {} authenticated successfully", username);
-                            } else {
-                                log.warn("JWT Filter - Token validation failed for Google user: {}", username);
-                            }
-                        } else {
-                            // For LOCAL users, use UserDetailsService for validation but set User as principal
-                            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                            if (jwtService.isTokenValid(token, userDetails)) {
-                                UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                                        user,  // Use User object instead of UserDetails
-                                        null,
-                                        user.getAuthorities()
-                                );
-                                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                                SecurityContextHolder.getContext().setAuthentication(authentication);
-                                log.info("JWT Filter - Local user {} authenticated successfully", username);
-                            } else {
-                                log.warn("JWT Filter - Token validation failed for local user: {}", username);
-                            }
-                        }
-                    } else {
-                        log.warn("JWT Filter - User not found: {}", username);
-                    }
-                }
+                authenticate(token, request);
             } catch (Exception e) {
                 log.warn("JWT authentication failed: {}", e.getMessage());
             }
@@ -108,6 +65,67 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Parse token 1 lần; principal đã cache theo jti thì chỉ còn kiểm tra blacklist,
+     * chưa cache thì verify chữ ký + load user 1 lần rồi cache tới khi token hết hạn
+     */
+    private void authenticate(String token, HttpServletRequest request) throws Exception {
+        SignedJWT signedJWT = SignedJWT.parse(token);
+        JWTClaimsSet claims = signedJWT.getJWTClaimsSet();
+        String jwtId = claims.getJWTID();
+        String signature = signedJWT.getSignature().toString();
+
+        User user = principalCacheService.get(jwtId, signature);
+        if (user != null) {
+            if (jwtService.isRevoked(jwtId)) {
+                principalCacheService.evictToken(jwtId);
+                log.warn("JWT Filter - Token revoked for user: {}", user.getUsername());
+                return;
+            }
+        } else {
+            String username = claims.getSubject();
+            log.debug("JWT Filter - Extracted username: {}", username);
+            if (username == null) {
+                return;
+            }
+            if (!jwtService.verifyToken(signedJWT)) {
+                log.warn("JWT Filter - Token validation failed for user: {}", username);
+                return;
+            }
+            // Đọc generation trước khi load user: user bị khóa / đổi trong lúc load thì không cache bản cũ
+            Long claimedUserId = claims.getLongClaim("userId");
+            long generation = principalCacheService.generationOf(claimedUserId);
+            Optional<User> userOpt = userRepository.findByUsername(username);
+            if (userOpt.isEmpty()) {
+                log.warn("JWT Filter - User not found: {}", username);
+                return;
+            }
+            user = userOpt.get();
+            // LOCAL user: cùng điều kiện với UserDetailServiceCustomizer (chưa xóa, không bị khóa)
+            if (!"GOOGLE".equals(user.getProvider())
+                    && (Boolean.TRUE.equals(user.getIsDelete()) || user.getStatus() == User.Status.LOCKED)) {
+                log.warn("JWT Filter - Local user {} is deleted or locked", username);
+                return;
+            }
+            if (user.getId().equals(claimedUserId)) {
+                principalCacheService.put(jwtId, signature, user, claims.getExpirationTime().getTime(), generation);
+            }
+        }
+
+        // Google user: role lấy trực tiếp, LOCAL user: authorities của User
+        Collection<? extends GrantedAuthority> authorities = "GOOGLE".equals(user.getProvider())
+                ? Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + user.getRole().name()))
+                : user.getAuthorities();
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                user,  // Use User object instead of UserDetails
+                null,
+                authorities
+        );
+        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        log.debug("JWT Filter - User {} authenticated", user.getUsername());
+    }
+
     private String resolveToken(HttpServletRequest request) {
         // Try Authorization header first
         String auth = request.getHeader("Authorization");
@@ -0,0 +1,29 @@
+package com.badat.study1.configuration;
+
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Định danh duy nhất của node (JVM) hiện tại - hostname + hậu tố ngẫu nhiên mỗi lần khởi động
+ * - Dùng chung cho lease shard trên Redis (PaymentQueueShardService) và claimed_by của payment (PaymentQueueService)
+ *   để "node giữ shard" và "worker giữ payment" luôn là cùng một định danh
+ */
+@Getter
+@Component
+public class NodeIdentity {
+
+    private final String id = resolveId();
+
+    private static String resolveId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
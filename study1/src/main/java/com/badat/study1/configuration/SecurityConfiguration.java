@@ -51,6 +51,7 @@ public class SecurityConfiguration {
             "/css/**", "/js/**", "/images/**", "/static/**", "/favicon.ico",
             "/stall-image/**",
             "/product-image/**",
+            "/media/**",
             "/oauth2/**", "/login/oauth2/**",
             "/error", // Thêm /error vào whitelist để tránh authentication loop
             "/admin-simple", "/admin/test-withdraw", "/api/admin/withdraw/requests-simple", "/api/admin/withdraw/approve-simple/**", "/api/admin/withdraw/reject-simple/**"};
@@ -80,6 +81,8 @@ public class SecurityConfiguration {
                         .requestMatchers("/seller/**").hasAnyRole("SELLER", "ADMIN")
                         .requestMatchers("/admin/**").hasRole("ADMIN")
                         .requestMatchers("/api/admin/**").hasRole("ADMIN")
+                        .requestMatchers("/actuator/health").permitAll()
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
                         .requestMatchers("/withdraw").hasAnyRole("SELLER", "ADMIN")
                         .requestMatchers("/api/withdraw/**").hasAnyRole("SELLER", "ADMIN")
                         .anyRequest().authenticated()
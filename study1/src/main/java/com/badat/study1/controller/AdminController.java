@@ -4,8 +4,14 @@ import com.badat.study1.model.User;
 import com.badat.study1.repository.UserRepository;
 import com.badat.study1.repository.ShopRepository;
 import com.badat.study1.repository.ProductRepository;
+import com.badat.study1.service.ApiCallLogWriter;
 import com.badat.study1.service.AuditLogService;
 import com.badat.study1.service.UserService;
+import com.badat.study1.service.HomepageRankingService;
+import com.badat.study1.service.LogPartitionService;
+import com.badat.study1.service.ProductSearchService;
+import com.badat.study1.service.PrincipalCacheService;
+import com.badat.study1.service.PerformanceMonitoringService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -29,6 +35,12 @@ public class AdminController {
     private final ProductRepository productRepository;
     private final AuditLogService auditLogService;
     private final UserService userService;
+    private final HomepageRankingService homepageRankingService;
+    private final ProductSearchService productSearchService;
+    private final PrincipalCacheService principalCacheService;
+    private final PerformanceMonitoringService performanceMonitoringService;
+    private final ApiCallLogWriter apiCallLogWriter;
+    private final LogPartitionService logPartitionService;
     private final PasswordEncoder passwordEncoder;
 
     // API thêm user
@@ -177,6 +189,7 @@ public class AdminController {
                 }
             }
             userRepository.save(user);
+            principalCacheService.evictUser(user.getId());
             if (auditLogService != null) {
                 String clientIp = getClientIpAddress(httpRequest);
                 auditLogService.logUserEdit(currentUser, user, request, httpRequest.getRequestURI(), httpRequest.getMethod(), clientIp);
@@ -219,6 +232,7 @@ public class AdminController {
             }
             user.setStatus(User.Status.LOCKED);
             userRepository.save(user);
+            principalCacheService.evictUser(user.getId());
             if (auditLogService != null) {
                 String clientIp = getClientIpAddress(request);
                 auditLogService.logAccountLocked(user, clientIp, "Locked by admin: " + currentUser.getUsername(), request.getRequestURI(), request.getMethod());
@@ -250,6 +264,7 @@ public class AdminController {
             }
             user.setStatus(User.Status.ACTIVE);
             userRepository.save(user);
+            principalCacheService.evictUser(user.getId());
             if (auditLogService != null) {
                 String clientIp = getClientIpAddress(request);
                 auditLogService.logAccountUnlocked(user, clientIp, request.getRequestURI(), request.getMethod());
@@ -334,7 +349,9 @@ public class AdminController {
                     }
                 }
                 productRepository.save(product);
+                productSearchService.reindexProduct(product.getId());
             }
+            homepageRankingService.markDirty();
             return ResponseEntity.ok(Map.of(
                 "success", true,
                 "message", "Cập nhật trạng thái cửa hàng và gian hàng thành công",
@@ -347,6 +364,49 @@ public class AdminController {
         }
     }
 
+    /**
+     * Meter in-process của payment pipeline trên node này (rate, độ sâu queue, độ trễ theo stage) - không query DB
+     */
+    @GetMapping("/metrics/payments")
+    public ResponseEntity<?> paymentMetrics() {
+        return ResponseEntity.ok(performanceMonitoringService.getPerformanceStats());
+    }
+
+    /**
+     * Bộ đếm của pipeline ghi api_call_log trên node này (log bị lấy mẫu / drop / ghi lỗi, số đang chờ trong buffer)
+     */
+    @GetMapping("/metrics/api-log")
+    public ResponseEntity<?> apiLogMetrics() {
+        return ResponseEntity.ok(apiCallLogWriter.getStats());
+    }
+
+    /**
+     * Migration 1 lần: chuyển bảng log (api_call_log / user_activity_log) sang partition theo ngày.
+     * Rebuild cả bảng nên phải gọi chủ động với confirm=true, bảng lớn bị từ chối (dùng pt-osc / gh-ost)
+     */
+    @PostMapping("/maintenance/log-partitions/{table}")
+    public ResponseEntity<?> convertLogTableToPartitions(@PathVariable String table,
+                                                         @RequestParam(defaultValue = "false") boolean confirm,
+                                                         Authentication authentication) {
+        if (!confirm) {
+            return ResponseEntity.badRequest().body(Map.of("error",
+                    "Thao tác rebuild toàn bộ bảng " + table + ", gọi lại với confirm=true để thực hiện"));
+        }
+        try {
+            LogPartitionService.ConversionResult result = logPartitionService.convertToPartitioned(table);
+            log.info("Log partition conversion requested by {}: {}",
+                    authentication != null ? authentication.getName() : null, result);
+            HttpStatus status = switch (result.status()) {
+                case "REJECTED" -> HttpStatus.CONFLICT;
+                case "FAILED" -> HttpStatus.INTERNAL_SERVER_ERROR;
+                default -> HttpStatus.OK;
+            };
+            return ResponseEntity.status(status).body(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     private String getClientIpAddress(HttpServletRequest request) {
         String xForwardedFor = request.getHeader("X-Forwarded-For");
         if (xForwardedFor != null && !xForwardedFor.isEmpty() && !"unknown".equalsIgnoreCase(xForwardedFor)) {
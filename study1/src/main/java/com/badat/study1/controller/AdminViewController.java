@@ -10,12 +10,17 @@ import com.badat.study1.repository.WithdrawRequestRepository;
 import com.badat.study1.repository.AuditLogRepository;
 import com.badat.study1.model.Product;
 import com.badat.study1.model.Shop;
+import com.badat.study1.service.ImageStoreService;
+import com.badat.study1.service.PrincipalCacheService;
+import com.badat.study1.service.LatencyMetricsService;
+import com.badat.study1.dto.EndpointLatencySummary;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -23,6 +28,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import java.time.Instant;
@@ -47,6 +53,9 @@ public class AdminViewController {
     private final OrderItemRepository orderItemRepository;
     private final WithdrawRequestRepository withdrawRequestRepository;
     private final AuditLogRepository auditLogRepository;
+    private final ImageStoreService imageStoreService;
+    private final PrincipalCacheService principalCacheService;
+    private final LatencyMetricsService latencyMetricsService;
 
     @GetMapping("/admin")
     public String adminDashboard(Model model, @RequestParam(value = "range", required = false) String range) {
@@ -164,6 +173,40 @@ public class AdminViewController {
         return "admin/dashboard";
     }
 
+    @GetMapping("/admin/latency")
+    public String adminLatency(Model model, @RequestParam(value = "range", required = false) String range) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        boolean isAuthenticated = authentication != null && authentication.isAuthenticated() &&
+                                !authentication.getName().equals("anonymousUser");
+        if (!isAuthenticated) {
+            return "redirect:/login";
+        }
+        User user = (User) authentication.getPrincipal();
+        if (!user.getRole().name().equals("ADMIN")) {
+            return "redirect:/";
+        }
+        model.addAttribute("username", user.getUsername());
+        model.addAttribute("isAuthenticated", true);
+        model.addAttribute("userRole", user.getRole().name());
+
+        // Phân vị tính từ histogram theo phút (api_latency_rollup + phút hiện tại trong memory), không quét api_call_log
+        Map<String, Integer> rangeMinutes = Map.of("15m", 15, "1h", 60, "6h", 360, "24h", 1440);
+        String effectiveRange = range != null && rangeMinutes.containsKey(range) ? range : "1h";
+        LocalDateTime to = LocalDateTime.now().plusMinutes(1).withSecond(0).withNano(0);
+        LocalDateTime from = to.minusMinutes(rangeMinutes.get(effectiveRange));
+        List<EndpointLatencySummary> endpoints = latencyMetricsService.summarize(from, to);
+
+        long totalRequests = endpoints.stream().mapToLong(EndpointLatencySummary::getRequestCount).sum();
+        long totalErrors = endpoints.stream().mapToLong(e -> e.getStatus4xx() + e.getStatus5xx()).sum();
+        model.addAttribute("endpoints", endpoints);
+        model.addAttribute("range", effectiveRange);
+        model.addAttribute("fromTime", from);
+        model.addAttribute("toTime", to);
+        model.addAttribute("totalRequests", totalRequests);
+        model.addAttribute("errorRate", totalRequests > 0 ? Math.round((double) totalErrors / totalRequests * 1000) / 10.0 : 0);
+        return "admin/latency";
+    }
+
     @GetMapping("/admin/stalls")
     public String adminStalls(Model model) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -312,6 +355,7 @@ public class AdminViewController {
             if (shopUser != null && shopUser.getRole() != User.Role.SELLER) {
                 shopUser.setRole(User.Role.SELLER);
                 userRepository.save(shopUser);
+                principalCacheService.evictUser(shopUser.getId());
                 log.info("Added SELLER role to user ID: {} after shop approval", shop.getUserId());
             }
             
@@ -368,38 +412,46 @@ public class AdminViewController {
     }
 
     @GetMapping("/admin/stalls/{id}/image")
-    public ResponseEntity<byte[]> getStallImage(@PathVariable("id") Long stallId) {
+    public ResponseEntity<byte[]> getStallImage(@PathVariable("id") Long stallId,
+                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
             Shop shop = shopRepository.findById(stallId).orElse(null);
-            if (shop == null || shop.getCccdFrontImage() == null || shop.getCccdFrontImage().length == 0) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-            }
-            byte[] imageBytes = shop.getCccdFrontImage();
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_JPEG);
-            headers.setCacheControl("max-age=3600, must-revalidate");
-            return new ResponseEntity<>(imageBytes, headers, HttpStatus.OK);
+            return serveCccdImage(shop != null ? shop.getCccdFrontImageHash() : null, ifNoneMatch);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
     @GetMapping("/admin/stalls/{id}/image/back")
-    public ResponseEntity<byte[]> getStallImageBack(@PathVariable("id") Long stallId) {
+    public ResponseEntity<byte[]> getStallImageBack(@PathVariable("id") Long stallId,
+                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
             Shop shop = shopRepository.findById(stallId).orElse(null);
-            if (shop == null || shop.getCccdBackImage() == null || shop.getCccdBackImage().length == 0) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-            }
-            byte[] imageBytes = shop.getCccdBackImage();
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_JPEG);
-            headers.setCacheControl("max-age=3600, must-revalidate");
-            return new ResponseEntity<>(imageBytes, headers, HttpStatus.OK);
+            return serveCccdImage(shop != null ? shop.getCccdBackImageHash() : null, ifNoneMatch);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    // URL không chứa hash nên không cache lâu được: private + revalidate bằng ETag (304 không đọc blob)
+    private ResponseEntity<byte[]> serveCccdImage(String hash, String ifNoneMatch) {
+        if (hash == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if (ImageStoreService.matchesETag(ifNoneMatch, hash)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(ImageStoreService.etag(hash))
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .build();
+        }
+        return imageStoreService.find(hash)
+                .map(image -> ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType(image.getContentType()))
+                        .eTag(ImageStoreService.etag(hash))
+                        .cacheControl(CacheControl.noCache().cachePrivate())
+                        .body(image.getData()))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+    }
 }
 
 
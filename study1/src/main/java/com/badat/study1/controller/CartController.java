@@ -3,7 +3,7 @@ package com.badat.study1.controller;
 import com.badat.study1.dto.response.CartDTO;
 import com.badat.study1.model.Cart;
 import com.badat.study1.service.CartService;
-import com.badat.study1.repository.WarehouseRepository;
+import com.badat.study1.service.StockCounterService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -19,7 +19,7 @@ import java.util.Map;
 public class CartController {
 
     private final CartService cartService;
-    private final WarehouseRepository warehouseRepository;
+    private final StockCounterService stockCounterService;
 
     /**
      * Test endpoint để kiểm tra authentication
@@ -137,7 +137,7 @@ public class CartController {
             log.info("Checking stock for product variant: {}", productVariantId);
             
             // Count available warehouse items for this product variant
-            long availableStock = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(productVariantId);
+            long availableStock = stockCounterService.getVariantStock(productVariantId);
             
             return ResponseEntity.ok(Map.of(
                 "productVariantId", productVariantId,
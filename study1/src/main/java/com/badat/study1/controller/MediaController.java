@@ -0,0 +1,68 @@
+package com.badat.study1.controller;
+
+import com.badat.study1.service.ImageStoreService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+/**
+ * Phục vụ ảnh trong image store theo hash nội dung
+ * - URL đổi khi nội dung đổi nên cache 1 năm + immutable, ETag = hash
+ * - If-None-Match khớp thì trả 304 mà không đọc DB
+ * - Luôn gửi nosniff; ảnh không phải raster (SVG lưu trước khi store chặn) chỉ trả dạng attachment + CSP sandbox
+ */
+@RestController
+@RequiredArgsConstructor
+public class MediaController {
+
+    private static final String NOSNIFF_HEADER = "X-Content-Type-Options";
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+
+    private final ImageStoreService imageStoreService;
+
+    @GetMapping("/media/{hash}")
+    public ResponseEntity<byte[]> getImage(@PathVariable String hash,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (!HASH_PATTERN.matcher(hash).matches()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (ImageStoreService.matchesETag(ifNoneMatch, hash)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(ImageStoreService.etag(hash))
+                    .cacheControl(IMMUTABLE)
+                    .build();
+        }
+        return imageStoreService.find(hash)
+                .filter(image -> image.isPublicAccess())
+                .map(image -> {
+                    boolean raster = ImageStoreService.isRasterContentType(image.getContentType());
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                            .header(NOSNIFF_HEADER, "nosniff")
+                            .contentLength(image.getSizeBytes())
+                            .eTag(ImageStoreService.etag(hash))
+                            .cacheControl(IMMUTABLE);
+                    if (raster) {
+                        response.contentType(MediaType.parseMediaType(image.getContentType()));
+                    } else {
+                        response.contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                .header("Content-Security-Policy", "sandbox")
+                                .header(HttpHeaders.CONTENT_DISPOSITION,
+                                        ContentDisposition.attachment().filename(hash).build().toString());
+                    }
+                    return response.body(image.getData());
+                })
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
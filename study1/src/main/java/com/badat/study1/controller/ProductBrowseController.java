@@ -1,19 +1,25 @@
 package com.badat.study1.controller;
 
+import com.badat.study1.dto.CatalogFilter;
+import com.badat.study1.dto.CatalogProductRow;
 import com.badat.study1.model.Product;
 import com.badat.study1.model.Review;
+import com.badat.study1.model.ReviewSummary;
 import com.badat.study1.model.Shop;
 import com.badat.study1.model.User;
 import com.badat.study1.model.Wallet;
+import com.badat.study1.repository.CatalogQueryRepository;
 import com.badat.study1.repository.ProductRepository;
 import com.badat.study1.repository.ProductVariantRepository;
-import com.badat.study1.repository.ReviewRepository;
 import com.badat.study1.repository.ShopRepository;
 import com.badat.study1.repository.WalletRepository;
-import com.badat.study1.repository.WarehouseRepository;
 import com.badat.study1.repository.UserRepository;
 import com.badat.study1.model.ProductVariant;
+import com.badat.study1.service.ProductSearchService;
+import com.badat.study1.service.ReviewService;
+import com.badat.study1.service.StockCounterService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
@@ -21,6 +27,8 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.slf4j.Logger;
@@ -29,21 +37,26 @@ import org.slf4j.LoggerFactory;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Controller
 @RequiredArgsConstructor
 public class ProductBrowseController {
 
     private static final Logger log = LoggerFactory.getLogger(ProductBrowseController.class);
+    private static final int SUGGEST_LIMIT = 8;
 	private final ProductRepository productRepository;
 	private final ProductVariantRepository productVariantRepository;
-	private final ReviewRepository reviewRepository;
+	private final ReviewService reviewService;
 	private final ShopRepository shopRepository;
 	private final WalletRepository walletRepository;
-    private final WarehouseRepository warehouseRepository;
+    private final StockCounterService stockCounterService;
+    private final CatalogQueryRepository catalogQueryRepository;
+    private final ProductSearchService productSearchService;
     private final UserRepository userRepository;
 
+    @Value("${search.max-results:1000}")
+    private int searchMaxResults;
+
 	@GetMapping("/products")
     public String listProducts(
 			@RequestParam(value = "q", required = false) String query,
@@ -60,168 +73,46 @@ public class ProductBrowseController {
 			Model model) {
         log.info("[Products] params q='{}', type='{}', shop='{}', ratingMin={}, productCountMin={}, sortBy='{}', order='{}', page={}, size={}",
                 query, type, shopName, ratingMin, productCountMin, sortBy, order, page, size);
-		List<Product> products;
-        if (query != null && !query.isBlank()) {
-            products = productRepository.findByProductNameContainingIgnoreCaseAndIsDeleteFalseAndStatus(query.trim(), "OPEN");
-        } else {
-            products = productRepository.findByStatusAndIsDeleteFalse("OPEN");
+        // Từ khóa tìm qua search index (bỏ dấu, prefix), index chưa sẵn sàng thì fallback LIKE trong SQL
+        List<Long> searchResultIds = null;
+        if (query != null && !query.isBlank() && productSearchService.isReady()) {
+            searchResultIds = productSearchService.search(query, searchMaxResults);
+            log.info("[Products] search '{}' -> {} products", query, searchResultIds.size());
         }
-        log.info("[Products] after base fetch (OPEN) products={} ", products.size());
-
-		// filter by type
-		if (type != null && !type.isBlank()) {
-			String filterType = type.trim();
-			products = products.stream()
-					.filter(p -> filterType.equalsIgnoreCase(p.getProductCategory()))
-					.toList();
-            log.info("[Products] after type filter type='{}' -> {} products", filterType, products.size());
-		}
-
-        // preload shop map (exclude null values)
-        java.util.Map<Long, Shop> shopMap = new java.util.HashMap<>();
-        products.stream()
-                .map(Product::getShopId)
-                .distinct()
-                .forEach(id -> shopRepository.findById(id).ifPresent(shop -> shopMap.put(id, shop)));
-
-		// filter by shop name
-		if (shopName != null && !shopName.isBlank()) {
-			String filterShop = shopName.trim().toLowerCase();
-			products = products.stream()
-					.filter(p -> {
-						Shop shop = shopMap.get(p.getShopId());
-						return shop != null && shop.getShopName() != null && shop.getShopName().toLowerCase().contains(filterShop);
-					})
-					.toList();
-            log.info("[Products] after shop filter shop='{}' -> {} products", filterShop, products.size());
-		}
-
-		// compute ratings
-		Map<Long, Double> productRatings = products.stream().collect(Collectors.toMap(
-				Product::getId,
-				p -> {
-					Long productId = p.getId();
-					List<Review> reviews = reviewRepository.findByProductIdAndIsDeleteFalse(productId);
-					return reviews.stream()
-							.map(Review::getRating)
-							.filter(r -> r != null && r > 0)
-							.mapToInt(Integer::intValue)
-							.average()
-							.orElse(0.0);
-				}
-		));
-
-		// compute product variant counts
-		Map<Long, Integer> productVariantCounts = products.stream().collect(Collectors.toMap(
-				Product::getId,
-				p -> (int) warehouseRepository.countAvailableItemsByProductId(p.getId())
-		));
-
-		// compute stock counts (same as available items)
-		Map<Long, Integer> stockCounts = productVariantCounts;
-
-        // compute price ranges (min/max of available product variant prices)
-        Map<Long, Map<String, BigDecimal>> priceRanges = products.stream().collect(Collectors.toMap(
-                Product::getId,
-                p -> {
-                    List<ProductVariant> productVariants = productVariantRepository.findByProductIdAndIsDeleteFalse(p.getId())
-                            .stream()
-                            .filter(pv -> pv.getStatus() == ProductVariant.Status.AVAILABLE && pv.getPrice() != null)
-                            .toList();
-                    java.util.Map<String, BigDecimal> range = new java.util.HashMap<>();
-                    if (productVariants.isEmpty()) {
-                        range.put("min", null);
-                        range.put("max", null);
-                        return range;
-                    }
-                    BigDecimal min = productVariants.stream().map(ProductVariant::getPrice).min(BigDecimal::compareTo).orElse(null);
-                    BigDecimal max = productVariants.stream().map(ProductVariant::getPrice).max(BigDecimal::compareTo).orElse(null);
-                    range.put("min", min);
-                    range.put("max", max);
-                    return range;
-                }
-        ));
-
-		// filter by rating
-		if (ratingMin != null) {
-			double threshold = ratingMin;
-			products = products.stream()
-					.filter(p -> productRatings.getOrDefault(p.getId(), 0.0) >= threshold)
-					.toList();
-            log.info("[Products] after ratingMin>={} -> {} products", threshold, products.size());
-		}
-
-		// filter by min product variant count
-		if (productCountMin != null) {
-			int minCount = productCountMin;
-			products = products.stream()
-					.filter(p -> productVariantCounts.getOrDefault(p.getId(), 0) >= minCount)
-					.toList();
-            log.info("[Products] after productCountMin>={} -> {} products", minCount, products.size());
-		}
-
-		// filter by price range
-		if (minPrice != null || maxPrice != null) {
-			BigDecimal min = minPrice != null ? minPrice : BigDecimal.ZERO;
-			BigDecimal max = maxPrice != null ? maxPrice : new BigDecimal("999999999");
-			products = products.stream()
-					.filter(p -> {
-						List<ProductVariant> productVariants = productVariantRepository.findByProductIdAndIsDeleteFalse(p.getId());
-						return productVariants.stream()
-								.filter(pv -> pv.getStatus() == ProductVariant.Status.AVAILABLE)
-								.anyMatch(pv -> pv.getPrice() != null && pv.getPrice().compareTo(min) >= 0 && pv.getPrice().compareTo(max) <= 0);
-					})
-					.toList();
-            log.info("[Products] after price range [{} - {}] -> {} products", min, max, products.size());
-		}
 
-		// sorting (name/products/rating/price)
-        Map<Long, BigDecimal> minPricePerProduct = products.stream().collect(Collectors.toMap(
-                Product::getId,
-                p -> {
-                    List<ProductVariant> productVariants = productVariantRepository.findByProductIdAndIsDeleteFalse(p.getId());
-                    return productVariants.stream()
-                            .filter(pv -> pv.getStatus() == ProductVariant.Status.AVAILABLE && pv.getPrice() != null)
-                            .map(ProductVariant::getPrice)
-                            .min(BigDecimal::compareTo)
-                            .orElse(new BigDecimal("999999999"));
-                }
-        ));
-
-		if (sortBy != null && !sortBy.isBlank()) {
-			boolean asc = "asc".equalsIgnoreCase(order);
-			java.util.Comparator<Product> comparator;
-			switch (sortBy.toLowerCase()) {
-				case "products" -> comparator = java.util.Comparator.comparing(p -> productVariantCounts.getOrDefault(p.getId(), 0));
-				case "rating" -> comparator = java.util.Comparator.comparing(p -> productRatings.getOrDefault(p.getId(), 0.0));
-                case "price" -> comparator = java.util.Comparator.comparing(p -> minPricePerProduct.getOrDefault(p.getId(), new BigDecimal("999999999")));
-				case "name" -> comparator = java.util.Comparator.comparing(p -> p.getProductName() != null ? p.getProductName().toLowerCase() : "");
-				default -> comparator = null;
-			}
-			if (comparator != null) {
-				products = asc ? products.stream().sorted(comparator).toList() : products.stream().sorted(comparator.reversed()).toList();
-                log.info("[Products] after sort by '{}' order='{}' -> {} products", sortBy, order, products.size());
-			}
-		}
+        // Lọc / sắp xếp / phân trang trong 1 query projection, chỉ trả về đúng 1 trang
+        CatalogFilter filter = CatalogFilter.builder()
+                .query(query)
+                .productIds(searchResultIds)
+                .type(type)
+                .shopName(shopName)
+                .minPrice(minPrice)
+                .maxPrice(maxPrice)
+                .ratingMin(ratingMin)
+                .productCountMin(productCountMin)
+                .sortBy(sortBy)
+                .ascending("asc".equalsIgnoreCase(order))
+                .build();
+        Pageable pageable = PageRequest.of(Math.max(page, 0), size > 0 ? size : 12);
+        Page<CatalogProductRow> catalogPage = catalogQueryRepository.findOpenProducts(filter, pageable);
+        List<CatalogProductRow> stalls = catalogPage.getContent();
+
+        // Tồn kho chưa tính trong SQL thì lấy từ stock counter (1 MGET cho cả trang)
+        if (!filter.needsStockInQuery() && !stalls.isEmpty()) {
+            Map<Long, Long> stocks = stockCounterService.getProductStocks(stalls.stream().map(CatalogProductRow::getId).toList());
+            stalls = stalls.stream()
+                    .map(row -> row.toBuilder().stockCount(stocks.getOrDefault(row.getId(), 0L)).build())
+                    .toList();
+        }
 
         // categories for filter dropdown
-        List<String> categories = productRepository.findByStatusAndIsDeleteFalse("OPEN").stream()
-				.map(Product::getProductCategory)
-				.filter(c -> c != null && !c.isBlank())
-				.distinct()
-				.sorted(String.CASE_INSENSITIVE_ORDER)
-				.toList();
+        List<String> categories = productRepository.findDistinctCategoriesByStatus("OPEN");
 
-        // Pagination (in-memory)
-        Pageable pageable = PageRequest.of(page, size);
-        int startIndex = page * size;
-        int endIndex = Math.min(startIndex + size, products.size());
-        List<Product> paginatedProducts = startIndex >= products.size() ? List.of() : products.subList(startIndex, endIndex);
-        int totalPages = products.isEmpty() ? 1 : (int) Math.ceil((double) products.size() / size);
+        int totalPages = catalogPage.getTotalPages() == 0 ? 1 : catalogPage.getTotalPages();
         boolean hasPrev = page > 0;
         boolean hasNext = page < totalPages - 1;
-        log.info("[Products] pagination page={}, size={}, start={}, end={}, total={}, totalPages={}, hasPrev={}, hasNext={}",
-                page, size, startIndex, endIndex, products.size(), totalPages, hasPrev, hasNext);
+        log.info("[Products] page={}, size={}, returned={}, total={}, totalPages={}, hasPrev={}, hasNext={}",
+                page, size, stalls.size(), catalogPage.getTotalElements(), totalPages, hasPrev, hasNext);
 
 		// auth info
 		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -242,17 +133,12 @@ public class ProductBrowseController {
 		}
 
         // model attributes
-        model.addAttribute("stalls", paginatedProducts);
-		model.addAttribute("shopMap", shopMap);
-		model.addAttribute("productCounts", productVariantCounts);
-		model.addAttribute("stockCounts", stockCounts);
-		model.addAttribute("priceRanges", priceRanges);
+        model.addAttribute("stalls", stalls);
 		model.addAttribute("q", query);
 		model.addAttribute("type", type);
 		model.addAttribute("minPrice", minPrice);
 		model.addAttribute("maxPrice", maxPrice);
 		model.addAttribute("shop", shopName);
-		model.addAttribute("stallRatings", productRatings);
 		model.addAttribute("categories", categories);
 		model.addAttribute("ratingMin", ratingMin);
 		model.addAttribute("productCountMin", productCountMin);
@@ -262,24 +148,31 @@ public class ProductBrowseController {
         model.addAttribute("currentPage", page);
         model.addAttribute("pageSize", size);
         model.addAttribute("totalPages", totalPages);
-        model.addAttribute("totalElements", products.size());
+        model.addAttribute("totalElements", catalogPage.getTotalElements());
         model.addAttribute("hasPrev", hasPrev);
         model.addAttribute("hasNext", hasNext);
 		return "products/list";
 	}
 
+    @GetMapping("/products/suggest")
+    @ResponseBody
+    public List<Map<String, Object>> suggestProducts(@RequestParam(value = "q", required = false) String query) {
+        if (query == null || query.isBlank()) {
+            return List.of();
+        }
+        return productSearchService.suggest(query, SUGGEST_LIMIT);
+    }
+
     @GetMapping({"/product-variant/{id}", "/product/{id}"})
-	public String productDetail(@PathVariable Long id, Model model) {
+	public String productDetail(@PathVariable Long id,
+			@RequestParam(value = "reviewsBefore", required = false) Long reviewsBefore,
+			Model model) {
 		ProductVariant productVariant = productVariantRepository.findById(id)
 				.filter(pv -> Boolean.FALSE.equals(pv.getIsDelete()) && pv.getStatus() == ProductVariant.Status.AVAILABLE)
 				.orElseThrow(() -> new IllegalArgumentException("Product variant not found"));
-		List<Review> reviews = reviewRepository.findByProductVariantIdAndIsDeleteFalse(productVariant.getId());
-		double avgRating = reviews.stream()
-				.map(Review::getRating)
-				.filter(r -> r != null && r > 0)
-				.mapToInt(Integer::intValue)
-				.average()
-				.orElse(0.0);
+		// Rating lấy từ review summary, review chỉ load 1 trang (keyset)
+		ReviewSummary reviewSummary = reviewService.getVariantSummary(productVariant.getId());
+		List<Review> reviews = reviewService.getVariantReviews(productVariant.getId(), reviewsBefore);
 
 		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
 		boolean isAuthenticated = authentication != null && authentication.isAuthenticated() && !"anonymousUser".equals(authentication.getName());
@@ -299,13 +192,14 @@ public class ProductBrowseController {
 		}
 
 		model.addAttribute("product", productVariant);
-		model.addAttribute("reviews", reviews);
-		model.addAttribute("avgRating", avgRating);
+		addReviewAttributes(model, reviewSummary, reviews, "/product-variant/" + productVariant.getId());
 		return "products/detail";
 	}
 
     @GetMapping("/products/{id}")
-    public String stallDetail(@PathVariable("id") Long productId, Model model) {
+    public String stallDetail(@PathVariable("id") Long productId,
+			@RequestParam(value = "reviewsBefore", required = false) Long reviewsBefore,
+			Model model) {
         Product product = productRepository.findById(productId)
 				.filter(p -> !p.isDelete() && "OPEN".equals(p.getStatus()))
 				.orElseThrow(() -> new IllegalArgumentException("Product not found or not available"));
@@ -319,7 +213,7 @@ public class ProductBrowseController {
 		java.util.Map<Long, Long> productVariantStocks = productVariants.stream()
 			.collect(java.util.stream.Collectors.toMap(
 				ProductVariant::getId,
-                pv -> warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(pv.getId())
+                pv -> stockCounterService.getVariantStock(pv.getId())
 			));
 
 		Shop shop = shopRepository.findById(product.getShopId()).orElse(null);
@@ -332,13 +226,8 @@ public class ProductBrowseController {
 			}
 		} catch (Exception ignored) {}
 
-        List<Review> reviews = reviewRepository.findByProductIdAndIsDeleteFalse(productId);
-		double avgRating = reviews.stream()
-				.map(Review::getRating)
-				.filter(r -> r != null && r > 0)
-				.mapToInt(Integer::intValue)
-				.average()
-				.orElse(0.0);
+        ReviewSummary reviewSummary = reviewService.getProductSummary(productId);
+        List<Review> reviews = reviewService.getProductReviews(productId, reviewsBefore);
 
 		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
 		boolean isAuthenticated = authentication != null && authentication.isAuthenticated() && !"anonymousUser".equals(authentication.getName());
@@ -362,8 +251,16 @@ public class ProductBrowseController {
 		model.addAttribute("productStocks", productVariantStocks);
 		model.addAttribute("shop", shop);
 		model.addAttribute("sellerUsername", sellerUsername);
-		model.addAttribute("reviews", reviews);
-		model.addAttribute("avgRating", avgRating);
+		addReviewAttributes(model, reviewSummary, reviews, "/products/" + productId);
         return "products/detail";
 	}
+
+	private void addReviewAttributes(Model model, ReviewSummary reviewSummary, List<Review> reviews, String reviewsBaseUrl) {
+		model.addAttribute("reviews", reviews);
+		model.addAttribute("avgRating", reviewSummary.getAverageRating());
+		model.addAttribute("reviewCount", reviewSummary.getReviewCount());
+		model.addAttribute("ratingHistogram", reviewSummary.getHistogram());
+		model.addAttribute("nextReviewCursor", reviewService.nextCursor(reviews));
+		model.addAttribute("reviewsBaseUrl", reviewsBaseUrl);
+	}
 }
@@ -12,12 +12,12 @@ import com.badat.study1.repository.ShopRepository;
 import com.badat.study1.repository.UploadHistoryRepository;
 import com.badat.study1.repository.WarehouseRepository;
 import com.badat.study1.repository.ReviewRepository;
+import com.badat.study1.service.ImageStoreService;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -28,6 +28,7 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.ui.Model;
 
 import java.math.BigDecimal;
+import java.net.URI;
 
 
 @Controller
@@ -400,23 +401,25 @@ public class ShopController {
         return shopService.replyToReview(user, reviewId, sellerReply, redirectAttributes);
     }
 
+    /**
+     * Chuyển hướng tới URL ảnh theo hash (/media/{hash}) - trình duyệt cache ảnh vĩnh viễn, chỉ redirect được revalidate
+     * size=thumb: dùng thumbnail cho các trang danh sách / giỏ hàng
+     */
     @GetMapping("/product-image/{productId}")
-    public ResponseEntity<byte[]> getProductImage(@PathVariable Long productId) {
+    public ResponseEntity<byte[]> getProductImage(@PathVariable Long productId,
+                                                  @RequestParam(value = "size", required = false) String size) {
         try {
             Product product = productRepository.findById(productId).orElse(null);
-            if (product == null || product.getProductImageData() == null) {
+            if (product == null || product.getImageHash() == null) {
                 return ResponseEntity.notFound().build();
             }
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_JPEG);
-            headers.setContentLength(product.getProductImageData().length);
-            // Disable caching to ensure latest image shows after update
-            headers.setCacheControl("no-store, no-cache, must-revalidate");
-            headers.add("Pragma", "no-cache");
-            headers.add("Expires", "0");
-
-            return new ResponseEntity<>(product.getProductImageData(), headers, HttpStatus.OK);
+            String hash = "thumb".equalsIgnoreCase(size) && product.getImageThumbnailHash() != null
+                    ? product.getImageThumbnailHash()
+                    : product.getImageHash();
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(URI.create(ImageStoreService.mediaUrl(hash)))
+                    .cacheControl(CacheControl.noCache())
+                    .build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -427,9 +430,10 @@ public class ShopController {
      */
     @Deprecated
     @GetMapping("/stall-image/{stallId}")
-    public ResponseEntity<byte[]> getStallImage(@PathVariable Long stallId) {
+    public ResponseEntity<byte[]> getStallImage(@PathVariable Long stallId,
+                                                @RequestParam(value = "size", required = false) String size) {
         // Redirect to new endpoint
-        return getProductImage(stallId);
+        return getProductImage(stallId, size);
     }
 
     @PostMapping("/seller/edit-product/{id}")
@@ -594,8 +598,8 @@ public class ShopController {
             redirectAttributes.addFlashAttribute("errorMessage", "File phải có định dạng TXT!");
             return "redirect:/seller/add-quantity/" + productVariantId;
         }
-        if (file.getSize() > 1024 * 1024) {
-            redirectAttributes.addFlashAttribute("errorMessage", "File quá lớn! Vui lòng chọn file nhỏ hơn 1MB.");
+        if (file.getSize() > 10 * 1024 * 1024) {
+            redirectAttributes.addFlashAttribute("errorMessage", "File quá lớn! Vui lòng chọn file nhỏ hơn 10MB.");
             return "redirect:/seller/add-quantity/" + productVariantId;
         }
         
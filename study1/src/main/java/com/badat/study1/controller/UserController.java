@@ -7,6 +7,7 @@ import com.badat.study1.dto.response.AuditLogResponse;
 import com.badat.study1.model.User;
 import com.badat.study1.model.UserActivityLog;
 import com.badat.study1.service.AuditLogService;
+import com.badat.study1.service.ImageStoreService;
 import com.badat.study1.service.UserActivityLogService;
 import com.badat.study1.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
@@ -17,6 +18,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -204,20 +206,15 @@ public class UserController {
         }
     }
 
+    /**
+     * Avatar theo user: ETag = hash ảnh, client revalidate (no-cache) và nhận 304 khi avatar không đổi
+     * Revalidate chỉ đọc cột avatar_hash, không đọc ảnh
+     */
     @GetMapping("/{userId}/avatar")
-    public ResponseEntity<byte[]> getAvatar(@PathVariable Long userId) {
+    public ResponseEntity<byte[]> getAvatar(@PathVariable Long userId,
+                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            byte[] avatarData = userService.getAvatar(userId);
-            if (avatarData != null && avatarData.length > 0) {
-                HttpHeaders headers = new HttpHeaders();
-                String contentType = detectContentType(avatarData);
-                headers.setContentType(MediaType.valueOf(contentType));
-                headers.setContentLength(avatarData.length);
-                headers.setCacheControl("no-cache, no-store, must-revalidate");
-                return ResponseEntity.ok().headers(headers).body(avatarData);
-            } else {
-                return getDefaultAvatarResponse();
-            }
+            return serveAvatar(userService.getAvatarHash(userId), ifNoneMatch);
         } catch (Exception e) {
             log.error("Error getting avatar for user {}: {}", userId, e.getMessage());
             return getDefaultAvatarResponse();
@@ -225,7 +222,7 @@ public class UserController {
     }
 
     @GetMapping("/avatar/me")
-    public ResponseEntity<byte[]> getMyAvatar() {
+    public ResponseEntity<byte[]> getMyAvatar(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             if (authentication == null || !authentication.isAuthenticated() ||
@@ -233,22 +230,37 @@ public class UserController {
                 return getDefaultAvatarResponse();
             }
             User currentUser = (User) authentication.getPrincipal();
-            byte[] avatarData = userService.getAvatar(currentUser.getId());
-            if (avatarData != null && avatarData.length > 0) {
-                HttpHeaders headers = new HttpHeaders();
-                String contentType = detectContentType(avatarData);
-                headers.setContentType(MediaType.valueOf(contentType));
-                headers.setContentLength(avatarData.length);
-                headers.setCacheControl("no-cache, no-store, must-revalidate");
-                return ResponseEntity.ok().headers(headers).body(avatarData);
-            }
-            return getDefaultAvatarResponse();
+            // Đọc hash từ DB thay vì principal để thấy ngay avatar vừa đổi
+            return serveAvatar(userService.getAvatarHash(currentUser.getId()), ifNoneMatch);
         } catch (Exception e) {
             log.error("Error getting current user's avatar: {}", e.getMessage());
             return getDefaultAvatarResponse();
         }
     }
 
+    private ResponseEntity<byte[]> serveAvatar(String avatarHash, String ifNoneMatch) {
+        if (avatarHash == null) {
+            return getDefaultAvatarResponse();
+        }
+        if (ImageStoreService.matchesETag(ifNoneMatch, avatarHash)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(ImageStoreService.etag(avatarHash))
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+        // Avatar không phải raster (SVG lưu trước khi store chặn) không được phục vụ inline
+        return userService.getAvatarImage(avatarHash)
+                .filter(image -> ImageStoreService.isRasterContentType(image.getContentType()))
+                .map(image -> ResponseEntity.ok()
+                        .header("X-Content-Type-Options", "nosniff")
+                        .contentType(MediaType.parseMediaType(image.getContentType()))
+                        .contentLength(image.getSizeBytes())
+                        .eTag(ImageStoreService.etag(avatarHash))
+                        .cacheControl(CacheControl.noCache())
+                        .body(image.getData()))
+                .orElseGet(this::getDefaultAvatarResponse);
+    }
+
     @GetMapping("/audit-logs/me")
     public ResponseEntity<Page<AuditLogResponse>> getMyAuditLogs(@RequestParam(defaultValue = "0") int page,
                                                                  @RequestParam(defaultValue = "20") int size,
@@ -340,24 +352,4 @@ public class UserController {
         }
             return request.getRemoteAddr();
     }
-
-    private String detectContentType(byte[] data) {
-        if (data.length < 4) {
-            return "image/svg+xml";
-        }
-        if (data[0] == (byte) 0xFF && data[1] == (byte) 0xD8 && data[2] == (byte) 0xFF) {
-            return "image/jpeg";
-        }
-        if (data[0] == (byte) 0x89 && data[1] == (byte) 0x50 && data[2] == (byte) 0x4E && data[3] == (byte) 0x47) {
-            return "image/png";
-        }
-        if (data[0] == (byte) 0x47 && data[1] == (byte) 0x49 && data[2] == (byte) 0x46 && data[3] == (byte) 0x38) {
-            return "image/gif";
-        }
-        String content = new String(data, 0, Math.min(100, data.length));
-        if (content.contains("<svg") || content.contains("<?xml")) {
-            return "image/svg+xml";
-        }
-        return "image/png";
-    }
 }
\ No newline at end of file
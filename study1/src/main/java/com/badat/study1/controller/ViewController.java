@@ -4,20 +4,12 @@ import com.badat.study1.model.AuditLog;
 import com.badat.study1.model.User;
 import com.badat.study1.model.Wallet;
 import com.badat.study1.model.WalletHistory;
-import com.badat.study1.model.Product;
-import com.badat.study1.model.Review;
 import com.badat.study1.model.UserActivityLog;
 import com.badat.study1.repository.AuditLogRepository;
 import com.badat.study1.repository.OrderItemRepository;
 import com.badat.study1.repository.WalletRepository;
-import com.badat.study1.repository.ShopRepository;
-import com.badat.study1.repository.ProductRepository;
-import com.badat.study1.repository.ProductVariantRepository;
 import com.badat.study1.repository.UploadHistoryRepository;
-import com.badat.study1.model.ProductVariant;
 import com.badat.study1.repository.UserRepository;
-import com.badat.study1.repository.ReviewRepository;
-import com.badat.study1.repository.WarehouseRepository;
 import com.badat.study1.repository.OrderRepository;
 import com.badat.study1.repository.ApiCallLogRepository;
 import com.badat.study1.repository.UserActivityLogRepository;
@@ -27,6 +19,12 @@ import com.badat.study1.service.UserService;
 import com.badat.study1.service.OtpService;
 import com.badat.study1.service.ResetTokenLockoutService;
 import com.badat.study1.service.SecurityEventService;
+import com.badat.study1.service.HomepageRankingService;
+import com.badat.study1.service.LogPartitionService;
+import com.badat.study1.service.AuditLogExportService;
+import com.badat.study1.service.AdminLogBrowseService;
+import com.badat.study1.dto.HomepageSnapshot;
+import com.badat.study1.dto.LogPage;
 import com.badat.study1.model.SecurityEvent;
 import java.time.LocalDateTime;
 import com.badat.study1.dto.response.UserActivityLogResponse;
@@ -44,35 +42,26 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseCookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.stream.Collectors;
 import java.util.Map;
-import java.util.Base64;
 import java.time.LocalDate;
 import java.time.ZoneId;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 @Slf4j
 @Controller
 @RequiredArgsConstructor
 public class ViewController {
     private final WalletRepository walletRepository;
-    private final ShopRepository shopRepository;
-    private final ProductRepository productRepository;
-    private final ProductVariantRepository productVariantRepository;
     private final UploadHistoryRepository uploadHistoryRepository;
     private final UserRepository userRepository;
-    private final ReviewRepository reviewRepository;
     private final OrderRepository orderRepository;
     private final OrderItemRepository orderItemRepository;
     private final AuditLogRepository auditLogRepository;
@@ -86,7 +75,10 @@ public class ViewController {
     private final ResetTokenLockoutService resetTokenLockoutService;
     private final SecurityEventService securityEventService;
     private final com.badat.study1.service.UserActivityLogService userActivityLogService;
-    private final WarehouseRepository warehouseRepository;
+    private final HomepageRankingService homepageRankingService;
+    private final LogPartitionService logPartitionService;
+    private final AuditLogExportService auditLogExportService;
+    private final AdminLogBrowseService adminLogBrowseService;
 
     // Inject common attributes (auth info and wallet balance) for all views
     @ModelAttribute
@@ -168,141 +160,15 @@ public class ViewController {
             model.addAttribute("userRole", "USER");
         }
 
-        // Load top 8 products with highest product variant counts for homepage preview
+        // Top sản phẩm + danh mục nổi bật lấy từ snapshot dựng sẵn, không query catalog
         try {
-            var activeProducts = productRepository.findByStatusAndIsDeleteFalse("OPEN");
-            List<Map<String, Object>> productCards = new ArrayList<>();
-            
-            // Calculate product variant counts for all products
-            List<Map<String, Object>> productsWithCounts = new ArrayList<>();
-            for (Product product : activeProducts) {
-                Map<String, Object> vm = new HashMap<>();
-                vm.put("productId", product.getId());
-                vm.put("productName", product.getProductName());
-                vm.put("productCategory", product.getProductCategory());
-
-                // Compute product variant count by counting warehouse items (not locked, not deleted)
-                int totalStock = (int) warehouseRepository.countAvailableItemsByProductId(product.getId());
-                vm.put("productCount", totalStock);
-                
-                // Calculate price range from available product variants
-                var productVariants = productVariantRepository.findByProductIdAndIsDeleteFalse(product.getId());
-                if (!productVariants.isEmpty()) {
-                    var availableProductVariants = productVariants.stream()
-                            .filter(pv -> pv.getQuantity() != null && pv.getQuantity() > 0)
-                            .collect(Collectors.toList());
-                    
-                    if (!availableProductVariants.isEmpty()) {
-                        BigDecimal minPrice = availableProductVariants.stream()
-                                .map(ProductVariant::getPrice)
-                                .min(BigDecimal::compareTo)
-                                .orElse(BigDecimal.ZERO);
-                        
-                        BigDecimal maxPrice = availableProductVariants.stream()
-                                .map(ProductVariant::getPrice)
-                                .max(BigDecimal::compareTo)
-                                .orElse(BigDecimal.ZERO);
-                        
-                        NumberFormat viNumber = NumberFormat.getNumberInstance(Locale.US);
-                        viNumber.setGroupingUsed(true);
-                        String minStr = viNumber.format(minPrice.setScale(0, RoundingMode.HALF_UP));
-                        String maxStr = viNumber.format(maxPrice.setScale(0, RoundingMode.HALF_UP));
-                        if (minPrice.equals(maxPrice)) {
-                            vm.put("priceRange", minStr + " VND");
-                        } else {
-                            vm.put("priceRange", minStr + " VND - " + maxStr + " VND");
-                        }
-                    } else {
-                        vm.put("priceRange", "Hết hàng");
-                    }
-                } else {
-                    vm.put("priceRange", "Chưa có sản phẩm");
-                }
-
-                // Resolve shop name
-                shopRepository.findById(product.getShopId())
-                        .ifPresent(shop -> vm.put("shopName", shop.getShopName()));
-                if (!vm.containsKey("shopName")) {
-                    vm.put("shopName", "Unknown Shop");
-                }
-
-                // Calculate average rating for the product
-                try {
-                    var reviews = reviewRepository.findByProductIdAndIsDeleteFalse(product.getId());
-                    if (!reviews.isEmpty()) {
-                        double avgRating = reviews.stream()
-                                .mapToInt(Review::getRating)
-                                .average()
-                                .orElse(0.0);
-                        vm.put("averageRating", Math.round(avgRating * 10.0) / 10.0); // Round to 1 decimal place
-                        vm.put("reviewCount", reviews.size());
-                    } else {
-                        vm.put("averageRating", 0.0);
-                        vm.put("reviewCount", 0);
-                    }
-                } catch (Exception e) {
-                    log.warn("Error calculating average rating for product {}: {}", product.getId(), e.getMessage());
-                    vm.put("averageRating", 0.0);
-                    vm.put("reviewCount", 0);
-                }
-
-                // Always set imageBase64 key, even if null
-                if (product.getProductImageData() != null && product.getProductImageData().length > 0) {
-                    String base64 = Base64.getEncoder().encodeToString(product.getProductImageData());
-                    vm.put("imageBase64", base64);
-                } else {
-                    vm.put("imageBase64", null);
-                }
-
-                productsWithCounts.add(vm);
-            }
-            
-            // Sort by average rating (descending), then by review count (descending), then by product count (descending) and take top 8
-            productCards = productsWithCounts.stream()
-                    .sorted((a, b) -> {
-                        // First compare by average rating (higher is better)
-                        double ratingA = ((Number) a.getOrDefault("averageRating", 0.0)).doubleValue();
-                        double ratingB = ((Number) b.getOrDefault("averageRating", 0.0)).doubleValue();
-                        int ratingCompare = Double.compare(ratingB, ratingA);
-                        if (ratingCompare != 0) {
-                            return ratingCompare;
-                        }
-                        
-                        // If ratings are equal, compare by review count (more reviews is better)
-                        int reviewCountA = ((Number) a.getOrDefault("reviewCount", 0)).intValue();
-                        int reviewCountB = ((Number) b.getOrDefault("reviewCount", 0)).intValue();
-                        int reviewCompare = Integer.compare(reviewCountB, reviewCountA);
-                        if (reviewCompare != 0) {
-                            return reviewCompare;
-                        }
-                        
-                        // If review counts are also equal, compare by product count
-                        int productCountA = ((Number) a.getOrDefault("productCount", 0)).intValue();
-                        int productCountB = ((Number) b.getOrDefault("productCount", 0)).intValue();
-                        return Integer.compare(productCountB, productCountA);
-                    })
-                    .limit(8)
-                    .collect(Collectors.toList());
-                    
-            model.addAttribute("products", productCards);
+            HomepageSnapshot homepageSnapshot = homepageRankingService.getSnapshot();
+            model.addAttribute("products", homepageSnapshot.getProducts());
+            model.addAttribute("featuredCategories", homepageSnapshot.getFeaturedCategories());
         } catch (Exception e) {
             log.error("Error loading products for homepage: {}", e.getMessage(), e);
-            // Add empty products list to prevent template errors
+            // Add empty lists to prevent template errors
             model.addAttribute("products", new ArrayList<>());
-        }
-        
-        // Load categories for featured categories section
-        try {
-            List<String> categories = productRepository.findByStatusAndIsDeleteFalse("OPEN").stream()
-                    .map(Product::getProductCategory)
-                    .filter(c -> c != null && !c.isBlank())
-                    .distinct()
-                    .sorted(String.CASE_INSENSITIVE_ORDER)
-                    .limit(4) // Limit to top 4 categories for featured section
-                    .toList();
-            model.addAttribute("featuredCategories", categories);
-        } catch (Exception e) {
-            log.error("Error loading categories for homepage: {}", e.getMessage(), e);
             model.addAttribute("featuredCategories", new ArrayList<>());
         }
         
@@ -896,7 +762,9 @@ public class ViewController {
                                @RequestParam(required = false) String category,
                                @RequestParam(required = false) String success,
                                @RequestParam(required = false) String startDate,
-                               @RequestParam(required = false) String endDate) {
+                               @RequestParam(required = false) String endDate,
+                               @RequestParam(required = false) String before,
+                               @RequestParam(required = false) String after) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated() || 
             "anonymousUser".equals(authentication.getName())) {
@@ -923,9 +791,6 @@ public class ViewController {
             return "redirect:" + redirectUrl;
         }
 
-        // Get audit logs with filters
-        Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        
         // Parse date parameters
         LocalDateTime startDateTime = null;
         LocalDateTime endDateTime = null;
@@ -966,35 +831,25 @@ public class ViewController {
             }
         }
         
-        // Get audit logs with filters
-        Page<AuditLog> auditLogsPage = auditLogRepository.findAdminAuditLogsWithFilters(
-            action, category, categoryEnum, success, successBoolean, startDateTime, endDateTime, pageable);
+        // Keyset theo (createdAt, id): trang thứ bao nhiêu cũng chỉ đọc size + 1 dòng
+        String actionFilter = (action != null && !action.trim().isEmpty()) ? action : null;
+        LogPage<AuditLog> auditLogsPage = adminLogBrowseService.auditLogs(
+            actionFilter, categoryEnum, successBoolean, startDateTime, endDateTime, before, after, size);
         
-        log.info("Audit logs query - Page: {}, Size: {}, Total elements: {}, Total pages: {}", 
-                page, size, auditLogsPage.getTotalElements(), auditLogsPage.getTotalPages());
-        
-        // If page is beyond total pages, redirect to last page
-        int totalPages = auditLogsPage.getTotalPages();
-        if (totalPages > 0 && page >= totalPages) {
-            log.warn("Requested page {} is beyond total pages {}, redirecting to page {}", 
-                page, totalPages, totalPages - 1);
-            String redirectUrl = "/admin/audit-logs?page=" + (totalPages - 1) + "&size=" + size;
-            if (action != null) redirectUrl += "&action=" + action;
-            if (category != null) redirectUrl += "&category=" + category;
-            if (success != null) redirectUrl += "&success=" + success;
-            if (startDate != null) redirectUrl += "&startDate=" + startDate;
-            if (endDate != null) redirectUrl += "&endDate=" + endDate;
-            return "redirect:" + redirectUrl;
-        }
+        log.info("Audit logs query - Page: {}, Size: {}, Total elements: {}", 
+                page, size, auditLogsPage.getTotalElements());
         
         // Get unique actions and categories for filter dropdowns
-        List<String> actions = auditLogRepository.findDistinctActions();
-        List<String> categories = auditLogRepository.findDistinctCategories();
+        List<String> actions = adminLogBrowseService.filterOptions("audit.actions", auditLogRepository::findDistinctActions);
+        List<String> categories = adminLogBrowseService.filterOptions("audit.categories", auditLogRepository::findDistinctCategories);
         
         model.addAttribute("auditLogs", auditLogsPage.getContent());
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalPages", auditLogsPage.getTotalPages());
+        // Số trang chỉ để hiển thị, vị trí thật nằm ở cursor
+        model.addAttribute("currentPage", auditLogsPage.getPreviousCursor() == null ? 0 : Math.max(1, page));
+        model.addAttribute("totalPages", (auditLogsPage.getTotalElements() + size - 1) / size);
         model.addAttribute("totalElements", auditLogsPage.getTotalElements());
+        model.addAttribute("nextCursor", auditLogsPage.getNextCursor());
+        model.addAttribute("previousCursor", auditLogsPage.getPreviousCursor());
         model.addAttribute("pageSize", size);
         model.addAttribute("actions", actions);
         model.addAttribute("categories", categories);
@@ -1017,7 +872,9 @@ public class ViewController {
                                             @RequestParam(required = false) String category,
                                             @RequestParam(required = false) Boolean success,
                                             @RequestParam(required = false) String startDate,
-                                            @RequestParam(required = false) String endDate) {
+                                            @RequestParam(required = false) String endDate,
+                                            @RequestParam(defaultValue = "false") boolean gzip,
+                                            HttpServletResponse response) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated() || 
             "anonymousUser".equals(authentication.getName())) {
@@ -1029,40 +886,54 @@ public class ViewController {
             return ResponseEntity.status(403).body(Map.of("error", "Forbidden"));
         }
 
+        // Bộ lọc giống trang /admin/audit-logs
+        String actionFilter = (action != null && !action.trim().isEmpty()) ? action : null;
+        AuditLog.Category categoryEnum = null;
+        if (category != null && !category.trim().isEmpty()) {
+            try {
+                categoryEnum = AuditLog.Category.valueOf(category.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid category format: {}", category);
+            }
+        }
+        LocalDateTime startDateTime = null;
+        LocalDateTime endDateTime = null;
+        try {
+            if (startDate != null && !startDate.trim().isEmpty()) {
+                startDateTime = LocalDateTime.parse(startDate);
+            }
+            if (endDate != null && !endDate.trim().isEmpty()) {
+                endDateTime = LocalDateTime.parse(endDate);
+            }
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid date format"));
+        }
+
+        String fileName = "audit-logs-" + 
+            LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss")) + 
+            (gzip ? ".csv.gz" : ".csv");
+        response.setContentType(gzip ? "application/gzip" : "text/csv; charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        // Ghi thẳng ra response theo từng trang, không dựng cả file trong memory
         try {
-            // Get all audit logs (no pagination for export)
-            List<AuditLog> auditLogs = auditLogRepository.findAll(Sort.by(Sort.Direction.DESC, "createdAt"));
-            
-            // Create CSV content
-            StringBuilder csv = new StringBuilder();
-            csv.append("ID,Thời gian,Hành động,Danh mục,Trạng thái,User ID,IP Address,Chi tiết\n");
-            
-            for (AuditLog log : auditLogs) {
-                csv.append(String.format("%d,%s,%s,%s,%s,%s,%s,\"%s\"\n",
-                    log.getId(),
-                    log.getCreatedAt().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss")),
-                    log.getAction(),
-                    log.getCategory().name(),
-                    log.getSuccess() ? "Thành công" : "Thất bại",
-                    log.getUserId() != null ? log.getUserId().toString() : "",
-                    log.getIpAddress(),
-                    log.getDetails().replace("\"", "\"\"") // Escape quotes
-                ));
+            if (gzip) {
+                java.util.zip.GZIPOutputStream gzipOutput = new java.util.zip.GZIPOutputStream(response.getOutputStream(), 8192);
+                auditLogExportService.writeCsv(actionFilter, categoryEnum, success, startDateTime, endDateTime, gzipOutput);
+                gzipOutput.finish();
+            } else {
+                auditLogExportService.writeCsv(actionFilter, categoryEnum, success, startDateTime, endDateTime, response.getOutputStream());
             }
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDispositionFormData("attachment", "audit-logs-" + 
-                java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss")) + ".csv");
-            
-            return ResponseEntity.ok()
-                .headers(headers)
-                .body(csv.toString().getBytes("UTF-8"));
-                
+            response.flushBuffer();
         } catch (Exception e) {
             log.error("Error exporting audit logs: {}", e.getMessage(), e);
-            return ResponseEntity.status(500).body(Map.of("error", "Internal server error"));
+            if (!response.isCommitted()) {
+                response.reset();
+                return ResponseEntity.status(500).body(Map.of("error", "Internal server error"));
+            }
         }
+        // Body đã được ghi trực tiếp vào response
+        return null;
     }
     
     @GetMapping("/logout")
@@ -1103,7 +974,9 @@ public class ViewController {
                               @RequestParam(required = false) String method,
                               @RequestParam(required = false) Integer statusCode,
                               @RequestParam(required = false) String fromDate,
-                              @RequestParam(required = false) String toDate) {
+                              @RequestParam(required = false) String toDate,
+                              @RequestParam(required = false) String before,
+                              @RequestParam(required = false) String after) {
         
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated() || 
@@ -1146,9 +1019,15 @@ public class ViewController {
                 toDateTime = LocalDateTime.parse(toDate + " 23:59:59", 
                     java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
             }
-
-            Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
             
+            // Luôn giới hạn khoảng ngày để MySQL chỉ quét các partition ngày liên quan
+            if (fromDateTime == null) {
+                fromDateTime = logPartitionService.retentionStart(LogPartitionService.API_CALL_LOG);
+            }
+            if (toDateTime == null) {
+                toDateTime = LocalDate.now().atTime(23, 59, 59);
+            }
+
             log.info("Admin API logs query - userId: {}, endpoint: '{}', method: '{}', statusCode: {}, fromDate: {}, toDate: {}, page: {}, size: {}", 
                 userId, endpoint, method, statusCode, fromDateTime, toDateTime, page, size);
             
@@ -1156,30 +1035,11 @@ public class ViewController {
             String normalizedEndpoint = (endpoint != null && !endpoint.trim().isEmpty()) ? endpoint : null;
             String normalizedMethod = (method != null && !method.trim().isEmpty()) ? method : null;
             
-            // Get API logs with filters
-            Page<com.badat.study1.model.ApiCallLog> apiLogs = apiCallLogRepository.findWithFilters(
-                userId, normalizedEndpoint, normalizedMethod, statusCode, fromDateTime, toDateTime, pageable);
+            // Keyset theo (createdAt, id): trang thứ bao nhiêu cũng chỉ đọc size + 1 dòng
+            LogPage<com.badat.study1.model.ApiCallLog> apiLogs = adminLogBrowseService.apiCallLogs(
+                userId, normalizedEndpoint, normalizedMethod, statusCode, fromDateTime, toDateTime, before, after, size);
             
-            log.info("Found {} API logs (total: {}, page: {}, totalPages: {})", 
-                apiLogs.getNumberOfElements(), apiLogs.getTotalElements(), apiLogs.getNumber(), apiLogs.getTotalPages());
-            
-            // Debug: Try simple query to see if data exists
-            long totalLogs = apiCallLogRepository.count();
-            log.info("Total API logs in database: {}", totalLogs);
-            
-            // If page is beyond total pages, redirect to last page
-            if (page >= apiLogs.getTotalPages() && apiLogs.getTotalPages() > 0) {
-                log.warn("Requested page {} is beyond total pages {}, redirecting to page {}", 
-                    page, apiLogs.getTotalPages(), apiLogs.getTotalPages() - 1);
-                String redirectUrl = "/admin/api-logs?page=" + (apiLogs.getTotalPages() - 1) + "&size=" + size;
-                if (userId != null) redirectUrl += "&userId=" + userId;
-                if (endpoint != null && !endpoint.trim().isEmpty()) redirectUrl += "&endpoint=" + endpoint;
-                if (method != null && !method.trim().isEmpty()) redirectUrl += "&method=" + method;
-                if (statusCode != null) redirectUrl += "&statusCode=" + statusCode;
-                if (fromDate != null) redirectUrl += "&fromDate=" + fromDate;
-                if (toDate != null) redirectUrl += "&toDate=" + toDate;
-                return "redirect:" + redirectUrl;
-            }
+            log.info("Found {} API logs (total: {})", apiLogs.getNumberOfElements(), apiLogs.getTotalElements());
             
             // Get statistics
             LocalDateTime weekAgo = LocalDateTime.now().minusDays(7);
@@ -1188,14 +1048,17 @@ public class ViewController {
             Long totalCalls = apiCallLogRepository.countTotalCallsSince(weekAgo);
             
             // Get distinct values for filter dropdowns
-            List<String> endpoints = apiCallLogRepository.findDistinctEndpoints();
-            List<String> methods = apiCallLogRepository.findDistinctMethods();
-            List<Integer> statusCodes = apiCallLogRepository.findDistinctStatusCodes();
+            List<String> endpoints = adminLogBrowseService.filterOptions("api.endpoints", apiCallLogRepository::findDistinctEndpoints);
+            List<String> methods = adminLogBrowseService.filterOptions("api.methods", apiCallLogRepository::findDistinctMethods);
+            List<Integer> statusCodes = adminLogBrowseService.filterOptions("api.statusCodes", apiCallLogRepository::findDistinctStatusCodes);
             
             model.addAttribute("apiLogs", apiLogs);
-            model.addAttribute("currentPage", page);
-            model.addAttribute("totalPages", apiLogs.getTotalPages());
+            // Số trang chỉ để hiển thị, vị trí thật nằm ở cursor
+            model.addAttribute("currentPage", apiLogs.getPreviousCursor() == null ? 0 : Math.max(1, page));
+            model.addAttribute("totalPages", (apiLogs.getTotalElements() + size - 1) / size);
             model.addAttribute("totalElements", apiLogs.getTotalElements());
+            model.addAttribute("nextCursor", apiLogs.getNextCursor());
+            model.addAttribute("previousCursor", apiLogs.getPreviousCursor());
             model.addAttribute("numberOfElements", apiLogs.getNumberOfElements());
             model.addAttribute("pageSize", size);
             
@@ -1235,7 +1098,9 @@ public class ViewController {
                                        @RequestParam(required = false) String action,
                                        @RequestParam(required = false) String category,
                                        @RequestParam(required = false) String fromDate,
-                                       @RequestParam(required = false) String toDate) {
+                                       @RequestParam(required = false) String toDate,
+                                       @RequestParam(required = false) String before,
+                                       @RequestParam(required = false) String after) {
         
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated() || 
@@ -1277,9 +1142,15 @@ public class ViewController {
                 toDateTime = LocalDateTime.parse(toDate + " 23:59:59", 
                     java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
             }
-
-            Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
             
+            // Luôn giới hạn khoảng ngày để MySQL chỉ quét các partition ngày liên quan
+            if (fromDateTime == null) {
+                fromDateTime = logPartitionService.retentionStart(LogPartitionService.USER_ACTIVITY_LOG);
+            }
+            if (toDateTime == null) {
+                toDateTime = LocalDate.now().atTime(23, 59, 59);
+            }
+
             // Get user activity logs with filters
             UserActivityLog.Category categoryEnum = null;
             if (category != null && !category.isEmpty()) {
@@ -1293,28 +1164,17 @@ public class ViewController {
             log.info("Admin user activity logs query - userId: {}, action: {}, category: {}, fromDate: {}, toDate: {}, page: {}, size: {}", 
                 userId, action, category, fromDateTime, toDateTime, page, size);
             
-            Page<UserActivityLog> userActivityLogs = userActivityLogRepository.findAdminViewWithFilters(
-                userId, action, categoryEnum, fromDateTime, toDateTime, pageable);
+            // Keyset theo (createdAt, id): trang thứ bao nhiêu cũng chỉ đọc size + 1 dòng
+            String actionFilter = (action != null && !action.trim().isEmpty()) ? action : null;
+            LogPage<UserActivityLog> userActivityLogs = adminLogBrowseService.userActivityLogs(
+                userId, actionFilter, categoryEnum, fromDateTime, toDateTime, before, after, size);
             
-            log.info("Found {} user activity logs (total: {}, page: {}, totalPages: {})", 
-                userActivityLogs.getNumberOfElements(), userActivityLogs.getTotalElements(), userActivityLogs.getNumber(), userActivityLogs.getTotalPages());
-            
-            // If page is beyond total pages, redirect to last page
-            if (page >= userActivityLogs.getTotalPages() && userActivityLogs.getTotalPages() > 0) {
-                log.warn("Requested page {} is beyond total pages {}, redirecting to page {}", 
-                    page, userActivityLogs.getTotalPages(), userActivityLogs.getTotalPages() - 1);
-                String redirectUrl = "/admin/user-activity-logs?page=" + (userActivityLogs.getTotalPages() - 1) + "&size=" + size;
-                if (userId != null) redirectUrl += "&userId=" + userId;
-                if (action != null) redirectUrl += "&action=" + action;
-                if (category != null) redirectUrl += "&category=" + category;
-                if (fromDate != null) redirectUrl += "&fromDate=" + fromDate;
-                if (toDate != null) redirectUrl += "&toDate=" + toDate;
-                return "redirect:" + redirectUrl;
-            }
+            log.info("Found {} user activity logs (total: {})", 
+                userActivityLogs.getNumberOfElements(), userActivityLogs.getTotalElements());
             
             // Get distinct values for filter dropdowns
-            List<String> actions = userActivityLogRepository.findDistinctActions();
-            List<UserActivityLog.Category> categories = userActivityLogRepository.findDistinctCategories();
+            List<String> actions = adminLogBrowseService.filterOptions("activity.actions", userActivityLogRepository::findDistinctActions);
+            List<UserActivityLog.Category> categories = adminLogBrowseService.filterOptions("activity.categories", userActivityLogRepository::findDistinctCategories);
             
             // Convert categories to strings for template
             List<String> categoryStrings = categories.stream()
@@ -1322,9 +1182,12 @@ public class ViewController {
                 .toList();
             
             model.addAttribute("userActivityLogs", userActivityLogs);
-            model.addAttribute("currentPage", page);
-            model.addAttribute("totalPages", userActivityLogs.getTotalPages());
+            // Số trang chỉ để hiển thị, vị trí thật nằm ở cursor
+            model.addAttribute("currentPage", userActivityLogs.getPreviousCursor() == null ? 0 : Math.max(1, page));
+            model.addAttribute("totalPages", (userActivityLogs.getTotalElements() + size - 1) / size);
             model.addAttribute("totalElements", userActivityLogs.getTotalElements());
+            model.addAttribute("nextCursor", userActivityLogs.getNextCursor());
+            model.addAttribute("previousCursor", userActivityLogs.getPreviousCursor());
             model.addAttribute("numberOfElements", userActivityLogs.getNumberOfElements());
             model.addAttribute("pageSize", size);
             
@@ -0,0 +1,105 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot giỏ hàng đã được parse/validate 1 lần khi enqueue payment.
+ * Lưu trong PaymentQueue.cartSnapshot dưới dạng binary (CartSnapshotCodec).
+ */
+@Value
+@Builder
+public class CartSnapshot {
+    List<Item> items;
+
+    @Value
+    @Builder
+    public static class Item {
+        Long productId;          // Product cha - cần cho commission và order
+        Long productVariantId;
+        int quantity;
+        BigDecimal unitPrice;
+        Long warehouseId;        // Warehouse gợi ý lúc checkout (có thể null)
+        String name;
+    }
+
+    /**
+     * Tổng quantity theo productVariantId (giữ thứ tự xuất hiện trong giỏ)
+     */
+    public Map<Long, Integer> variantQuantities() {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (Item item : items) {
+            quantities.merge(item.getProductVariantId(), item.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+
+    /**
+     * Tổng quantity theo productId cha - bỏ qua item không có productId (giỏ hàng cũ)
+     */
+    public Map<Long, Integer> productQuantities() {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (Item item : items) {
+            if (item.getProductId() != null) {
+                quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            }
+        }
+        return quantities;
+    }
+
+    public int totalQuantity() {
+        int total = 0;
+        for (Item item : items) {
+            total += item.getQuantity();
+        }
+        return total;
+    }
+
+    /**
+     * Parse cart items dạng Map (request / JSON cũ) sang snapshot có kiểu
+     */
+    public static CartSnapshot fromCartItems(List<Map<String, Object>> cartItems) {
+        List<Item> items = new ArrayList<>(cartItems.size());
+        for (Map<String, Object> cartItem : cartItems) {
+            // Lấy productVariantId (ưu tiên) hoặc productId (backward compatibility)
+            Object variantIdObj = cartItem.get("productVariantId");
+            if (variantIdObj == null) {
+                variantIdObj = cartItem.get("productId");
+            }
+            if (variantIdObj == null) {
+                throw new IllegalArgumentException("Không tìm thấy productVariantId trong cart item");
+            }
+
+            Object quantityObj = cartItem.get("quantity");
+            if (quantityObj == null) {
+                throw new IllegalArgumentException("Thiếu quantity trong cart item");
+            }
+
+            int quantity = Integer.parseInt(quantityObj.toString());
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Quantity phải lớn hơn 0");
+            }
+
+            Object priceObj = cartItem.get("price");
+            Object productIdObj = cartItem.get("productId");
+            Object warehouseIdObj = cartItem.get("warehouseId");
+            Object nameObj = cartItem.get("name");
+
+            items.add(Item.builder()
+                    .productId(productIdObj != null ? Long.valueOf(productIdObj.toString()) : null)
+                    .productVariantId(Long.valueOf(variantIdObj.toString()))
+                    .quantity(quantity)
+                    .unitPrice(priceObj != null ? new BigDecimal(priceObj.toString()) : null)
+                    .warehouseId(warehouseIdObj != null ? Long.valueOf(warehouseIdObj.toString()) : null)
+                    .name(nameObj != null ? nameObj.toString() : null)
+                    .build());
+        }
+        return CartSnapshot.builder().items(items).build();
+    }
+}
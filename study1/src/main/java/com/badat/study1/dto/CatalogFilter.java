@@ -0,0 +1,32 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Bộ lọc + sắp xếp cho danh sách gian hàng, tất cả đều có thể null
+ */
+@Value
+@Builder
+public class CatalogFilter {
+    String query;
+    List<Long> productIds;   // Kết quả search index theo độ liên quan, có thì thay cho LIKE theo query
+    String type;
+    String shopName;
+    BigDecimal minPrice;
+    BigDecimal maxPrice;
+    Double ratingMin;
+    Integer productCountMin;
+    String sortBy;           // products | rating | price | name
+    boolean ascending;
+
+    /**
+     * Có cần tính tồn kho trong SQL không (lọc / sắp xếp theo số sản phẩm)
+     */
+    public boolean needsStockInQuery() {
+        return productCountMin != null || "products".equalsIgnoreCase(sortBy);
+    }
+}
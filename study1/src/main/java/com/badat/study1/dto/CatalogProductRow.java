@@ -0,0 +1,25 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.math.BigDecimal;
+
+/**
+ * 1 dòng trong danh sách gian hàng (/products) - đã gộp sẵn shop, rating, tồn kho, khoảng giá
+ */
+@Value
+@Builder(toBuilder = true)
+public class CatalogProductRow {
+    Long id;
+    Long shopId;
+    String productName;
+    String productCategory;
+    String shopName;
+    String imageThumbnailHash;
+    double avgRating;
+    long reviewCount;
+    long stockCount;
+    BigDecimal minPrice;     // null nếu không có variant AVAILABLE
+    BigDecimal maxPrice;
+}
@@ -0,0 +1,28 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Độ trễ + phân bố status của 1 (endpoint template, method) trong khoảng thời gian, thời gian tính bằng ms
+ */
+@Value
+@Builder
+public class EndpointLatencySummary {
+    String endpoint;
+    String method;
+    long requestCount;
+    long status2xx;
+    long status3xx;
+    long status4xx;
+    long status5xx;
+    double avgMs;
+    double p50Ms;
+    double p90Ms;
+    double p99Ms;
+    double maxMs;
+
+    public double getErrorRate() {
+        return requestCount > 0 ? (double) (status4xx + status5xx) * 100 / requestCount : 0;
+    }
+}
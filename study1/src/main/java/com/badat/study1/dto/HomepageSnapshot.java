@@ -0,0 +1,20 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dữ liệu catalog dựng sẵn cho trang chủ, không thay đổi sau khi build (thay cả snapshot khi refresh)
+ */
+@Value
+@Builder
+public class HomepageSnapshot {
+    long version;
+    Instant builtAt;
+    List<Map<String, Object>> products;      // Card sản phẩm top (productId, productName, shopName, priceRange, ...)
+    List<String> featuredCategories;
+}
@@ -0,0 +1,14 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Hash của ảnh gốc và ảnh thumbnail sau khi lưu vào image store
+ */
+@Value
+@Builder
+public class ImageRef {
+    String hash;
+    String thumbnailHash;
+}
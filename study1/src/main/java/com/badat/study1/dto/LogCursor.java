@@ -0,0 +1,42 @@
+package com.badat.study1.dto;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * Vị trí keyset (createdAt, id) của 1 dòng log, dạng chuỗi trên URL: 2026-10-18T10:15:30.123456_42
+ */
+@Value
+public class LogCursor {
+
+    // Trang đầu: mọi dòng đều cũ hơn mốc này
+    public static final LogCursor NEWEST = new LogCursor(LocalDateTime.of(9999, 12, 31, 23, 59, 59), Long.MAX_VALUE);
+
+    LocalDateTime createdAt;
+    Long id;
+
+    /**
+     * null nếu chuỗi rỗng / sai định dạng (coi như về trang đầu)
+     */
+    public static LogCursor parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        int separator = value.lastIndexOf('_');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            return new LogCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.parseLong(value.substring(separator + 1)));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return createdAt + "_" + id;
+    }
+}
@@ -0,0 +1,27 @@
+package com.badat.study1.dto;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * 1 trang log theo keyset, mới nhất trước
+ * - nextCursor: truyền vào before= để xem trang cũ hơn, null nếu đã hết
+ * - previousCursor: truyền vào after= để xem trang mới hơn, null nếu đang ở trang đầu
+ * - totalElements: số dòng khớp bộ lọc, đếm lại tối đa 1 lần mỗi TTL nên có thể lệch nhẹ
+ */
+@Value
+public class LogPage<T> {
+    List<T> content;
+    String nextCursor;
+    String previousCursor;
+    long totalElements;
+
+    public boolean isEmpty() {
+        return content.isEmpty();
+    }
+
+    public int getNumberOfElements() {
+        return content.size();
+    }
+}
@@ -0,0 +1,19 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Dữ liệu của 1 gian hàng OPEN được đưa vào search index
+ */
+@Value
+@Builder
+public class ProductSearchDocument {
+    Long productId;
+    String productName;
+    String productCategory;
+    String productSubcategory;
+    String shopName;
+    long soldCount;          // Tổng số lượng order item COMPLETED
+    long stockCount;
+}
@@ -0,0 +1,16 @@
+package com.badat.study1.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Kết quả import file kho cho 1 productVariant
+ */
+@Value
+@Builder
+public class WarehouseImportResult {
+    int totalLines;
+    int successCount;
+    int failureCount;
+    String resultDetails;    // Chi tiết các dòng lỗi, null nếu không có
+}
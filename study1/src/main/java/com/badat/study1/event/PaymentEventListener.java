@@ -6,6 +6,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 /**
  * Event listener để lắng nghe payment events và trigger xử lý ngay lập tức
@@ -18,16 +20,17 @@ public class PaymentEventListener {
     private final PaymentTriggerService paymentTriggerService;
     
     /**
-     * Lắng nghe payment created event và trigger xử lý ngay lập tức
+     * Lắng nghe payment created event sau khi transaction enqueue commit
+     * và đẩy thẳng payment vào worker pool (không đợi poller)
      */
-    @EventListener
-    @Async("paymentTaskExecutor")
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true,
+            condition = "#event.eventType == 'PAYMENT_CREATED'")
     public void handlePaymentCreated(PaymentEvent event) {
         log.info("Received payment created event for payment: {}", event.getPaymentId());
         
         try {
-            // Trigger xử lý payment ngay lập tức
-            paymentTriggerService.triggerPaymentProcessing(event.getPaymentId());
+            // Dispatch vào bounded worker pool, pool đầy thì để shard sweep xử lý
+            paymentTriggerService.dispatchPayment(event.getPaymentId());
             
         } catch (Exception e) {
             log.error("Error handling payment created event for payment {}: {}", 
@@ -38,7 +41,7 @@ public class PaymentEventListener {
     /**
      * Lắng nghe payment failed event
      */
-    @EventListener
+    @EventListener(condition = "#event.eventType == 'PAYMENT_FAILED'")
     @Async("paymentTaskExecutor")
     public void handlePaymentFailed(PaymentEvent event) {
         log.info("Received payment failed event for payment: {}", event.getPaymentId());
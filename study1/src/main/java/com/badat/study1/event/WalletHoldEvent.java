@@ -3,9 +3,11 @@ package com.badat.study1.event;
 import lombok.Getter;
 import org.springframework.context.ApplicationEvent;
 
+import java.time.Instant;
+
 /**
- * Event được publish khi có wallet hold mới được tạo hoặc expired
- * Trigger system sẽ lắng nghe event này để xử lý ngay lập tức
+ * Event được publish khi có wallet hold mới được tạo
+ * WalletHoldEventListener lên lịch tất toán hold theo expiresAt
  */
 @Getter
 public class WalletHoldEvent extends ApplicationEvent {
@@ -13,20 +15,22 @@ public class WalletHoldEvent extends ApplicationEvent {
     private final Long holdId;
     private final Long userId;
     private final String eventType;
+    private final Instant expiresAt;
     
     public WalletHoldEvent(Object source, Long holdId, Long userId, String eventType) {
+        this(source, holdId, userId, eventType, null);
+    }
+    
+    public WalletHoldEvent(Object source, Long holdId, Long userId, String eventType, Instant expiresAt) {
         super(source);
         this.holdId = holdId;
         this.userId = userId;
         this.eventType = eventType;
+        this.expiresAt = expiresAt;
     }
     
-    public static WalletHoldEvent holdCreated(Object source, Long holdId, Long userId) {
-        return new WalletHoldEvent(source, holdId, userId, "HOLD_CREATED");
-    }
-    
-    public static WalletHoldEvent holdExpired(Object source, Long holdId, Long userId) {
-        return new WalletHoldEvent(source, holdId, userId, "HOLD_EXPIRED");
+    public static WalletHoldEvent holdCreated(Object source, Long holdId, Long userId, Instant expiresAt) {
+        return new WalletHoldEvent(source, holdId, userId, "HOLD_CREATED", expiresAt);
     }
 }
 
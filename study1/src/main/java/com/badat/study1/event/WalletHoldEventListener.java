@@ -1,49 +1,31 @@
 package com.badat.study1.event;
 
-import com.badat.study1.service.PaymentTriggerService;
+import com.badat.study1.service.WalletHoldSettlementService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 /**
- * Event listener để lắng nghe wallet hold events và trigger xử lý ngay lập tức
+ * Event listener để lắng nghe wallet hold events và lên lịch tất toán (WalletHoldSettlementService)
  */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class WalletHoldEventListener {
     
-    private final PaymentTriggerService paymentTriggerService;
+    private final WalletHoldSettlementService walletHoldSettlementService;
     
     /**
-     * Lắng nghe hold created event
+     * Lắng nghe hold created event sau khi transaction tạo hold commit
+     * và lên lịch tất toán đúng expiresAt
      */
-    @EventListener
-    @Async("walletHoldTaskExecutor")
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true,
+            condition = "#event.eventType == 'HOLD_CREATED'")
     public void handleHoldCreated(WalletHoldEvent event) {
         log.info("Received hold created event for hold: {}", event.getHoldId());
         
-        // Có thể thêm logic xử lý khi hold được tạo
-        // Ví dụ: gửi notification cho user
-    }
-    
-    /**
-     * Lắng nghe hold expired event và trigger xử lý ngay lập tức
-     */
-    @EventListener
-    @Async("walletHoldTaskExecutor")
-    public void handleHoldExpired(WalletHoldEvent event) {
-        log.info("Received hold expired event for hold: {}", event.getHoldId());
-        
-        try {
-            // Trigger xử lý hold expired ngay lập tức
-            paymentTriggerService.triggerWalletHoldProcessing(event.getHoldId());
-            
-        } catch (Exception e) {
-            log.error("Error handling hold expired event for hold {}: {}", 
-                    event.getHoldId(), e.getMessage());
-        }
+        walletHoldSettlementService.schedule(event.getHoldId(), event.getUserId(), event.getExpiresAt());
     }
 }
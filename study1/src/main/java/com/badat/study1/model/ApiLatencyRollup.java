@@ -0,0 +1,74 @@
+package com.badat.study1.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Tổng hợp độ trễ theo phút cho từng (endpoint template, method) trên mỗi instance
+ * - histogram: LatencyHistogram đã encode, gộp nhiều phút / instance để tính phân vị cho khoảng thời gian bất kỳ
+ * - p50/p90/p99/max (micro giây) của riêng phút đó để đọc nhanh không cần decode
+ */
+@Entity
+@Table(name = "api_latency_rollup",
+        uniqueConstraints = @UniqueConstraint(name = "uk_api_latency_rollup_bucket",
+                columnNames = {"bucket_start", "endpoint", "method", "instance_id"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ApiLatencyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "endpoint", nullable = false, length = 255)
+    private String endpoint;
+
+    @Column(name = "method", nullable = false, length = 10)
+    private String method;
+
+    @Column(name = "instance_id", nullable = false, length = 64)
+    private String instanceId;
+
+    @Column(name = "request_count", nullable = false)
+    private long requestCount;
+
+    @Column(name = "status_2xx", nullable = false)
+    private long status2xx;
+
+    @Column(name = "status_3xx", nullable = false)
+    private long status3xx;
+
+    @Column(name = "status_4xx", nullable = false)
+    private long status4xx;
+
+    @Column(name = "status_5xx", nullable = false)
+    private long status5xx;
+
+    @Column(name = "total_micros", nullable = false)
+    private long totalMicros;
+
+    @Column(name = "max_micros", nullable = false)
+    private long maxMicros;
+
+    @Column(name = "p50_micros", nullable = false)
+    private long p50Micros;
+
+    @Column(name = "p90_micros", nullable = false)
+    private long p90Micros;
+
+    @Column(name = "p99_micros", nullable = false)
+    private long p99Micros;
+
+    @Column(name = "histogram", columnDefinition = "BLOB")
+    private byte[] histogram;
+}
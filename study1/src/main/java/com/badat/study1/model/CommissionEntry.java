@@ -0,0 +1,49 @@
+package com.badat.study1.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Commission của 1 order đã tất toán, chưa / đã được gộp vào ví admin
+ * - Settlement chỉ INSERT (không cập nhật dòng chung nào) nên các worker song song không tranh chấp
+ * - Roll-up gắn rollupReference = referenceId của WalletHistory COMMISSION tổng -> truy được order nào nằm trong lần gộp nào
+ */
+@Entity
+@Table(name = "commission_entry", indexes = {
+        @Index(name = "idx_commission_entry_rollup", columnList = "rollup_reference, id"),
+        @Index(name = "idx_commission_entry_order", columnList = "order_id")
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommissionEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "order_id", nullable = false, length = 100)
+    private String orderId;
+
+    @Column(name = "hold_id")
+    private Long holdId;
+
+    @Column(name = "amount", precision = 15, scale = 2, nullable = false)
+    private BigDecimal amount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "rollup_reference", length = 50)
+    private String rollupReference;
+
+    @Column(name = "rolled_up_at")
+    private LocalDateTime rolledUpAt;
+}
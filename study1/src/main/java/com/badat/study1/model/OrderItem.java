@@ -7,7 +7,10 @@ import lombok.experimental.FieldDefaults;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "order_item")
+@Table(name = "order_item", indexes = {
+    // Số đã bán theo product cho search index
+    @Index(name = "idx_order_item_product_status", columnList = "product_id, status")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -7,7 +7,10 @@ import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
-@Table(name = "payment_queue")
+@Table(name = "payment_queue", indexes = {
+    @Index(name = "idx_payment_queue_shard_status", columnList = "shard_id, status"),
+    @Index(name = "idx_payment_queue_status_lease", columnList = "status, lease_expires_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -27,9 +30,18 @@ public class PaymentQueue extends BaseEntity {
     @JoinColumn(name = "user_id", insertable = false, updatable = false)
     User user;
 
-    @Column(name = "cart_data", columnDefinition = "JSON", nullable = false)
+    // Shard xử lý (hash theo userId) - worker chỉ drain các shard mà node đang giữ lease
+    @Column(name = "shard_id")
+    Integer shardId;
+
+    // Định dạng JSON cũ - chỉ còn đọc cho payment tạo trước khi có cart_snapshot
+    @Column(name = "cart_data", columnDefinition = "JSON")
     String cartData;
 
+    // Cart snapshot binary có version (CartSnapshotCodec)
+    @Column(name = "cart_snapshot", columnDefinition = "BLOB")
+    byte[] cartSnapshot;
+
     @Column(name = "total_amount", precision = 15, scale = 2, nullable = false)
     BigDecimal totalAmount;
 
@@ -44,6 +56,14 @@ public class PaymentQueue extends BaseEntity {
     @Column(name = "error_message", columnDefinition = "TEXT")
     String errorMessage;
 
+    // Worker đang giữ payment (claim bằng SELECT ... FOR UPDATE SKIP LOCKED)
+    @Column(name = "claimed_by", length = 100)
+    String claimedBy;
+
+    // Hết hạn lease mà payment vẫn PROCESSING thì được trả về PENDING cho worker khác
+    @Column(name = "lease_expires_at")
+    Instant leaseExpiresAt;
+
     public enum Status {
         PENDING, PROCESSING, COMPLETED, FAILED
     }
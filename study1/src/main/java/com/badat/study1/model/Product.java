@@ -33,9 +33,12 @@ public class Product {
     @Column(name = "detailed_description", columnDefinition = "TEXT")
     private String detailedDescription;
 
-    @Lob
-    @Column(name = "product_image_data", columnDefinition = "LONGBLOB")
-    private byte[] productImageData;
+    // Ảnh nằm trong stored_image, product chỉ giữ hash (ảnh gốc + thumbnail)
+    @Column(name = "image_hash", length = 64)
+    private String imageHash;
+
+    @Column(name = "image_thumbnail_hash", length = 64)
+    private String imageThumbnailHash;
 
     @Column(name = "status", length = 20, nullable = false)
     private String status = "OPEN";
@@ -7,7 +7,10 @@ import lombok.experimental.FieldDefaults;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "product_variant")
+@Table(name = "product_variant", indexes = {
+    // Khoảng giá variant AVAILABLE theo product (catalog, LATERAL theo từng product)
+    @Index(name = "idx_product_variant_product_available", columnList = "product_id, status, is_delete, price")
+})
 @Getter
 @Setter
 @FieldDefaults(level = AccessLevel.PRIVATE)
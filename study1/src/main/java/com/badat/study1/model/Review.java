@@ -7,7 +7,10 @@ import lombok.*;
 import lombok.experimental.FieldDefaults;
 
 @Entity
-@Table(name = "review")
+@Table(name = "review", indexes = {
+        @Index(name = "idx_review_product_keyset", columnList = "product_id, isDelete, id"),
+        @Index(name = "idx_review_variant_keyset", columnList = "product_variant_id, isDelete, id")
+})
 @Getter
 @Setter
 @FieldDefaults(level = AccessLevel.PRIVATE)
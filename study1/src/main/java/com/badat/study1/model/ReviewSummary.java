@@ -0,0 +1,76 @@
+package com.badat.study1.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Tổng hợp đánh giá theo product / variant, được cộng dồn mỗi khi tạo hoặc xóa review
+ */
+@Entity
+@Table(name = "review_summary",
+        uniqueConstraints = @UniqueConstraint(name = "uk_review_summary_scope", columnNames = {"scope_type", "scope_id"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewSummary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "scope_type", nullable = false, length = 20)
+    private ScopeType scopeType;
+
+    @Column(name = "scope_id", nullable = false)
+    private Long scopeId;
+
+    @Column(name = "review_count", nullable = false)
+    private long reviewCount;
+
+    @Column(name = "rating_sum", nullable = false)
+    private long ratingSum;
+
+    @Column(name = "rating_1", nullable = false)
+    private long rating1;
+
+    @Column(name = "rating_2", nullable = false)
+    private long rating2;
+
+    @Column(name = "rating_3", nullable = false)
+    private long rating3;
+
+    @Column(name = "rating_4", nullable = false)
+    private long rating4;
+
+    @Column(name = "rating_5", nullable = false)
+    private long rating5;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    public enum ScopeType {
+        PRODUCT, VARIANT
+    }
+
+    public double getAverageRating() {
+        return reviewCount > 0 ? (double) ratingSum / reviewCount : 0.0;
+    }
+
+    /**
+     * Số review theo số sao, index 0 = 1 sao ... index 4 = 5 sao
+     */
+    public long[] getHistogram() {
+        return new long[] { rating1, rating2, rating3, rating4, rating5 };
+    }
+
+    public static ReviewSummary empty(ScopeType scopeType, Long scopeId) {
+        return ReviewSummary.builder().scopeType(scopeType).scopeId(scopeId).build();
+    }
+}
@@ -28,13 +28,12 @@ public class Shop {
     @Column(name = "short_description", length = 100)
     String shortDescription;
 
-    @Lob
-    @Column(name = "cccd_front_image", columnDefinition = "LONGBLOB")
-    byte[] cccdFrontImage;
+    // Ảnh CCCD nằm trong stored_image (không public), shop chỉ giữ hash
+    @Column(name = "cccd_front_image_hash", length = 64)
+    String cccdFrontImageHash;
 
-    @Lob
-    @Column(name = "cccd_back_image", columnDefinition = "LONGBLOB")
-    byte[] cccdBackImage;
+    @Column(name = "cccd_back_image_hash", length = 64)
+    String cccdBackImageHash;
 
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false)
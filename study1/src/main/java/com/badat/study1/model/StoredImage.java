@@ -0,0 +1,49 @@
+package com.badat.study1.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Ảnh lưu theo nội dung: khóa chính là SHA-256 của bytes nên cùng 1 ảnh chỉ lưu 1 lần
+ * và URL /media/{hash} không bao giờ đổi nội dung (cache vĩnh viễn được)
+ */
+@Entity
+@Table(name = "stored_image")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoredImage {
+
+    @Id
+    @Column(name = "hash", length = 64)
+    private String hash;
+
+    @Column(name = "content_type", nullable = false, length = 100)
+    private String contentType;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+    @Column(name = "width")
+    private Integer width;
+
+    @Column(name = "height")
+    private Integer height;
+
+    // false: ảnh nhạy cảm (CCCD) - không phục vụ qua /media, chỉ qua endpoint có phân quyền
+    @Column(name = "is_public", nullable = false)
+    private boolean publicAccess;
+
+    @Lob
+    @Column(name = "data", nullable = false, columnDefinition = "LONGBLOB")
+    private byte[] data;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
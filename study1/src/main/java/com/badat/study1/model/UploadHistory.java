@@ -48,6 +48,13 @@ public class UploadHistory {
     @Column(name = "failure_count")
     private Integer failureCount;
     
+    // Tiến độ import (status = PROCESSING): số dòng đã xử lý / totalItems
+    @Column(name = "processed_lines")
+    private Integer processedLines;
+    
+    @Column(name = "last_progress_at")
+    private Instant lastProgressAt;
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "product_variant_id", nullable = false)
     private ProductVariant productVariant;
@@ -85,9 +85,9 @@ public class User extends BaseEntity implements UserDetails {
     @Column(name = "provider_id", length = 100)
     String providerId;
     
-    @Lob
-    @Column(name = "avatar_data", columnDefinition = "LONGBLOB")
-    byte[] avatarData;
+    // Ảnh avatar nằm trong stored_image, row user chỉ giữ hash (cột cố định, nhẹ cho security filter)
+    @Column(name = "avatar_hash", length = 64)
+    String avatarHash;
     
     public enum Role {
         USER, ADMIN, SELLER
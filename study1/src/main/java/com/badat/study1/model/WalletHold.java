@@ -7,7 +7,9 @@ import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
-@Table(name = "wallet_hold")
+@Table(name = "wallet_hold", indexes = {
+    @Index(name = "idx_wallet_hold_status_expires", columnList = "status, expires_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
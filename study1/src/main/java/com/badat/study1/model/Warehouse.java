@@ -11,7 +11,17 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "warehouse")
+@Table(name = "warehouse", indexes = {
+    // Reserve (FOR UPDATE ... ORDER BY created_at LIMIT n) và COUNT available theo variant
+    @Index(name = "idx_warehouse_variant_available", columnList = "product_variant_id, locked, is_delete, created_at"),
+    // COUNT / tìm item available theo product và shop
+    @Index(name = "idx_warehouse_product_available", columnList = "product_id, locked, is_delete, created_at"),
+    @Index(name = "idx_warehouse_shop_available", columnList = "shop_id, locked, is_delete"),
+    // Job release reservation hết hạn (locked = true AND reserved_until < now)
+    @Index(name = "idx_warehouse_locked_reserved_until", columnList = "locked, reserved_until"),
+    // Chống upload trùng định danh trong cùng variant (hash của subcategory + khóa định danh)
+    @Index(name = "uk_warehouse_variant_identifier", columnList = "product_variant_id, identifier_hash", unique = true)
+})
 @Data
 @Builder
 @NoArgsConstructor
@@ -29,6 +39,10 @@ public class Warehouse {
     @Column(name = "item_data", nullable = false, columnDefinition = "TEXT")
     private String itemData;
     
+    // SHA-256 của subcategory + khóa định danh (email / username / serial), NULL với item cũ chưa backfill
+    @Column(name = "identifier_hash", length = 64)
+    private String identifierHash;
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "product_variant_id", nullable = false)
     private ProductVariant productVariant;
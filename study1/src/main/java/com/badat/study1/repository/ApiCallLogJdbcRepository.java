@@ -0,0 +1,52 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.ApiCallLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Ghi api_call_log theo batch bằng JDBC (ApiCallLog dùng IDENTITY nên Hibernate không batch insert được)
+ * - rewriteBatchedStatements=true: driver gộp cả batch thành 1 INSERT nhiều dòng
+ */
+@Repository
+@RequiredArgsConstructor
+public class ApiCallLogJdbcRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO api_call_log (user_id, endpoint, method, status_code, response_status, duration_ms, ip_address, " +
+            "user_agent, error_message, created_at, updated_at, created_by, is_delete) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 'SYSTEM', false)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void batchInsert(List<ApiCallLog> logs) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, logs, logs.size(), (ps, apiLog) -> {
+            if (apiLog.getUserId() != null) {
+                ps.setLong(1, apiLog.getUserId());
+            } else {
+                ps.setNull(1, Types.BIGINT);
+            }
+            ps.setString(2, apiLog.getEndpoint());
+            ps.setString(3, apiLog.getMethod());
+            ps.setInt(4, apiLog.getStatusCode());
+            ps.setString(5, apiLog.getResponseStatus());
+            if (apiLog.getDurationMs() != null) {
+                ps.setInt(6, apiLog.getDurationMs());
+            } else {
+                ps.setNull(6, Types.INTEGER);
+            }
+            ps.setString(7, apiLog.getIpAddress());
+            ps.setString(8, apiLog.getUserAgent());
+            ps.setString(9, apiLog.getErrorMessage());
+            Timestamp createdAt = Timestamp.valueOf(apiLog.getCreatedAt() != null ? apiLog.getCreatedAt() : LocalDateTime.now());
+            ps.setTimestamp(10, createdAt);
+            ps.setTimestamp(11, createdAt);
+        });
+    }
+}
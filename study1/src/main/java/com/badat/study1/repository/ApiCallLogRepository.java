@@ -41,6 +41,47 @@ public interface ApiCallLogRepository extends JpaRepository<ApiCallLog, Long> {
                                      @Param("toDate") LocalDateTime toDate,
                                      Pageable pageable);
     
+    // Keyset pagination cho /admin/api-logs: (createdAt, id) cũ hơn cursor (trang sau) / mới hơn cursor (trang trước)
+    String ADMIN_FILTERS = "(:userId IS NULL OR a.userId = :userId) " +
+           "AND (:endpoint IS NULL OR a.endpoint LIKE CONCAT('%', :endpoint, '%')) " +
+           "AND (:method IS NULL OR a.method = :method) " +
+           "AND (:statusCode IS NULL OR a.statusCode = :statusCode) " +
+           "AND a.createdAt >= :fromDate AND a.createdAt <= :toDate ";
+
+    @Query("SELECT a FROM ApiCallLog a WHERE " + ADMIN_FILTERS +
+           "AND (a.createdAt < :cursorCreatedAt OR (a.createdAt = :cursorCreatedAt AND a.id < :cursorId)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<ApiCallLog> findAdminPageOlderThan(@Param("userId") Long userId,
+                                            @Param("endpoint") String endpoint,
+                                            @Param("method") String method,
+                                            @Param("statusCode") Integer statusCode,
+                                            @Param("fromDate") LocalDateTime fromDate,
+                                            @Param("toDate") LocalDateTime toDate,
+                                            @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+                                            @Param("cursorId") Long cursorId,
+                                            Pageable limit);
+
+    @Query("SELECT a FROM ApiCallLog a WHERE " + ADMIN_FILTERS +
+           "AND (a.createdAt > :cursorCreatedAt OR (a.createdAt = :cursorCreatedAt AND a.id > :cursorId)) " +
+           "ORDER BY a.createdAt ASC, a.id ASC")
+    List<ApiCallLog> findAdminPageNewerThan(@Param("userId") Long userId,
+                                            @Param("endpoint") String endpoint,
+                                            @Param("method") String method,
+                                            @Param("statusCode") Integer statusCode,
+                                            @Param("fromDate") LocalDateTime fromDate,
+                                            @Param("toDate") LocalDateTime toDate,
+                                            @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+                                            @Param("cursorId") Long cursorId,
+                                            Pageable limit);
+
+    @Query("SELECT COUNT(a) FROM ApiCallLog a WHERE " + ADMIN_FILTERS)
+    long countAdminFiltered(@Param("userId") Long userId,
+                            @Param("endpoint") String endpoint,
+                            @Param("method") String method,
+                            @Param("statusCode") Integer statusCode,
+                            @Param("fromDate") LocalDateTime fromDate,
+                            @Param("toDate") LocalDateTime toDate);
+    
     // Statistics queries
     @Query("SELECT AVG(a.durationMs) FROM ApiCallLog a WHERE a.createdAt >= :fromDate")
     Double findAverageResponseTime(@Param("fromDate") LocalDateTime fromDate);
@@ -0,0 +1,24 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.ApiLatencyRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ApiLatencyRollupRepository extends JpaRepository<ApiLatencyRollup, Long> {
+
+    // Khoảng [from, to) theo phút, dùng unique key (bucket_start, ...)
+    List<ApiLatencyRollup> findByBucketStartGreaterThanEqualAndBucketStartLessThan(LocalDateTime from, LocalDateTime to);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ApiLatencyRollup r WHERE r.bucketStart < :cutoff")
+    int deleteOlderThan(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,82 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.AuditLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Đọc auditlog cho export theo keyset (created_at DESC, id DESC)
+ * - Mỗi trang chỉ đọc tiếp sau dòng cuối của trang trước, không OFFSET, không giữ cursor/connection lâu
+ * - Dùng index idx_auditlog_created_at (created_at, id)
+ */
+@Repository
+@RequiredArgsConstructor
+public class AuditLogJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Trang tiếp theo theo bộ lọc admin; afterCreatedAt/afterId null = trang đầu
+     */
+    public List<ExportRow> findExportPage(String action, AuditLog.Category category, Boolean success,
+                                          LocalDateTime startDate, LocalDateTime endDate,
+                                          LocalDateTime afterCreatedAt, Long afterId, int limit) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, created_at, action, category, success, user_id, ip_address, details FROM auditlog WHERE 1 = 1");
+        List<Object> params = new ArrayList<>();
+        if (action != null) {
+            sql.append(" AND action = ?");
+            params.add(action);
+        }
+        if (category != null) {
+            sql.append(" AND category = ?");
+            params.add(category.name());
+        }
+        if (success != null) {
+            sql.append(" AND success = ?");
+            params.add(success);
+        }
+        if (startDate != null) {
+            sql.append(" AND created_at >= ?");
+            params.add(Timestamp.valueOf(startDate));
+        }
+        if (endDate != null) {
+            sql.append(" AND created_at <= ?");
+            params.add(Timestamp.valueOf(endDate));
+        }
+        if (afterCreatedAt != null && afterId != null) {
+            Timestamp after = Timestamp.valueOf(afterCreatedAt);
+            sql.append(" AND (created_at < ? OR (created_at = ? AND id < ?))");
+            params.add(after);
+            params.add(after);
+            params.add(afterId);
+        }
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+        params.add(limit);
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            long userId = rs.getLong("user_id");
+            boolean userIdNull = rs.wasNull();
+            return new ExportRow(
+                    rs.getLong("id"),
+                    createdAt != null ? createdAt.toLocalDateTime() : null,
+                    rs.getString("action"),
+                    rs.getString("category"),
+                    rs.getBoolean("success"),
+                    userIdNull ? null : userId,
+                    rs.getString("ip_address"),
+                    rs.getString("details"));
+        }, params.toArray());
+    }
+
+    public record ExportRow(Long id, LocalDateTime createdAt, String action, String category, boolean success,
+                            Long userId, String ipAddress, String details) {
+    }
+}
@@ -121,6 +121,44 @@ public interface AuditLogRepository extends JpaRepository<AuditLog, Long> {
                                                 @Param("endDate") LocalDateTime endDate,
                                                 Pageable pageable);
     
+    // Keyset pagination cho /admin/audit-logs: (createdAt, id) cũ hơn cursor (trang sau) / mới hơn cursor (trang trước)
+    String ADMIN_FILTERS = "(:action IS NULL OR a.action = :action) " +
+           "AND (:category IS NULL OR a.category = :category) " +
+           "AND (:success IS NULL OR a.success = :success) " +
+           "AND (:startDate IS NULL OR a.createdAt >= :startDate) " +
+           "AND (:endDate IS NULL OR a.createdAt <= :endDate) ";
+
+    @Query("SELECT a FROM AuditLog a WHERE " + ADMIN_FILTERS +
+           "AND (a.createdAt < :cursorCreatedAt OR (a.createdAt = :cursorCreatedAt AND a.id < :cursorId)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AuditLog> findAdminPageOlderThan(@Param("action") String action,
+                                          @Param("category") AuditLog.Category category,
+                                          @Param("success") Boolean success,
+                                          @Param("startDate") LocalDateTime startDate,
+                                          @Param("endDate") LocalDateTime endDate,
+                                          @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+                                          @Param("cursorId") Long cursorId,
+                                          Pageable limit);
+
+    @Query("SELECT a FROM AuditLog a WHERE " + ADMIN_FILTERS +
+           "AND (a.createdAt > :cursorCreatedAt OR (a.createdAt = :cursorCreatedAt AND a.id > :cursorId)) " +
+           "ORDER BY a.createdAt ASC, a.id ASC")
+    List<AuditLog> findAdminPageNewerThan(@Param("action") String action,
+                                          @Param("category") AuditLog.Category category,
+                                          @Param("success") Boolean success,
+                                          @Param("startDate") LocalDateTime startDate,
+                                          @Param("endDate") LocalDateTime endDate,
+                                          @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+                                          @Param("cursorId") Long cursorId,
+                                          Pageable limit);
+
+    @Query("SELECT COUNT(a) FROM AuditLog a WHERE " + ADMIN_FILTERS)
+    long countAdminFiltered(@Param("action") String action,
+                            @Param("category") AuditLog.Category category,
+                            @Param("success") Boolean success,
+                            @Param("startDate") LocalDateTime startDate,
+                            @Param("endDate") LocalDateTime endDate);
+    
     // Dashboard statistics methods
     long countByCreatedAtAfter(LocalDateTime dateTime);
     long countByActionAndSuccess(String action, Boolean success);
@@ -0,0 +1,221 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.dto.CatalogFilter;
+import com.badat.study1.dto.CatalogProductRow;
+import com.badat.study1.dto.ProductSearchDocument;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read model cho danh sách gian hàng (/products)
+ * - 1 query projection: product + shop + review summary + khoảng giá variant AVAILABLE
+ * - Lọc, sắp xếp, phân trang đều chạy trong SQL, chỉ trả về đúng 1 trang
+ * - Tồn kho chỉ join bảng warehouse khi cần lọc/sắp xếp theo số sản phẩm, còn lại lấy từ stock counter
+ * - Khoảng giá / tồn kho / đã bán là LATERAL theo từng product (đi index product_id), không GROUP BY cả bảng;
+ *   query trang chọn id trước rồi mới tính khoảng giá cho các dòng của trang
+ */
+@Repository
+@RequiredArgsConstructor
+public class CatalogQueryRepository {
+
+    private static final BigDecimal NO_PRICE = new BigDecimal("999999999");
+
+    private static final String REVIEW_SUMMARY_JOIN =
+            " LEFT JOIN review_summary r ON r.scope_type = 'PRODUCT' AND r.scope_id = p.id";
+
+    private static final String AVG_RATING = "COALESCE(r.rating_sum / NULLIF(r.review_count, 0), 0)";
+
+    // Aggregate không GROUP BY luôn trả về 1 dòng (NULL / 0 khi product không có dòng nào)
+    private static final String PRICE_AGGREGATE_JOIN =
+            " LEFT JOIN LATERAL (SELECT MIN(pv.price) AS min_price, MAX(pv.price) AS max_price FROM product_variant pv " +
+            "WHERE pv.product_id = p.id AND pv.status = 'AVAILABLE' AND pv.is_delete = false) v ON TRUE";
+
+    private static final String STOCK_AGGREGATE_JOIN =
+            " LEFT JOIN LATERAL (SELECT COUNT(*) AS stock_count FROM warehouse wh " +
+            "WHERE wh.product_id = p.id AND wh.locked = false AND wh.is_delete = false) w ON TRUE";
+
+    private static final String SOLD_AGGREGATE_JOIN =
+            " LEFT JOIN LATERAL (SELECT SUM(oi.quantity) AS sold_count FROM order_item oi " +
+            "WHERE oi.product_id = p.id AND oi.status = 'COMPLETED') o ON TRUE";
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    /**
+     * Tìm 1 trang gian hàng OPEN theo bộ lọc
+     * stockCount chỉ có giá trị khi filter.needsStockInQuery(), ngược lại = 0 để caller tự điền
+     */
+    public Page<CatalogProductRow> findOpenProducts(CatalogFilter filter, Pageable pageable) {
+        if (filter.getProductIds() != null && filter.getProductIds().isEmpty()) {
+            return new PageImpl<>(List.of(), pageable, 0);
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        boolean withStock = filter.needsStockInQuery();
+        String orderBy = buildOrderBy(filter);
+
+        // Khoảng giá chỉ tính cho mọi dòng khớp khi sắp xếp theo giá, còn lại chỉ cho các dòng của trang
+        StringBuilder from = new StringBuilder(" FROM product p LEFT JOIN shop s ON s.id = p.shop_id")
+                .append(REVIEW_SUMMARY_JOIN);
+        if ("price".equalsIgnoreCase(filter.getSortBy())) {
+            from.append(PRICE_AGGREGATE_JOIN);
+        }
+        if (withStock) {
+            from.append(STOCK_AGGREGATE_JOIN);
+        }
+        String where = buildWhere(filter, params);
+
+        String pageSql = "SELECT p.id, " + AVG_RATING + " AS avg_rating, COALESCE(r.review_count, 0) AS review_count, " +
+                (withStock ? "COALESCE(w.stock_count, 0)" : "0") + " AS stock_count, COUNT(*) OVER () AS total_count" +
+                from + where + orderBy +
+                " LIMIT :limit OFFSET :offset";
+        String sql = "SELECT p.id, p.shop_id, p.product_name, p.product_category, p.image_thumbnail_hash, s.shop_name, " +
+                "pg.avg_rating, pg.review_count, pg.stock_count, v.min_price, v.max_price, pg.total_count" +
+                " FROM (" + pageSql + ") pg JOIN product p ON p.id = pg.id LEFT JOIN shop s ON s.id = p.shop_id" +
+                PRICE_AGGREGATE_JOIN + orderBy;
+        params.addValue("limit", pageable.getPageSize());
+        params.addValue("offset", pageable.getOffset());
+
+        long[] total = {0};
+        List<CatalogProductRow> rows = namedParameterJdbcTemplate.query(sql, params, (rs, rowNum) -> {
+            total[0] = rs.getLong("total_count");
+            return mapRow(rs);
+        });
+
+        // Trang vượt quá số kết quả: không có dòng nào mang total_count, đếm riêng
+        if (rows.isEmpty() && pageable.getOffset() > 0) {
+            Long count = namedParameterJdbcTemplate.queryForObject("SELECT COUNT(*)" + from + where, params, Long.class);
+            total[0] = count != null ? count : 0;
+        }
+        return new PageImpl<>(rows, pageable, total[0]);
+    }
+
+    /**
+     * Top gian hàng OPEN cho trang chủ: rating cao nhất, rồi nhiều review nhất, rồi nhiều tồn kho nhất
+     */
+    public List<CatalogProductRow> findTopProducts(int limit) {
+        String orderBy = " ORDER BY avg_rating DESC, review_count DESC, stock_count DESC, p.id";
+        String topSql = "SELECT p.id, " + AVG_RATING + " AS avg_rating, COALESCE(r.review_count, 0) AS review_count, " +
+                "COALESCE(w.stock_count, 0) AS stock_count" +
+                " FROM product p" + REVIEW_SUMMARY_JOIN + STOCK_AGGREGATE_JOIN +
+                " WHERE p.status = 'OPEN' AND p.is_delete = false" + orderBy + " LIMIT :limit";
+        String sql = "SELECT p.id, p.shop_id, p.product_name, p.product_category, p.image_thumbnail_hash, s.shop_name, " +
+                "pg.avg_rating, pg.review_count, pg.stock_count, v.min_price, v.max_price" +
+                " FROM (" + topSql + ") pg JOIN product p ON p.id = pg.id LEFT JOIN shop s ON s.id = p.shop_id" +
+                PRICE_AGGREGATE_JOIN + orderBy;
+        return namedParameterJdbcTemplate.query(sql, new MapSqlParameterSource("limit", limit), (rs, rowNum) -> mapRow(rs));
+    }
+
+    /**
+     * Dữ liệu cho search index: 1 gian hàng (productId != null) hoặc toàn bộ gian hàng OPEN, kèm số đã bán và tồn kho
+     */
+    public List<ProductSearchDocument> findSearchDocuments(Long productId) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = "SELECT p.id, p.product_name, p.product_category, p.product_subcategory, s.shop_name, " +
+                "COALESCE(o.sold_count, 0) AS sold_count, COALESCE(w.stock_count, 0) AS stock_count" +
+                " FROM product p LEFT JOIN shop s ON s.id = p.shop_id" +
+                SOLD_AGGREGATE_JOIN + STOCK_AGGREGATE_JOIN +
+                " WHERE p.status = 'OPEN' AND p.is_delete = false" +
+                (productId != null ? " AND p.id = :productId" : "");
+        if (productId != null) {
+            params.addValue("productId", productId);
+        }
+        return namedParameterJdbcTemplate.query(sql, params, (rs, rowNum) -> ProductSearchDocument.builder()
+                .productId(rs.getLong("id"))
+                .productName(rs.getString("product_name"))
+                .productCategory(rs.getString("product_category"))
+                .productSubcategory(rs.getString("product_subcategory"))
+                .shopName(rs.getString("shop_name"))
+                .soldCount(rs.getLong("sold_count"))
+                .stockCount(rs.getLong("stock_count"))
+                .build());
+    }
+
+    private CatalogProductRow mapRow(ResultSet rs) throws SQLException {
+        return CatalogProductRow.builder()
+                .id(rs.getLong("id"))
+                .shopId(rs.getLong("shop_id"))
+                .productName(rs.getString("product_name"))
+                .productCategory(rs.getString("product_category"))
+                .shopName(rs.getString("shop_name"))
+                .imageThumbnailHash(rs.getString("image_thumbnail_hash"))
+                .avgRating(rs.getDouble("avg_rating"))
+                .reviewCount(rs.getLong("review_count"))
+                .stockCount(rs.getLong("stock_count"))
+                .minPrice(rs.getBigDecimal("min_price"))
+                .maxPrice(rs.getBigDecimal("max_price"))
+                .build();
+    }
+
+    private String buildWhere(CatalogFilter filter, MapSqlParameterSource params) {
+        List<String> conditions = new ArrayList<>();
+        conditions.add("p.status = 'OPEN'");
+        conditions.add("p.is_delete = false");
+
+        if (filter.getProductIds() != null) {
+            conditions.add("p.id IN (:productIds)");
+            params.addValue("productIds", filter.getProductIds());
+        } else if (hasText(filter.getQuery())) {
+            conditions.add("LOWER(p.product_name) LIKE :query");
+            params.addValue("query", containsPattern(filter.getQuery()));
+        }
+        if (hasText(filter.getType())) {
+            conditions.add("LOWER(p.product_category) = :type");
+            params.addValue("type", filter.getType().trim().toLowerCase());
+        }
+        if (hasText(filter.getShopName())) {
+            conditions.add("LOWER(s.shop_name) LIKE :shopName");
+            params.addValue("shopName", containsPattern(filter.getShopName()));
+        }
+        if (filter.getRatingMin() != null) {
+            conditions.add(AVG_RATING + " >= :ratingMin");
+            params.addValue("ratingMin", filter.getRatingMin());
+        }
+        if (filter.getProductCountMin() != null) {
+            conditions.add("COALESCE(w.stock_count, 0) >= :productCountMin");
+            params.addValue("productCountMin", filter.getProductCountMin());
+        }
+        if (filter.getMinPrice() != null || filter.getMaxPrice() != null) {
+            // Có ít nhất 1 variant AVAILABLE nằm trong khoảng giá
+            conditions.add("EXISTS (SELECT 1 FROM product_variant pv WHERE pv.product_id = p.id AND pv.is_delete = false " +
+                    "AND pv.status = 'AVAILABLE' AND pv.price BETWEEN :minPrice AND :maxPrice)");
+            params.addValue("minPrice", filter.getMinPrice() != null ? filter.getMinPrice() : BigDecimal.ZERO);
+            params.addValue("maxPrice", filter.getMaxPrice() != null ? filter.getMaxPrice() : NO_PRICE);
+        }
+        return " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private String buildOrderBy(CatalogFilter filter) {
+        String direction = filter.isAscending() ? " ASC" : " DESC";
+        String sortBy = filter.getSortBy() != null ? filter.getSortBy().toLowerCase() : "";
+        return switch (sortBy) {
+            case "products" -> " ORDER BY stock_count" + direction + ", p.id";
+            case "rating" -> " ORDER BY avg_rating" + direction + ", p.id";
+            case "price" -> " ORDER BY COALESCE(v.min_price, " + NO_PRICE + ")" + direction + ", p.id";
+            case "name" -> " ORDER BY LOWER(p.product_name)" + direction + ", p.id";
+            // Không chọn sắp xếp mà có kết quả search thì giữ thứ tự độ liên quan
+            default -> filter.getProductIds() != null ? " ORDER BY FIELD(p.id, :productIds)" : " ORDER BY p.id";
+        };
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    private static String containsPattern(String value) {
+        String escaped = value.trim().toLowerCase()
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        return "%" + escaped + "%";
+    }
+}
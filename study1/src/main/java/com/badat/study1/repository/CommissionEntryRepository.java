@@ -0,0 +1,30 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.CommissionEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Repository
+public interface CommissionEntryRepository extends JpaRepository<CommissionEntry, Long> {
+
+    List<CommissionEntry> findByOrderId(String orderId);
+
+    /**
+     * Gắn tối đa limit dòng chưa gộp vào lần roll-up reference (1 câu UPDATE).
+     * Roll-up chạy đồng thời trên node khác phải đợi row lock rồi chỉ nhận các dòng còn NULL -> không gộp trùng
+     */
+    @Modifying
+    @Query(value = "UPDATE commission_entry SET rollup_reference = :reference, rolled_up_at = NOW() " +
+            "WHERE rollup_reference IS NULL ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    int claimForRollup(@Param("reference") String reference, @Param("limit") int limit);
+
+    @Query("SELECT COALESCE(SUM(c.amount), 0) FROM CommissionEntry c WHERE c.rollupReference = :reference")
+    BigDecimal sumByRollupReference(@Param("reference") String reference);
+}
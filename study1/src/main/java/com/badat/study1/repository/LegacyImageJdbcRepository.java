@@ -0,0 +1,59 @@
+package com.badat.study1.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Đọc ảnh cũ còn nằm trong cột LONGBLOB của product / shop / user để chuyển sang stored_image
+ * - Đọc từng dòng (ảnh lớn), sau khi chuyển thì set cột blob = NULL
+ */
+@Repository
+@RequiredArgsConstructor
+public class LegacyImageJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public boolean columnExists(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?",
+                Integer.class, table, column);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Id tiếp theo (id > afterId) còn blob trong cột blobColumn, null nếu hết
+     */
+    public Long findNextIdWithBlob(String table, String blobColumn, long afterId) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT id FROM " + table + " WHERE " + blobColumn + " IS NOT NULL AND id > ? ORDER BY id LIMIT 1",
+                Long.class, afterId);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    public byte[] findBlob(String table, String blobColumn, long id) {
+        List<byte[]> blobs = jdbcTemplate.query(
+                "SELECT " + blobColumn + " FROM " + table + " WHERE id = ?",
+                (rs, rowNum) -> rs.getBytes(1), id);
+        return blobs.isEmpty() ? null : blobs.get(0);
+    }
+
+    /**
+     * Ghi hash vào hashColumns theo thứ tự và xóa blob cũ
+     */
+    public void replaceBlobWithHashes(String table, String blobColumn, long id, List<String> hashColumns, List<String> hashes) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (String hashColumn : hashColumns) {
+            sql.append(hashColumn).append(" = ?, ");
+        }
+        sql.append(blobColumn).append(" = NULL WHERE id = ?");
+        Object[] args = new Object[hashes.size() + 1];
+        for (int i = 0; i < hashes.size(); i++) {
+            args[i] = hashes.get(i);
+        }
+        args[hashes.size()] = id;
+        jdbcTemplate.update(sql.toString(), args);
+    }
+}
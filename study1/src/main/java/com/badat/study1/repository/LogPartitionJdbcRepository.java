@@ -0,0 +1,120 @@
+package com.badat.study1.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Metadata + DDL partition cho các bảng log (api_call_log, user_activity_log)
+ * - Partition RANGE theo TO_DAYS(created_at), mỗi partition 1 ngày: p20261018 chứa các dòng của ngày 2026-10-18
+ * - p_before: dữ liệu cũ hơn partition ngày đầu tiên lúc chuyển đổi, p_future: MAXVALUE
+ * - Tên bảng chỉ đến từ hằng số trong LogPartitionService, không nhận từ request
+ */
+@Repository
+@RequiredArgsConstructor
+public class LogPartitionJdbcRepository {
+
+    public static final String BEFORE_PARTITION = "p_before";
+    public static final String FUTURE_PARTITION = "p_future";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Tên + cận trên (TO_DAYS, null với MAXVALUE) của các partition theo thứ tự
+     */
+    public List<PartitionInfo> findPartitions(String table) {
+        return jdbcTemplate.query(
+                "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM INFORMATION_SCHEMA.PARTITIONS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL " +
+                "ORDER BY PARTITION_ORDINAL_POSITION",
+                (rs, rowNum) -> {
+                    String description = rs.getString("PARTITION_DESCRIPTION");
+                    Long upperBound = description == null || "MAXVALUE".equalsIgnoreCase(description)
+                            ? null : Long.parseLong(description);
+                    return new PartitionInfo(rs.getString("PARTITION_NAME"), upperBound);
+                },
+                table);
+    }
+
+    public List<String> findPrimaryKeyColumns(String table) {
+        return jdbcTemplate.queryForList(
+                "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.KEY_COLUMN_USAGE " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND CONSTRAINT_NAME = 'PRIMARY' ORDER BY ORDINAL_POSITION",
+                String.class, table);
+    }
+
+    /**
+     * Số dòng ước lượng từ thống kê InnoDB (không COUNT cả bảng)
+     */
+    public long estimateRows(String table) {
+        Long rows = jdbcTemplate.queryForObject(
+                "SELECT TABLE_ROWS FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?",
+                Long.class, table);
+        return rows != null ? rows : 0;
+    }
+
+    public long toDays(LocalDate date) {
+        Long days = jdbcTemplate.queryForObject("SELECT TO_DAYS(?)", Long.class, date.toString());
+        return days != null ? days : 0;
+    }
+
+    /**
+     * Partition key phải nằm trong primary key: đổi PK (id) thành (id, created_at) trong 1 lệnh (id là AUTO_INCREMENT)
+     */
+    public void includeCreatedAtInPrimaryKey(String table) {
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at)");
+    }
+
+    /**
+     * Chuyển bảng thường sang partition theo ngày (rebuild bảng 1 lần)
+     */
+    public void partitionByDay(String table, LocalDate firstDay, LocalDate lastDay) {
+        StringBuilder sql = new StringBuilder("ALTER TABLE ").append(table)
+                .append(" PARTITION BY RANGE (TO_DAYS(created_at)) (")
+                .append("PARTITION ").append(BEFORE_PARTITION).append(" VALUES LESS THAN (TO_DAYS('").append(firstDay).append("')), ");
+        appendDailyPartitions(sql, firstDay, lastDay);
+        sql.append("PARTITION ").append(FUTURE_PARTITION).append(" VALUES LESS THAN MAXVALUE)");
+        jdbcTemplate.execute(sql.toString());
+    }
+
+    /**
+     * Tách p_future thành các partition ngày [firstDay, lastDay] + p_future mới (p_future rỗng thì chỉ đổi metadata)
+     */
+    public void addDailyPartitions(String table, LocalDate firstDay, LocalDate lastDay) {
+        StringBuilder sql = new StringBuilder("ALTER TABLE ").append(table)
+                .append(" REORGANIZE PARTITION ").append(FUTURE_PARTITION).append(" INTO (");
+        appendDailyPartitions(sql, firstDay, lastDay);
+        sql.append("PARTITION ").append(FUTURE_PARTITION).append(" VALUES LESS THAN MAXVALUE)");
+        jdbcTemplate.execute(sql.toString());
+    }
+
+    public void dropPartitions(String table, List<String> partitionNames) {
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP PARTITION " + String.join(", ", partitionNames));
+    }
+
+    /**
+     * Fallback khi bảng chưa partition: xóa theo từng lô nhỏ để không giữ lock / undo log lớn
+     */
+    public int deleteOlderThan(String table, LocalDateTime cutoff, int chunkSize) {
+        return jdbcTemplate.update("DELETE FROM " + table + " WHERE created_at < ? LIMIT " + chunkSize, Timestamp.valueOf(cutoff));
+    }
+
+    public static String partitionName(LocalDate day) {
+        return String.format("p%04d%02d%02d", day.getYear(), day.getMonthValue(), day.getDayOfMonth());
+    }
+
+    private static void appendDailyPartitions(StringBuilder sql, LocalDate firstDay, LocalDate lastDay) {
+        for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+            sql.append("PARTITION ").append(partitionName(day))
+                    .append(" VALUES LESS THAN (TO_DAYS('").append(day.plusDays(1)).append("')), ");
+        }
+    }
+
+    public record PartitionInfo(String name, Long upperBound) {
+    }
+}
@@ -2,11 +2,15 @@ package com.badat.study1.repository;
 
 import com.badat.study1.model.PaymentQueue;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -22,9 +26,87 @@ public interface PaymentQueueRepository extends JpaRepository<PaymentQueue, Long
     List<PaymentQueue> findPendingPaymentsBefore(@Param("status") PaymentQueue.Status status, 
                                                 @Param("before") Instant before);
     
+    // Methods for batch claiming (SKIP LOCKED) - worker trên nhiều node lấy các batch rời nhau
+    @Query(value = "SELECT id FROM payment_queue WHERE shard_id = :shardId AND status = 'PENDING' " +
+                   "ORDER BY created_at ASC LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> lockPendingIdsForShard(@Param("shardId") Integer shardId, @Param("limit") int limit);
+    
+    @Query(value = "SELECT id FROM payment_queue WHERE status = 'PENDING' AND (shard_id IS NULL OR shard_id >= :shardCount) " +
+                   "ORDER BY created_at ASC LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> lockUnassignedPendingIds(@Param("shardCount") Integer shardCount, @Param("limit") int limit);
+    
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE PaymentQueue pq SET pq.status = :processing, pq.claimedBy = :workerId, " +
+           "pq.leaseExpiresAt = :leaseExpiresAt, pq.processedAt = :now WHERE pq.id IN :ids")
+    int markClaimed(@Param("ids") List<Long> ids,
+                    @Param("processing") PaymentQueue.Status processing,
+                    @Param("workerId") String workerId,
+                    @Param("leaseExpiresAt") Instant leaseExpiresAt,
+                    @Param("now") Instant now);
+    
+    // Claim 1 payment cụ thể (trigger path) - chỉ thành công nếu payment vẫn PENDING
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE PaymentQueue pq SET pq.status = :processing, pq.claimedBy = :workerId, " +
+           "pq.leaseExpiresAt = :leaseExpiresAt, pq.processedAt = :now WHERE pq.id = :id AND pq.status = :pending")
+    int claimIfPending(@Param("id") Long id,
+                       @Param("pending") PaymentQueue.Status pending,
+                       @Param("processing") PaymentQueue.Status processing,
+                       @Param("workerId") String workerId,
+                       @Param("leaseExpiresAt") Instant leaseExpiresAt,
+                       @Param("now") Instant now);
+    
+    // Trả các payment có lease đã hết hạn (worker chết giữa chừng) về PENDING
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE PaymentQueue pq SET pq.status = :pending, pq.claimedBy = NULL, pq.leaseExpiresAt = NULL " +
+           "WHERE pq.status = :processing AND pq.leaseExpiresAt < :now")
+    int reclaimExpiredLeases(@Param("pending") PaymentQueue.Status pending,
+                             @Param("processing") PaymentQueue.Status processing,
+                             @Param("now") Instant now);
+    
+    // Gia hạn lease cho các payment worker vẫn đang giữ - row đã bị reclaim / claim lại thì không khớp
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE PaymentQueue pq SET pq.leaseExpiresAt = :leaseExpiresAt " +
+           "WHERE pq.id IN :ids AND pq.status = :processing AND pq.claimedBy = :workerId")
+    int renewLeases(@Param("ids") Collection<Long> ids,
+                    @Param("processing") PaymentQueue.Status processing,
+                    @Param("workerId") String workerId,
+                    @Param("leaseExpiresAt") Instant leaseExpiresAt);
+    
+    // Chuyển trạng thái cuối (COMPLETED / FAILED) chỉ khi worker vẫn giữ payment - 0 row = đã mất lease
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE PaymentQueue pq SET pq.status = :status, pq.errorMessage = :errorMessage, pq.leaseExpiresAt = NULL " +
+           "WHERE pq.id = :id AND pq.status = :processing AND pq.claimedBy = :workerId")
+    int finishIfOwned(@Param("id") Long id,
+                      @Param("processing") PaymentQueue.Status processing,
+                      @Param("status") PaymentQueue.Status status,
+                      @Param("workerId") String workerId,
+                      @Param("errorMessage") String errorMessage);
+    
+    List<PaymentQueue> findByIdInOrderByCreatedAtAsc(List<Long> ids);
+    
+    /**
+     * Atomically chuyển tối đa limit payment PENDING của shard sang PROCESSING cho workerId.
+     * Các row đang bị worker khác khóa sẽ bị bỏ qua (SKIP LOCKED) nên các node nhận batch rời nhau.
+     * Shard 0 nhận thêm các payment chưa có shard_id hợp lệ.
+     */
+    @Transactional
+    default List<PaymentQueue> claimPendingBatch(Integer shardId, Integer shardCount, int limit,
+                                                 String workerId, Instant leaseExpiresAt) {
+        List<Long> ids = new ArrayList<>(lockPendingIdsForShard(shardId, limit));
+        if (shardId == 0 && ids.size() < limit) {
+            ids.addAll(lockUnassignedPendingIds(shardCount, limit - ids.size()));
+        }
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        markClaimed(ids, PaymentQueue.Status.PROCESSING, workerId, leaseExpiresAt, Instant.now());
+        return findByIdInOrderByCreatedAtAsc(ids);
+    }
+    
     // Methods for counting by status
     long countByStatus(PaymentQueue.Status status);
     
-    // Methods for finding by status and processed time
-    List<PaymentQueue> findByStatusAndProcessedAtAfter(PaymentQueue.Status status, Instant processedAt);
+    // Độ sâu queue cho monitoring - chỉ các status còn hoạt động (tập nhỏ, đi index status)
+    @Query("SELECT pq.status, COUNT(pq) FROM PaymentQueue pq WHERE pq.status IN :statuses GROUP BY pq.status")
+    List<Object[]> countActiveByStatus(@Param("statuses") Collection<PaymentQueue.Status> statuses);
 }
@@ -2,6 +2,8 @@ package com.badat.study1.repository;
 
 import com.badat.study1.model.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -36,7 +38,12 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     
     // Find products by name containing and status
     List<Product> findByProductNameContainingIgnoreCaseAndIsDeleteFalseAndStatus(String productName, String status);
-    
+
+    // Distinct categories of products by status (filter dropdown)
+    @Query("SELECT DISTINCT p.productCategory FROM Product p WHERE p.status = :status AND p.isDelete = false " +
+           "AND p.productCategory IS NOT NULL AND p.productCategory <> '' ORDER BY p.productCategory")
+    List<String> findDistinctCategoriesByStatus(@Param("status") String status);
+
     // Find all products by shop ID (including deleted ones for admin operations)
     List<Product> findByShopId(Long shopId);
     
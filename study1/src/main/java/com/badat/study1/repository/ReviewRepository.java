@@ -3,10 +3,14 @@ package com.badat.study1.repository;
 import com.badat.study1.model.Review;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
@@ -38,4 +42,22 @@ public interface ReviewRepository extends JpaRepository<Review, Long> {
     List<Review> findByOrderIdAndIsDeleteFalse(Long orderId);
     boolean existsByOrderItemIdAndBuyerIdAndIsDeleteFalse(Long orderItemId, Long buyerId);
     List<Review> findByOrderItemIdAndIsDeleteFalse(Long orderItemId);
+
+    // Keyset pagination cho trang sản phẩm - mới nhất trước, trang sau dùng id < cursor
+    @EntityGraph(attributePaths = {"buyer", "product"})
+    List<Review> findByProductIdAndIsDeleteFalseOrderByIdDesc(Long productId, Pageable pageable);
+    @EntityGraph(attributePaths = {"buyer", "product"})
+    List<Review> findByProductIdAndIsDeleteFalseAndIdLessThanOrderByIdDesc(Long productId, Long beforeId, Pageable pageable);
+    @EntityGraph(attributePaths = {"buyer", "product"})
+    List<Review> findByProductVariantIdAndIsDeleteFalseOrderByIdDesc(Long productVariantId, Pageable pageable);
+    @EntityGraph(attributePaths = {"buyer", "product"})
+    List<Review> findByProductVariantIdAndIsDeleteFalseAndIdLessThanOrderByIdDesc(Long productVariantId, Long beforeId, Pageable pageable);
+
+    /**
+     * Xóa mềm có điều kiện - trả về 0 nếu review đã bị xóa (2 request xóa đồng thời chỉ 1 bên được 1)
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE Review r SET r.isDelete = true, r.deletedBy = :deletedBy, r.updatedAt = :now " +
+           "WHERE r.id = :id AND r.isDelete = false")
+    int softDeleteIfActive(@Param("id") Long id, @Param("deletedBy") String deletedBy, @Param("now") LocalDateTime now);
 }
@@ -0,0 +1,41 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.ReviewSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ReviewSummaryRepository extends JpaRepository<ReviewSummary, Long> {
+
+    Optional<ReviewSummary> findByScopeTypeAndScopeId(ReviewSummary.ScopeType scopeType, Long scopeId);
+
+    List<ReviewSummary> findByScopeTypeAndScopeIdIn(ReviewSummary.ScopeType scopeType, Collection<Long> scopeIds);
+
+    /**
+     * Cộng delta (+1 tạo / -1 xóa) review có số sao rating vào summary, tạo dòng mới nếu chưa có.
+     * Upsert 1 câu lệnh nên các review đồng thời của cùng product không ghi đè nhau.
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "INSERT INTO review_summary (scope_type, scope_id, review_count, rating_sum, " +
+            "rating_1, rating_2, rating_3, rating_4, rating_5, updated_at) " +
+            "VALUES (:scopeType, :scopeId, :delta, :rating * :delta, " +
+            "IF(:rating = 1, :delta, 0), IF(:rating = 2, :delta, 0), IF(:rating = 3, :delta, 0), " +
+            "IF(:rating = 4, :delta, 0), IF(:rating = 5, :delta, 0), NOW()) " +
+            "ON DUPLICATE KEY UPDATE review_count = review_count + VALUES(review_count), " +
+            "rating_sum = rating_sum + VALUES(rating_sum), " +
+            "rating_1 = rating_1 + VALUES(rating_1), rating_2 = rating_2 + VALUES(rating_2), " +
+            "rating_3 = rating_3 + VALUES(rating_3), rating_4 = rating_4 + VALUES(rating_4), " +
+            "rating_5 = rating_5 + VALUES(rating_5), updated_at = VALUES(updated_at)",
+            nativeQuery = true)
+    int applyDelta(@Param("scopeType") String scopeType,
+                   @Param("scopeId") Long scopeId,
+                   @Param("rating") int rating,
+                   @Param("delta") int delta);
+}
@@ -0,0 +1,9 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.StoredImage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StoredImageRepository extends JpaRepository<StoredImage, String> {
+}
@@ -4,10 +4,13 @@ import com.badat.study1.model.UploadHistory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -69,4 +72,54 @@ public interface UploadHistoryRepository extends JpaRepository<UploadHistory, Lo
      * Count failed uploads by user
      */
     long countByUserIdAndIsSuccessFalse(Long userId);
+    
+    /**
+     * Import job bắt đầu chạy (ra khỏi hàng đợi) - 0 nếu job đã bị sweep đánh FAILED trong lúc chờ
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Transactional
+    @Query("UPDATE UploadHistory uh SET uh.lastProgressAt = :now WHERE uh.id = :id AND uh.status = 'PROCESSING'")
+    int markStarted(@Param("id") Long id, @Param("now") Instant now);
+    
+    /**
+     * Cập nhật tiến độ của import job đang chạy (bỏ qua nếu job không còn PROCESSING)
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Transactional
+    @Query("UPDATE UploadHistory uh SET uh.processedLines = :processedLines, uh.successCount = :successCount, " +
+           "uh.failureCount = :failureCount, uh.lastProgressAt = :now WHERE uh.id = :id AND uh.status = 'PROCESSING'")
+    int updateProgress(@Param("id") Long id,
+                       @Param("processedLines") Integer processedLines,
+                       @Param("successCount") Integer successCount,
+                       @Param("failureCount") Integer failureCount,
+                       @Param("now") Instant now);
+    
+    /**
+     * Đánh dấu FAILED các import job không còn cập nhật tiến độ (node xử lý bị tắt giữa chừng)
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Transactional
+    @Query("UPDATE UploadHistory uh SET uh.status = 'FAILED', uh.result = 'FAILED', uh.isSuccess = false, " +
+           "uh.resultDetails = :reason WHERE uh.status = 'PROCESSING' AND uh.lastProgressAt < :threshold")
+    int failStaleProcessing(@Param("threshold") Instant threshold, @Param("reason") String reason);
+    
+    /**
+     * Ghi kết quả import - chỉ khi job còn PROCESSING (chưa bị sweep đánh FAILED)
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Transactional
+    @Query("UPDATE UploadHistory uh SET uh.isSuccess = :success, uh.result = :result, uh.status = :status, " +
+           "uh.totalItems = COALESCE(:totalItems, uh.totalItems), uh.processedLines = :processedLines, " +
+           "uh.successCount = :successCount, uh.failureCount = :failureCount, uh.resultDetails = :resultDetails, " +
+           "uh.lastProgressAt = :now WHERE uh.id = :id AND uh.status = 'PROCESSING'")
+    int completeIfProcessing(@Param("id") Long id,
+                             @Param("success") Boolean success,
+                             @Param("result") String result,
+                             @Param("status") String status,
+                             @Param("totalItems") Integer totalItems,
+                             @Param("processedLines") Integer processedLines,
+                             @Param("successCount") Integer successCount,
+                             @Param("failureCount") Integer failureCount,
+                             @Param("resultDetails") String resultDetails,
+                             @Param("now") Instant now);
 }
@@ -67,6 +67,43 @@ public interface UserActivityLogRepository extends JpaRepository<UserActivityLog
                                                    @Param("toDate") LocalDateTime toDate,
                                                    Pageable pageable);
     
+    // Keyset pagination cho /admin/user-activity-logs: (createdAt, id) cũ hơn cursor (trang sau) / mới hơn cursor (trang trước)
+    String ADMIN_FILTERS = "(:userId IS NULL OR u.userId = :userId) " +
+           "AND (:action IS NULL OR u.action = :action) " +
+           "AND (:category IS NULL OR u.category = :category) " +
+           "AND u.createdAt >= :fromDate AND u.createdAt <= :toDate ";
+
+    @Query("SELECT u FROM UserActivityLog u WHERE " + ADMIN_FILTERS +
+           "AND (u.createdAt < :cursorCreatedAt OR (u.createdAt = :cursorCreatedAt AND u.id < :cursorId)) " +
+           "ORDER BY u.createdAt DESC, u.id DESC")
+    List<UserActivityLog> findAdminPageOlderThan(@Param("userId") Long userId,
+                                                 @Param("action") String action,
+                                                 @Param("category") UserActivityLog.Category category,
+                                                 @Param("fromDate") LocalDateTime fromDate,
+                                                 @Param("toDate") LocalDateTime toDate,
+                                                 @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+                                                 @Param("cursorId") Long cursorId,
+                                                 Pageable limit);
+
+    @Query("SELECT u FROM UserActivityLog u WHERE " + ADMIN_FILTERS +
+           "AND (u.createdAt > :cursorCreatedAt OR (u.createdAt = :cursorCreatedAt AND u.id > :cursorId)) " +
+           "ORDER BY u.createdAt ASC, u.id ASC")
+    List<UserActivityLog> findAdminPageNewerThan(@Param("userId") Long userId,
+                                                 @Param("action") String action,
+                                                 @Param("category") UserActivityLog.Category category,
+                                                 @Param("fromDate") LocalDateTime fromDate,
+                                                 @Param("toDate") LocalDateTime toDate,
+                                                 @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+                                                 @Param("cursorId") Long cursorId,
+                                                 Pageable limit);
+
+    @Query("SELECT COUNT(u) FROM UserActivityLog u WHERE " + ADMIN_FILTERS)
+    long countAdminFiltered(@Param("userId") Long userId,
+                            @Param("action") String action,
+                            @Param("category") UserActivityLog.Category category,
+                            @Param("fromDate") LocalDateTime fromDate,
+                            @Param("toDate") LocalDateTime toDate);
+    
     // Statistics queries
     long countByUserIdAndCreatedAtAfter(Long userId, LocalDateTime dateTime);
     long countByUserIdAndCategory(Long userId, UserActivityLog.Category category);
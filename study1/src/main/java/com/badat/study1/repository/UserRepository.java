@@ -20,6 +20,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     Optional<User> findByEmailAndIsDeleteFalse(String email);
     Optional<User> findByUsernameAndIsDeleteFalse(String username);
+
+    // Chỉ đọc hash avatar (endpoint /avatar revalidate ETag không cần load cả user)
+    @Query("SELECT u.avatarHash FROM User u WHERE u.id = :userId")
+    Optional<String> findAvatarHashById(@Param("userId") Long userId);
     
     List<User> findByRole(User.Role role);
     List<User> findByStatus(User.Status status);
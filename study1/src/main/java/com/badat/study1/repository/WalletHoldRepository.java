@@ -1,10 +1,13 @@
 package com.badat.study1.repository;
 
 import com.badat.study1.model.WalletHold;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
@@ -19,6 +22,17 @@ public interface WalletHoldRepository extends JpaRepository<WalletHold, Long> {
     
     List<WalletHold> findByStatusAndExpiresAtBefore(WalletHold.Status status, Instant expiresAt);
     
+    // Fallback scan của WalletHoldSettlementService - đi index (status, expires_at)
+    List<WalletHold> findByStatusAndExpiresAtBeforeOrderByExpiresAtAsc(WalletHold.Status status, Instant expiresAt, Pageable pageable);
+    
+    // Chuyển trạng thái có điều kiện - trả về 0 nếu hold đã được worker/node khác xử lý
+    @Modifying
+    @Transactional
+    @Query("UPDATE WalletHold wh SET wh.status = :to WHERE wh.id = :id AND wh.status = :from")
+    int updateStatusIfCurrent(@Param("id") Long id,
+                              @Param("from") WalletHold.Status from,
+                              @Param("to") WalletHold.Status to);
+    
     Optional<WalletHold> findByOrderId(String orderId);
     
     @Query("SELECT wh FROM WalletHold wh WHERE wh.userId = :userId AND wh.status = :status AND wh.expiresAt > :now")
@@ -2,8 +2,13 @@ package com.badat.study1.repository;
 
 import com.badat.study1.model.Wallet;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,4 +17,10 @@ public interface WalletRepository extends JpaRepository<Wallet, Long> {
     Optional<Wallet> findByUserId(Long userId);
     Optional<Wallet> findByUserIdAndIsDeleteFalse(Long userId);
     List<Wallet> findByIsDeleteFalse();
+
+    // Cộng số dư bằng 1 câu UPDATE (không đọc - ghi lại cả entity)
+    @Modifying
+    @Transactional
+    @Query("UPDATE Wallet w SET w.balance = COALESCE(w.balance, 0) + :amount WHERE w.userId = :userId")
+    int addBalance(@Param("userId") Long userId, @Param("amount") BigDecimal amount);
 }
@@ -0,0 +1,98 @@
+package com.badat.study1.repository;
+
+import com.badat.study1.model.Warehouse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Truy cập bảng warehouse bằng JDBC cho các thao tác bulk (upload kho)
+ * - Warehouse dùng IDENTITY nên Hibernate không batch insert được, ở đây dùng JDBC batch
+ */
+@Repository
+@RequiredArgsConstructor
+public class WarehouseJdbcRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO warehouse (item_subcategory, item_data, identifier_hash, product_variant_id, shop_id, product_id, user_id, " +
+            "created_at, is_delete, locked) VALUES (?, ?, ?, ?, ?, ?, ?, ?, false, false)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    /**
+     * Batch insert warehouse items mới (cần rewriteBatchedStatements=true để driver gộp thành multi-row INSERT)
+     * Chạy trong 1 transaction để batch lỗi (trùng identifier) không để lại insert dở dang
+     */
+    @Transactional
+    public void batchInsert(List<Warehouse> items) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT_SQL, items, items.size(), (ps, item) -> {
+            ps.setString(1, item.getItemSubcategory());
+            ps.setString(2, item.getItemData());
+            ps.setString(3, item.getIdentifierHash());
+            ps.setLong(4, item.getProductVariant().getId());
+            ps.setLong(5, item.getShop().getId());
+            ps.setLong(6, item.getProduct().getId());
+            ps.setLong(7, item.getUser().getId());
+            ps.setTimestamp(8, now);
+        });
+    }
+
+    /**
+     * Insert 1 warehouse item, trả về false nếu trùng identifier (unique index)
+     */
+    public boolean insertIgnore(Warehouse item) {
+        int inserted = jdbcTemplate.update(INSERT_SQL.replaceFirst("INSERT", "INSERT IGNORE"),
+                item.getItemSubcategory(), item.getItemData(), item.getIdentifierHash(),
+                item.getProductVariant().getId(), item.getShop().getId(), item.getProduct().getId(),
+                item.getUser().getId(), Timestamp.valueOf(LocalDateTime.now()));
+        return inserted > 0;
+    }
+
+    /**
+     * Trong các hash truyền vào, trả về những hash đã tồn tại cho variant (kể cả item đã xóa)
+     */
+    public Set<String> findExistingIdentifierHashes(Long productVariantId, Collection<String> identifierHashes) {
+        if (identifierHashes.isEmpty()) {
+            return new HashSet<>();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("productVariantId", productVariantId)
+                .addValue("hashes", identifierHashes);
+        return new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "SELECT identifier_hash FROM warehouse WHERE product_variant_id = :productVariantId AND identifier_hash IN (:hashes)",
+                params, String.class));
+    }
+
+    /**
+     * Item cũ chưa có identifier_hash của variant (keyset theo id) - [id, item_subcategory, item_data]
+     */
+    public List<Object[]> findItemsWithoutIdentifierHash(Long productVariantId, long afterId, int limit) {
+        return jdbcTemplate.query(
+                "SELECT id, item_subcategory, item_data FROM warehouse " +
+                "WHERE product_variant_id = ? AND identifier_hash IS NULL AND id > ? ORDER BY id LIMIT ?",
+                (rs, rowNum) -> new Object[] { rs.getLong(1), rs.getString(2), rs.getString(3) },
+                productVariantId, afterId, limit);
+    }
+
+    /**
+     * Ghi identifier_hash cho item cũ - [hash, id]; trùng với item khác thì bỏ qua (giữ NULL)
+     */
+    public void updateIdentifierHashes(List<Object[]> hashAndIds) {
+        if (hashAndIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("UPDATE IGNORE warehouse SET identifier_hash = ? WHERE id = ?", hashAndIds);
+    }
+}
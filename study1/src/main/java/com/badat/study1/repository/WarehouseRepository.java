@@ -142,4 +142,16 @@ public interface WarehouseRepository extends JpaRepository<Warehouse, Long> {
      */
     @Query(value = "SELECT COUNT(*) FROM warehouse WHERE shop_id = :shopId AND locked = false AND is_delete = false", nativeQuery = true)
     long countAvailableItemsByShopId(@Param("shopId") Long shopId);
+    
+    /**
+     * Count available items grouped by product variant - dùng để reconcile stock counter [productVariantId, count]
+     */
+    @Query(value = "SELECT product_variant_id, COUNT(*) FROM warehouse WHERE locked = false AND is_delete = false GROUP BY product_variant_id", nativeQuery = true)
+    List<Object[]> countAvailableGroupByProductVariant();
+    
+    /**
+     * Count available items grouped by product - dùng để reconcile stock counter [productId, count]
+     */
+    @Query(value = "SELECT product_id, COUNT(*) FROM warehouse WHERE locked = false AND is_delete = false GROUP BY product_id", nativeQuery = true)
+    List<Object[]> countAvailableGroupByProduct();
 }
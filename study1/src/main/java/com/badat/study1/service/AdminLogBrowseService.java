@@ -0,0 +1,160 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.LogCursor;
+import com.badat.study1.dto.LogPage;
+import com.badat.study1.model.ApiCallLog;
+import com.badat.study1.model.AuditLog;
+import com.badat.study1.model.UserActivityLog;
+import com.badat.study1.repository.ApiCallLogRepository;
+import com.badat.study1.repository.AuditLogRepository;
+import com.badat.study1.repository.UserActivityLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Phân trang keyset cho các trang xem log của admin (audit, API, user activity)
+ * - Trang sau: before=cursor -> (createdAt, id) nhỏ hơn cursor; trang trước: after=cursor -> lớn hơn cursor
+ * - Mỗi trang chỉ đọc size + 1 dòng qua index (..., created_at, id) nên chi phí không phụ thuộc trang thứ mấy
+ * - Tổng số dòng và danh sách giá trị cho dropdown lọc được cache theo bộ lọc trong count-cache-ttl-seconds
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AdminLogBrowseService {
+
+    private static final int MAX_CACHED_ENTRIES = 1000;
+
+    private final AuditLogRepository auditLogRepository;
+    private final ApiCallLogRepository apiCallLogRepository;
+    private final UserActivityLogRepository userActivityLogRepository;
+
+    @Value("${admin-log.count-cache-ttl-seconds:60}")
+    private long countCacheTtlSeconds;
+
+    private final Map<String, CachedValue> cache = new ConcurrentHashMap<>();
+
+    public LogPage<AuditLog> auditLogs(String action, AuditLog.Category category, Boolean success,
+                                       LocalDateTime startDate, LocalDateTime endDate,
+                                       String before, String after, int size) {
+        return page(LogCursor.parse(before), LogCursor.parse(after), size,
+                (cursor, limit) -> auditLogRepository.findAdminPageOlderThan(
+                        action, category, success, startDate, endDate, cursor.getCreatedAt(), cursor.getId(), limit),
+                (cursor, limit) -> auditLogRepository.findAdminPageNewerThan(
+                        action, category, success, startDate, endDate, cursor.getCreatedAt(), cursor.getId(), limit),
+                row -> new LogCursor(row.getCreatedAt(), row.getId()),
+                () -> cached(key("audit", action, category, success, startDate, endDate),
+                        () -> auditLogRepository.countAdminFiltered(action, category, success, startDate, endDate)));
+    }
+
+    public LogPage<ApiCallLog> apiCallLogs(Long userId, String endpoint, String method, Integer statusCode,
+                                           LocalDateTime fromDate, LocalDateTime toDate,
+                                           String before, String after, int size) {
+        return page(LogCursor.parse(before), LogCursor.parse(after), size,
+                (cursor, limit) -> apiCallLogRepository.findAdminPageOlderThan(
+                        userId, endpoint, method, statusCode, fromDate, toDate, cursor.getCreatedAt(), cursor.getId(), limit),
+                (cursor, limit) -> apiCallLogRepository.findAdminPageNewerThan(
+                        userId, endpoint, method, statusCode, fromDate, toDate, cursor.getCreatedAt(), cursor.getId(), limit),
+                row -> new LogCursor(row.getCreatedAt(), row.getId()),
+                () -> cached(key("api", userId, endpoint, method, statusCode, fromDate, toDate),
+                        () -> apiCallLogRepository.countAdminFiltered(userId, endpoint, method, statusCode, fromDate, toDate)));
+    }
+
+    public LogPage<UserActivityLog> userActivityLogs(Long userId, String action, UserActivityLog.Category category,
+                                                     LocalDateTime fromDate, LocalDateTime toDate,
+                                                     String before, String after, int size) {
+        return page(LogCursor.parse(before), LogCursor.parse(after), size,
+                (cursor, limit) -> userActivityLogRepository.findAdminPageOlderThan(
+                        userId, action, category, fromDate, toDate, cursor.getCreatedAt(), cursor.getId(), limit),
+                (cursor, limit) -> userActivityLogRepository.findAdminPageNewerThan(
+                        userId, action, category, fromDate, toDate, cursor.getCreatedAt(), cursor.getId(), limit),
+                row -> new LogCursor(row.getCreatedAt(), row.getId()),
+                () -> cached(key("activity", userId, action, category, fromDate, toDate),
+                        () -> userActivityLogRepository.countAdminFiltered(userId, action, category, fromDate, toDate)));
+    }
+
+    /**
+     * Giá trị cho dropdown lọc (SELECT DISTINCT trên cả bảng) - cache như tổng số dòng
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> filterOptions(String name, Supplier<List<T>> loader) {
+        return (List<T>) cached("options|" + name, loader::get);
+    }
+
+    private <T> LogPage<T> page(LogCursor before, LogCursor after, int size,
+                                BiFunction<LogCursor, Pageable, List<T>> olderThan,
+                                BiFunction<LogCursor, Pageable, List<T>> newerThan,
+                                Function<T, LogCursor> cursorOf,
+                                Supplier<Object> total) {
+        // Lấy dư 1 dòng để biết còn trang tiếp theo không
+        Pageable limit = PageRequest.of(0, size + 1);
+        List<T> rows;
+        boolean hasOlder;
+        boolean hasNewer;
+
+        if (after != null) {
+            List<T> newer = new ArrayList<>(newerThan.apply(after, limit));
+            if (newer.size() <= size) {
+                // Đã về tới đầu danh sách: hiện trang đầu đủ size dòng
+                return page(null, null, size, olderThan, newerThan, cursorOf, total);
+            }
+            newer = newer.subList(0, size);
+            Collections.reverse(newer);
+            rows = newer;
+            hasNewer = true;
+            hasOlder = true;
+        } else {
+            LogCursor cursor = before != null ? before : LogCursor.NEWEST;
+            List<T> older = olderThan.apply(cursor, limit);
+            hasOlder = older.size() > size;
+            rows = hasOlder ? older.subList(0, size) : older;
+            hasNewer = before != null;
+        }
+
+        String nextCursor = hasOlder && !rows.isEmpty() ? cursorOf.apply(rows.get(rows.size() - 1)).toString() : null;
+        String previousCursor = hasNewer && !rows.isEmpty() ? cursorOf.apply(rows.get(0)).toString() : null;
+        return new LogPage<>(rows, nextCursor, previousCursor, (Long) total.get());
+    }
+
+    private Object cached(String key, Supplier<Object> loader) {
+        long now = System.currentTimeMillis();
+        CachedValue entry = cache.get(key);
+        if (entry != null && entry.expiresAtMillis() > now) {
+            return entry.value();
+        }
+        Object value = loader.get();
+        if (cache.size() >= MAX_CACHED_ENTRIES) {
+            cache.entrySet().removeIf(e -> e.getValue().expiresAtMillis() <= now);
+            if (cache.size() >= MAX_CACHED_ENTRIES) {
+                cache.clear();
+            }
+        }
+        cache.put(key, new CachedValue(value, now + countCacheTtlSeconds * 1000));
+        return value;
+    }
+
+    private static String key(String prefix, Object... filters) {
+        StringBuilder key = new StringBuilder(prefix);
+        for (Object filter : filters) {
+            key.append('|').append(Objects.toString(filter, ""));
+        }
+        return key.toString();
+    }
+
+    private record CachedValue(Object value, long expiresAtMillis) {
+    }
+}
@@ -1,16 +1,15 @@
 package com.badat.study1.service;
 
 import com.badat.study1.model.ApiCallLog;
-import com.badat.study1.repository.ApiCallLogRepository;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.time.LocalDateTime;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
@@ -20,11 +19,12 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class ApiCallLogService {
     
-    private final ApiCallLogRepository apiCallLogRepository;
+    private final ApiCallLogWriter apiCallLogWriter;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
-    // New method with extracted data to avoid request recycling
-    @Async("apiLogExecutor")
+    /**
+     * Ghi log 1 API call: chỉ dựng entity rồi đưa vào buffer của ApiCallLogWriter (batch insert ở thread riêng)
+     */
     public void logApiCall(Long userId, String endpoint, String method, int statusCode, String ipAddress, String userAgent, long durationMs) {
         try {
             // Skip logging for certain endpoints
@@ -40,22 +40,21 @@ public class ApiCallLogService {
             // Extract error message if any
             String errorMessage = statusCode >= 400 ? "HTTP " + statusCode : null;
             
+            // Cắt theo độ dài cột: 1 dòng quá dài sẽ làm hỏng cả batch insert
             ApiCallLog apiLog = ApiCallLog.builder()
                     .userId(userId)
-                    .endpoint(endpoint)
-                    .method(method)
+                    .endpoint(truncate(endpoint, 255))
+                    .method(truncate(method, 10))
                     .statusCode(statusCode)
-                    .requestParams(null) // Can't extract in async context
-                    .requestBody(null)   // Can't extract in async context
                     .responseStatus(responseStatus)
                     .durationMs((int) durationMs)
-                    .ipAddress(ipAddress)
-                    .userAgent(userAgent)
+                    .ipAddress(truncate(ipAddress, 45))
+                    .userAgent(truncate(userAgent, 500))
                     .errorMessage(errorMessage)
                     .build();
+            apiLog.setCreatedAt(LocalDateTime.now());
             
-            apiCallLogRepository.save(apiLog);
-            log.info("API call logged: {} {} - {}ms - Status: {}", method, endpoint, durationMs, statusCode);
+            apiCallLogWriter.submit(apiLog);
             
         } catch (Exception e) {
             log.error("Error logging API call: {}", e.getMessage());
@@ -63,7 +62,6 @@ public class ApiCallLogService {
     }
     
     // Legacy method for backward compatibility (deprecated)
-    @Async("apiLogExecutor")
     @Deprecated
     public void logApiCall(Long userId, HttpServletRequest request, HttpServletResponse response, long durationMs) {
         try {
@@ -151,6 +149,10 @@ public class ApiCallLogService {
                lowerParamName.contains("key");
     }
     
+    private String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+    
     private String determineResponseStatus(int statusCode) {
         if (statusCode >= 200 && statusCode < 300) {
             return "SUCCESS";
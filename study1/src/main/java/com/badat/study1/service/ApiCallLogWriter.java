@@ -0,0 +1,244 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.ApiCallLog;
+import com.badat.study1.repository.ApiCallLogJdbcRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pipeline ghi api_call_log
+ * - Request chỉ đẩy log vào ring buffer có giới hạn (lock-free, nhiều producer - 1 consumer)
+ * - 1 thread flusher gom tối đa batch-size dòng hoặc sau flush-interval-ms thì batch insert 1 lần
+ * - Buffer đầy thì bỏ log (đếm dropped), request 2xx/3xx có thể lấy mẫu theo success-sample-rate, lỗi luôn được ghi
+ * - Tắt ứng dụng: dừng flusher rồi ghi nốt phần còn trong buffer
+ * - Bộ đếm (accepted / sampled out / dropped / written / failed) có trên /actuator/metrics (api.call.log.*)
+ *   và GET /api/admin/metrics/api-log
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ApiCallLogWriter {
+
+    private final ApiCallLogJdbcRepository apiCallLogJdbcRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${api-log.buffer-capacity:8192}")
+    private int bufferCapacity;
+
+    @Value("${api-log.batch-size:500}")
+    private int batchSize;
+
+    @Value("${api-log.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${api-log.success-sample-rate:1.0}")
+    private double successSampleRate;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private RingBuffer buffer;
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        buffer = new RingBuffer(bufferCapacity);
+        running = true;
+        flusher = new Thread(this::flushLoop, "api-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        registerMeters();
+    }
+
+    /**
+     * Đưa 1 log vào buffer, không bao giờ block request
+     */
+    public void submit(ApiCallLog apiLog) {
+        boolean success = apiLog.getStatusCode() != null && apiLog.getStatusCode() < 400;
+        if (success && successSampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= successSampleRate) {
+            sampledOut.incrementAndGet();
+            return;
+        }
+        if (!buffer.offer(apiLog)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        accepted.incrementAndGet();
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("accepted", accepted.get());
+        stats.put("sampledOut", sampledOut.get());
+        stats.put("dropped", dropped.get());
+        stats.put("written", written.get());
+        stats.put("failed", failed.get());
+        stats.put("batches", batches.get());
+        stats.put("pending", (long) buffer.size());
+        return stats;
+    }
+
+    private void registerMeters() {
+        registerCounter("accepted", "Log đã đưa vào buffer", accepted);
+        registerCounter("sampled_out", "Log request thành công bị bỏ do lấy mẫu", sampledOut);
+        registerCounter("dropped", "Log bị bỏ do buffer đầy", dropped);
+        registerCounter("written", "Log đã ghi xuống DB", written);
+        registerCounter("failed", "Log ghi DB thất bại", failed);
+        registerCounter("batches", "Số batch insert", batches);
+        Gauge.builder("api.call.log.pending", this, writer -> writer.buffer.size())
+                .description("Log đang chờ trong buffer")
+                .register(meterRegistry);
+    }
+
+    private void registerCounter(String name, String description, AtomicLong counter) {
+        FunctionCounter.builder("api.call.log." + name, counter, AtomicLong::get)
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            // Flusher vẫn đang ghi (DB chậm): không drain song song vì buffer chỉ có 1 consumer
+            log.warn("API log flusher did not stop in time, {} logs pending", buffer.size());
+            return;
+        }
+        // Ghi nốt phần còn lại trong buffer
+        List<ApiCallLog> batch = new ArrayList<>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            write(batch);
+        }
+        log.info("API log writer stopped: {}", getStats());
+    }
+
+    private void flushLoop() {
+        List<ApiCallLog> batch = new ArrayList<>(batchSize);
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        long batchStartedAt = System.nanoTime();
+        long lastDropReportAt = System.nanoTime();
+        long reportedDropped = 0;
+        while (running) {
+            try {
+                buffer.drainTo(batch, batchSize - batch.size());
+                long now = System.nanoTime();
+                if (batch.isEmpty()) {
+                    // Khoảng chờ flush tính từ lúc batch có dòng đầu tiên
+                    batchStartedAt = now;
+                } else if (batch.size() >= batchSize || now - batchStartedAt >= intervalNanos) {
+                    write(batch);
+                    batchStartedAt = now;
+                    continue;
+                }
+
+                long droppedNow = dropped.get();
+                if (droppedNow != reportedDropped && now - lastDropReportAt >= TimeUnit.SECONDS.toNanos(10)) {
+                    log.warn("API log buffer full, {} logs dropped so far", droppedNow);
+                    reportedDropped = droppedNow;
+                    lastDropReportAt = now;
+                }
+                LockSupport.parkNanos(Math.max(1, intervalNanos / 4));
+            } catch (Exception e) {
+                log.error("API log flusher error: {}", e.getMessage(), e);
+            }
+        }
+        // Batch đang gom dở lúc dừng
+        write(batch);
+    }
+
+    private void write(List<ApiCallLog> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            apiCallLogJdbcRepository.batchInsert(batch);
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+        } catch (Exception e) {
+            // Không retry: log API không quan trọng bằng việc giữ flusher chạy tiếp
+            failed.addAndGet(batch.size());
+            log.error("Failed to write {} API logs: {}", batch.size(), e.getMessage());
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Ring buffer có giới hạn, nhiều producer (CAS trên tail) - 1 consumer (flusher)
+     * Slot null nghĩa là producer đã giành chỗ nhưng chưa ghi xong, consumer dừng lại chờ lượt sau
+     */
+    private static final class RingBuffer {
+
+        private final AtomicReferenceArray<ApiCallLog> slots;
+        private final int capacity;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        boolean offer(ApiCallLog value) {
+            long currentTail;
+            do {
+                currentTail = tail.get();
+                if (currentTail - head.get() >= capacity) {
+                    return false;
+                }
+            } while (!tail.compareAndSet(currentTail, currentTail + 1));
+            slots.lazySet((int) (currentTail % capacity), value);
+            return true;
+        }
+
+        int drainTo(List<ApiCallLog> target, int max) {
+            int drained = 0;
+            long currentHead = head.get();
+            while (drained < max) {
+                int index = (int) (currentHead % capacity);
+                ApiCallLog value = slots.get(index);
+                if (value == null) {
+                    break;
+                }
+                slots.lazySet(index, null);
+                target.add(value);
+                currentHead++;
+                drained++;
+            }
+            head.set(currentHead);
+            return drained;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head.get());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.AuditLog;
+import com.badat.study1.repository.AuditLogJdbcRepository;
+import com.badat.study1.repository.AuditLogJdbcRepository.ExportRow;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Export audit log ra CSV dạng stream
+ * - Đọc theo từng trang keyset (export-page-size dòng), ghi ngay ra output rồi bỏ trang đó -> bộ nhớ không phụ thuộc số dòng
+ * - Bộ lọc giống trang /admin/audit-logs
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AuditLogExportService {
+
+    private static final String CSV_HEADER = "ID,Thời gian,Hành động,Danh mục,Trạng thái,User ID,IP Address,Chi tiết\n";
+    private static final DateTimeFormatter CSV_TIME = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+
+    private final AuditLogJdbcRepository auditLogJdbcRepository;
+
+    @Value("${audit-log.export-page-size:1000}")
+    private int exportPageSize;
+
+    /**
+     * Ghi CSV vào output (không đóng output), trả về số dòng đã ghi
+     */
+    public long writeCsv(String action, AuditLog.Category category, Boolean success,
+                         LocalDateTime startDate, LocalDateTime endDate, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+
+        long total = 0;
+        LocalDateTime afterCreatedAt = null;
+        Long afterId = null;
+        while (true) {
+            List<ExportRow> page = auditLogJdbcRepository.findExportPage(
+                    action, category, success, startDate, endDate, afterCreatedAt, afterId, exportPageSize);
+            for (ExportRow row : page) {
+                writeRow(writer, row);
+            }
+            total += page.size();
+            // Đẩy từng trang ra client thay vì gom trong buffer
+            writer.flush();
+
+            if (page.size() < exportPageSize) {
+                break;
+            }
+            ExportRow last = page.get(page.size() - 1);
+            if (last.createdAt() == null) {
+                // Không có mốc keyset (dữ liệu thiếu created_at)
+                break;
+            }
+            afterCreatedAt = last.createdAt();
+            afterId = last.id();
+        }
+        log.info("Exported {} audit logs", total);
+        return total;
+    }
+
+    private void writeRow(Writer writer, ExportRow row) throws IOException {
+        writer.write(String.valueOf(row.id()));
+        writer.write(',');
+        writer.write(row.createdAt() != null ? row.createdAt().format(CSV_TIME) : "");
+        writer.write(',');
+        writer.write(escape(row.action()));
+        writer.write(',');
+        writer.write(escape(row.category()));
+        writer.write(',');
+        writer.write(row.success() ? "Thành công" : "Thất bại");
+        writer.write(',');
+        writer.write(row.userId() != null ? row.userId().toString() : "");
+        writer.write(',');
+        writer.write(escape(row.ipAddress()));
+        writer.write(',');
+        // Chi tiết luôn đặt trong ngoặc kép như định dạng cũ
+        writer.write('"');
+        writer.write(row.details() != null ? row.details().replace("\"", "\"\"") : "");
+        writer.write('"');
+        writer.write('\n');
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -3,9 +3,7 @@ package com.badat.study1.service;
 import com.badat.study1.dto.JwtInfo;
 import com.badat.study1.dto.request.LoginRequest;
 import com.badat.study1.dto.response.LoginResponse;
-import com.badat.study1.model.RedisToken;
 import com.badat.study1.model.User;
-import com.badat.study1.repository.RedisTokenRepository;
 import com.badat.study1.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -22,10 +20,11 @@ import java.util.Optional;
 public class AuthenticationService {
 
     private final JwtService jwtService;
-    private final RedisTokenRepository redisTokenRepository;
+    private final TokenRevocationService tokenRevocationService;
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final LoginAttemptService loginAttemptService;
+    private final PrincipalCacheService principalCacheService;
 
     public LoginResponse login(LoginRequest request, String ipAddress, String deviceInfo){
         // Find user by username (only active, non-deleted users)
@@ -118,7 +117,7 @@ public class AuthenticationService {
     public void logout(String token) throws ParseException {
         JwtInfo jwtInfo = jwtService.parseToken(token);
         String jwtId = jwtInfo.getJwtId();
-        Date issueTime = jwtInfo.getIssueTime();
+        principalCacheService.evictToken(jwtId);
         Date expireTime = jwtInfo.getExpireTime();
         
         // Don't blacklist already expired tokens
@@ -126,22 +125,7 @@ public class AuthenticationService {
             return;
         }
         
-        // Store TTL in SECONDS for Redis @TimeToLive
-        long ttlSeconds = (expireTime.getTime() - issueTime.getTime()) / 1000;
-        if (ttlSeconds <= 0) {
-            return;
-        }
-
-        RedisToken redisToken = RedisToken.builder()
-                .jwtID(jwtId)
-                .expirationTime(ttlSeconds)
-                .build();
-        
-        try {
-            redisTokenRepository.save(redisToken);
-        } catch (Exception e) {
-            log.warn("Failed to blacklist token (Redis unavailable): {}", e.getMessage());
-            // Continue without throwing exception - logout should still work
-        }
+        // Thu hồi tới khi token hết hạn (memory các node + Redis)
+        tokenRevocationService.revoke(jwtId, expireTime.getTime());
     }
 }
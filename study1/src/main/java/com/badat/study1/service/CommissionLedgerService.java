@@ -0,0 +1,96 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.CommissionEntry;
+import com.badat.study1.model.Wallet;
+import com.badat.study1.model.WalletHistory;
+import com.badat.study1.repository.CommissionEntryRepository;
+import com.badat.study1.repository.WalletHistoryRepository;
+import com.badat.study1.repository.WalletRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Gom commission của các settlement vào ví admin thay vì cộng trực tiếp mỗi hold
+ * - record(): thêm 1 dòng commission_entry theo order, trong transaction tất toán của caller -
+ *   các worker tất toán song song chỉ INSERT, không còn tranh nhau dòng ví admin
+ * - rollUp(): định kỳ gắn các dòng chưa gộp vào 1 reference, cộng tổng vào ví admin và ghi 1 WalletHistory COMMISSION
+ *   (referenceId = reference đó) trong cùng 1 transaction
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CommissionLedgerService {
+
+    private static final String ROLLUP_REFERENCE_PREFIX = "COMMISSION_ROLLUP_";
+
+    private final CommissionEntryRepository commissionEntryRepository;
+    private final WalletRepository walletRepository;
+    private final WalletHistoryRepository walletHistoryRepository;
+
+    @Value("${commission.admin-user-id:1}")
+    private Long adminUserId;
+
+    @Value("${commission.rollup-batch-size:5000}")
+    private int rollupBatchSize;
+
+    /**
+     * Ghi nhận commission của 1 order (chưa vào ví admin cho tới lần roll-up kế tiếp).
+     * Lỗi được ném ra để transaction tất toán rollback
+     */
+    @Transactional
+    public void record(String orderId, Long holdId, BigDecimal amount) {
+        if (amount == null || amount.signum() <= 0) {
+            return;
+        }
+        commissionEntryRepository.save(CommissionEntry.builder()
+            .orderId(orderId)
+            .holdId(holdId)
+            .amount(amount)
+            .createdAt(LocalDateTime.now())
+            .build());
+    }
+
+    /**
+     * Gộp tối đa rollup-batch-size dòng commission vào ví admin, phần còn lại để lần chạy sau
+     */
+    @Scheduled(fixedDelayString = "${commission.rollup-interval-ms:60000}")
+    @Transactional
+    public void rollUp() {
+        Instant now = Instant.now();
+        // Hậu tố ngẫu nhiên để 2 node chạy cùng millisecond không dùng chung reference
+        String reference = ROLLUP_REFERENCE_PREFIX + now.toEpochMilli() + "_" + UUID.randomUUID().toString().substring(0, 8);
+        int entries = commissionEntryRepository.claimForRollup(reference, rollupBatchSize);
+        if (entries == 0) {
+            return;
+        }
+        BigDecimal total = commissionEntryRepository.sumByRollupReference(reference);
+
+        Wallet adminWallet = walletRepository.findByUserId(adminUserId)
+            .orElseThrow(() -> new RuntimeException("Admin wallet not found"));
+        walletRepository.addBalance(adminUserId, total);
+
+        walletHistoryRepository.save(WalletHistory.builder()
+            .walletId(adminWallet.getId())
+            .type(WalletHistory.Type.COMMISSION)
+            .amount(total)
+            .referenceId(reference)
+            .description("Commission received from " + entries + " settled orders (commission_entry.rollup_reference = "
+                + reference + ")")
+            .isDelete(false)
+            .createdBy("system")
+            .createdAt(now)
+            .status(WalletHistory.Status.SUCCESS)
+            .build());
+
+        log.info("Rolled up {} VND commission from {} orders into admin wallet ({})", total, entries, reference);
+    }
+}
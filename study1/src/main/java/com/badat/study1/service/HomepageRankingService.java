@@ -0,0 +1,152 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.CatalogProductRow;
+import com.badat.study1.dto.HomepageSnapshot;
+import com.badat.study1.repository.CatalogQueryRepository;
+import com.badat.study1.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.NumberFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bảng xếp hạng sản phẩm trang chủ
+ * - Snapshot (top sản phẩm + danh mục nổi bật) giữ sẵn trong memory, request "/" chỉ đọc snapshot
+ * - Tồn kho / giá / trạng thái / review thay đổi thì markDirty(), job refresh dựng lại snapshot sau tối đa refresh-interval-ms
+ * - Không có thay đổi nào thì vẫn dựng lại sau max-staleness-seconds (thay đổi từ node khác)
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HomepageRankingService {
+
+    private final CatalogQueryRepository catalogQueryRepository;
+    private final ProductRepository productRepository;
+
+    @Value("${homepage.ranking.top-size:8}")
+    private int topSize;
+
+    @Value("${homepage.ranking.featured-categories:4}")
+    private int featuredCategoryCount;
+
+    @Value("${homepage.ranking.max-staleness-seconds:60}")
+    private long maxStalenessSeconds;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private volatile HomepageSnapshot snapshot;
+
+    /**
+     * Snapshot hiện tại; chỉ lần gọi đầu tiên sau khi khởi động (chưa có snapshot) mới query DB
+     */
+    public HomepageSnapshot getSnapshot() {
+        HomepageSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                rebuild();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Đánh dấu snapshot cần dựng lại (gọi sau khi tồn kho, giá, trạng thái product hoặc review thay đổi)
+     */
+    public void markDirty() {
+        // Trong transaction thì chờ commit, tránh dựng lại snapshot trước khi thay đổi được ghi
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dirty.set(true);
+                }
+            });
+        } else {
+            dirty.set(true);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${homepage.ranking.refresh-interval-ms:10000}")
+    public void refreshIfNeeded() {
+        HomepageSnapshot current = snapshot;
+        boolean expired = current == null
+                || current.getBuiltAt().isBefore(Instant.now().minus(Duration.ofSeconds(maxStalenessSeconds)));
+        if (!dirty.get() && !expired) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            // Giữ snapshot cũ, lần sau thử lại
+            dirty.set(true);
+            log.error("Failed to refresh homepage ranking: {}", e.getMessage(), e);
+        }
+    }
+
+    private void rebuild() {
+        // Reset trước khi query để thay đổi xảy ra trong lúc build vẫn được refresh ở lần sau
+        dirty.set(false);
+        List<Map<String, Object>> products = catalogQueryRepository.findTopProducts(topSize).stream()
+                .map(this::toProductCard)
+                .toList();
+        List<String> categories = productRepository.findDistinctCategoriesByStatus("OPEN").stream()
+                .limit(featuredCategoryCount)
+                .toList();
+
+        long version = snapshot != null ? snapshot.getVersion() + 1 : 1;
+        snapshot = HomepageSnapshot.builder()
+                .version(version)
+                .builtAt(Instant.now())
+                .products(products)
+                .featuredCategories(categories)
+                .build();
+        log.debug("Rebuilt homepage ranking v{} with {} products", version, products.size());
+    }
+
+    private Map<String, Object> toProductCard(CatalogProductRow row) {
+        Map<String, Object> vm = new HashMap<>();
+        vm.put("productId", row.getId());
+        vm.put("productName", row.getProductName());
+        vm.put("productCategory", row.getProductCategory());
+        vm.put("imageUrl", ImageStoreService.mediaUrl(row.getImageThumbnailHash()));
+        vm.put("productCount", (int) row.getStockCount());
+        vm.put("shopName", row.getShopName() != null ? row.getShopName() : "Unknown Shop");
+        vm.put("averageRating", Math.round(row.getAvgRating() * 10.0) / 10.0); // Round to 1 decimal place
+        vm.put("reviewCount", (int) row.getReviewCount());
+        vm.put("priceRange", formatPriceRange(row.getMinPrice(), row.getMaxPrice()));
+        return Collections.unmodifiableMap(vm);
+    }
+
+    private String formatPriceRange(BigDecimal minPrice, BigDecimal maxPrice) {
+        if (minPrice == null || maxPrice == null) {
+            return "Hết hàng";
+        }
+        NumberFormat viNumber = NumberFormat.getNumberInstance(Locale.US);
+        viNumber.setGroupingUsed(true);
+        String minStr = viNumber.format(minPrice.setScale(0, RoundingMode.HALF_UP));
+        String maxStr = viNumber.format(maxPrice.setScale(0, RoundingMode.HALF_UP));
+        if (minPrice.compareTo(maxPrice) == 0) {
+            return minStr + " VND";
+        }
+        return minStr + " VND - " + maxStr + " VND";
+    }
+}
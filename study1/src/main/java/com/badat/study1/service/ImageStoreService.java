@@ -0,0 +1,277 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.ImageRef;
+import com.badat.study1.model.StoredImage;
+import com.badat.study1.repository.LegacyImageJdbcRepository;
+import com.badat.study1.repository.StoredImageRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Image store theo nội dung (content-addressed)
+ * - Ảnh được lưu 1 lần trong bảng stored_image với khóa = SHA-256, bảng product / shop chỉ giữ hash
+ * - Lúc upload tạo sẵn thumbnail JPEG (thumbnail-size px cạnh dài) cho các trang danh sách
+ * - Ảnh cũ trong cột LONGBLOB của product / shop / user được chuyển sang store khi ứng dụng khởi động
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ImageStoreService {
+
+    public static final String MEDIA_URL_PREFIX = "/media/";
+
+    private final StoredImageRepository storedImageRepository;
+    private final LegacyImageJdbcRepository legacyImageJdbcRepository;
+
+    @Value("${image.thumbnail-size:400}")
+    private int thumbnailSize;
+
+    @Value("${image.max-pixels:40000000}")
+    private long maxPixels;
+
+    /**
+     * Lưu ảnh (bỏ qua nếu đã có cùng hash) và thumbnail của nó
+     * publicAccess = false cho ảnh nhạy cảm, không phục vụ qua /media; cờ này chỉ áp dụng khi ảnh được lưu lần đầu
+     */
+    public ImageRef store(byte[] bytes, boolean publicAccess) {
+        if (bytes == null || bytes.length == 0) {
+            throw new RuntimeException("File ảnh rỗng");
+        }
+        String contentType = detectContentType(bytes);
+        BufferedImage image = contentType != null ? decode(bytes) : null;
+        // Chỉ nhận ảnh raster decode được (JPEG/PNG/GIF) - SVG / HTML phục vụ cùng origin là stored XSS
+        if (image == null) {
+            throw new RuntimeException("Định dạng ảnh không được hỗ trợ");
+        }
+        String hash = save(bytes, contentType, image, publicAccess);
+
+        String thumbnailHash = hash;
+        if (Math.max(image.getWidth(), image.getHeight()) > thumbnailSize) {
+            try {
+                BufferedImage thumbnail = resize(image, thumbnailSize);
+                thumbnailHash = save(encodeJpeg(thumbnail), "image/jpeg", thumbnail, publicAccess);
+            } catch (Exception e) {
+                // Không tạo được thumbnail thì dùng luôn ảnh gốc
+                log.warn("Failed to create thumbnail for image {}: {}", hash, e.getMessage());
+            }
+        }
+        return ImageRef.builder().hash(hash).thumbnailHash(thumbnailHash).build();
+    }
+
+    public Optional<StoredImage> find(String hash) {
+        if (hash == null || hash.isBlank()) {
+            return Optional.empty();
+        }
+        return storedImageRepository.findById(hash);
+    }
+
+    /**
+     * URL có version theo hash, null nếu chưa có ảnh
+     */
+    public static String mediaUrl(String hash) {
+        return hash != null ? MEDIA_URL_PREFIX + hash : null;
+    }
+
+    /**
+     * ETag mạnh = hash nội dung
+     */
+    public static String etag(String hash) {
+        return "\"" + hash + "\"";
+    }
+
+    /**
+     * Header If-None-Match có chứa ETag của ảnh không (hỗ trợ danh sách và W/ prefix)
+     */
+    public static boolean matchesETag(String ifNoneMatch, String hash) {
+        if (ifNoneMatch == null || hash == null) {
+            return false;
+        }
+        String expected = etag(hash);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateLegacyImages() {
+        try {
+            migrateColumn("product", "product_image_data", true, List.of("image_hash", "image_thumbnail_hash"),
+                    ref -> List.of(ref.getHash(), ref.getThumbnailHash()));
+            migrateColumn("shop", "cccd_front_image", false, List.of("cccd_front_image_hash"), ref -> List.of(ref.getHash()));
+            migrateColumn("shop", "cccd_back_image", false, List.of("cccd_back_image_hash"), ref -> List.of(ref.getHash()));
+            migrateColumn("user", "avatar_data", true, List.of("avatar_hash"), ref -> List.of(ref.getThumbnailHash()));
+        } catch (Exception e) {
+            log.error("Legacy image migration failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void migrateColumn(String table, String blobColumn, boolean publicAccess, List<String> hashColumns,
+                               Function<ImageRef, List<String>> hashesOf) {
+        if (!legacyImageJdbcRepository.columnExists(table, blobColumn)) {
+            return;
+        }
+        int migrated = 0;
+        Long id = legacyImageJdbcRepository.findNextIdWithBlob(table, blobColumn, 0);
+        while (id != null) {
+            try {
+                byte[] bytes = legacyImageJdbcRepository.findBlob(table, blobColumn, id);
+                if (bytes != null && bytes.length > 0) {
+                    ImageRef ref = store(bytes, publicAccess);
+                    legacyImageJdbcRepository.replaceBlobWithHashes(table, blobColumn, id, hashColumns, hashesOf.apply(ref));
+                    migrated++;
+                }
+            } catch (Exception e) {
+                log.warn("Failed to migrate {}.{} for id {}: {}", table, blobColumn, id, e.getMessage());
+            }
+            id = legacyImageJdbcRepository.findNextIdWithBlob(table, blobColumn, id);
+        }
+        if (migrated > 0) {
+            log.info("Migrated {} images from {}.{} to stored_image", migrated, table, blobColumn);
+        }
+    }
+
+    private String save(byte[] bytes, String contentType, BufferedImage image, boolean publicAccess) {
+        String hash = sha256(bytes);
+        // Chỉ kiểm tra tồn tại (không đọc LONGBLOB). Không đổi cờ public của ảnh đã có: ảnh private (CCCD)
+        // không được mở public chỉ vì ai đó upload lại đúng các bytes đó
+        if (storedImageRepository.existsById(hash)) {
+            return hash;
+        }
+        storedImageRepository.save(StoredImage.builder()
+                .hash(hash)
+                .contentType(contentType)
+                .sizeBytes(bytes.length)
+                .width(image != null ? image.getWidth() : null)
+                .height(image != null ? image.getHeight() : null)
+                .publicAccess(publicAccess)
+                .data(bytes)
+                .createdAt(Instant.now())
+                .build());
+        return hash;
+    }
+
+    /**
+     * Decode ảnh sau khi kiểm tra kích thước khai báo trong header - ảnh nhỏ khai báo width x height khổng lồ
+     * (decompression bomb) bị từ chối trước khi cấp phát bộ nhớ cho pixel
+     */
+    private BufferedImage decode(byte[] bytes) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    throw new RuntimeException("Kích thước ảnh quá lớn (" + reader.getWidth(0) + "x" + reader.getHeight(0) + ")");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Content type được phục vụ inline qua /media (ảnh raster); loại khác chỉ trả về dạng attachment
+     */
+    public static boolean isRasterContentType(String contentType) {
+        return "image/jpeg".equals(contentType) || "image/png".equals(contentType) || "image/gif".equals(contentType);
+    }
+
+    /**
+     * MIME type theo magic bytes, chỉ JPEG / PNG / GIF; null với mọi định dạng khác (kể cả SVG)
+     */
+    private static String detectContentType(byte[] bytes) {
+        if (startsWith(bytes, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(bytes, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(bytes, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] bytes, int... magic) {
+        if (bytes.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((bytes[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private BufferedImage resize(BufferedImage source, int maxSide) {
+        double scale = (double) maxSide / Math.max(source.getWidth(), source.getHeight());
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        // JPEG không có alpha: vẽ lên nền trắng
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(java.awt.Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "jpg", out)) {
+            throw new IOException("No JPEG writer available");
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
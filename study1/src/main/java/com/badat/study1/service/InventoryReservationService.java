@@ -24,6 +24,7 @@ public class InventoryReservationService {
     
     private final WarehouseRepository warehouseRepository;
     private final RedisLockRegistry redisLockRegistry;
+    private final StockCounterService stockCounterService;
     
     /**
      * Reserve inventory với cơ chế chống race condition
@@ -45,7 +46,7 @@ public class InventoryReservationService {
                     log.info("Acquired lock for product: {}", productId);
                     
                     // 1. Kiểm tra số lượng có sẵn với database lock
-                    long availableCount = warehouseRepository.countByProductIdAndLockedFalseAndIsDeleteFalse(productId);
+                    long availableCount = stockCounterService.getProductStock(productId);
                     log.info("Available stock for product {}: {} items", productId, availableCount);
                     
                     if (availableCount < quantity) {
@@ -105,6 +106,7 @@ public class InventoryReservationService {
         }
         
         warehouseRepository.saveAll(items);
+        stockCounterService.adjustForItems(items, -1);
         log.info("Successfully reserved {} items for product {}", items.size(), productId);
         
         return items;
@@ -125,6 +127,9 @@ public class InventoryReservationService {
                     item.setLockedBy(null);
                     item.setLockedAt(null);
                     warehouseRepository.save(item);
+                    if (!Boolean.TRUE.equals(item.getIsDelete())) {
+                        stockCounterService.adjustForItems(List.of(item), 1);
+                    }
                     log.info("Released reservation for item: {}", warehouseId);
                 }
             } catch (Exception e) {
@@ -2,7 +2,6 @@ package com.badat.study1.service;
 
 import com.badat.study1.dto.JwtInfo;
 import com.badat.study1.model.User;
-import com.badat.study1.repository.RedisTokenRepository;
 import org.springframework.security.core.userdetails.UserDetails;
 import com.nimbusds.jose.*;
 import com.nimbusds.jose.crypto.MACSigner;
@@ -25,7 +24,7 @@ import java.util.UUID;
 public class JwtService {
     @Value("${jwt.secret-key}")
     private String secret;
-    private final RedisTokenRepository redisTokenRepository;
+    private final TokenRevocationService tokenRevocationService;
 
     public String generateAccessToken(User user) {
         JWSHeader header = new JWSHeader(JWSAlgorithm.HS512);
@@ -77,7 +76,13 @@ public class JwtService {
     }
 
     public boolean verifyToken(String token) throws ParseException, JOSEException {
-        SignedJWT signedJWT = SignedJWT.parse(token);
+        return verifyToken(SignedJWT.parse(token));
+    }
+
+    /**
+     * Verify token đã parse sẵn (filter chỉ parse 1 lần mỗi request)
+     */
+    public boolean verifyToken(SignedJWT signedJWT) throws ParseException, JOSEException {
         Date expirationTime = signedJWT.getJWTClaimsSet().getExpirationTime();
         String jwtId = signedJWT.getJWTClaimsSet().getJWTID();
         
@@ -86,14 +91,9 @@ public class JwtService {
             return false; // Token has expired
         }
         
-        // Check if token is blacklisted (logged out) - with fallback if Redis is unavailable
-        try {
-            if (redisTokenRepository.existsById(jwtId)) {
-                return false; // Token has been blacklisted
-            }
-        } catch (Exception e) {
-            log.warn("Redis unavailable, skipping blacklist check: {}", e.getMessage());
-            // Continue without blacklist check if Redis is unavailable
+        // Check if token is blacklisted (logged out)
+        if (isRevoked(jwtId)) {
+            return false;
         }
         
         // Verify token signature
@@ -104,6 +104,13 @@ public class JwtService {
         return signatureValid;
     }
 
+    /**
+     * Token đã bị blacklist (logout) chưa - tra danh sách thu hồi trong memory, không gọi Redis
+     */
+    public boolean isRevoked(String jwtId) {
+        return tokenRevocationService.isRevoked(jwtId);
+    }
+
     public String extractUsername(String token) throws ParseException {
         SignedJWT signedJWT = SignedJWT.parse(token);
         return signedJWT.getJWTClaimsSet().getSubject();
@@ -0,0 +1,239 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.EndpointLatencySummary;
+import com.badat.study1.model.ApiLatencyRollup;
+import com.badat.study1.repository.ApiLatencyRollupRepository;
+import com.badat.study1.util.LatencyHistogram;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tổng hợp độ trễ request theo phút cho từng (endpoint template, method), được ApiCallLogFilter gọi mỗi request
+ * - Mỗi phút: LatencyHistogram + số request theo nhóm status (2xx/3xx/4xx/5xx), ghi không khóa
+ * - Phút đã đóng (trễ 1 phút để request đang chạy ghi xong) được lưu vào api_latency_rollup rồi bỏ khỏi memory
+ * - Endpoint template (/api/products/{id}) thay vì URI thật để giới hạn số key; vượt max-keys-per-minute thì gộp vào OTHER
+ * - Đếm mọi request, không phụ thuộc việc lấy mẫu api_call_log
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LatencyMetricsService {
+
+    public static final String UNMATCHED_ENDPOINT = "UNMATCHED";
+    private static final String OVERFLOW_ENDPOINT = "OTHER";
+
+    private final ApiLatencyRollupRepository apiLatencyRollupRepository;
+
+    @Value("${latency-metrics.max-keys-per-minute:2000}")
+    private int maxKeysPerMinute;
+
+    private final String instanceId = resolveInstanceId();
+    private final Map<MinuteKey, MinuteRollup> rollups = new ConcurrentHashMap<>();
+    private final Map<LocalDateTime, AtomicLong> keysPerMinute = new ConcurrentHashMap<>();
+
+    public void record(String endpointTemplate, String method, int statusCode, long durationNanos) {
+        LocalDateTime minute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        MinuteKey key = new MinuteKey(minute, endpointTemplate != null ? endpointTemplate : UNMATCHED_ENDPOINT, method);
+        MinuteRollup rollup = rollups.get(key);
+        if (rollup == null) {
+            AtomicLong keyCount = keysPerMinute.computeIfAbsent(minute, m -> new AtomicLong());
+            if (keyCount.get() >= maxKeysPerMinute) {
+                key = new MinuteKey(minute, OVERFLOW_ENDPOINT, method);
+            }
+            rollup = rollups.computeIfAbsent(key, k -> {
+                keyCount.incrementAndGet();
+                return new MinuteRollup();
+            });
+        }
+        rollup.record(statusCode, durationNanos / 1000);
+    }
+
+    /**
+     * Lưu các phút đã đóng (cũ hơn phút trước) vào DB
+     */
+    @Scheduled(fixedDelayString = "${latency-metrics.flush-interval-ms:15000}")
+    public void flushClosedMinutes() {
+        flush(LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(1));
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        flush(LocalDateTime.MAX);
+    }
+
+    /**
+     * Tổng hợp theo endpoint trong [from, to): các phút đã lưu + các phút còn trong memory
+     */
+    public List<EndpointLatencySummary> summarize(LocalDateTime from, LocalDateTime to) {
+        Map<String, Aggregate> aggregates = new HashMap<>();
+        for (ApiLatencyRollup row : apiLatencyRollupRepository.findByBucketStartGreaterThanEqualAndBucketStartLessThan(from, to)) {
+            Aggregate aggregate = aggregates.computeIfAbsent(row.getMethod() + " " + row.getEndpoint(),
+                    k -> new Aggregate(row.getEndpoint(), row.getMethod()));
+            aggregate.add(row.getStatus2xx(), row.getStatus3xx(), row.getStatus4xx(), row.getStatus5xx(), row.getTotalMicros());
+            aggregate.histogram.add(LatencyHistogram.decode(row.getHistogram()));
+        }
+        for (Map.Entry<MinuteKey, MinuteRollup> entry : rollups.entrySet()) {
+            MinuteKey key = entry.getKey();
+            if (key.minute().isBefore(from) || !key.minute().isBefore(to)) {
+                continue;
+            }
+            MinuteRollup rollup = entry.getValue();
+            Aggregate aggregate = aggregates.computeIfAbsent(key.method() + " " + key.endpoint(),
+                    k -> new Aggregate(key.endpoint(), key.method()));
+            aggregate.add(rollup.statusCounts.get(0), rollup.statusCounts.get(1), rollup.statusCounts.get(2),
+                    rollup.statusCounts.get(3), rollup.totalMicros.get());
+            aggregate.histogram.add(rollup.histogram);
+        }
+
+        List<EndpointLatencySummary> result = new ArrayList<>(aggregates.size());
+        for (Aggregate aggregate : aggregates.values()) {
+            result.add(aggregate.toSummary());
+        }
+        result.sort(Comparator.comparingLong(EndpointLatencySummary::getRequestCount).reversed());
+        return result;
+    }
+
+    public int deleteOlderThan(LocalDateTime cutoff) {
+        return apiLatencyRollupRepository.deleteOlderThan(cutoff);
+    }
+
+    private void flush(LocalDateTime closedBefore) {
+        List<ApiLatencyRollup> rows = new ArrayList<>();
+        for (MinuteKey key : new ArrayList<>(rollups.keySet())) {
+            if (!key.minute().isBefore(closedBefore)) {
+                continue;
+            }
+            MinuteRollup rollup = rollups.remove(key);
+            if (rollup != null && rollup.histogram.getTotalCount() > 0) {
+                rows.add(rollup.toEntity(key, instanceId));
+            }
+        }
+        keysPerMinute.keySet().removeIf(minute -> minute.isBefore(closedBefore));
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            apiLatencyRollupRepository.saveAll(rows);
+            log.debug("Saved {} latency rollups", rows.size());
+        } catch (Exception e) {
+            // Mất số liệu của các phút này, không giữ lại để tránh phình bộ nhớ khi DB lỗi kéo dài
+            log.error("Failed to save {} latency rollups: {}", rows.size(), e.getMessage());
+        }
+    }
+
+    private static String resolveInstanceId() {
+        try {
+            String host = InetAddress.getLocalHost().getHostName();
+            return (host.length() > 50 ? host.substring(0, 50) : host) + "-" + UUID.randomUUID().toString().substring(0, 8);
+        } catch (Exception e) {
+            return "node-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+
+    private record MinuteKey(LocalDateTime minute, String endpoint, String method) {
+    }
+
+    private static final class MinuteRollup {
+
+        // 0: 2xx (và 1xx), 1: 3xx, 2: 4xx, 3: 5xx
+        private final AtomicLongArray statusCounts = new AtomicLongArray(4);
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        void record(int statusCode, long micros) {
+            statusCounts.incrementAndGet(statusClass(statusCode));
+            totalMicros.addAndGet(micros);
+            histogram.record(micros);
+        }
+
+        ApiLatencyRollup toEntity(MinuteKey key, String instanceId) {
+            return ApiLatencyRollup.builder()
+                    .bucketStart(key.minute())
+                    .endpoint(key.endpoint().length() > 255 ? key.endpoint().substring(0, 255) : key.endpoint())
+                    .method(key.method())
+                    .instanceId(instanceId)
+                    .requestCount(histogram.getTotalCount())
+                    .status2xx(statusCounts.get(0))
+                    .status3xx(statusCounts.get(1))
+                    .status4xx(statusCounts.get(2))
+                    .status5xx(statusCounts.get(3))
+                    .totalMicros(totalMicros.get())
+                    .maxMicros(histogram.getMaxValue())
+                    .p50Micros(histogram.valueAtPercentile(50))
+                    .p90Micros(histogram.valueAtPercentile(90))
+                    .p99Micros(histogram.valueAtPercentile(99))
+                    .histogram(histogram.encode())
+                    .build();
+        }
+
+        private static int statusClass(int statusCode) {
+            if (statusCode >= 500) {
+                return 3;
+            }
+            if (statusCode >= 400) {
+                return 2;
+            }
+            return statusCode >= 300 ? 1 : 0;
+        }
+    }
+
+    private static final class Aggregate {
+
+        private final String endpoint;
+        private final String method;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long status2xx;
+        private long status3xx;
+        private long status4xx;
+        private long status5xx;
+        private long totalMicros;
+
+        Aggregate(String endpoint, String method) {
+            this.endpoint = endpoint;
+            this.method = method;
+        }
+
+        void add(long s2xx, long s3xx, long s4xx, long s5xx, long micros) {
+            status2xx += s2xx;
+            status3xx += s3xx;
+            status4xx += s4xx;
+            status5xx += s5xx;
+            totalMicros += micros;
+        }
+
+        EndpointLatencySummary toSummary() {
+            long count = histogram.getTotalCount();
+            return EndpointLatencySummary.builder()
+                    .endpoint(endpoint)
+                    .method(method)
+                    .requestCount(count)
+                    .status2xx(status2xx)
+                    .status3xx(status3xx)
+                    .status4xx(status4xx)
+                    .status5xx(status5xx)
+                    .avgMs(count > 0 ? totalMicros / 1000.0 / count : 0)
+                    .p50Ms(histogram.valueAtPercentile(50) / 1000.0)
+                    .p90Ms(histogram.valueAtPercentile(90) / 1000.0)
+                    .p99Ms(histogram.valueAtPercentile(99) / 1000.0)
+                    .maxMs(histogram.getMaxValue() / 1000.0)
+                    .build();
+        }
+    }
+}
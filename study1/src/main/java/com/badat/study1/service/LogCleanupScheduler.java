@@ -1,9 +1,8 @@
 package com.badat.study1.service;
 
-import com.badat.study1.repository.ApiCallLogRepository;
-import com.badat.study1.repository.UserActivityLogRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -14,99 +13,41 @@ import java.time.LocalDateTime;
 @RequiredArgsConstructor
 public class LogCleanupScheduler {
     
-    private final UserActivityLogRepository userActivityLogRepository;
-    private final ApiCallLogRepository apiCallLogRepository;
+    private final LogPartitionService logPartitionService;
+    private final LatencyMetricsService latencyMetricsService;
+    
+    @Value("${log.retention.latency-rollup-days:90}")
+    private int latencyRollupRetentionDays;
     
     /**
      * Cleanup old logs daily at 2 AM
-     * - UserActivityLog: Keep 90 days
-     * - ApiCallLog: Keep 30 days
+     * - UserActivityLog: Keep 90 days (log.retention.user-activity-log-days)
+     * - ApiCallLog: Keep 30 days (log.retention.api-call-log-days)
+     * - ApiLatencyRollup: Keep 90 days (log.retention.latency-rollup-days)
+     * - Bảng đã partition: tạo trước partition ngày tới + DROP PARTITION ngày quá hạn
      */
     @Scheduled(cron = "0 0 2 * * ?")
     public void cleanupOldLogs() {
+        log.info("Starting log cleanup process...");
+        cleanup(LogPartitionService.USER_ACTIVITY_LOG);
+        cleanup(LogPartitionService.API_CALL_LOG);
         try {
-            log.info("Starting log cleanup process...");
-            
-            // Calculate cutoff dates
-            LocalDateTime userActivityCutoff = LocalDateTime.now().minusDays(90);
-            LocalDateTime apiCallCutoff = LocalDateTime.now().minusDays(30);
-            
-            // Cleanup UserActivityLog (90 days retention)
-            long userActivityDeleted = userActivityLogRepository.countByCreatedAtBefore(userActivityCutoff);
-            if (userActivityDeleted > 0) {
-                userActivityLogRepository.deleteByCreatedAtBefore(userActivityCutoff);
-                log.info("Deleted {} old user activity logs (older than 90 days)", userActivityDeleted);
-            }
-            
-            // Cleanup ApiCallLog (30 days retention)
-            long apiCallDeleted = apiCallLogRepository.countByCreatedAtBefore(apiCallCutoff);
-            if (apiCallDeleted > 0) {
-                apiCallLogRepository.deleteByCreatedAtBefore(apiCallCutoff);
-                log.info("Deleted {} old API call logs (older than 30 days)", apiCallDeleted);
+            // Rollup độ trễ theo phút giữ lâu hơn log thô
+            int deleted = latencyMetricsService.deleteOlderThan(LocalDateTime.now().minusDays(latencyRollupRetentionDays));
+            if (deleted > 0) {
+                log.info("Deleted {} old latency rollups (older than {} days)", deleted, latencyRollupRetentionDays);
             }
-            
-            log.info("Log cleanup process completed successfully");
-            
         } catch (Exception e) {
-            log.error("Error during log cleanup process: {}", e.getMessage(), e);
+            log.error("Error during latency rollup cleanup: {}", e.getMessage(), e);
         }
+        log.info("Log cleanup process completed");
     }
     
-    /**
-     * Weekly cleanup for additional maintenance
-     * Runs every Sunday at 3 AM
-     */
-    @Scheduled(cron = "0 0 3 * * SUN")
-    public void weeklyMaintenance() {
+    private void cleanup(String table) {
         try {
-            log.info("Starting weekly log maintenance...");
-            
-            // Additional cleanup for very old logs (1 year)
-            LocalDateTime oneYearAgo = LocalDateTime.now().minusYears(1);
-            
-            long veryOldUserLogs = userActivityLogRepository.countByCreatedAtBefore(oneYearAgo);
-            long veryOldApiLogs = apiCallLogRepository.countByCreatedAtBefore(oneYearAgo);
-            
-            if (veryOldUserLogs > 0) {
-                userActivityLogRepository.deleteByCreatedAtBefore(oneYearAgo);
-                log.info("Deleted {} very old user activity logs (older than 1 year)", veryOldUserLogs);
-            }
-            
-            if (veryOldApiLogs > 0) {
-                apiCallLogRepository.deleteByCreatedAtBefore(oneYearAgo);
-                log.info("Deleted {} very old API call logs (older than 1 year)", veryOldApiLogs);
-            }
-            
-            log.info("Weekly log maintenance completed");
-            
+            logPartitionService.applyRetention(table);
         } catch (Exception e) {
-            log.error("Error during weekly log maintenance: {}", e.getMessage(), e);
+            log.error("Error during log cleanup of {}: {}", table, e.getMessage(), e);
         }
     }
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
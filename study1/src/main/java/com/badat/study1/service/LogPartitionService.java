@@ -0,0 +1,183 @@
+package com.badat.study1.service;
+
+import com.badat.study1.repository.LogPartitionJdbcRepository;
+import com.badat.study1.repository.LogPartitionJdbcRepository.PartitionInfo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Quản lý partition theo ngày cho bảng log
+ * - Tạo trước partition cho precreate-days ngày tới (tách từ p_future rỗng, chỉ đổi metadata)
+ * - Retention: DROP PARTITION các ngày đã quá hạn thay vì DELETE từng dòng
+ * - Bảng chưa partition (MySQL cũ, H2...) thì fallback xóa theo lô nhỏ
+ * - Chuyển bảng sang partition là migration 1 lần do admin chủ động chạy (convertToPartitioned), không chạy lúc khởi động
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LogPartitionService {
+
+    public static final String API_CALL_LOG = "api_call_log";
+    public static final String USER_ACTIVITY_LOG = "user_activity_log";
+
+    private static final DateTimeFormatter PARTITION_DATE = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+    private static final int DELETE_CHUNK_SIZE = 5000;
+
+    private final LogPartitionJdbcRepository logPartitionJdbcRepository;
+
+    @Value("${log.partition.enabled:true}")
+    private boolean partitionEnabled;
+
+    @Value("${log.partition.precreate-days:7}")
+    private int precreateDays;
+
+    @Value("${log.partition.inline-max-rows:2000000}")
+    private long inlineConversionMaxRows;
+
+    @Value("${log.retention.api-call-log-days:30}")
+    private int apiCallLogRetentionDays;
+
+    @Value("${log.retention.user-activity-log-days:90}")
+    private int userActivityLogRetentionDays;
+
+    private final AtomicBoolean conversionRunning = new AtomicBoolean();
+
+    /**
+     * Ngày cũ nhất còn giữ log của bảng - admin query mặc định lọc từ mốc này để MySQL chỉ quét partition còn hạn
+     */
+    public LocalDateTime retentionStart(String table) {
+        return LocalDate.now().minusDays(retentionDays(table)).atStartOfDay();
+    }
+
+    /**
+     * Chuyển bảng sang partition theo ngày - migration 1 lần, admin gọi qua API maintenance (không chạy lúc khởi động)
+     * - Đổi PK thành (id, created_at) rồi PARTITION BY RANGE: cả 2 đều copy toàn bộ bảng và chặn ghi trong lúc chạy
+     *   (log ghi qua buffer async nên chỉ bị dồn / drop, request không bị chặn)
+     * - Chỉ chạy inline khi bảng nhỏ hơn log.partition.inline-max-rows (ước lượng); bảng lớn hơn thì chạy online
+     *   ngoài ứng dụng bằng pt-online-schema-change / gh-ost với cùng DDL, vd:
+     *   pt-online-schema-change --alter "DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at)" D=mmo_market,t=api_call_log --execute
+     *   rồi lần 2 với --alter "PARTITION BY RANGE (TO_DAYS(created_at)) (...)"; sau đó retention job tự tạo partition mới
+     * - Mỗi node chỉ chạy 1 conversion cùng lúc; bảng đã partition thì bỏ qua
+     */
+    public ConversionResult convertToPartitioned(String table) {
+        if (!API_CALL_LOG.equals(table) && !USER_ACTIVITY_LOG.equals(table)) {
+            throw new IllegalArgumentException("Bảng không hỗ trợ partition: " + table);
+        }
+        if (!partitionEnabled) {
+            return new ConversionResult(table, "SKIPPED", "log.partition.enabled = false");
+        }
+        if (!conversionRunning.compareAndSet(false, true)) {
+            return new ConversionResult(table, "REJECTED", "Đang có bảng khác được chuyển đổi");
+        }
+        try {
+            if (!logPartitionJdbcRepository.findPartitions(table).isEmpty()) {
+                ensureFuturePartitions(table);
+                return new ConversionResult(table, "ALREADY_PARTITIONED", "Bảng đã được partition");
+            }
+            long estimatedRows = logPartitionJdbcRepository.estimateRows(table);
+            if (estimatedRows > inlineConversionMaxRows) {
+                return new ConversionResult(table, "REJECTED", "Bảng có khoảng " + estimatedRows
+                        + " dòng (> " + inlineConversionMaxRows + "), chạy bằng pt-online-schema-change / gh-ost");
+            }
+            log.info("Converting {} (~{} rows) to daily partitions...", table, estimatedRows);
+            if (!List.of("id", "created_at").equals(logPartitionJdbcRepository.findPrimaryKeyColumns(table))) {
+                logPartitionJdbcRepository.includeCreatedAtInPrimaryKey(table);
+            }
+            LocalDate today = LocalDate.now();
+            logPartitionJdbcRepository.partitionByDay(table, today.minusDays(retentionDays(table)), today.plusDays(precreateDays));
+            log.info("Converted {} to daily partitions", table);
+            return new ConversionResult(table, "CONVERTED", "Đã chuyển sang partition theo ngày");
+        } catch (Exception e) {
+            log.error("Failed to partition {}: {}", table, e.getMessage(), e);
+            return new ConversionResult(table, "FAILED", e.getMessage());
+        } finally {
+            conversionRunning.set(false);
+        }
+    }
+
+    /**
+     * Tạo trước partition + bỏ dữ liệu quá hạn
+     */
+    public void applyRetention(String table) {
+        LocalDateTime cutoff = retentionStart(table);
+        List<PartitionInfo> partitions = List.of();
+        if (partitionEnabled) {
+            try {
+                partitions = logPartitionJdbcRepository.findPartitions(table);
+            } catch (Exception e) {
+                log.warn("Cannot read partitions of {}: {}", table, e.getMessage());
+            }
+        }
+        if (partitions.isEmpty()) {
+            deleteInChunks(table, cutoff);
+            return;
+        }
+
+        ensureFuturePartitions(table);
+
+        // Partition có cận trên <= ngày cutoff chỉ chứa dòng quá hạn
+        long cutoffDays = logPartitionJdbcRepository.toDays(cutoff.toLocalDate());
+        List<String> expired = new ArrayList<>();
+        for (PartitionInfo partition : partitions) {
+            if (partition.upperBound() != null && partition.upperBound() <= cutoffDays) {
+                expired.add(partition.name());
+            }
+        }
+        if (!expired.isEmpty()) {
+            logPartitionJdbcRepository.dropPartitions(table, expired);
+            log.info("Dropped {} expired partitions of {}: {}", expired.size(), table, expired);
+        }
+    }
+
+    private void ensureFuturePartitions(String table) {
+        LocalDate lastWanted = LocalDate.now().plusDays(precreateDays);
+        LocalDate lastExisting = null;
+        for (PartitionInfo partition : logPartitionJdbcRepository.findPartitions(table)) {
+            LocalDate day = parsePartitionDate(partition.name());
+            if (day != null && (lastExisting == null || day.isAfter(lastExisting))) {
+                lastExisting = day;
+            }
+        }
+        LocalDate firstMissing = lastExisting != null ? lastExisting.plusDays(1) : LocalDate.now();
+        if (!firstMissing.isAfter(lastWanted)) {
+            logPartitionJdbcRepository.addDailyPartitions(table, firstMissing, lastWanted);
+            log.info("Created partitions of {} from {} to {}", table, firstMissing, lastWanted);
+        }
+    }
+
+    private void deleteInChunks(String table, LocalDateTime cutoff) {
+        long total = 0;
+        int deleted;
+        do {
+            deleted = logPartitionJdbcRepository.deleteOlderThan(table, cutoff, DELETE_CHUNK_SIZE);
+            total += deleted;
+        } while (deleted >= DELETE_CHUNK_SIZE);
+        if (total > 0) {
+            log.info("Deleted {} expired rows from {} (table is not partitioned)", total, table);
+        }
+    }
+
+    private int retentionDays(String table) {
+        return USER_ACTIVITY_LOG.equals(table) ? userActivityLogRetentionDays : apiCallLogRetentionDays;
+    }
+
+    public record ConversionResult(String table, String status, String message) {
+    }
+
+    private static LocalDate parsePartitionDate(String partitionName) {
+        try {
+            return LocalDate.parse(partitionName, PARTITION_DATE);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
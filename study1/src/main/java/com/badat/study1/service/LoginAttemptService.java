@@ -18,6 +18,7 @@ public class LoginAttemptService {
     private final RedisTemplate<String, Object> redisTemplate;
     private final UserRepository userRepository;
     private final AuditLogService auditLogService;
+    private final PrincipalCacheService principalCacheService;
     
     private static final int MAX_LOGIN_ATTEMPTS = 5;
     private static final int LOCKOUT_DURATION_MINUTES = 1; // Reduced to 1 minute for testing
@@ -92,6 +93,7 @@ public class LoginAttemptService {
                 User user = userOpt.get();
                 user.setStatus(User.Status.LOCKED);
                 userRepository.save(user);
+                principalCacheService.evictUser(user.getId());
                 
                 // Set lock in Redis
                 String lockKey = ACCOUNT_LOCKED_KEY_PREFIX + username;
@@ -116,6 +118,7 @@ public class LoginAttemptService {
                 User user = userOpt.get();
                 user.setStatus(User.Status.ACTIVE);
                 userRepository.save(user);
+                principalCacheService.evictUser(user.getId());
                 
                 // Remove lock from Redis
                 String lockKey = ACCOUNT_LOCKED_KEY_PREFIX + username;
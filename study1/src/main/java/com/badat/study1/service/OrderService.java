@@ -1,5 +1,6 @@
 package com.badat.study1.service;
 
+import com.badat.study1.dto.CartSnapshot;
 import com.badat.study1.model.*;
 import com.badat.study1.repository.OrderRepository;
 import com.badat.study1.repository.OrderItemRepository;
@@ -43,23 +44,31 @@ public class OrderService {
     @Transactional
     public Order createOrderFromCart(Long buyerId, List<Map<String, Object>> cartItems,
                                      String paymentMethod, String notes, String customOrderCode) {
+        return createOrderFromCart(buyerId, CartSnapshot.fromCartItems(cartItems), paymentMethod, notes, customOrderCode);
+    }
+
+    /**
+     * Tạo order mới với nhiều sản phẩm từ cart snapshot đã parse sẵn
+     */
+    @Transactional
+    public Order createOrderFromCart(Long buyerId, CartSnapshot cart,
+                                     String paymentMethod, String notes, String customOrderCode) {
 
+        List<CartSnapshot.Item> cartItems = cart.getItems();
         log.info("Creating order from cart for buyer: {} with {} items", buyerId, cartItems.size());
 
         // Tạo order code unique hoặc sử dụng customOrderCode
         String orderCode = customOrderCode != null ? customOrderCode : generateOrderCode();
 
         // Lấy thông tin shop, product, seller từ cart item đầu tiên
-        Map<String, Object> firstCartItem = cartItems.get(0);
+        CartSnapshot.Item firstCartItem = cartItems.get(0);
         
         // Lấy productId (Product cha) từ cart item
-        Object productIdObj = firstCartItem.get("productId");
+        Long productId = firstCartItem.getProductId();
         
-        if (productIdObj == null) {
+        if (productId == null) {
             throw new RuntimeException("Missing productId in cart item");
         }
-        
-        Long productId = Long.valueOf(productIdObj.toString());
 
         // Lấy thông tin product để lấy shopId
         Product product = productRepository.findById(productId)
@@ -92,33 +101,21 @@ public class OrderService {
         BigDecimal totalCommissionAmount = BigDecimal.ZERO;
         BigDecimal totalSellerAmount = BigDecimal.ZERO;
 
-        for (Map<String, Object> cartItem : cartItems) {
+        for (CartSnapshot.Item cartItem : cartItems) {
             try {
-                // Validate và lấy các giá trị từ cartItem
-                // Lấy productVariantId (ưu tiên) hoặc productId (backward compatibility)
-                Object productVariantIdObj = cartItem.get("productVariantId");
-                if (productVariantIdObj == null) {
-                    productVariantIdObj = cartItem.get("productId"); // Fallback
-                }
-                
-                Object warehouseIdObj = cartItem.get("warehouseId");
-                Object quantityObj = cartItem.get("quantity");
-                Object priceObj = cartItem.get("price");
-                Object parentProductIdObj = cartItem.get("productId"); // ID của Product cha
-                Object variantNameObj = cartItem.get("name");
-
-                if (productVariantIdObj == null || warehouseIdObj == null || quantityObj == null ||
-                        priceObj == null || parentProductIdObj == null) {
+                // Validate các giá trị bắt buộc của cart item
+                if (cartItem.getProductVariantId() == null || cartItem.getWarehouseId() == null ||
+                        cartItem.getUnitPrice() == null || cartItem.getProductId() == null) {
                     log.error("Missing required fields in cart item: {}", cartItem);
                     throw new RuntimeException("Missing required fields in cart item");
                 }
 
-                Long productVariantId = Long.valueOf(productVariantIdObj.toString());
-                Long warehouseId = Long.valueOf(warehouseIdObj.toString());
-                Integer quantity = Integer.valueOf(quantityObj.toString());
-                BigDecimal unitPrice = new BigDecimal(priceObj.toString());
+                Long productVariantId = cartItem.getProductVariantId();
+                Long warehouseId = cartItem.getWarehouseId();
+                int quantity = cartItem.getQuantity();
+                BigDecimal unitPrice = cartItem.getUnitPrice();
                 // Lấy productId (Product cha)
-                Long itemProductId = Long.valueOf(parentProductIdObj.toString());
+                Long itemProductId = cartItem.getProductId();
 
                 // Lấy thông tin product để tính commission
                 BigDecimal commissionRate = getCommissionRate(itemProductId);
@@ -147,7 +144,7 @@ public class OrderService {
                             .sellerId(itemSellerId) // Sẽ được cập nhật trong PaymentQueueService
                             .shopId(product.getShopId()) // Thêm shop_id
                             .productId(itemProductId) // Thêm product_id (product parent)
-                            .productVariantName(variantNameObj != null ? variantNameObj.toString() : null)
+                            .productVariantName(cartItem.getName())
                             .status(OrderItem.Status.PENDING)
                             .notes("Order item from cart - item " + (i + 1) + " of " + quantity)
                             .build();
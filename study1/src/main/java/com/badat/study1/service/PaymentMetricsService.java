@@ -0,0 +1,307 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.PaymentQueue;
+import com.badat.study1.repository.PaymentQueueRepository;
+import com.badat.study1.util.LatencyHistogram;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Meter in-process cho payment pipeline - PaymentQueueService ghi trực tiếp, không đọc DB
+ * - Counter + rate 60 giây trượt: enqueue, completed, failed, claimed
+ * - Timer theo stage (LatencyHistogram): lock wait, giữ hàng Redis, lock warehouse, hold tiền, tạo order, tổng xử lý
+ * - Gauge: số payment đang xử lý trên node này (chính xác); độ sâu queue toàn cluster lấy từ 1 query GROUP BY
+ *   trên các status còn hoạt động (PENDING/PROCESSING, đi index status) mỗi depth-refresh-ms
+ * - Đăng ký vào MeterRegistry (Actuator /actuator/metrics): payment.queue.* và payment.processing.stage theo tag stage
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentMetricsService {
+
+    public enum Stage {
+        LOCK_WAIT, STOCK_RESERVATION, WAREHOUSE_RESERVATION, WALLET_HOLD, ORDER_CREATION, PROCESSING_TOTAL
+    }
+
+    private final PaymentQueueRepository paymentQueueRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final RateMeter enqueued = new RateMeter();
+    private final RateMeter completed = new RateMeter();
+    private final RateMeter failed = new RateMeter();
+    private final RateMeter claimed = new RateMeter();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Map<Stage, StageTimer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<Stage, Timer> stageMeters = new EnumMap<>(Stage.class);
+
+    private volatile long pendingDepth;
+    private volatile long processingDepth;
+    private volatile Instant depthSampledAt;
+
+    {
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, new StageTimer());
+        }
+    }
+
+    @PostConstruct
+    public void registerMeters() {
+        registerCounter("payment.queue.enqueued", "Payment đã enqueue (transaction commit)", enqueued);
+        registerCounter("payment.queue.completed", "Payment xử lý thành công", completed);
+        registerCounter("payment.queue.failed", "Payment xử lý thất bại", failed);
+        registerCounter("payment.queue.claimed", "Payment đã claim để xử lý", claimed);
+
+        Gauge.builder("payment.queue.inflight", inFlight, AtomicLong::get)
+                .description("Payment đang xử lý trên node này")
+                .register(meterRegistry);
+        Gauge.builder("payment.queue.depth", this, PaymentMetricsService::getPendingDepth)
+                .description("Độ sâu queue toàn cluster (cập nhật mỗi depth-refresh-ms)")
+                .tag("status", PaymentQueue.Status.PENDING.name())
+                .register(meterRegistry);
+        Gauge.builder("payment.queue.depth", this, PaymentMetricsService::getProcessingDepth)
+                .description("Độ sâu queue toàn cluster (cập nhật mỗi depth-refresh-ms)")
+                .tag("status", PaymentQueue.Status.PROCESSING.name())
+                .register(meterRegistry);
+
+        for (Stage stage : Stage.values()) {
+            stageMeters.put(stage, Timer.builder("payment.processing.stage")
+                    .description("Thời gian từng stage xử lý payment")
+                    .tag("stage", stage.name().toLowerCase())
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Đếm enqueue khi transaction enqueue commit (rollback do hết hàng/số dư không tính)
+     */
+    public void markEnqueued() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        enqueued.mark(1);
+                    }
+                }
+            });
+        } else {
+            enqueued.mark(1);
+        }
+    }
+
+    public void markClaimed(int count) {
+        if (count > 0) {
+            claimed.mark(count);
+        }
+    }
+
+    public void markProcessingStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void markCompleted(long startNanos) {
+        completed.mark(1);
+        finish(startNanos);
+    }
+
+    public void markFailed(long startNanos) {
+        failed.mark(1);
+        finish(startNanos);
+    }
+
+    public void recordStage(Stage stage, long durationNanos) {
+        stageTimers.get(stage).record(durationNanos / 1000);
+        Timer meter = stageMeters.get(stage);
+        if (meter != null) {
+            meter.record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Cập nhật độ sâu queue (PENDING/PROCESSING) toàn cluster - không đếm COMPLETED/FAILED (toàn bộ lịch sử)
+     */
+    @Scheduled(fixedDelayString = "${payment.metrics.depth-refresh-ms:60000}")
+    public void refreshQueueDepth() {
+        try {
+            long pending = 0;
+            long processing = 0;
+            for (Object[] row : paymentQueueRepository.countActiveByStatus(
+                    List.of(PaymentQueue.Status.PENDING, PaymentQueue.Status.PROCESSING))) {
+                long count = ((Number) row[1]).longValue();
+                if (row[0] == PaymentQueue.Status.PENDING) {
+                    pending = count;
+                } else {
+                    processing = count;
+                }
+            }
+            pendingDepth = pending;
+            processingDepth = processing;
+            depthSampledAt = Instant.now();
+        } catch (Exception e) {
+            log.error("Error refreshing payment queue depth: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Đóng cửa sổ đo của các stage timer, trả về số liệu của cửa sổ vừa đóng
+     */
+    public Map<Stage, StageSnapshot> rotateStageWindows() {
+        Map<Stage, StageSnapshot> result = new EnumMap<>(Stage.class);
+        for (Map.Entry<Stage, StageTimer> entry : stageTimers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().rotate());
+        }
+        return result;
+    }
+
+    /**
+     * Số liệu của cửa sổ gần nhất đã đóng (không rotate)
+     */
+    public Map<Stage, StageSnapshot> lastStageWindows() {
+        Map<Stage, StageSnapshot> result = new EnumMap<>(Stage.class);
+        for (Map.Entry<Stage, StageTimer> entry : stageTimers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().last);
+        }
+        return result;
+    }
+
+    public long getEnqueuedTotal() {
+        return enqueued.total();
+    }
+
+    public long getCompletedTotal() {
+        return completed.total();
+    }
+
+    public long getFailedTotal() {
+        return failed.total();
+    }
+
+    public long getClaimedTotal() {
+        return claimed.total();
+    }
+
+    public long getEnqueueRatePerMinute() {
+        return enqueued.lastMinute();
+    }
+
+    public long getCompletionRatePerMinute() {
+        return completed.lastMinute();
+    }
+
+    public long getFailureRatePerMinute() {
+        return failed.lastMinute();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getPendingDepth() {
+        return pendingDepth;
+    }
+
+    public long getProcessingDepth() {
+        return processingDepth;
+    }
+
+    public Instant getDepthSampledAt() {
+        return depthSampledAt;
+    }
+
+    private void registerCounter(String name, String description, RateMeter meter) {
+        FunctionCounter.builder(name, meter, RateMeter::total)
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    private void finish(long startNanos) {
+        inFlight.decrementAndGet();
+        recordStage(Stage.PROCESSING_TOTAL, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Số liệu 1 cửa sổ của stage timer, đơn vị ms
+     */
+    public record StageSnapshot(long count, double p50Ms, double p99Ms, double maxMs) {
+
+        static final StageSnapshot EMPTY = new StageSnapshot(0, 0, 0, 0);
+    }
+
+    /**
+     * Counter tổng + 60 slot 1 giây cho rate phút gần nhất
+     * - Slot được dùng lại khi sang giây mới; một vài mark trùng lúc reset slot có thể bị mất (chấp nhận cho monitoring)
+     */
+    private static final class RateMeter {
+
+        private static final int SLOTS = 60;
+
+        private final LongAdder total = new LongAdder();
+        private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+        private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+
+        void mark(long n) {
+            total.add(n);
+            long second = System.currentTimeMillis() / 1000;
+            int slot = (int) (second % SLOTS);
+            long slotSecond = seconds.get(slot);
+            if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+                counts.set(slot, 0);
+            }
+            counts.addAndGet(slot, n);
+        }
+
+        long lastMinute() {
+            long now = System.currentTimeMillis() / 1000;
+            long sum = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                if (now - seconds.get(i) < SLOTS) {
+                    sum += counts.get(i);
+                }
+            }
+            return sum;
+        }
+
+        long total() {
+            return total.sum();
+        }
+    }
+
+    private static final class StageTimer {
+
+        private final AtomicReference<LatencyHistogram> current = new AtomicReference<>(new LatencyHistogram());
+        private volatile StageSnapshot last = StageSnapshot.EMPTY;
+
+        void record(long micros) {
+            current.get().record(micros);
+        }
+
+        StageSnapshot rotate() {
+            LatencyHistogram closed = current.getAndSet(new LatencyHistogram());
+            last = new StageSnapshot(closed.getTotalCount(),
+                    closed.valueAtPercentile(50) / 1000.0,
+                    closed.valueAtPercentile(99) / 1000.0,
+                    closed.getMaxValue() / 1000.0);
+            return last;
+        }
+    }
+}
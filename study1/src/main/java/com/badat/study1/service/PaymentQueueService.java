@@ -8,12 +8,15 @@ import com.badat.study1.model.OrderItem;
 import com.badat.study1.repository.PaymentQueueRepository;
 import com.badat.study1.repository.WalletRepository;
 import com.badat.study1.repository.OrderItemRepository;
+import com.badat.study1.configuration.NodeIdentity;
+import com.badat.study1.dto.CartSnapshot;
 import com.badat.study1.event.PaymentEvent;
+import com.badat.study1.util.CartSnapshotCodec;
 import org.springframework.integration.redis.util.RedisLockRegistry;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -23,7 +26,10 @@ import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 
 @Service
@@ -35,11 +41,23 @@ public class PaymentQueueService {
     private final WalletHoldService walletHoldService;
     private final WalletRepository walletRepository;
     private final WarehouseLockService warehouseLockService;
+    private final StockCounterService stockCounterService;
     private final OrderService orderService;
     private final OrderItemRepository orderItemRepository;
     private final ObjectMapper objectMapper;
     private final RedisLockRegistry redisLockRegistry;
     private final ApplicationEventPublisher eventPublisher;
+    private final PaymentMetricsService paymentMetricsService;
+    private final NodeIdentity nodeIdentity;
+    
+    @Value("${payment.queue.shard-count:8}")
+    private int shardCount;
+    
+    @Value("${payment.queue.claim-lease-seconds:120}")
+    private long claimLeaseSeconds;
+    
+    // Payment đã claim mà chưa xử lý xong trên node này - lease được gia hạn định kỳ tới khi xong
+    private final Set<Long> ownedPayments = ConcurrentHashMap.newKeySet();
     
     /**
      * Thêm payment request vào queue với validation stock trước và user-level lock
@@ -53,47 +71,47 @@ public class PaymentQueueService {
         Lock userPaymentLock = redisLockRegistry.obtain(userPaymentLockKey);
         
         try {
-            if (userPaymentLock.tryLock(5, java.util.concurrent.TimeUnit.SECONDS)) {
+            long lockStart = System.nanoTime();
+            boolean locked = userPaymentLock.tryLock(5, java.util.concurrent.TimeUnit.SECONDS);
+            paymentMetricsService.recordStage(PaymentMetricsService.Stage.LOCK_WAIT, System.nanoTime() - lockStart);
+            if (locked) {
                 log.info("Acquired user payment lock for user: {}", userId);
                 
-                try {
-                    // 1. Kiểm tra xem user có payment đang pending không
-                    List<PaymentQueue> pendingPayments = paymentQueueRepository
-                        .findByUserIdAndStatusOrderByCreatedAtDesc(userId, PaymentQueue.Status.PENDING);
-                    
-                    if (!pendingPayments.isEmpty()) {
-                        log.warn("User {} already has {} pending payments. Rejecting new payment request.", 
-                            userId, pendingPayments.size());
-                        throw new RuntimeException("Bạn đã có thanh toán đang chờ xử lý. Vui lòng đợi hoàn tất trước khi tạo thanh toán mới.");
-                    }
-                    
-                    // 2. VALIDATE STOCK TRƯỚC KHI ENQUEUE
-                    validateStockAvailability(cartItems);
-                    
-                    // 3. Kiểm tra số dư ví
-                    validateUserBalance(userId, totalAmount);
-                    
-                    String cartData = objectMapper.writeValueAsString(cartItems);
-                    
-                    PaymentQueue paymentQueue = PaymentQueue.builder()
-                        .userId(userId)
-                        .cartData(cartData)
-                        .totalAmount(totalAmount)
-                        .status(PaymentQueue.Status.PENDING)
-                        .build();
-                        
-                    paymentQueueRepository.save(paymentQueue);
-                    
-                    // Publish event để trigger xử lý ngay lập tức
-                    eventPublisher.publishEvent(PaymentEvent.paymentCreated(this, paymentQueue.getId(), userId));
-                    
-                    log.info("Payment queued successfully with ID: {} for user: {}", paymentQueue.getId(), userId);
-                    return paymentQueue.getId();
-                    
-                } catch (JsonProcessingException e) {
-                    log.error("Failed to serialize cart data", e);
-                    throw new RuntimeException("Failed to serialize cart data", e);
+                // 1. Kiểm tra xem user có payment đang pending không
+                List<PaymentQueue> pendingPayments = paymentQueueRepository
+                    .findByUserIdAndStatusOrderByCreatedAtDesc(userId, PaymentQueue.Status.PENDING);
+                
+                if (!pendingPayments.isEmpty()) {
+                    log.warn("User {} already has {} pending payments. Rejecting new payment request.", 
+                        userId, pendingPayments.size());
+                    throw new RuntimeException("Bạn đã có thanh toán đang chờ xử lý. Vui lòng đợi hoàn tất trước khi tạo thanh toán mới.");
                 }
+                
+                // 2. Parse cart 1 lần duy nhất sang snapshot có kiểu
+                CartSnapshot cart = toCartSnapshot(cartItems);
+                
+                // 3. Kiểm tra số dư ví
+                validateUserBalance(userId, totalAmount);
+                
+                PaymentQueue paymentQueue = PaymentQueue.builder()
+                    .userId(userId)
+                    .shardId(shardOf(userId))
+                    .cartSnapshot(CartSnapshotCodec.encode(cart))
+                    .totalAmount(totalAmount)
+                    .status(PaymentQueue.Status.PENDING)
+                    .build();
+                    
+                paymentQueueRepository.save(paymentQueue);
+                
+                // 4. GIỮ HÀNG TRƯỚC KHI ENQUEUE - lỗi thì rollback luôn payment vừa insert
+                validateStockAvailability(paymentQueue.getId(), cart);
+                
+                // Publish event để trigger xử lý ngay lập tức
+                eventPublisher.publishEvent(PaymentEvent.paymentCreated(this, paymentQueue.getId(), userId));
+                paymentMetricsService.markEnqueued();
+                
+                log.info("Payment queued successfully with ID: {} for user: {}", paymentQueue.getId(), userId);
+                return paymentQueue.getId();
             } else {
                 log.warn("Failed to acquire user payment lock for user: {} - another payment is in progress", userId);
                 throw new RuntimeException("Bạn đang có thanh toán đang được xử lý. Vui lòng đợi hoàn tất trước khi tạo thanh toán mới.");
@@ -108,69 +126,26 @@ public class PaymentQueueService {
     }
     
     /**
-     * Validate stock availability trước khi enqueue payment với Redis lock
+     * Validate và giữ hàng cho cả giỏ trong 1 Lua script (all-or-nothing) thay vì lock + COUNT từng variant.
+     * Reservation được trả lại khi worker đã lock hàng trong DB, hoặc tự hết hạn theo TTL.
      */
-    private void validateStockAvailability(List<Map<String, Object>> cartItems) {
-        log.info("Validating stock availability for {} cart items", cartItems.size());
-        
-        // Tạo map để group theo productVariantId và tính tổng quantity
-        Map<Long, Integer> productVariantQuantities = new java.util.HashMap<>();
-        for (Map<String, Object> cartItem : cartItems) {
-            // Lấy productVariantId từ cart item
-            Long productVariantId = null;
-            if (cartItem.containsKey("productVariantId")) {
-                productVariantId = Long.valueOf(cartItem.get("productVariantId").toString());
-            } else if (cartItem.containsKey("productId")) {
-                // Fallback: nếu vẫn dùng productId (backward compatibility)
-                productVariantId = Long.valueOf(cartItem.get("productId").toString());
-            }
-            
-            if (productVariantId == null) {
-                throw new RuntimeException("Không tìm thấy productVariantId trong cart item");
-            }
-            
-            Integer quantity = Integer.valueOf(cartItem.get("quantity").toString());
-            productVariantQuantities.put(productVariantId, productVariantQuantities.getOrDefault(productVariantId, 0) + quantity);
-        }
+    private void validateStockAvailability(Long paymentId, CartSnapshot cart) {
+        log.info("Validating stock availability for {} cart items", cart.getItems().size());
         
-        // Validate từng productVariant với Redis lock
-        for (Map.Entry<Long, Integer> entry : productVariantQuantities.entrySet()) {
-            Long productVariantId = entry.getKey();
-            Integer requiredQuantity = entry.getValue();
-            
-            String lockKey = "stock:validate:" + productVariantId;
-            Lock lock = redisLockRegistry.obtain(lockKey);
-            
-            try {
-                if (lock.tryLock(3, java.util.concurrent.TimeUnit.SECONDS)) {
-                    log.info("Acquired stock validation lock for productVariant: {}", productVariantId);
-                    
-                    // Kiểm tra số lượng có sẵn trong lock (sử dụng productVariantId)
-                    long availableCount = warehouseLockService.getAvailableStockCountByVariant(productVariantId);
-                    
-                    if (availableCount < requiredQuantity) {
-                        log.warn("Insufficient stock for productVariant {}. Required: {}, Available: {}", 
-                            productVariantId, requiredQuantity, availableCount);
-                        throw new RuntimeException("Không đủ hàng cho sản phẩm ID: " + productVariantId + 
-                            " (cần " + requiredQuantity + ", chỉ có " + availableCount + ")");
-                    }
-                    
-                    log.info("Stock validation passed for productVariant {}: {} available", productVariantId, availableCount);
-                } else {
-                    log.warn("Failed to acquire stock validation lock for productVariant: {}", productVariantId);
-                    throw new RuntimeException("Không thể kiểm tra hàng cho sản phẩm: " + productVariantId);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Bị gián đoạn khi kiểm tra hàng cho sản phẩm: " + productVariantId, e);
-            } finally {
-                lock.unlock();
-            }
-        }
+        String reservationId = stockReservationId(paymentId);
+        long reserveStart = System.nanoTime();
+        stockCounterService.reserve(reservationId, cart.variantQuantities(), cart.productQuantities());
+        paymentMetricsService.recordStage(PaymentMetricsService.Stage.STOCK_RESERVATION, System.nanoTime() - reserveStart);
+        // Enqueue rollback (lỗi sau bước này) thì trả lại hàng ngay
+        stockCounterService.releaseReservationOnRollback(reservationId);
         
         log.info("All stock validations passed");
     }
     
+    private String stockReservationId(Long paymentId) {
+        return "payment:" + paymentId;
+    }
+    
     /**
      * Validate user balance trước khi enqueue payment
      */
@@ -189,145 +164,114 @@ public class PaymentQueueService {
     }
     
     /**
-     * Cron job xử lý payment queue mỗi 1 giây - với distributed lock để tránh race condition
-     * Kết hợp với trigger system để tăng tốc xử lý
+     * Xử lý một payment item đã được claim (status PROCESSING, claimedBy = worker hiện tại)
+     * - chỉ hold tiền sau khi lock được hàng
+     * - COMPLETED / FAILED chỉ ghi khi worker vẫn giữ payment; mất lease thì rollback toàn bộ (order, hold, kho)
+     *   để worker đã claim lại xử lý, không tạo order / hold lần 2
      */
-    @Scheduled(fixedRate = 1000) // Mỗi 1 giây - tăng tần suất
-    public void processPaymentQueue() {
-        String lockKey = "payment-queue:process";
-        Lock lock = redisLockRegistry.obtain(lockKey);
-        boolean lockAcquired = false;
-        
+    @Transactional
+    public void processPaymentItem(PaymentQueue payment) {
         try {
-            if (lock.tryLock(5, java.util.concurrent.TimeUnit.SECONDS)) {
-                lockAcquired = true;
-                log.info("Processing payment queue with distributed lock...");
-                
-                try {
-                    List<PaymentQueue> pendingPayments = paymentQueueRepository
-                        .findByStatusOrderByCreatedAtAsc(PaymentQueue.Status.PENDING);
-                        
-                    log.info("Found {} pending payments", pendingPayments.size());
-                    
-                    // Xử lý batch payments để tăng tốc độ
-                    processBatchPayments(pendingPayments);
-                } catch (Exception e) {
-                    log.error("Error in payment queue processing: {}", e.getMessage());
-                }
-            } else {
-                log.info("Another instance is processing payment queue, skipping...");
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Interrupted while waiting for payment queue lock", e);
+            doProcessPaymentItem(payment);
         } finally {
-            if (lockAcquired) {
-                lock.unlock();
-            }
+            ownedPayments.remove(payment.getId());
         }
     }
     
-    /**
-     * Xử lý một payment item - chỉ hold tiền sau khi thành công
-     */
-    @Transactional
-    public void processPaymentItem(PaymentQueue payment) {
-        log.info("Processing payment item: {} for user: {}", payment.getId(), payment.getUserId());
-        
-        // Distributed lock cho payment item để tránh double processing
-        String paymentLockKey = "payment:process:" + payment.getId();
-        Lock paymentLock = redisLockRegistry.obtain(paymentLockKey);
+    private void doProcessPaymentItem(PaymentQueue payment) {
+        log.info("Processing payment item: {} for user: {} (claimed by {})", 
+                payment.getId(), payment.getUserId(), payment.getClaimedBy());
         
+        long startNanos = System.nanoTime();
+        paymentMetricsService.markProcessingStarted();
         String orderId = null;
+        CartSnapshot cart = null;
+        String reservationId = stockReservationId(payment.getId());
         try {
-            if (paymentLock.tryLock(3, java.util.concurrent.TimeUnit.SECONDS)) {
-                log.info("Acquired lock for payment: {}", payment.getId());
-                
-                try {
-                    // 1. Mark as processing
-                    payment.setStatus(PaymentQueue.Status.PROCESSING);
-                    payment.setProcessedAt(Instant.now());
-                    paymentQueueRepository.save(payment);
-            
-                    // 2. Parse cart data
-                    List<Map<String, Object>> cartItems = parseCartData(payment.getCartData());
-                    log.info("Parsed {} cart items for payment {}", cartItems.size(), payment.getId());
+            // 1. Đọc cart snapshot (parse 1 lần cho toàn bộ payment)
+            cart = readCartSnapshot(payment);
+            log.info("Parsed {} cart items for payment {}", cart.getItems().size(), payment.getId());
 
-                    // 3. Generate order id
-                    orderId = "ORDER_" + payment.getUserId() + "_" + System.currentTimeMillis();
-                    
-                    // 4. LOCK WAREHOUSE ITEMS TRƯỚC (Reserve inventory trước khi hold money)
-                    Map<Long, Integer> productVariantQuantities = new java.util.HashMap<>();
-                    for (Map<String, Object> cartItem : cartItems) {
-                        // Lấy productVariantId từ cart item
-                        Long productVariantId = null;
-                        if (cartItem.containsKey("productVariantId")) {
-                            productVariantId = Long.valueOf(cartItem.get("productVariantId").toString());
-                        } else if (cartItem.containsKey("productId")) {
-                            // Fallback: nếu vẫn dùng productId (backward compatibility)
-                            productVariantId = Long.valueOf(cartItem.get("productId").toString());
-                        }
-                        
-                        if (productVariantId == null) {
-                            throw new RuntimeException("Không tìm thấy productVariantId trong cart item");
-                        }
-                        
-                        Integer quantity = Integer.valueOf(cartItem.get("quantity").toString());
-                        productVariantQuantities.put(productVariantId, productVariantQuantities.getOrDefault(productVariantId, 0) + quantity);
-                    }
+            // 2. Generate order id
+            orderId = "ORDER_" + payment.getUserId() + "_" + System.currentTimeMillis();
+            
+            // 3. LOCK WAREHOUSE ITEMS TRƯỚC (Reserve inventory trước khi hold money)
+            Map<Long, Integer> productVariantQuantities = cart.variantQuantities();
 
-                    // Reserve warehouse items với timeout TRƯỚC khi hold money để tránh hold tiền mà không có hàng
-                    List<Warehouse> lockedItems = warehouseLockService.reserveWarehouseItemsWithTimeoutByVariant(productVariantQuantities, payment.getUserId(), 5); // 5 phút timeout
-                    
-                    // 5. HOLD MONEY SAU KHI ĐÃ LOCK ĐƯỢC HÀNG
-                    walletHoldService.holdMoney(payment.getUserId(), payment.getTotalAmount(), orderId);
-                    
-                    // 6. Kiểm tra lại sau khi lock - tính tổng số lượng cần thiết
-                    int totalRequiredQuantity = productVariantQuantities.values().stream().mapToInt(Integer::intValue).sum();
-                    if (lockedItems.isEmpty() || lockedItems.size() < totalRequiredQuantity) {
-                        log.warn("Failed to lock enough warehouse items for user: {} (required: {}, locked: {}), unlocking warehouse items", 
-                            payment.getUserId(), totalRequiredQuantity, lockedItems.size());
-                        // Unlock warehouse items vì chưa hold money
-                        try {
-                            for (Warehouse item : lockedItems) {
-                                warehouseLockService.unlockWarehouseItem(item.getId());
-                            }
-                        } catch (Exception unlockError) {
-                            log.error("Failed to unlock warehouse items during lock failure: {}", unlockError.getMessage());
-                        }
-                        throw new RuntimeException("Không thể khóa đủ số lượng hàng trong kho - có thể đã có người khác mua trước");
+            // Reserve warehouse items với timeout TRƯỚC khi hold money để tránh hold tiền mà không có hàng
+            long stageStart = System.nanoTime();
+            List<Warehouse> lockedItems;
+            try {
+                lockedItems = warehouseLockService.reserveWarehouseItemsWithTimeoutByVariant(productVariantQuantities, payment.getUserId(), 5); // 5 phút timeout
+            } finally {
+                // DB đã trừ counter cho hàng lock được (hoặc không đủ hàng): trả hàng giữ lúc enqueue khi transaction commit.
+                // Mất lease thì rollback, reservation giữ nguyên cho worker đã claim lại
+                stockCounterService.releaseReservationOnCommit(reservationId);
+            }
+            paymentMetricsService.recordStage(PaymentMetricsService.Stage.WAREHOUSE_RESERVATION, System.nanoTime() - stageStart);
+            
+            // 5. HOLD MONEY SAU KHI ĐÃ LOCK ĐƯỢC HÀNG
+            stageStart = System.nanoTime();
+            walletHoldService.holdMoney(payment.getUserId(), payment.getTotalAmount(), orderId);
+            paymentMetricsService.recordStage(PaymentMetricsService.Stage.WALLET_HOLD, System.nanoTime() - stageStart);
+            
+            // 6. Kiểm tra lại sau khi lock - tính tổng số lượng cần thiết
+            int totalRequiredQuantity = cart.totalQuantity();
+            if (lockedItems.isEmpty() || lockedItems.size() < totalRequiredQuantity) {
+                log.warn("Failed to lock enough warehouse items for user: {} (required: {}, locked: {}), unlocking warehouse items", 
+                    payment.getUserId(), totalRequiredQuantity, lockedItems.size());
+                // Unlock warehouse items vì chưa hold money
+                try {
+                    for (Warehouse item : lockedItems) {
+                        warehouseLockService.unlockWarehouseItem(item.getId());
                     }
+                } catch (Exception unlockError) {
+                    log.error("Failed to unlock warehouse items during lock failure: {}", unlockError.getMessage());
+                }
+                throw new RuntimeException("Không thể khóa đủ số lượng hàng trong kho - có thể đã có người khác mua trước");
+            }
 
-                    // 5. Create order with multiple items
-                    createOrderWithItems(payment.getUserId(), cartItems, lockedItems, orderId);
+            // 5. Create order with multiple items
+            stageStart = System.nanoTime();
+            createOrderWithItems(payment.getUserId(), cart, lockedItems, orderId);
+            paymentMetricsService.recordStage(PaymentMetricsService.Stage.ORDER_CREATION, System.nanoTime() - stageStart);
 
-                    // 6. Mark as completed
-                    payment.setStatus(PaymentQueue.Status.COMPLETED);
-                    paymentQueueRepository.save(payment);
-                    
-                    log.info("Payment processed successfully: {} - Money held, buyer can receive items immediately", payment.getId());
-                    
-                } catch (Exception e) {
-                    log.error("Error processing payment {}: {}", payment.getId(), e.getMessage());
-                    
-                    // Nếu lỗi → unlock warehouse và hoàn tiền nếu đã hold
-                    try {
-                        handlePaymentError(payment, orderId, e.getMessage());
-                        markPaymentAsFailed(payment.getId(), "Payment failed - reverted changes");
-                        log.info("Payment failed for payment {} - reverted holds and locks where applicable", payment.getId());
-                    } catch (Exception errorHandlingException) {
-                        log.error("Failed to handle payment error for payment {}: {}", payment.getId(), errorHandlingException.getMessage());
-                        markPaymentAsFailed(payment.getId(), "Payment failed - error handling failed");
-                    }
-                }
-            } else {
-                log.warn("Could not acquire lock for payment: {}, another instance might be processing", payment.getId());
+            // 6. Mark as completed - chỉ khi lease còn thuộc worker này
+            int finished = paymentQueueRepository.finishIfOwned(payment.getId(), PaymentQueue.Status.PROCESSING,
+                    PaymentQueue.Status.COMPLETED, nodeIdentity.getId(), null);
+            if (finished == 0) {
+                throw new LeaseLostException(payment.getId());
+            }
+            paymentMetricsService.markCompleted(startNanos);
+            
+            log.info("Payment processed successfully: {} - Money held, buyer can receive items immediately", payment.getId());
+            
+        } catch (LeaseLostException e) {
+            // Không bù trừ thủ công: ném ra để transaction rollback mọi thay đổi của lần xử lý này
+            log.error("Payment {} lease lost before completion (claimed by another worker), rolling back", payment.getId());
+            paymentMetricsService.markFailed(startNanos);
+            throw e;
+        } catch (Exception e) {
+            log.error("Error processing payment {}: {}", payment.getId(), e.getMessage());
+            paymentMetricsService.markFailed(startNanos);
+            
+            // Lỗi trước bước lock kho (vd đọc cart) thì payment FAILED cũng phải trả hàng đã giữ
+            stockCounterService.releaseReservationOnCommit(reservationId);
+            
+            // Nếu lỗi → unlock warehouse và hoàn tiền nếu đã hold
+            boolean owned;
+            try {
+                handlePaymentError(payment, cart, orderId, e.getMessage());
+                owned = markPaymentAsFailed(payment.getId(), "Payment failed - reverted changes");
+                log.info("Payment failed for payment {} - reverted holds and locks where applicable", payment.getId());
+            } catch (Exception errorHandlingException) {
+                log.error("Failed to handle payment error for payment {}: {}", payment.getId(), errorHandlingException.getMessage());
+                owned = markPaymentAsFailed(payment.getId(), "Payment failed - error handling failed");
+            }
+            // Worker khác đã claim lại: không giữ lại phần bù trừ của lần xử lý này
+            if (!owned) {
+                throw new LeaseLostException(payment.getId());
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Interrupted while waiting for payment lock: {}", payment.getId(), e);
-        } finally {
-            paymentLock.unlock();
         }
     }
     
@@ -335,12 +279,12 @@ public class PaymentQueueService {
      * Tạo order với nhiều items từ cart
      */
     @Transactional
-    private void createOrderWithItems(Long userId, List<Map<String, Object>> cartItems, List<Warehouse> lockedItems, String orderId) {
+    private void createOrderWithItems(Long userId, CartSnapshot cart, List<Warehouse> lockedItems, String orderId) {
         log.info("Creating order with items for user: {} with {} cart items and {} locked warehouse items", 
-                userId, cartItems.size(), lockedItems.size());
+                userId, cart.getItems().size(), lockedItems.size());
         
         // Tạo Order chính với tất cả OrderItem
-        Order order = orderService.createOrderFromCart(userId, cartItems, "WALLET", "Order from cart payment", orderId);
+        Order order = orderService.createOrderFromCart(userId, cart, "WALLET", "Order from cart payment", orderId);
         
         // Cập nhật warehouseId thực tế cho các OrderItem
         updateOrderItemsWithActualWarehouseIds(order, lockedItems);
@@ -350,7 +294,7 @@ public class PaymentQueueService {
             warehouseLockService.markAsDelivered(lockedItem.getId());
         }
         
-        log.info("Successfully created order {} with {} items for user: {}", order.getId(), cartItems.size(), userId);
+        log.info("Successfully created order {} with {} items for user: {}", order.getId(), cart.getItems().size(), userId);
     }
     
     /**
@@ -400,39 +344,13 @@ public class PaymentQueueService {
      * Xử lý lỗi payment - hoàn tiền và unlock warehouse
      */
     @Transactional
-    private void handlePaymentError(PaymentQueue payment, String orderId, String errorMessage) {
+    private void handlePaymentError(PaymentQueue payment, CartSnapshot cart, String orderId, String errorMessage) {
         log.info("Handling payment error for payment {}: {}", payment.getId(), errorMessage);
         
         try {
-            // Parse cart data để unlock warehouse
-            List<Map<String, Object>> cartItems = parseCartData(payment.getCartData());
-            
-            // Unlock tất cả warehouse items đã lock
-            for (Map<String, Object> cartItem : cartItems) {
-                try {
-                    // Lấy productVariantId từ cart item
-                    Long productVariantId = null;
-                    if (cartItem.containsKey("productVariantId")) {
-                        productVariantId = Long.valueOf(cartItem.get("productVariantId").toString());
-                    } else if (cartItem.containsKey("productId")) {
-                        productVariantId = Long.valueOf(cartItem.get("productId").toString());
-                    }
-                    
-                    if (productVariantId != null) {
-                        // Unlock theo warehouseId nếu có, hoặc theo productVariantId
-                        Object warehouseIdObj = cartItem.get("warehouseId");
-                        if (warehouseIdObj != null) {
-                            Long warehouseId = Long.valueOf(warehouseIdObj.toString());
-                            warehouseLockService.unlockWarehouseItem(warehouseId);
-                            log.info("Unlocked warehouse item: {}", warehouseId);
-                        } else {
-                            log.warn("No warehouseId found in cart item for productVariant: {}", productVariantId);
-                        }
-                    }
-                } catch (Exception unlockError) {
-                    log.error("Failed to unlock warehouse for cart item: {}", 
-                        cartItem, unlockError.getMessage());
-                }
+            // Unlock tất cả warehouse items đã lock (cart null nếu lỗi ngay khi đọc snapshot)
+            if (cart != null) {
+                unlockCartWarehouseItems(cart);
             }
             
             // Hoàn tiền về ví user - sử dụng method mới với user-level lock
@@ -460,26 +378,8 @@ public class PaymentQueueService {
         log.info("Handling payment error without hold for payment {}: {}", payment.getId(), errorMessage);
         
         try {
-            // Parse cart data để unlock warehouse
-            List<Map<String, Object>> cartItems = parseCartData(payment.getCartData());
-            
-            // Unlock warehouse items
-            for (Map<String, Object> cartItem : cartItems) {
-                try {
-                    // Unlock theo warehouseId nếu có
-                    Object warehouseIdObj = cartItem.get("warehouseId");
-                    if (warehouseIdObj != null) {
-                        Long warehouseId = Long.valueOf(warehouseIdObj.toString());
-                        warehouseLockService.unlockWarehouseItem(warehouseId);
-                        log.info("Unlocked warehouse item: {}", warehouseId);
-                    } else {
-                        log.warn("No warehouseId found in cart item for unlock");
-                    }
-                } catch (Exception unlockError) {
-                    log.error("Failed to unlock warehouse for cart item: {}", 
-                        cartItem, unlockError.getMessage());
-                }
-            }
+            // Đọc cart snapshot để unlock warehouse
+            unlockCartWarehouseItems(readCartSnapshot(payment));
             
             log.info("Successfully handled payment error without hold {}: unlocked warehouse", payment.getId());
             
@@ -490,33 +390,69 @@ public class PaymentQueueService {
     }
     
     /**
-     * Mark payment as failed
+     * Mark payment as failed - false nếu worker không còn giữ payment
      */
-    private void markPaymentAsFailed(Long paymentId, String errorMessage) {
+    private boolean markPaymentAsFailed(Long paymentId, String errorMessage) {
         try {
-            PaymentQueue payment = paymentQueueRepository.findById(paymentId)
-                .orElseThrow(() -> new RuntimeException("Payment not found: " + paymentId));
-                
-            payment.setStatus(PaymentQueue.Status.FAILED);
-            payment.setErrorMessage(errorMessage);
-            paymentQueueRepository.save(payment);
+            int finished = paymentQueueRepository.finishIfOwned(paymentId, PaymentQueue.Status.PROCESSING,
+                    PaymentQueue.Status.FAILED, nodeIdentity.getId(), errorMessage);
+            if (finished == 0) {
+                log.warn("Payment {} no longer held by {}, not marking as failed", paymentId, nodeIdentity.getId());
+                return false;
+            }
             
             log.info("Payment marked as failed: {} - {}", paymentId, errorMessage);
             
         } catch (Exception e) {
             log.error("Failed to mark payment as failed: {}", paymentId, e);
         }
+        return true;
+    }
+    
+    /**
+     * Unlock warehouse item gợi ý của từng cart item
+     */
+    private void unlockCartWarehouseItems(CartSnapshot cart) {
+        for (CartSnapshot.Item item : cart.getItems()) {
+            try {
+                if (item.getWarehouseId() != null) {
+                    warehouseLockService.unlockWarehouseItem(item.getWarehouseId());
+                    log.info("Unlocked warehouse item: {}", item.getWarehouseId());
+                } else {
+                    log.warn("No warehouseId found in cart item for productVariant: {}", item.getProductVariantId());
+                }
+            } catch (Exception unlockError) {
+                log.error("Failed to unlock warehouse for productVariant {}: {}", 
+                    item.getProductVariantId(), unlockError.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Parse cart items từ request sang snapshot có kiểu - lỗi định dạng được báo ngay khi enqueue
+     */
+    private CartSnapshot toCartSnapshot(List<Map<String, Object>> cartItems) {
+        try {
+            return CartSnapshot.fromCartItems(cartItems);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid cart items: {}", e.getMessage());
+            throw new RuntimeException("Dữ liệu giỏ hàng không hợp lệ: " + e.getMessage(), e);
+        }
     }
     
     /**
-     * Parse cart data từ JSON
+     * Đọc cart snapshot của payment - binary (cart_snapshot), fallback JSON (cart_data) cho payment cũ
      */
-    private List<Map<String, Object>> parseCartData(String cartDataJson) {
+    private CartSnapshot readCartSnapshot(PaymentQueue payment) {
         try {
-            return objectMapper.readValue(
-                cartDataJson, 
+            if (payment.getCartSnapshot() != null) {
+                return CartSnapshotCodec.decode(payment.getCartSnapshot());
+            }
+            List<Map<String, Object>> cartItems = objectMapper.readValue(
+                payment.getCartData(), 
                 objectMapper.getTypeFactory().constructCollectionType(List.class, Map.class)
             );
+            return CartSnapshot.fromCartItems(cartItems);
         } catch (Exception e) {
             log.error("Failed to parse cart data: {}", e.getMessage());
             throw new RuntimeException("Failed to parse cart data", e);
@@ -524,66 +460,106 @@ public class PaymentQueueService {
     }
     
     /**
-     * Lấy trạng thái payment
+     * Tính shard cho payment theo userId - mọi payment của cùng 1 user luôn rơi vào cùng 1 shard
+     * nên vẫn được xử lý tuần tự theo thứ tự tạo
      */
-    public PaymentQueue getPaymentStatus(Long paymentId) {
-        return paymentQueueRepository.findById(paymentId)
-            .orElseThrow(() -> new RuntimeException("Payment not found: " + paymentId));
+    public int shardOf(Long userId) {
+        return Math.floorMod(Long.hashCode(userId), shardCount);
+    }
+    
+    public int getShardCount() {
+        return shardCount;
     }
     
     /**
-     * Lấy danh sách payments của user
+     * Claim tối đa limit payment PENDING của shard cho worker hiện tại (SELECT ... FOR UPDATE SKIP LOCKED)
      */
-    public List<PaymentQueue> getUserPayments(Long userId) {
-        return paymentQueueRepository.findByUserIdAndStatus(userId, PaymentQueue.Status.PENDING);
+    public List<PaymentQueue> claimShardBatch(int shardId, int limit) {
+        Instant leaseExpiresAt = Instant.now().plusSeconds(claimLeaseSeconds);
+        List<PaymentQueue> batch = paymentQueueRepository.claimPendingBatch(shardId, shardCount, limit, nodeIdentity.getId(), leaseExpiresAt);
+        batch.forEach(payment -> ownedPayments.add(payment.getId()));
+        paymentMetricsService.markClaimed(batch.size());
+        return batch;
     }
     
     /**
-     * Xử lý batch payments với parallel processing
+     * Claim 1 payment cụ thể - trả về empty nếu payment đã được worker khác claim hoặc không còn PENDING
      */
-    private void processBatchPayments(List<PaymentQueue> pendingPayments) {
-        if (pendingPayments.isEmpty()) {
+    @Transactional
+    public Optional<PaymentQueue> claimPayment(Long paymentId) {
+        Instant now = Instant.now();
+        int claimed = paymentQueueRepository.claimIfPending(paymentId, PaymentQueue.Status.PENDING,
+                PaymentQueue.Status.PROCESSING, nodeIdentity.getId(), now.plusSeconds(claimLeaseSeconds), now);
+        if (claimed == 0) {
+            return Optional.empty();
+        }
+        ownedPayments.add(paymentId);
+        paymentMetricsService.markClaimed(claimed);
+        return paymentQueueRepository.findById(paymentId);
+    }
+    
+    /**
+     * Gia hạn lease cho các payment node này đã claim mà chưa xử lý xong (kể cả đang chờ trong batch),
+     * để payment chạy lâu hơn lease không bị reclaim và xử lý lần 2
+     */
+    @Scheduled(fixedDelayString = "${payment.queue.lease-renew-interval-ms:30000}")
+    @Transactional
+    public void renewClaimLeases() {
+        if (ownedPayments.isEmpty()) {
             return;
         }
-        
-        // Chia thành các batch nhỏ để xử lý parallel
-        int batchSize = 20; // Xử lý 20 payments/lần
-        int totalBatches = (int) Math.ceil((double) pendingPayments.size() / batchSize);
-        
-        log.info("Processing {} payments in {} batches of size {}", 
-                pendingPayments.size(), totalBatches, batchSize);
-        
-        for (int i = 0; i < pendingPayments.size(); i += batchSize) {
-            int endIndex = Math.min(i + batchSize, pendingPayments.size());
-            List<PaymentQueue> batch = pendingPayments.subList(i, endIndex);
-            
-            // Xử lý batch này
-            processSingleBatch(batch);
+        try {
+            List<Long> ids = List.copyOf(ownedPayments);
+            int renewed = paymentQueueRepository.renewLeases(ids, PaymentQueue.Status.PROCESSING, nodeIdentity.getId(),
+                    Instant.now().plusSeconds(claimLeaseSeconds));
+            if (renewed < ids.size()) {
+                log.warn("Renewed {} of {} payment leases held by {} - the rest were finished or reclaimed",
+                        renewed, ids.size(), nodeIdentity.getId());
+            }
+        } catch (Exception e) {
+            log.error("Error renewing payment leases: {}", e.getMessage());
         }
     }
     
     /**
-     * Xử lý một batch payments
+     * Cron job trả các payment có lease hết hạn (worker chết khi đang xử lý) về PENDING
      */
-    private void processSingleBatch(List<PaymentQueue> batch) {
-        log.info("Processing batch of {} payments", batch.size());
-        
-        for (PaymentQueue payment : batch) {
-            try {
-                // Kiểm tra lại status trước khi xử lý để tránh double processing
-                PaymentQueue currentPayment = paymentQueueRepository.findById(payment.getId()).orElse(null);
-                if (currentPayment == null || currentPayment.getStatus() != PaymentQueue.Status.PENDING) {
-                    log.info("Payment {} already processed or deleted, skipping", payment.getId());
-                    continue;
-                }
-                
-                processPaymentItem(payment);
-                
-            } catch (Exception e) {
-                log.error("Failed to process payment {}: {}", payment.getId(), e.getMessage());
-                // Error handling đã được xử lý trong processPaymentItem
+    @Scheduled(fixedRate = 30000)
+    @Transactional
+    public void reclaimExpiredLeases() {
+        try {
+            int reclaimed = paymentQueueRepository.reclaimExpiredLeases(
+                PaymentQueue.Status.PENDING, PaymentQueue.Status.PROCESSING, Instant.now());
+            if (reclaimed > 0) {
+                log.warn("Reclaimed {} payments with expired worker lease", reclaimed);
             }
+        } catch (Exception e) {
+            log.error("Error reclaiming expired payment leases: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Payment đã bị reclaim và claim lại bởi worker khác trong lúc worker này đang xử lý
+     */
+    private static class LeaseLostException extends RuntimeException {
+        LeaseLostException(Long paymentId) {
+            super("Lease lost for payment " + paymentId);
         }
     }
     
+    /**
+     * Lấy trạng thái payment
+     */
+    public PaymentQueue getPaymentStatus(Long paymentId) {
+        return paymentQueueRepository.findById(paymentId)
+            .orElseThrow(() -> new RuntimeException("Payment not found: " + paymentId));
+    }
+    
+    /**
+     * Lấy danh sách payments của user
+     */
+    public List<PaymentQueue> getUserPayments(Long userId) {
+        return paymentQueueRepository.findByUserIdAndStatus(userId, PaymentQueue.Status.PENDING);
+    }
+    
 }
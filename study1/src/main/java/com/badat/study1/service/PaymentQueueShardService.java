@@ -0,0 +1,247 @@
+package com.badat.study1.service;
+
+import com.badat.study1.configuration.NodeIdentity;
+import com.badat.study1.model.PaymentQueue;
+import com.badat.study1.repository.PaymentQueueRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker sweep payment queue theo shard thay cho 1 global lock
+ * - Payment được hash theo userId vào N shard (PaymentQueueService.shardOf)
+ * - Mỗi node giành lease cho từng shard qua Redis, lease được gia hạn mỗi tick
+ * - Mỗi node chỉ giữ tối đa ceil(N / số node đang sống) shard để chia đều tải giữa các instance
+ * - Mỗi shard đang giữ lease được drain trên 1 thread riêng
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentQueueShardService {
+
+    private static final String SHARD_LEASE_PREFIX = "payment-queue:shard-lease:";
+    private static final String LIVE_NODES_KEY = "payment-queue:nodes";
+
+    // Chỉ gia hạn / xóa lease nếu node hiện tại vẫn là chủ sở hữu
+    private static final DefaultRedisScript<Long> RENEW_LEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+        Long.class);
+    private static final DefaultRedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+        Long.class);
+
+    private final PaymentQueueRepository paymentQueueRepository;
+    private final PaymentQueueService paymentQueueService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final NodeIdentity nodeIdentity;
+
+    @Value("${payment.queue.shard-lease-seconds:20}")
+    private long shardLeaseSeconds;
+
+    @Value("${payment.queue.shard-batch-size:20}")
+    private int shardBatchSize;
+
+    @Value("${payment.queue.shard-max-batches-per-drain:10}")
+    private int maxBatchesPerDrain;
+
+    private String nodeId;
+    private int shardCount;
+    private AtomicBoolean[] draining;
+    private ExecutorService shardExecutor;
+
+    @PostConstruct
+    public void init() {
+        // Cùng định danh với claimed_by của payment (NodeIdentity)
+        nodeId = nodeIdentity.getId();
+        shardCount = paymentQueueService.getShardCount();
+        draining = new AtomicBoolean[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            draining[i] = new AtomicBoolean(false);
+        }
+
+        // Mỗi shard tối đa 1 task drain tại 1 thời điểm nên pool = shardCount là đủ
+        AtomicInteger threadIndex = new AtomicInteger();
+        shardExecutor = Executors.newFixedThreadPool(shardCount, runnable -> {
+            Thread thread = new Thread(runnable, "payment-shard-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.info("Payment queue shard workers initialized - node: {}, shards: {}, lease: {}s",
+                nodeId, shardCount, shardLeaseSeconds);
+    }
+
+    /**
+     * Safety sweep: giành / gia hạn lease cho các shard và đẩy shard đang giữ vào thread drain.
+     * Đường chính là PaymentEventListener -> PaymentTriggerService (ngay sau commit),
+     * sweep chỉ gom các payment bị bỏ sót (pool đầy, node restart, lease hết hạn...)
+     */
+    @Scheduled(fixedRateString = "${payment.queue.sweep-interval-ms:5000}")
+    public void dispatchOwnedShards() {
+        int fairShare;
+        try {
+            fairShare = computeFairShare();
+        } catch (Exception e) {
+            log.error("Error computing payment shard fair share: {}", e.getMessage());
+            return;
+        }
+
+        // Bắt đầu từ offset riêng của node để các node không cùng tranh shard 0 trước
+        int offset = Math.floorMod(nodeId.hashCode(), shardCount);
+        int ownedCount = 0;
+
+        for (int i = 0; i < shardCount; i++) {
+            int shard = (offset + i) % shardCount;
+            try {
+                if (ownedCount >= fairShare) {
+                    // Đã đủ phần của node này - trả lại shard thừa cho node mới join
+                    releaseLease(shard);
+                    continue;
+                }
+
+                if (!acquireOrRenewLease(shard)) {
+                    continue;
+                }
+                ownedCount++;
+
+                // Shard đang được drain từ tick trước thì bỏ qua
+                if (!draining[shard].compareAndSet(false, true)) {
+                    continue;
+                }
+
+                final int ownedShard = shard;
+                try {
+                    shardExecutor.execute(() -> {
+                        try {
+                            drainShard(ownedShard);
+                        } finally {
+                            draining[ownedShard].set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    draining[shard].set(false);
+                    log.warn("Shard executor rejected drain task for shard {}", shard);
+                }
+            } catch (Exception e) {
+                log.error("Error dispatching payment shard {}: {}", shard, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Heartbeat node hiện tại và tính số shard tối đa mỗi node được giữ
+     */
+    private int computeFairShare() {
+        long now = System.currentTimeMillis();
+        long leaseMillis = Duration.ofSeconds(shardLeaseSeconds).toMillis();
+
+        stringRedisTemplate.opsForZSet().add(LIVE_NODES_KEY, nodeId, now);
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LIVE_NODES_KEY, 0, now - leaseMillis);
+
+        Long liveNodes = stringRedisTemplate.opsForZSet().zCard(LIVE_NODES_KEY);
+        long nodes = (liveNodes == null || liveNodes < 1) ? 1 : liveNodes;
+        return (int) ((shardCount + nodes - 1) / nodes);
+    }
+
+    /**
+     * Drain các payment PENDING của 1 shard: mỗi vòng claim 1 batch (SKIP LOCKED) rồi xử lý tuần tự theo thứ tự tạo.
+     * Payment đã claim thuộc riêng worker này nên không cần lock Redis hay kiểm tra lại status từng row.
+     */
+    private void drainShard(int shard) {
+        for (int batchNo = 0; batchNo < maxBatchesPerDrain; batchNo++) {
+            // Mất lease (node mới join, Redis timeout...) thì dừng claim thêm để node khác tiếp quản
+            if (!ownsLease(shard)) {
+                log.info("Lease for payment shard {} no longer held by {}, stopping drain", shard, nodeId);
+                return;
+            }
+
+            List<PaymentQueue> batch = paymentQueueService.claimShardBatch(shard, shardBatchSize);
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            log.info("Shard {} claimed batch of {} payments on node {}", shard, batch.size(), nodeId);
+
+            for (PaymentQueue payment : batch) {
+                try {
+                    paymentQueueService.processPaymentItem(payment);
+                } catch (Exception e) {
+                    log.error("Failed to process payment {} on shard {}: {}", payment.getId(), shard, e.getMessage());
+                    // Error handling đã được xử lý trong processPaymentItem
+                }
+            }
+
+            if (batch.size() < shardBatchSize) {
+                return;
+            }
+        }
+    }
+
+    private boolean acquireOrRenewLease(int shard) {
+        String key = SHARD_LEASE_PREFIX + shard;
+        Duration lease = Duration.ofSeconds(shardLeaseSeconds);
+
+        Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(key, nodeId, lease);
+        if (Boolean.TRUE.equals(acquired)) {
+            log.info("Node {} acquired lease for payment shard {}", nodeId, shard);
+            return true;
+        }
+
+        Long renewed = stringRedisTemplate.execute(RENEW_LEASE_SCRIPT, List.of(key), nodeId,
+                String.valueOf(lease.toMillis()));
+        return renewed != null && renewed > 0;
+    }
+
+    private void releaseLease(int shard) {
+        stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(SHARD_LEASE_PREFIX + shard), nodeId);
+    }
+
+    private boolean ownsLease(int shard) {
+        return nodeId.equals(stringRedisTemplate.opsForValue().get(SHARD_LEASE_PREFIX + shard));
+    }
+
+    /**
+     * Trả lại lease khi shutdown để node khác tiếp quản ngay thay vì đợi hết hạn
+     */
+    @PreDestroy
+    public void shutdown() {
+        shardExecutor.shutdown();
+        try {
+            if (!shardExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                shardExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            shardExecutor.shutdownNow();
+        }
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                releaseLease(shard);
+            } catch (Exception e) {
+                log.warn("Failed to release lease for payment shard {}: {}", shard, e.getMessage());
+            }
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(LIVE_NODES_KEY, nodeId);
+        } catch (Exception e) {
+            log.warn("Failed to deregister payment worker node {}: {}", nodeId, e.getMessage());
+        }
+        log.info("Payment queue shard workers stopped on node {}", nodeId);
+    }
+}
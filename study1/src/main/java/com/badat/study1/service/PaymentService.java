@@ -38,6 +38,7 @@ public class PaymentService {
     private final PaymentQueueService paymentQueueService;
     private final WarehouseRepository warehouseRepository;
     private final CartService cartService;
+    private final StockCounterService stockCounterService;
     
     public PaymentResponse createPaymentUrl(PaymentRequest request) {
         return createPaymentUrl(request, null);
@@ -359,7 +360,7 @@ public class PaymentService {
                 String productName = cartItem.get("name") != null ? cartItem.get("name").toString() : "Sản phẩm";
                 
                 // Đếm số lượng warehouse items có sẵn cho productVariant này
-                long availableStock = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(productVariantId);
+                long availableStock = stockCounterService.getVariantStock(productVariantId);
                 
                 if (availableStock < requestedQuantity) {
                     outOfStockProducts.add(productName + " (cần " + requestedQuantity + ", còn " + availableStock + ")");
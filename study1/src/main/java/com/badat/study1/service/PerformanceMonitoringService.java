@@ -1,147 +1,116 @@
 package com.badat.study1.service;
 
-import com.badat.study1.model.PaymentQueue;
-import com.badat.study1.model.WalletHold;
-import com.badat.study1.repository.PaymentQueueRepository;
-import com.badat.study1.repository.WalletHoldRepository;
+import com.badat.study1.service.PaymentMetricsService.Stage;
+import com.badat.study1.service.PaymentMetricsService.StageSnapshot;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Service để monitor performance của hệ thống payment processing
+ * - Chỉ đọc meter in-process của PaymentMetricsService, không query DB
+ * - Rate là số payment trong 60 giây gần nhất (cập nhật theo từng giây), timer stage theo cửa sổ 30 giây
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class PerformanceMonitoringService {
-    
-    private final PaymentQueueRepository paymentQueueRepository;
-    private final WalletHoldRepository walletHoldRepository;
-    
+
+    private final PaymentMetricsService paymentMetricsService;
+
     /**
-     * Monitor performance mỗi 30 giây
+     * Log performance mỗi 30 giây và đóng cửa sổ đo của các stage timer
      */
     @Scheduled(fixedRate = 30000)
     public void monitorPerformance() {
         try {
-            // Đếm pending payments
-            long pendingPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.PENDING);
-            long processingPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.PROCESSING);
-            long completedPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.COMPLETED);
-            long failedPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.FAILED);
-            
-            // Đếm pending holds
-            long pendingHolds = walletHoldRepository.countByStatus(WalletHold.Status.PENDING);
-            long expiredHolds = walletHoldRepository.countByStatusAndExpiresAtBefore(
-                WalletHold.Status.PENDING, Instant.now());
-            
-            // Tính processing rate (payments/minute)
-            long totalProcessed = completedPayments + failedPayments;
-            double processingRate = calculateProcessingRate();
-            
+            Map<Stage, StageSnapshot> stages = paymentMetricsService.rotateStageWindows();
+            long pendingPayments = paymentMetricsService.getPendingDepth();
+            long enqueueRate = paymentMetricsService.getEnqueueRatePerMinute();
+            long processingRate = paymentMetricsService.getCompletionRatePerMinute()
+                    + paymentMetricsService.getFailureRatePerMinute();
+
             log.info("=== PAYMENT SYSTEM PERFORMANCE MONITOR ===");
-            log.info("Payments - Pending: {}, Processing: {}, Completed: {}, Failed: {}", 
-                    pendingPayments, processingPayments, completedPayments, failedPayments);
-            log.info("Holds - Pending: {}, Expired: {}", pendingHolds, expiredHolds);
-            log.info("Processing Rate: {:.2f} payments/minute", processingRate);
-            log.info("Total Processed: {}", totalProcessed);
-            
+            log.info("Queue - Pending: {}, Processing: {}, In-flight (this node): {}",
+                    pendingPayments, paymentMetricsService.getProcessingDepth(), paymentMetricsService.getInFlight());
+            log.info("Rate/min - Enqueued: {}, Completed: {}, Failed: {}",
+                    enqueueRate, paymentMetricsService.getCompletionRatePerMinute(),
+                    paymentMetricsService.getFailureRatePerMinute());
+            stages.forEach((stage, snapshot) -> {
+                if (snapshot.count() > 0) {
+                    log.info("Stage {} - count: {}, p50: {} ms, p99: {} ms, max: {} ms",
+                            stage, snapshot.count(), snapshot.p50Ms(), snapshot.p99Ms(), snapshot.maxMs());
+                }
+            });
+
             // Cảnh báo nếu có quá nhiều pending
             if (pendingPayments > 1000) {
                 log.warn("HIGH PENDING PAYMENTS: {} - System may be overloaded!", pendingPayments);
             }
-            
-            if (expiredHolds > 100) {
-                log.warn("HIGH EXPIRED HOLDS: {} - Wallet hold processing may be slow!", expiredHolds);
-            }
-            
-            // Cảnh báo nếu processing rate quá thấp
-            if (processingRate < 10 && totalProcessed > 0) {
-                log.warn("LOW PROCESSING RATE: {:.2f} payments/minute - System performance degraded!", processingRate);
+
+            // Cảnh báo nếu xử lý chậm hơn tốc độ enqueue khi đang có hàng đợi
+            if (pendingPayments > 0 && processingRate < enqueueRate) {
+                log.warn("LOW PROCESSING RATE: {} payments/minute (enqueue {} /minute) - System performance degraded!",
+                        processingRate, enqueueRate);
             }
-            
+
         } catch (Exception e) {
             log.error("Error monitoring performance: {}", e.getMessage());
         }
     }
-    
-    /**
-     * Tính processing rate dựa trên payments được xử lý trong 1 phút gần nhất
-     */
-    private double calculateProcessingRate() {
-        try {
-            Instant oneMinuteAgo = Instant.now().minus(1, ChronoUnit.MINUTES);
-            
-            // Đếm payments được completed trong 1 phút gần nhất
-            List<PaymentQueue> recentCompleted = paymentQueueRepository
-                .findByStatusAndProcessedAtAfter(PaymentQueue.Status.COMPLETED, oneMinuteAgo);
-            
-            List<PaymentQueue> recentFailed = paymentQueueRepository
-                .findByStatusAndProcessedAtAfter(PaymentQueue.Status.FAILED, oneMinuteAgo);
-            
-            long totalProcessedInLastMinute = recentCompleted.size() + recentFailed.size();
-            
-            return totalProcessedInLastMinute;
-            
-        } catch (Exception e) {
-            log.error("Error calculating processing rate: {}", e.getMessage());
-            return 0.0;
-        }
-    }
-    
+
     /**
      * Lấy thống kê chi tiết về performance
      */
     public PerformanceStats getPerformanceStats() {
-        try {
-            long pendingPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.PENDING);
-            long processingPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.PROCESSING);
-            long completedPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.COMPLETED);
-            long failedPayments = paymentQueueRepository.countByStatus(PaymentQueue.Status.FAILED);
-            
-            long pendingHolds = walletHoldRepository.countByStatus(WalletHold.Status.PENDING);
-            long expiredHolds = walletHoldRepository.countByStatusAndExpiresAtBefore(
-                WalletHold.Status.PENDING, Instant.now());
-            
-            double processingRate = calculateProcessingRate();
-            
-            return PerformanceStats.builder()
-                .pendingPayments(pendingPayments)
-                .processingPayments(processingPayments)
-                .completedPayments(completedPayments)
-                .failedPayments(failedPayments)
-                .pendingHolds(pendingHolds)
-                .expiredHolds(expiredHolds)
-                .processingRate(processingRate)
-                .timestamp(Instant.now())
-                .build();
-                
-        } catch (Exception e) {
-            log.error("Error getting performance stats: {}", e.getMessage());
-            return null;
-        }
+        Map<String, StageSnapshot> stages = new LinkedHashMap<>();
+        paymentMetricsService.lastStageWindows().forEach((stage, snapshot) -> stages.put(stage.name(), snapshot));
+        long completionRate = paymentMetricsService.getCompletionRatePerMinute();
+        long failureRate = paymentMetricsService.getFailureRatePerMinute();
+
+        return PerformanceStats.builder()
+            .pendingPayments(paymentMetricsService.getPendingDepth())
+            .processingPayments(paymentMetricsService.getProcessingDepth())
+            .queueDepthSampledAt(paymentMetricsService.getDepthSampledAt())
+            .inFlightPayments(paymentMetricsService.getInFlight())
+            .enqueuedPayments(paymentMetricsService.getEnqueuedTotal())
+            .claimedPayments(paymentMetricsService.getClaimedTotal())
+            .completedPayments(paymentMetricsService.getCompletedTotal())
+            .failedPayments(paymentMetricsService.getFailedTotal())
+            .enqueueRate(paymentMetricsService.getEnqueueRatePerMinute())
+            .completionRate(completionRate)
+            .failureRate(failureRate)
+            .processingRate(completionRate + failureRate)
+            .stages(stages)
+            .timestamp(Instant.now())
+            .build();
     }
-    
+
     /**
      * DTO cho performance stats
+     * - *Payments (trừ pending/processing): tổng từ lúc node khởi động; *Rate: số payment/phút trong 60 giây gần nhất
      */
     @lombok.Data
     @lombok.Builder
     public static class PerformanceStats {
         private long pendingPayments;
         private long processingPayments;
+        private Instant queueDepthSampledAt;
+        private long inFlightPayments;
+        private long enqueuedPayments;
+        private long claimedPayments;
         private long completedPayments;
         private long failedPayments;
-        private long pendingHolds;
-        private long expiredHolds;
-        private double processingRate;
+        private long enqueueRate;
+        private long completionRate;
+        private long failureRate;
+        private long processingRate;
+        private Map<String, StageSnapshot> stages;
         private Instant timestamp;
     }
 }
-
@@ -0,0 +1,193 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.User;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache principal đã xác thực theo jti của access token
+ * - Hit: JwtAuthenticationFilter không parse lại claims, không verify chữ ký, không query user
+ * - Entry sống tới khi token hết hạn nhưng tối đa ttl-seconds (giới hạn độ trễ khi user bị đổi ở node khác)
+ * - Evict khi logout, đổi role / trạng thái / thông tin user
+ * - Mỗi user có generation (chia stripe theo userId), tăng mỗi lần evictUser: request load user trước khi
+ *   khóa / xóa commit rồi put sau khi evict đã chạy sẽ thấy generation đổi và không cache dữ liệu cũ
+ * - evictUser được broadcast qua Redis pub/sub: mọi node gỡ cache + tăng generation của user, không đợi hết ttl
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PrincipalCacheService {
+
+    private static final int GENERATION_STRIPES = 4096;
+    private static final String EVICT_USER_CHANNEL = "principal-cache:evict-user";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${security.principal-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${security.principal-cache.max-size:10000}")
+    private int maxSize;
+
+    private final Map<String, CachedPrincipal> cache = new ConcurrentHashMap<>();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onEvictUserMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(EVICT_USER_CHANNEL));
+    }
+
+    /**
+     * Principal của token (bản copy riêng cho request), null nếu chưa cache / hết hạn / signature không khớp
+     */
+    public User get(String jwtId, String signature) {
+        if (jwtId == null) {
+            return null;
+        }
+        CachedPrincipal cached = cache.get(jwtId);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAtMillis <= System.currentTimeMillis()) {
+            cache.remove(jwtId, cached);
+            return null;
+        }
+        // jti có thể bị ghép vào token giả: chỉ dùng cache khi đúng token đã verify
+        if (!MessageDigest.isEqual(cached.signature, signature.getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        return copyOf(cached.user);
+    }
+
+    /**
+     * Generation hiện tại của user - đọc TRƯỚC khi load user từ DB rồi truyền vào put()
+     */
+    public long generationOf(Long userId) {
+        return userId != null ? generations.get(stripeOf(userId)) : 0;
+    }
+
+    /**
+     * Cache principal nếu generation của user không đổi kể từ lúc đọc (trước khi load user)
+     */
+    public void put(String jwtId, String signature, User user, long tokenExpiresAtMillis, long generation) {
+        if (jwtId == null || user == null || user.getId() == null) {
+            return;
+        }
+        if (generationOf(user.getId()) != generation) {
+            return;
+        }
+        long expiresAt = Math.min(tokenExpiresAtMillis, System.currentTimeMillis() + ttlSeconds * 1000);
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        if (cache.size() >= maxSize) {
+            evictExpired();
+            if (cache.size() >= maxSize) {
+                // Cache đầy: request này vẫn chạy bình thường, chỉ không được cache
+                return;
+            }
+        }
+        CachedPrincipal entry = new CachedPrincipal(copyOf(user), signature.getBytes(StandardCharsets.US_ASCII), expiresAt);
+        cache.put(jwtId, entry);
+        // evictUser chạy giữa lúc kiểm tra và put: gỡ lại entry vừa ghi
+        if (generationOf(user.getId()) != generation) {
+            cache.remove(jwtId, entry);
+        }
+    }
+
+    /**
+     * Gỡ token khỏi cache (logout)
+     */
+    public void evictToken(String jwtId) {
+        if (jwtId != null) {
+            cache.remove(jwtId);
+        }
+    }
+
+    /**
+     * Gỡ mọi token của user (đổi role, khóa / mở khóa, đổi mật khẩu, sửa profile) trên mọi node
+     * Trong transaction thì gỡ thêm 1 lần sau commit: request chen giữa có thể đã cache lại dữ liệu cũ
+     */
+    public void evictUser(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        evictUserLocal(userId);
+        publishEvictUser(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictUserLocal(userId);
+                    publishEvictUser(userId);
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(cached -> cached.expiresAtMillis <= now);
+    }
+
+    private void evictUserLocal(Long userId) {
+        generations.incrementAndGet(stripeOf(userId));
+        removeUser(userId);
+    }
+
+    private void publishEvictUser(Long userId) {
+        try {
+            stringRedisTemplate.convertAndSend(EVICT_USER_CHANNEL, String.valueOf(userId));
+        } catch (Exception e) {
+            // Node khác tự hết hạn entry sau tối đa ttl-seconds
+            log.warn("Failed to broadcast principal eviction for user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private void onEvictUserMessage(String body) {
+        try {
+            evictUserLocal(Long.parseLong(body));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid principal eviction message: {}", body);
+        }
+    }
+
+    private void removeUser(Long userId) {
+        if (cache.values().removeIf(cached -> userId.equals(cached.user.getId()))) {
+            log.debug("Evicted cached principals of user {}", userId);
+        }
+    }
+
+    private static int stripeOf(Long userId) {
+        return (int) Math.floorMod(userId, (long) GENERATION_STRIPES);
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy);
+        return copy;
+    }
+
+    private record CachedPrincipal(User user, byte[] signature, long expiresAtMillis) {
+    }
+}
@@ -0,0 +1,341 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.ProductSearchDocument;
+import com.badat.study1.repository.CatalogQueryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Search index trong memory cho gian hàng OPEN (tên, danh mục, danh mục con, tên shop)
+ * - Token được bỏ dấu tiếng Việt + lowercase: "tai khoan" khớp "Tài khoản"
+ * - Mọi token của câu tìm kiếm phải khớp; token dài từ minPrefixLength khớp theo prefix (autocomplete)
+ * - Điểm = trọng số field khớp (khớp nguyên token cao hơn prefix) + độ phổ biến (đã bán, tồn kho)
+ * - Dựng lại toàn bộ lúc khởi động và định kỳ, cập nhật từng gian hàng khi tạo / sửa
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductSearchService {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-z0-9]+");
+
+    private static final int NAME_WEIGHT = 8;
+    private static final int CATEGORY_WEIGHT = 4;
+    private static final int SUBCATEGORY_WEIGHT = 4;
+    private static final int SHOP_WEIGHT = 2;
+
+    private final CatalogQueryRepository catalogQueryRepository;
+
+    @Value("${search.min-prefix-length:2}")
+    private int minPrefixLength;
+
+    private volatile SearchIndex index;
+
+    // Gian hàng thay đổi trong lúc đang dựng lại index, áp dụng lại sau khi đổi sang index mới
+    private final Set<Long> changedDuringRebuild = new HashSet<>();
+    private boolean rebuilding;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        rebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${search.rebuild-interval-ms:600000}", initialDelayString = "${search.rebuild-interval-ms:600000}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    /**
+     * Index chưa dựng xong (ngay sau khởi động) thì caller fallback sang query DB
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Tìm gian hàng, trả về productId theo độ liên quan giảm dần (tối đa limit)
+     */
+    public List<Long> search(String query, int limit) {
+        SearchIndex current = index;
+        List<String> tokens = tokenize(query);
+        if (current == null || tokens.isEmpty()) {
+            return List.of();
+        }
+        return current.search(tokens, minPrefixLength, limit);
+    }
+
+    /**
+     * Gợi ý autocomplete: tên gian hàng của các kết quả đầu tiên
+     */
+    public List<Map<String, Object>> suggest(String query, int limit) {
+        SearchIndex current = index;
+        if (current == null) {
+            return List.of();
+        }
+        List<Map<String, Object>> suggestions = new ArrayList<>();
+        for (Long productId : search(query, limit)) {
+            ProductSearchDocument document = current.getDocument(productId);
+            if (document != null) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("productId", document.getProductId());
+                item.put("productName", document.getProductName());
+                item.put("shopName", document.getShopName());
+                suggestions.add(item);
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Cập nhật 1 gian hàng sau khi tạo / sửa (gian hàng không còn OPEN sẽ bị gỡ khỏi index), chạy sau commit
+     */
+    public void reindexProduct(Long productId) {
+        if (productId == null) {
+            return;
+        }
+        Runnable action = () -> {
+            try {
+                synchronized (changedDuringRebuild) {
+                    if (rebuilding) {
+                        changedDuringRebuild.add(productId);
+                    }
+                }
+                applyFromDatabase(productId);
+            } catch (Exception e) {
+                log.warn("Failed to reindex product {}: {}", productId, e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void applyFromDatabase(Long productId) {
+        SearchIndex current = index;
+        if (current == null) {
+            return;
+        }
+        List<ProductSearchDocument> documents = catalogQueryRepository.findSearchDocuments(productId);
+        if (documents.isEmpty()) {
+            current.remove(productId);
+        } else {
+            current.put(documents.get(0));
+        }
+    }
+
+    private synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (changedDuringRebuild) {
+            rebuilding = true;
+            changedDuringRebuild.clear();
+        }
+        try {
+            SearchIndex fresh = new SearchIndex();
+            catalogQueryRepository.findSearchDocuments(null).forEach(fresh::put);
+            index = fresh;
+
+            Set<Long> changed;
+            synchronized (changedDuringRebuild) {
+                rebuilding = false;
+                changed = new HashSet<>(changedDuringRebuild);
+                changedDuringRebuild.clear();
+            }
+            changed.forEach(this::applyFromDatabase);
+            log.info("Built product search index: {} products, {} terms in {} ms",
+                    fresh.documentCount(), fresh.termCount(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            synchronized (changedDuringRebuild) {
+                rebuilding = false;
+            }
+            log.error("Failed to build product search index: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Bỏ dấu tiếng Việt (kể cả đ/Đ), lowercase rồi tách theo ký tự không phải chữ / số
+     */
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String folded = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .replace('đ', 'd')
+                .replace('Đ', 'D')
+                .toLowerCase();
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(List.of(NON_ALPHANUMERIC.split(folded))));
+        tokens.removeIf(String::isEmpty);
+        return tokens;
+    }
+
+    /**
+     * Inverted index: term -> (productId -> tổng trọng số các field chứa term)
+     * TreeMap để tra prefix bằng subMap; ReadWriteLock cho phép nhiều lượt tìm song song
+     */
+    private static class SearchIndex {
+
+        private final NavigableMap<String, Map<Long, Integer>> postings = new TreeMap<>();
+        private final Map<Long, ProductSearchDocument> documents = new HashMap<>();
+        private final Map<Long, Set<String>> documentTerms = new HashMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        void put(ProductSearchDocument document) {
+            Map<String, Integer> termWeights = new HashMap<>();
+            addTerms(termWeights, document.getProductName(), NAME_WEIGHT);
+            addTerms(termWeights, document.getProductCategory(), CATEGORY_WEIGHT);
+            addTerms(termWeights, document.getProductSubcategory(), SUBCATEGORY_WEIGHT);
+            addTerms(termWeights, document.getShopName(), SHOP_WEIGHT);
+
+            lock.writeLock().lock();
+            try {
+                removeUnlocked(document.getProductId());
+                documents.put(document.getProductId(), document);
+                documentTerms.put(document.getProductId(), termWeights.keySet());
+                termWeights.forEach((term, weight) ->
+                        postings.computeIfAbsent(term, t -> new HashMap<>()).put(document.getProductId(), weight));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(Long productId) {
+            lock.writeLock().lock();
+            try {
+                removeUnlocked(productId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        ProductSearchDocument getDocument(Long productId) {
+            lock.readLock().lock();
+            try {
+                return documents.get(productId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int documentCount() {
+            return documents.size();
+        }
+
+        int termCount() {
+            return postings.size();
+        }
+
+        List<Long> search(List<String> tokens, int minPrefixLength, int limit) {
+            lock.readLock().lock();
+            try {
+                Map<Long, Double> scores = null;
+                for (String token : tokens) {
+                    Map<Long, Double> tokenScores = scoreToken(token, minPrefixLength);
+                    if (scores == null) {
+                        scores = tokenScores;
+                    } else {
+                        // Giữ những gian hàng khớp mọi token
+                        Map<Long, Double> previous = scores;
+                        scores = new HashMap<>();
+                        for (Map.Entry<Long, Double> entry : tokenScores.entrySet()) {
+                            Double previousScore = previous.get(entry.getKey());
+                            if (previousScore != null) {
+                                scores.put(entry.getKey(), previousScore + entry.getValue());
+                            }
+                        }
+                    }
+                    if (scores.isEmpty()) {
+                        return List.of();
+                    }
+                }
+
+                Map<Long, Double> finalScores = scores;
+                finalScores.replaceAll((productId, relevance) -> relevance + popularity(documents.get(productId)));
+                return finalScores.entrySet().stream()
+                        .sorted(Map.Entry.<Long, Double>comparingByValue().reversed()
+                                .thenComparing(Map.Entry.comparingByKey()))
+                        .limit(limit)
+                        .map(Map.Entry::getKey)
+                        .toList();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private Map<Long, Double> scoreToken(String token, int minPrefixLength) {
+            Map<Long, Double> tokenScores = new HashMap<>();
+            if (token.length() < minPrefixLength) {
+                // Token quá ngắn chỉ khớp nguyên token, tránh quét quá nhiều term
+                Map<Long, Integer> exact = postings.get(token);
+                if (exact != null) {
+                    exact.forEach((productId, weight) -> tokenScores.put(productId, weight * 2.0));
+                }
+                return tokenScores;
+            }
+            for (Map.Entry<String, Map<Long, Integer>> entry
+                    : postings.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+                double multiplier = entry.getKey().length() == token.length() ? 2.0 : 1.0;
+                entry.getValue().forEach((productId, weight) ->
+                        tokenScores.merge(productId, weight * multiplier, Math::max));
+            }
+            return tokenScores;
+        }
+
+        private double popularity(ProductSearchDocument document) {
+            if (document == null) {
+                return 0;
+            }
+            return Math.log1p(document.getSoldCount()) + 0.5 * Math.log1p(document.getStockCount());
+        }
+
+        private void removeUnlocked(Long productId) {
+            Set<String> terms = documentTerms.remove(productId);
+            documents.remove(productId);
+            if (terms == null) {
+                return;
+            }
+            for (String term : terms) {
+                Map<Long, Integer> posting = postings.get(term);
+                if (posting != null) {
+                    posting.remove(productId);
+                    if (posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+
+        private static void addTerms(Map<String, Integer> termWeights, String text, int weight) {
+            for (String term : tokenize(text)) {
+                termWeights.merge(term, weight, Integer::sum);
+            }
+        }
+    }
+}
@@ -3,14 +3,24 @@ package com.badat.study1.service;
 import com.badat.study1.model.Order;
 import com.badat.study1.model.OrderItem;
 import com.badat.study1.model.Review;
+import com.badat.study1.model.ReviewSummary;
 import com.badat.study1.repository.OrderRepository;
 import com.badat.study1.repository.OrderItemRepository;
 import com.badat.study1.repository.ReviewRepository;
+import com.badat.study1.repository.ReviewSummaryRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -19,6 +29,11 @@ public class ReviewService {
     private final ReviewRepository reviewRepository;
     private final OrderRepository orderRepository;
     private final OrderItemRepository orderItemRepository;
+    private final ReviewSummaryRepository reviewSummaryRepository;
+    private final HomepageRankingService homepageRankingService;
+
+    @Value("${review.page-size:10}")
+    private int reviewPageSize;
 
     @Transactional
     public Review createReview(Long orderId, Long orderItemId, Long buyerId,
@@ -55,6 +70,80 @@ public class ReviewService {
             .isRead(false)
             .build();
         
-        return reviewRepository.save(review);
+        Review saved = reviewRepository.save(review);
+        applyToSummaries(saved, 1);
+        return saved;
+    }
+
+    /**
+     * Xóa mềm review và trừ khỏi summary (cùng transaction)
+     * - UPDATE có điều kiện is_delete = false: chỉ request thực sự xóa được review mới trừ summary
+     */
+    @Transactional
+    public void deleteReview(Long reviewId, String deletedBy) {
+        Review review = reviewRepository.findById(reviewId)
+            .orElseThrow(() -> new RuntimeException("Review not found"));
+        if (reviewRepository.softDeleteIfActive(reviewId, deletedBy, LocalDateTime.now()) == 1) {
+            applyToSummaries(review, -1);
+        }
+    }
+
+    public ReviewSummary getProductSummary(Long productId) {
+        return reviewSummaryRepository.findByScopeTypeAndScopeId(ReviewSummary.ScopeType.PRODUCT, productId)
+            .orElseGet(() -> ReviewSummary.empty(ReviewSummary.ScopeType.PRODUCT, productId));
+    }
+
+    public ReviewSummary getVariantSummary(Long productVariantId) {
+        return reviewSummaryRepository.findByScopeTypeAndScopeId(ReviewSummary.ScopeType.VARIANT, productVariantId)
+            .orElseGet(() -> ReviewSummary.empty(ReviewSummary.ScopeType.VARIANT, productVariantId));
+    }
+
+    /**
+     * Summary của nhiều product trong 1 query, product chưa có review không có trong map
+     */
+    public Map<Long, ReviewSummary> getProductSummaries(Collection<Long> productIds) {
+        Map<Long, ReviewSummary> summaries = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return summaries;
+        }
+        reviewSummaryRepository.findByScopeTypeAndScopeIdIn(ReviewSummary.ScopeType.PRODUCT, productIds)
+            .forEach(summary -> summaries.put(summary.getScopeId(), summary));
+        return summaries;
+    }
+
+    /**
+     * 1 trang review của product, mới nhất trước; beforeId = id review cuối của trang trước (null = trang đầu)
+     */
+    public List<Review> getProductReviews(Long productId, Long beforeId) {
+        PageRequest limit = PageRequest.of(0, reviewPageSize);
+        return beforeId == null
+            ? reviewRepository.findByProductIdAndIsDeleteFalseOrderByIdDesc(productId, limit)
+            : reviewRepository.findByProductIdAndIsDeleteFalseAndIdLessThanOrderByIdDesc(productId, beforeId, limit);
+    }
+
+    /**
+     * 1 trang review của productVariant, mới nhất trước
+     */
+    public List<Review> getVariantReviews(Long productVariantId, Long beforeId) {
+        PageRequest limit = PageRequest.of(0, reviewPageSize);
+        return beforeId == null
+            ? reviewRepository.findByProductVariantIdAndIsDeleteFalseOrderByIdDesc(productVariantId, limit)
+            : reviewRepository.findByProductVariantIdAndIsDeleteFalseAndIdLessThanOrderByIdDesc(productVariantId, beforeId, limit);
+    }
+
+    /**
+     * Cursor cho trang kế tiếp, null nếu đã hết review
+     */
+    public Long nextCursor(List<Review> page) {
+        return page.size() < reviewPageSize ? null : page.get(page.size() - 1).getId();
+    }
+
+    private void applyToSummaries(Review review, int delta) {
+        if (review.getRating() == null || review.getRating() < 1 || review.getRating() > 5) {
+            return;
+        }
+        reviewSummaryRepository.applyDelta(ReviewSummary.ScopeType.PRODUCT.name(), review.getProductId(), review.getRating(), delta);
+        reviewSummaryRepository.applyDelta(ReviewSummary.ScopeType.VARIANT.name(), review.getProductVariantId(), review.getRating(), delta);
+        homepageRankingService.markDirty();
     }
 }
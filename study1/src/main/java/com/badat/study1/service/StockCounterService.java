@@ -0,0 +1,496 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.Warehouse;
+import com.badat.study1.repository.WarehouseRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Bộ đếm tồn kho (available = locked = false AND is_delete = false) trên Redis
+ * - Key: stock:variant:{productVariantId} và stock:product:{productId}
+ * - Đọc: GET O(1), cache miss thì COUNT từ DB 1 lần rồi ghi lại (SET NX)
+ * - Ghi: INCRBY khi upload / reserve / release / deliver, chạy sau khi transaction commit
+ * - Reconcile định kỳ từ bảng warehouse để sửa sai lệch (Redis restart, lỗi mạng...)
+ * - Reservation nhanh: trừ counter variant và product cha của cả giỏ hàng trong 1 Lua script (all-or-nothing),
+ *   số lượng đã giữ được trả lại khi release hoặc khi hết TTL
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StockCounterService {
+
+    private static final String VARIANT_KEY_PREFIX = "stock:variant:";
+    private static final String PRODUCT_KEY_PREFIX = "stock:product:";
+    private static final String RESERVATION_KEY_PREFIX = "stock:reservation:";
+    private static final String RESERVATION_EXPIRY_KEY = "stock:reservations:expiry";
+
+    // Chỉ cộng/trừ khi key đã tồn tại - key chưa load thì lần đọc sau sẽ COUNT lại từ DB
+    private static final DefaultRedisScript<Long> ADJUST_IF_PRESENT_SCRIPT = new DefaultRedisScript<>(
+        "for i, key in ipairs(KEYS) do " +
+        "  if redis.call('exists', key) == 1 then " +
+        "    local value = redis.call('incrby', key, ARGV[1]) " +
+        "    if value < 0 then redis.call('incrby', key, -value) end " +
+        "  end " +
+        "end " +
+        "return 1",
+        Long.class);
+
+    // KEYS: variant counters..., product counters..., reservation hash, expiry zset
+    // ARGV: số variant counter, quantities (theo thứ tự KEYS)..., expireAtMillis, hashTtlMillis
+    // Chỉ variant counter được kiểm tra đủ hàng; product counter (tổng các variant) trừ khi đã load.
+    // Counter nào bị trừ thì ghi vào reservation hash để release / reconcile cộng lại đúng key đó.
+    // Trả về 0 nếu giữ hàng thành công, i nếu variant thứ i không đủ hàng, -i nếu counter thứ i chưa được load
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+        "local n = #KEYS - 2 " +
+        "local checked = tonumber(ARGV[1]) " +
+        "local reservationKey = KEYS[n + 1] " +
+        "if redis.call('exists', reservationKey) == 1 then return 0 end " +
+        "for i = 1, checked do " +
+        "  local available = redis.call('get', KEYS[i]) " +
+        "  if not available then return -i end " +
+        "  if tonumber(available) < tonumber(ARGV[i + 1]) then return i end " +
+        "end " +
+        "for i = 1, n do " +
+        "  if i <= checked or redis.call('exists', KEYS[i]) == 1 then " +
+        "    redis.call('decrby', KEYS[i], ARGV[i + 1]) " +
+        "    redis.call('hset', reservationKey, KEYS[i], ARGV[i + 1]) " +
+        "  end " +
+        "end " +
+        "redis.call('pexpire', reservationKey, ARGV[n + 3]) " +
+        "redis.call('zadd', KEYS[n + 2], ARGV[n + 2], reservationKey) " +
+        "return 0",
+        Long.class);
+
+    // KEYS: reservation hash, expiry zset - trả lại số lượng đã giữ vào counter (nếu counter còn) rồi xóa reservation
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "local fields = redis.call('hgetall', KEYS[1]) " +
+        "for i = 1, #fields, 2 do " +
+        "  if redis.call('exists', fields[i]) == 1 then redis.call('incrby', fields[i], fields[i + 1]) end " +
+        "end " +
+        "redis.call('del', KEYS[1]) " +
+        "redis.call('zrem', KEYS[2], KEYS[1]) " +
+        "return #fields / 2",
+        Long.class);
+
+    // KEYS: counters | ARGV: ttlMillis, (giá trị đọc trước khi COUNT DB, giá trị mới)... - "" = key chưa tồn tại
+    // Chỉ SET khi counter vẫn bằng giá trị đã đọc: INCRBY/DECRBY chạy xen giữa thì bỏ qua key đó (lần reconcile sau sửa)
+    // Trả về {số counter lệch đã sửa, số counter bỏ qua do bị đổi đồng thời}
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> RECONCILE_SCRIPT = new DefaultRedisScript<>(
+        "local drifted = 0 " +
+        "local skipped = 0 " +
+        "for i, key in ipairs(KEYS) do " +
+        "  local previous = ARGV[2 * i] " +
+        "  local value = ARGV[2 * i + 1] " +
+        "  local current = redis.call('get', key) " +
+        "  if (current == false and previous == '') or current == previous then " +
+        "    if current and current ~= value then drifted = drifted + 1 end " +
+        "    redis.call('set', key, value, 'PX', ARGV[1]) " +
+        "  else " +
+        "    skipped = skipped + 1 " +
+        "  end " +
+        "end " +
+        "return {drifted, skipped}",
+        List.class);
+
+    private static final int RECONCILE_BATCH_SIZE = 500;
+
+    private final WarehouseRepository warehouseRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final HomepageRankingService homepageRankingService;
+
+    @Value("${stock.counter.ttl-seconds:3600}")
+    private long counterTtlSeconds;
+
+    @Value("${stock.reservation.ttl-seconds:300}")
+    private long reservationTtlSeconds;
+
+    /**
+     * Số lượng hàng có sẵn của productVariant
+     */
+    public long getVariantStock(Long productVariantId) {
+        String key = VARIANT_KEY_PREFIX + productVariantId;
+        Long cached = readCounter(key);
+        if (cached != null) {
+            return cached;
+        }
+        long count = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(productVariantId);
+        writeIfAbsent(key, count);
+        return count;
+    }
+
+    /**
+     * Số lượng hàng có sẵn của product (tổng các variant)
+     */
+    public long getProductStock(Long productId) {
+        String key = PRODUCT_KEY_PREFIX + productId;
+        Long cached = readCounter(key);
+        if (cached != null) {
+            return cached;
+        }
+        long count = warehouseRepository.countAvailableItemsByProductId(productId);
+        writeIfAbsent(key, count);
+        return count;
+    }
+
+    /**
+     * Tồn kho của nhiều product trong 1 lệnh MGET, product nào chưa có counter thì load từ DB
+     */
+    public Map<Long, Long> getProductStocks(List<Long> productIds) {
+        Map<Long, Long> stocks = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return stocks;
+        }
+        List<String> values = null;
+        try {
+            values = stringRedisTemplate.opsForValue()
+                    .multiGet(productIds.stream().map(id -> PRODUCT_KEY_PREFIX + id).toList());
+        } catch (Exception e) {
+            log.warn("Failed to read product stock counters: {}", e.getMessage());
+        }
+        for (int i = 0; i < productIds.size(); i++) {
+            Long productId = productIds.get(i);
+            String value = values != null ? values.get(i) : null;
+            stocks.put(productId, value != null ? Long.parseLong(value) : getProductStock(productId));
+        }
+        return stocks;
+    }
+
+    /**
+     * Cộng/trừ tồn kho của 1 variant và product cha (delta > 0: nhập / release, delta < 0: reserve / bán)
+     */
+    public void adjust(Long productVariantId, Long productId, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(2);
+        if (productVariantId != null) {
+            keys.add(VARIANT_KEY_PREFIX + productVariantId);
+        }
+        if (productId != null) {
+            keys.add(PRODUCT_KEY_PREFIX + productId);
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        homepageRankingService.markDirty();
+        runAfterCommit(() -> {
+            try {
+                stringRedisTemplate.execute(ADJUST_IF_PRESENT_SCRIPT, keys, String.valueOf(delta));
+            } catch (Exception e) {
+                // Không cộng được thì xóa key để lần đọc sau load lại từ DB
+                log.warn("Failed to adjust stock counters {} by {}: {}", keys, delta, e.getMessage());
+                evictQuietly(keys);
+            }
+        });
+    }
+
+    /**
+     * Cộng/trừ tồn kho cho danh sách warehouse items (gom theo variant / product trước khi gọi Redis)
+     */
+    public void adjustForItems(List<Warehouse> items, long deltaPerItem) {
+        Map<List<Long>, Long> deltas = new HashMap<>();
+        for (Warehouse item : items) {
+            Long productVariantId = item.getProductVariant() != null ? item.getProductVariant().getId() : null;
+            Long productId = item.getProduct() != null ? item.getProduct().getId() : null;
+            deltas.merge(Arrays.asList(productVariantId, productId), deltaPerItem, Long::sum);
+        }
+        deltas.forEach((ids, delta) -> adjust(ids.get(0), ids.get(1), delta));
+    }
+
+    /**
+     * Giữ hàng cho cả giỏ trong 1 round-trip Redis: kiểm tra đủ hàng và trừ counter mọi variant (all-or-nothing),
+     * đồng thời trừ counter product cha để tồn kho theo product không tính hàng đang giữ.
+     * Số lượng đã giữ tự trả lại sau reservationTtlSeconds nếu không được release trước đó.
+     * Redis lỗi thì fallback kiểm tra COUNT từ DB (không giữ hàng).
+     */
+    public void reserve(String reservationId, Map<Long, Integer> productVariantQuantities, Map<Long, Integer> productQuantities) {
+        // Sắp xếp theo id để thứ tự key cố định
+        List<Map.Entry<Long, Integer>> entries = new ArrayList<>(new TreeMap<>(productVariantQuantities).entrySet());
+        List<Map.Entry<Long, Integer>> productEntries = new ArrayList<>(new TreeMap<>(productQuantities).entrySet());
+        int counterCount = entries.size() + productEntries.size();
+        List<String> keys = new ArrayList<>(counterCount + 2);
+        Object[] args = new Object[counterCount + 3];
+        args[0] = String.valueOf(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            keys.add(VARIANT_KEY_PREFIX + entries.get(i).getKey());
+            args[i + 1] = String.valueOf(entries.get(i).getValue());
+        }
+        for (int i = 0; i < productEntries.size(); i++) {
+            keys.add(PRODUCT_KEY_PREFIX + productEntries.get(i).getKey());
+            args[entries.size() + i + 1] = String.valueOf(productEntries.get(i).getValue());
+        }
+        keys.add(RESERVATION_KEY_PREFIX + reservationId);
+        keys.add(RESERVATION_EXPIRY_KEY);
+        long ttlMillis = Duration.ofSeconds(reservationTtlSeconds).toMillis();
+        args[counterCount + 1] = String.valueOf(System.currentTimeMillis() + ttlMillis);
+        // Hash giữ lâu hơn TTL để sweep kịp trả hàng trước khi Redis tự xóa
+        args[counterCount + 2] = String.valueOf(ttlMillis + Duration.ofSeconds(counterTtlSeconds).toMillis());
+
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(RESERVE_SCRIPT, keys, args);
+            if (result != null && result < 0) {
+                // Counter chưa có trên Redis: load các variant còn thiếu từ DB rồi thử lại 1 lần
+                for (Map.Entry<Long, Integer> entry : entries) {
+                    getVariantStock(entry.getKey());
+                }
+                result = stringRedisTemplate.execute(RESERVE_SCRIPT, keys, args);
+            }
+        } catch (Exception e) {
+            log.warn("Stock reservation via Redis failed for {}, falling back to DB count: {}", reservationId, e.getMessage());
+            for (Map.Entry<Long, Integer> entry : entries) {
+                long available = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(entry.getKey());
+                if (available < entry.getValue()) {
+                    throw insufficientStock(entry.getKey(), entry.getValue(), available);
+                }
+            }
+            return;
+        }
+
+        if (result == null || result < 0) {
+            throw new RuntimeException("Không thể kiểm tra hàng cho giỏ hàng");
+        }
+        if (result > 0) {
+            Map.Entry<Long, Integer> failed = entries.get(result.intValue() - 1);
+            Long available = readCounter(VARIANT_KEY_PREFIX + failed.getKey());
+            throw insufficientStock(failed.getKey(), failed.getValue(), available != null ? available : 0);
+        }
+        log.info("Reserved stock for {} variants / {} products under reservation {}",
+                entries.size(), productEntries.size(), reservationId);
+    }
+
+    /**
+     * Trả lại số lượng đã giữ (gọi khi payment đã lock hàng trong DB, thất bại hoặc bị rollback)
+     */
+    public void releaseReservation(String reservationId) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    List.of(RESERVATION_KEY_PREFIX + reservationId, RESERVATION_EXPIRY_KEY));
+        } catch (Exception e) {
+            log.warn("Failed to release stock reservation {}: {}", reservationId, e.getMessage());
+        }
+    }
+
+    /**
+     * Release reservation chỉ khi transaction hiện tại commit (payment đã kết thúc ở node này).
+     * Rollback thì giữ nguyên reservation cho lần xử lý tiếp theo, hoặc để TTL trả lại. Gọi nhiều lần không sao:
+     * release lần 2 không còn field nào để cộng.
+     */
+    public void releaseReservationOnCommit(String reservationId) {
+        runAfterCommit(() -> releaseReservation(reservationId));
+    }
+
+    /**
+     * Release reservation chỉ khi transaction hiện tại rollback (vd enqueue payment thất bại)
+     */
+    public void releaseReservationOnRollback(String reservationId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        releaseReservation(reservationId);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Trả lại hàng của các reservation đã hết TTL
+     */
+    @Scheduled(fixedRateString = "${stock.reservation.sweep-interval-ms:10000}")
+    public void releaseExpiredReservations() {
+        try {
+            Set<String> expired = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(RESERVATION_EXPIRY_KEY, 0, System.currentTimeMillis(), 0, 200);
+            if (expired == null || expired.isEmpty()) {
+                return;
+            }
+            for (String reservationKey : expired) {
+                stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(reservationKey, RESERVATION_EXPIRY_KEY));
+            }
+            log.info("Released {} expired stock reservations", expired.size());
+        } catch (Exception e) {
+            log.error("Error releasing expired stock reservations: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Xóa counter để lần đọc sau COUNT lại từ DB
+     */
+    public void evict(Long productVariantId, Long productId) {
+        List<String> keys = new ArrayList<>(2);
+        if (productVariantId != null) {
+            keys.add(VARIANT_KEY_PREFIX + productVariantId);
+        }
+        if (productId != null) {
+            keys.add(PRODUCT_KEY_PREFIX + productId);
+        }
+        runAfterCommit(() -> evictQuietly(keys));
+    }
+
+    /**
+     * Đồng bộ lại toàn bộ counter từ bảng warehouse (2 query GROUP BY thay vì COUNT từng variant)
+     * Counter đang cache nhưng không còn hàng trong DB được set về 0
+     * - Giá trị hiện tại được MGET TRƯỚC khi COUNT DB, ghi lại bằng Lua compare-and-set theo batch:
+     *   counter bị INCRBY/DECRBY/reserve sau lần đọc đó thì không bị ghi đè bằng số đếm cũ
+     */
+    @Scheduled(fixedRateString = "${stock.counter.reconcile-interval-ms:300000}")
+    public void reconcile() {
+        try {
+            List<String> cachedKeys = new ArrayList<>(scanKeys(VARIANT_KEY_PREFIX + "*"));
+            cachedKeys.addAll(scanKeys(PRODUCT_KEY_PREFIX + "*"));
+            Map<String, String> previous = new HashMap<>();
+            for (int from = 0; from < cachedKeys.size(); from += RECONCILE_BATCH_SIZE) {
+                List<String> batch = cachedKeys.subList(from, Math.min(from + RECONCILE_BATCH_SIZE, cachedKeys.size()));
+                List<String> values = stringRedisTemplate.opsForValue().multiGet(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    String value = values != null ? values.get(i) : null;
+                    if (value != null) {
+                        previous.put(batch.get(i), value);
+                    }
+                }
+            }
+
+            Map<String, Long> expected = new HashMap<>();
+            for (Object[] row : warehouseRepository.countAvailableGroupByProductVariant()) {
+                expected.put(VARIANT_KEY_PREFIX + row[0], ((Number) row[1]).longValue());
+            }
+            for (Object[] row : warehouseRepository.countAvailableGroupByProduct()) {
+                expected.put(PRODUCT_KEY_PREFIX + row[0], ((Number) row[1]).longValue());
+            }
+
+            // Trừ phần đang được giữ bởi reservation chưa release để reconcile không "trả" hàng đang giữ
+            for (Map.Entry<String, Long> held : outstandingReservations().entrySet()) {
+                expected.computeIfPresent(held.getKey(), (key, count) -> Math.max(0, count - held.getValue()));
+            }
+
+            int zeroed = 0;
+            for (String cachedKey : previous.keySet()) {
+                if (expected.putIfAbsent(cachedKey, 0L) == null) {
+                    zeroed++;
+                }
+            }
+
+            String ttlMillis = String.valueOf(Duration.ofSeconds(counterTtlSeconds).toMillis());
+            List<String> keys = new ArrayList<>(expected.keySet());
+            long drifted = 0;
+            long skipped = 0;
+            for (int from = 0; from < keys.size(); from += RECONCILE_BATCH_SIZE) {
+                List<String> batch = keys.subList(from, Math.min(from + RECONCILE_BATCH_SIZE, keys.size()));
+                Object[] args = new Object[batch.size() * 2 + 1];
+                args[0] = ttlMillis;
+                for (int i = 0; i < batch.size(); i++) {
+                    args[2 * i + 1] = previous.getOrDefault(batch.get(i), "");
+                    args[2 * i + 2] = String.valueOf(expected.get(batch.get(i)));
+                }
+                List<?> result = stringRedisTemplate.execute(RECONCILE_SCRIPT, batch, args);
+                if (result != null && result.size() == 2) {
+                    drifted += ((Number) result.get(0)).longValue();
+                    skipped += ((Number) result.get(1)).longValue();
+                }
+            }
+
+            if (drifted > 0) {
+                log.warn("Stock counter reconcile fixed {} drifted counters", drifted);
+            }
+            log.debug("Stock counters reconciled - {} keys from DB, {} zeroed, {} skipped (changed concurrently)",
+                    expected.size() - zeroed, zeroed, skipped);
+        } catch (Exception e) {
+            log.error("Error reconciling stock counters: {}", e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Long> outstandingReservations() {
+        Map<String, Long> held = new HashMap<>();
+        Set<String> reservationKeys = stringRedisTemplate.opsForZSet().range(RESERVATION_EXPIRY_KEY, 0, -1);
+        if (reservationKeys == null) {
+            return held;
+        }
+        for (String reservationKey : reservationKeys) {
+            Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(reservationKey);
+            fields.forEach((counterKey, quantity) ->
+                    held.merge(counterKey.toString(), Long.parseLong(quantity.toString()), Long::sum));
+        }
+        return held;
+    }
+
+    private RuntimeException insufficientStock(Long productVariantId, int required, long available) {
+        log.warn("Insufficient stock for productVariant {}. Required: {}, Available: {}",
+                productVariantId, required, available);
+        return new RuntimeException("Không đủ hàng cho sản phẩm ID: " + productVariantId +
+                " (cần " + required + ", chỉ có " + available + ")");
+    }
+
+    private Long readCounter(String key) {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            return value != null ? Long.parseLong(value) : null;
+        } catch (Exception e) {
+            log.warn("Failed to read stock counter {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeIfAbsent(String key, long count) {
+        try {
+            stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(count), Duration.ofSeconds(counterTtlSeconds));
+        } catch (Exception e) {
+            log.warn("Failed to cache stock counter {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void evictQuietly(List<String> keys) {
+        try {
+            stringRedisTemplate.delete(keys);
+        } catch (Exception e) {
+            log.warn("Failed to evict stock counters {}: {}", keys, e.getMessage());
+        }
+    }
+
+    private Set<String> scanKeys(String pattern) {
+        Set<String> keys = new HashSet<>();
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(500).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            cursor.forEachRemaining(keys::add);
+        }
+        return keys;
+    }
+
+    /**
+     * Chỉ cập nhật Redis sau khi transaction DB commit để counter không lệch khi rollback
+     */
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
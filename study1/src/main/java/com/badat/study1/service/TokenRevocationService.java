@@ -0,0 +1,272 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.RedisToken;
+import com.badat.study1.repository.RedisTokenRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Danh sách JWT đã logout (revoked) giữ trong memory, kiểm tra mỗi request không cần gọi Redis
+ * - Bloom filter: đa số token chưa logout bị loại ngay; khớp bloom thì tra tập chính xác jti -> hạn token
+ * - Logout: ghi ZSET jwt:revoked (score = hạn token) làm nguồn dựng lại + publish lên channel cho các node khác
+ * - Khởi động / định kỳ: đồng bộ lại từ ZSET (bù message pub/sub bị lỡ khi mất kết nối)
+ * - Token hết hạn thì tự rơi khỏi tập (token hết hạn vốn đã bị từ chối), bloom được dựng lại khi dọn
+ * - Nạp lần đầu trong @PostConstruct (trước khi web server nhận request); chưa nạp được thì fail closed:
+ *   mọi token bị coi là revoked cho tới khi đồng bộ thành công
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TokenRevocationService {
+
+    private static final String REVOKED_KEY = "jwt:revoked";
+    private static final String REVOKED_CHANNEL = "jwt:revoked:events";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+    private final RedisTokenRepository redisTokenRepository;
+
+    @Value("${security.revocation.bloom-expected-insertions:100000}")
+    private int bloomExpectedInsertions;
+
+    @Value("${security.revocation.bloom-false-positive-rate:0.01}")
+    private double bloomFalsePositiveRate;
+
+    // jti -> thời điểm token hết hạn (epoch millis)
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private volatile BloomFilter bloomFilter;
+    private volatile boolean synced;
+
+    @PostConstruct
+    public void init() {
+        bloomFilter = new BloomFilter(bloomExpectedInsertions, bloomFalsePositiveRate);
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onRevokedMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(REVOKED_CHANNEL));
+        loadInitial();
+    }
+
+    /**
+     * Thử nạp lại khi lần nạp lúc khởi động thất bại (Redis chưa sẵn sàng)
+     */
+    @Scheduled(fixedDelayString = "${security.revocation.initial-sync-retry-ms:5000}")
+    public void retryInitialLoad() {
+        if (!synced) {
+            loadInitial();
+        }
+    }
+
+    private void loadInitial() {
+        if (resync() && importLegacyTokens()) {
+            synced = true;
+        } else {
+            log.error("Token revocation list not loaded yet - rejecting all tokens until Redis sync succeeds");
+        }
+    }
+
+    /**
+     * Token đã bị logout chưa - chỉ tra memory (chưa nạp được danh sách thì coi như đã revoke)
+     */
+    public boolean isRevoked(String jwtId) {
+        if (!synced) {
+            return true;
+        }
+        if (jwtId == null || !bloomFilter.mightContain(jwtId)) {
+            return false;
+        }
+        Long expiresAt = revoked.get(jwtId);
+        return expiresAt != null && expiresAt > System.currentTimeMillis();
+    }
+
+    /**
+     * Thu hồi token tới thời điểm hết hạn của nó, áp dụng ngay ở node này và báo cho các node khác
+     */
+    public void revoke(String jwtId, long expiresAtMillis) {
+        if (jwtId == null || expiresAtMillis <= System.currentTimeMillis()) {
+            return;
+        }
+        addLocal(jwtId, expiresAtMillis);
+        try {
+            stringRedisTemplate.opsForZSet().add(REVOKED_KEY, jwtId, expiresAtMillis);
+            stringRedisTemplate.convertAndSend(REVOKED_CHANNEL, jwtId + "|" + expiresAtMillis);
+        } catch (Exception e) {
+            // Node này vẫn từ chối token; node khác nhận được khi Redis hoạt động lại và resync
+            log.warn("Failed to publish token revocation {}: {}", jwtId, e.getMessage());
+        }
+    }
+
+    /**
+     * Đồng bộ lại toàn bộ từ ZSET (đồng thời xóa entry đã hết hạn trên Redis), false nếu Redis lỗi
+     */
+    @Scheduled(fixedDelayString = "${security.revocation.resync-interval-ms:300000}",
+            initialDelayString = "${security.revocation.resync-interval-ms:300000}")
+    public void scheduledResync() {
+        resync();
+    }
+
+    private boolean resync() {
+        try {
+            long now = System.currentTimeMillis();
+            stringRedisTemplate.opsForZSet().removeRangeByScore(REVOKED_KEY, Double.NEGATIVE_INFINITY, now);
+            Set<ZSetOperations.TypedTuple<String>> entries =
+                    stringRedisTemplate.opsForZSet().rangeByScoreWithScores(REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+            if (entries != null) {
+                for (ZSetOperations.TypedTuple<String> entry : entries) {
+                    if (entry.getValue() != null && entry.getScore() != null) {
+                        addLocal(entry.getValue(), entry.getScore().longValue());
+                    }
+                }
+            }
+            log.debug("Token revocation list synced: {} revoked tokens", revoked.size());
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to sync token revocation list from Redis: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Bỏ token đã hết hạn và dựng lại bloom filter (bloom không xóa được phần tử)
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+
+        BloomFilter fresh = new BloomFilter(Math.max(bloomExpectedInsertions, revoked.size() * 2), bloomFalsePositiveRate);
+        revoked.keySet().forEach(fresh::put);
+        // Token thu hồi trong lúc đang dựng: addLocal thấy field đổi và tự put lại vào bloom mới
+        bloomFilter = fresh;
+        revoked.keySet().forEach(fresh::put);
+    }
+
+    private void onRevokedMessage(String body) {
+        int separator = body.lastIndexOf('|');
+        if (separator <= 0) {
+            return;
+        }
+        try {
+            addLocal(body.substring(0, separator), Long.parseLong(body.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid token revocation message: {}", body);
+        }
+    }
+
+    private void addLocal(String jwtId, long expiresAtMillis) {
+        if (expiresAtMillis <= System.currentTimeMillis()) {
+            return;
+        }
+        revoked.merge(jwtId, expiresAtMillis, Math::max);
+        // evictExpired có thể thay bloom giữa lúc đọc field và put: ghi lại vào bloom mới tới khi field không đổi.
+        // Bloom chưa bị thay sau lần đọc cuối thì lúc thay, jti đã nằm trong revoked và được evictExpired chép sang
+        BloomFilter current = bloomFilter;
+        while (true) {
+            current.put(jwtId);
+            BloomFilter latest = bloomFilter;
+            if (latest == current) {
+                return;
+            }
+            current = latest;
+        }
+    }
+
+    /**
+     * Token đã logout trước khi có ZSET (lưu dạng RedisToken, TTL đọc lại = thời gian còn lại)
+     */
+    private boolean importLegacyTokens() {
+        try {
+            long now = System.currentTimeMillis();
+            int imported = 0;
+            for (RedisToken token : redisTokenRepository.findAll()) {
+                if (token != null && token.getJwtID() != null && token.getExpirationTime() > 0) {
+                    revoke(token.getJwtID(), now + token.getExpirationTime() * 1000);
+                    redisTokenRepository.deleteById(token.getJwtID());
+                    imported++;
+                }
+            }
+            if (imported > 0) {
+                log.info("Imported {} legacy revoked tokens", imported);
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to import legacy revoked tokens: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Bloom filter đơn giản trên AtomicLongArray (thread-safe, không khóa), k hàm băm sinh từ 2 giá trị băm
+     */
+    private static final class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+
+        BloomFilter(int expectedInsertions, double falsePositiveRate) {
+            long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.max(1, (optimalBits + 63) / 64);
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = (long) words * 64;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        }
+
+        void put(String value) {
+            long hash1 = hash(value, 0x9E3779B97F4A7C15L);
+            long hash2 = hash(value, 0xC2B2AE3D27D4EB4FL);
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(hash1 + i * hash2, bitCount);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long current;
+                do {
+                    current = bits.get(word);
+                    if ((current & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, current, current | mask));
+            }
+        }
+
+        boolean mightContain(String value) {
+            long hash1 = hash(value, 0x9E3779B97F4A7C15L);
+            long hash2 = hash(value, 0xC2B2AE3D27D4EB4FL);
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(hash1 + i * hash2, bitCount);
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a 64 bit với seed khác nhau + bước trộn cuối (splitmix64)
+        private static long hash(String value, long seed) {
+            long hash = 0xCBF29CE484222325L ^ seed;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001B3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB9FE1A85EC53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
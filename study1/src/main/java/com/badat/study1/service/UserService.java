@@ -4,6 +4,7 @@ import com.badat.study1.dto.request.ProfileUpdateRequest;
 import com.badat.study1.dto.request.UpdateProfileRequest;
 import com.badat.study1.dto.request.UserCreateRequest;
 import com.badat.study1.dto.response.ProfileResponse;
+import com.badat.study1.model.StoredImage;
 import com.badat.study1.model.User;
 import com.badat.study1.model.Wallet;
 import com.badat.study1.repository.UserRepository;
@@ -41,17 +42,21 @@ public class UserService {
     private final OtpService otpService;
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final ImageStoreService imageStoreService;
+    private final PrincipalCacheService principalCacheService;
     
     // Temporary storage for OTP and registration data (legacy - not used anymore)
     private final Map<String, String> otpStorage = new HashMap<>();
 
-    public UserService(UserRepository userRepository, WalletRepository walletRepository, EmailService emailService, OtpService otpService, RedisTemplate<String, Object> redisTemplate, ObjectMapper objectMapper) {
+    public UserService(UserRepository userRepository, WalletRepository walletRepository, EmailService emailService, OtpService otpService, RedisTemplate<String, Object> redisTemplate, ObjectMapper objectMapper, ImageStoreService imageStoreService, PrincipalCacheService principalCacheService) {
         this.userRepository = userRepository;
         this.walletRepository = walletRepository;
         this.emailService = emailService;
         this.otpService = otpService;
         this.redisTemplate = redisTemplate;
         this.objectMapper = objectMapper;
+        this.imageStoreService = imageStoreService;
+        this.principalCacheService = principalCacheService;
         this.passwordEncoder = new BCryptPasswordEncoder();
     }
 
@@ -240,6 +245,7 @@ public class UserService {
         // Save user - JPA Auditing will automatically set:
         // - updatedAt: current timestamp
         userRepository.save(user);
+        principalCacheService.evictUser(user.getId());
         
         log.info("Profile updated for user: {} - updatedAt: {}", 
                 username, user.getUpdatedAt());
@@ -266,6 +272,7 @@ public class UserService {
         // Save user - JPA Auditing will automatically set:
         // - updatedAt: current timestamp
         userRepository.save(user);
+        principalCacheService.evictUser(user.getId());
         
         log.info("Profile soft deleted for user: {} - deletedBy: {}, updatedAt: {}", 
                 username, user.getDeletedBy(), user.getUpdatedAt());
@@ -294,6 +301,7 @@ public class UserService {
         }
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        principalCacheService.evictUser(user.getId());
         log.info("Password changed successfully for user: {}", username);
     }
     
@@ -315,6 +323,7 @@ public class UserService {
         }
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        principalCacheService.evictUser(user.getId());
         log.info("Password changed successfully for user ID: {}", userId);
     }
 
@@ -396,6 +405,7 @@ public class UserService {
         // Update password
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        principalCacheService.evictUser(user.getId());
         
         // Invalidate reset token
         otpService.invalidateResetToken(resetToken, email);
@@ -441,6 +451,7 @@ public class UserService {
             // Step 5: Update password (DB operation - có transaction)
             user.setPassword(passwordEncoder.encode(newPassword));
             userRepository.save(user);
+            principalCacheService.evictUser(user.getId());
             passwordUpdated = true;
             log.info("✅ Step 5 SUCCESS: Password updated in DB for email: {}", email);
             
@@ -493,6 +504,7 @@ public class UserService {
         
         // Save user - JPA Auditing will automatically set updatedAt
         userRepository.save(user);
+        principalCacheService.evictUser(user.getId());
         
         log.info("Profile updated for user ID: {} - updatedAt: {}", 
                 userId, user.getUpdatedAt());
@@ -602,43 +614,26 @@ public class UserService {
         
         User user = userOpt.get();
         
-        // Convert file to byte array
+        // Lưu ảnh vào image store, avatar chỉ hiển thị nhỏ nên dùng thumbnail
         byte[] avatarBytes = file.getBytes();
+        String avatarHash = imageStoreService.store(avatarBytes, true).getThumbnailHash();
         
-        // Update user with byte data
-        user.setAvatarData(avatarBytes);
-        User savedUser = userRepository.saveAndFlush(user); // Use saveAndFlush to ensure immediate persistence
+        user.setAvatarHash(avatarHash);
+        userRepository.saveAndFlush(user); // Use saveAndFlush to ensure immediate persistence
+        principalCacheService.evictUser(user.getId());
         
-        log.info("Avatar uploaded for user ID: {} as byte array ({} bytes). Saved user ID: {}, Avatar data length after save: {}", 
-                userId, avatarBytes.length, savedUser.getId(), 
-                savedUser.getAvatarData() != null ? savedUser.getAvatarData().length : 0);
+        log.info("Avatar uploaded for user ID: {} ({} bytes), hash: {}", userId, avatarBytes.length, avatarHash);
     }
     
-    public byte[] getAvatar(Long userId) {
-        try {
-            log.info("Getting avatar for user ID: {}", userId);
-            Optional<User> userOpt = userRepository.findById(userId);
-            if (userOpt.isEmpty()) {
-                log.warn("User not found for ID: {}", userId);
-                return getDefaultAvatar();
-            }
-
-            User user = userOpt.get();
-            log.info("User found: {}, Avatar data length: {}", user.getUsername(), 
-                    user.getAvatarData() != null ? user.getAvatarData().length : 0);
-
-            // Use avatarData (byte array) or default avatar
-            if (user.getAvatarData() != null && user.getAvatarData().length > 0) {
-                log.info("Returning avatar data for user {}: {} bytes", user.getUsername(), user.getAvatarData().length);
-                return user.getAvatarData();
-            }
-
-            log.info("No avatar data found for user {}, returning default", user.getUsername());
-            return getDefaultAvatar();
-        } catch (Exception e) {
-            log.error("Error getting avatar for user {}: {}", userId, e.getMessage());
-            return getDefaultAvatar();
-        }
+    /**
+     * Hash avatar hiện tại của user (dùng làm ETag), null nếu chưa có avatar
+     */
+    public String getAvatarHash(Long userId) {
+        return userRepository.findAvatarHashById(userId).orElse(null);
+    }
+    
+    public Optional<StoredImage> getAvatarImage(String avatarHash) {
+        return imageStoreService.find(avatarHash);
     }
     
     @Transactional
@@ -650,13 +645,12 @@ public class UserService {
         
         User user = userOpt.get();
         
-        // Clear database references (byte data only)
-        user.setAvatarData(null);
-        User savedUser = userRepository.saveAndFlush(user); // Use saveAndFlush to ensure immediate persistence
+        // Chỉ bỏ tham chiếu, ảnh trong store có thể đang được dùng chung (cùng hash)
+        user.setAvatarHash(null);
+        userRepository.saveAndFlush(user); // Use saveAndFlush to ensure immediate persistence
+        principalCacheService.evictUser(user.getId());
         
-        log.info("Avatar deleted for user ID: {} (byte data cleared). Saved user ID: {}, Avatar data length after save: {}", 
-                userId, savedUser.getId(), 
-                savedUser.getAvatarData() != null ? savedUser.getAvatarData().length : 0);
+        log.info("Avatar deleted for user ID: {}", userId);
     }
     
     private UserCreateRequest convertToUserCreateRequest(Object rawData) {
@@ -758,6 +752,8 @@ public class UserService {
     }
     
     public User save(User user) {
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        principalCacheService.evictUser(saved.getId());
+        return saved;
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.badat.study1.service;
 
+import com.badat.study1.event.WalletHoldEvent;
 import com.badat.study1.model.Wallet;
 import com.badat.study1.model.WalletHold;
 import com.badat.study1.model.WalletHistory;
@@ -11,8 +12,8 @@ import com.badat.study1.repository.OrderRepository;
 import com.badat.study1.repository.OrderItemRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.integration.redis.util.RedisLockRegistry;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -38,6 +39,8 @@ public class WalletHoldService {
     private final OrderItemRepository orderItemRepository;
     private final OrderService orderService;
     private final RedisLockRegistry redisLockRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CommissionLedgerService commissionLedgerService;
     
     /**
      * Hold money trong ví user với thời gian 1 phút (để test)
@@ -92,6 +95,8 @@ public class WalletHoldService {
             .build();
             
         walletHoldRepository.save(hold);
+        // Lên lịch tất toán đúng expiresAt (WalletHoldSettlementService) sau khi transaction commit
+        eventPublisher.publishEvent(WalletHoldEvent.holdCreated(this, hold.getId(), userId, hold.getExpiresAt()));
         
         // 4. Tạo wallet history
         try {
@@ -137,9 +142,12 @@ public class WalletHoldService {
             if (userLock.tryLock(10, TimeUnit.SECONDS)) {
                 log.info("Acquired user wallet lock for release hold: {}", holdId);
                 
-                // 1. Cập nhật hold status
+                // 1. Cập nhật hold status - có điều kiện để không hoàn tiền cho hold vừa được tất toán
+                if (walletHoldRepository.updateStatusIfCurrent(holdId, WalletHold.Status.PENDING, WalletHold.Status.CANCELLED) == 0) {
+                    log.warn("Hold {} is no longer PENDING, skipping release", holdId);
+                    return;
+                }
                 hold.setStatus(WalletHold.Status.CANCELLED);
-                walletHoldRepository.save(hold);
                 
                 // 2. Hoàn tiền về ví
                 Wallet wallet = walletRepository.findByUserId(hold.getUserId())
@@ -273,91 +281,59 @@ public class WalletHoldService {
     }
     
     /**
-     * Complete hold - chuyển tiền cho seller và admin
+     * Tất toán 1 hold đã hết hạn - WalletHoldSettlementService gọi (qua proxy) khi hold tới hạn
+     * - Có order: chuyển tiền cho seller/admin; không có order: hoàn tiền về buyer
+     * - Chuyển PENDING -> COMPLETED và phân phối tiền trong cùng 1 transaction: lỗi giữa chừng thì rollback về PENDING,
+     *   exception được ném ra để hold vẫn nằm trong lịch và được thử lại sau claim-timeout
+     * - Trả về false nếu hold chưa tới hạn (giữ lại lịch), true nếu đã xử lý xong hoặc không còn PENDING
      */
     @Transactional
-    public void completeHold(Long holdId) {
-        log.info("Completing hold: {}", holdId);
-        
-        WalletHold hold = walletHoldRepository.findById(holdId)
-            .orElseThrow(() -> new RuntimeException("Hold not found: " + holdId));
-            
-        if (hold.getStatus() != WalletHold.Status.PENDING) {
-            log.warn("Hold {} is not in PENDING status: {}", holdId, hold.getStatus());
-            return;
+    public boolean settleExpiredHold(Long holdId) {
+        WalletHold hold = walletHoldRepository.findById(holdId).orElse(null);
+        if (hold == null || hold.getStatus() != WalletHold.Status.PENDING) {
+            log.debug("Hold {} not found or no longer PENDING, nothing to settle", holdId);
+            return true;
+        }
+        if (hold.getExpiresAt().isAfter(Instant.now())) {
+            return false;
         }
         
-        // 1. Cập nhật hold status
-        hold.setStatus(WalletHold.Status.COMPLETED);
-        walletHoldRepository.save(hold);
+        log.info("Processing expired hold: {} for user: {}", hold.getId(), hold.getUserId());
         
-        // 2. Tạo wallet history cho buyer (chi tiêu)
-        try {
-            Wallet wallet = walletRepository.findByUserId(hold.getUserId())
-                .orElseThrow(() -> new RuntimeException("Wallet not found for user: " + hold.getUserId()));
-                
-            walletHistoryService.saveHistory(
-                wallet.getId(),
-                hold.getAmount().negate(), // Số âm vì đây là chi tiêu
-                hold.getOrderId(),
-                null,
-                WalletHistory.Type.PURCHASE,
-                WalletHistory.Status.SUCCESS,
-                "Payment completed - Order: " + hold.getOrderId()
-            );
-        } catch (Exception e) {
-            log.warn("Failed to create wallet history for buyer: {}", e.getMessage());
+        // Tìm order tương ứng để lấy thông tin seller và commission
+        Optional<Order> orderOpt = orderRepository.findByOrderCode(hold.getOrderId());
+        if (orderOpt.isEmpty()) {
+            // Nếu không tìm thấy order, hoàn tiền về buyer
+            log.warn("No orders found for hold {}, refunding to buyer", hold.getId());
+            releaseHold(hold.getId());
+            return true;
         }
         
-        // 3. Phân phối tiền cho seller và admin
-        try {
-            Optional<Order> orderOpt = orderRepository.findByOrderCode(hold.getOrderId());
-            List<Order> orders = orderOpt.map(List::of).orElse(List.of());
-            
-            if (!orders.isEmpty()) {
-                distributePaymentToSellerAndAdmin(hold, orders);
-            } else {
-                log.warn("No orders found for hold {}, cannot distribute payment", hold.getId());
-            }
-        } catch (Exception e) {
-            log.error("Failed to distribute payment for hold {}: {}", hold.getId(), e.getMessage());
+        // Chuyển PENDING -> COMPLETED có điều kiện - worker/node khác đã tất toán thì bỏ qua
+        if (walletHoldRepository.updateStatusIfCurrent(holdId, WalletHold.Status.PENDING, WalletHold.Status.COMPLETED) == 0) {
+            log.info("Hold {} was settled by another worker", holdId);
+            return true;
         }
+        hold.setStatus(WalletHold.Status.COMPLETED);
         
-        log.info("Hold completed successfully for user {}: {} VND", hold.getUserId(), hold.getAmount());
-    }
-    
-    /**
-     * Cron job chạy mỗi 5 giây để xử lý expired holds - chuyển tiền cho seller/admin
-     * Kết hợp với trigger system để tăng tốc xử lý
-     */
-    @Scheduled(fixedRate = 5000) // Mỗi 5 giây - tăng tần suất
-    public void processExpiredHolds() {
-        log.info("Processing expired holds...");
-        
-        List<WalletHold> expiredHolds = walletHoldRepository
-            .findByStatusAndExpiresAtBefore(WalletHold.Status.PENDING, Instant.now());
-            
-        log.info("Found {} expired holds", expiredHolds.size());
-        
-        // Xử lý batch expired holds để tăng tốc độ
-        processBatchExpiredHolds(expiredHolds);
+        // Chuyển tiền cho seller và admin theo commission
+        distributePaymentToSellerAndAdmin(hold, List.of(orderOpt.get()));
+        return true;
     }
     
     /**
      * Chuyển tiền cho seller và admin theo commission
      * FIXED: Xử lý theo từng order_item riêng biệt thay vì theo order
+     * Caller phải chuyển hold sang COMPLETED (UPDATE có điều kiện) trước khi gọi, trong transaction của caller.
+     * Cộng ví seller bằng UPDATE balance = balance + ? - các lane tất toán song song (chia theo buyer) cùng trả
+     * cho 1 seller không ghi đè nhau; lỗi được ném ra để caller rollback
      */
-    @Transactional
     private void distributePaymentToSellerAndAdmin(WalletHold hold, List<Order> orders) {
         log.info("Distributing payment for hold {} to sellers and admin from {} orders", hold.getId(), orders.size());
         
         BigDecimal totalAmount = hold.getAmount();
         BigDecimal totalCommissionAmount = BigDecimal.ZERO;
         
-        // 1. Cập nhật hold status
-        hold.setStatus(WalletHold.Status.COMPLETED);
-        walletHoldRepository.save(hold);
-        
         // 2. Xử lý từng order_item riêng biệt
         Map<Long, BigDecimal> sellerAmounts = new HashMap<>();
         
@@ -387,13 +363,14 @@ public class WalletHoldService {
             Long sellerId = entry.getKey();
             BigDecimal sellerAmount = entry.getValue();
             
+            if (walletRepository.addBalance(sellerId, sellerAmount) == 0) {
+                throw new RuntimeException("Seller wallet not found for seller: " + sellerId);
+            }
+            log.info("Transferred {} VND to seller {}", sellerAmount, sellerId);
+            
             try {
                 Wallet sellerWallet = walletRepository.findByUserId(sellerId)
                     .orElseThrow(() -> new RuntimeException("Seller wallet not found for seller: " + sellerId));
-                    
-                BigDecimal newSellerBalance = sellerWallet.getBalance().add(sellerAmount);
-                sellerWallet.setBalance(newSellerBalance);
-                walletRepository.save(sellerWallet);
                 
                 // Tạo wallet history cho seller
                 walletHistoryService.saveHistory(
@@ -405,40 +382,15 @@ public class WalletHoldService {
                     WalletHistory.Status.SUCCESS,
                     "Payment received from order: " + hold.getOrderId() + " (Seller: " + sellerId + ")"
                 );
-                
-                log.info("Transferred {} VND to seller {}", sellerAmount, sellerId);
-                
             } catch (Exception e) {
-                log.error("Failed to transfer money to seller {}: {}", sellerId, e.getMessage());
+                log.warn("Failed to create wallet history for seller {}: {}", sellerId, e.getMessage());
             }
         }
         
-        // 3. Chuyển commission cho admin (giả sử admin có userId = 1)
+        // 3. Ghi commission của order vào sổ (cùng transaction tất toán) - CommissionLedgerService gộp vào ví admin định kỳ
         if (totalCommissionAmount.compareTo(BigDecimal.ZERO) > 0) {
-            try {
-                Wallet adminWallet = walletRepository.findByUserId(1L)
-                    .orElseThrow(() -> new RuntimeException("Admin wallet not found"));
-                    
-                BigDecimal newAdminBalance = adminWallet.getBalance().add(totalCommissionAmount);
-                adminWallet.setBalance(newAdminBalance);
-                walletRepository.save(adminWallet);
-                
-                // Tạo wallet history cho admin
-                walletHistoryService.saveHistory(
-                    adminWallet.getId(),
-                    totalCommissionAmount,
-                    hold.getOrderId(),
-                    null,
-                    WalletHistory.Type.COMMISSION,
-                    WalletHistory.Status.SUCCESS,
-                    "Commission received from order: " + hold.getOrderId()
-                );
-                
-                log.info("Transferred {} VND commission to admin", totalCommissionAmount);
-                
-            } catch (Exception e) {
-                log.error("Failed to transfer commission to admin: {}", e.getMessage());
-            }
+            commissionLedgerService.record(hold.getOrderId(), hold.getId(), totalCommissionAmount);
+            log.info("Recorded {} VND commission for order {}", totalCommissionAmount, hold.getOrderId());
         }
         
         // 4. Update wallet history cho buyer (chi tiêu) - update PURCHASE hiện tại thành SUCCESS
@@ -483,63 +435,4 @@ public class WalletHoldService {
             .map(WalletHold::getAmount)
             .reduce(BigDecimal.ZERO, BigDecimal::add);
     }
-    
-    /**
-     * Xử lý batch expired holds với parallel processing
-     */
-    private void processBatchExpiredHolds(List<WalletHold> expiredHolds) {
-        if (expiredHolds.isEmpty()) {
-            return;
-        }
-        
-        // Chia thành các batch nhỏ để xử lý parallel
-        int batchSize = 10; // Xử lý 10 holds/lần
-        int totalBatches = (int) Math.ceil((double) expiredHolds.size() / batchSize);
-        
-        log.info("Processing {} expired holds in {} batches of size {}", 
-                expiredHolds.size(), totalBatches, batchSize);
-        
-        for (int i = 0; i < expiredHolds.size(); i += batchSize) {
-            int endIndex = Math.min(i + batchSize, expiredHolds.size());
-            List<WalletHold> batch = expiredHolds.subList(i, endIndex);
-            
-            // Xử lý batch này
-            processSingleBatchExpiredHolds(batch);
-        }
-    }
-    
-    /**
-     * Xử lý một batch expired holds
-     */
-    private void processSingleBatchExpiredHolds(List<WalletHold> batch) {
-        log.info("Processing batch of {} expired holds", batch.size());
-        
-        for (WalletHold hold : batch) {
-            try {
-                log.info("Processing expired hold: {} for user: {}", hold.getId(), hold.getUserId());
-                
-                // Tìm order tương ứng để lấy thông tin seller và commission
-                Optional<Order> orderOpt = orderRepository.findByOrderCode(hold.getOrderId());
-                List<Order> orders = orderOpt.map(List::of).orElse(List.of());
-                
-                if (!orders.isEmpty()) {
-                    // Chuyển tiền cho seller và admin theo commission
-                    distributePaymentToSellerAndAdmin(hold, orders);
-                } else {
-                    // Nếu không tìm thấy order, hoàn tiền về buyer
-                    log.warn("No orders found for hold {}, refunding to buyer", hold.getId());
-                    releaseHold(hold.getId());
-                }
-                
-            } catch (Exception e) {
-                log.error("Failed to process expired hold {}: {}", hold.getId(), e.getMessage());
-                // Fallback: hoàn tiền về buyer nếu có lỗi
-                try {
-                    releaseHold(hold.getId());
-                } catch (Exception fallbackError) {
-                    log.error("Failed to fallback release hold {}: {}", hold.getId(), fallbackError.getMessage());
-                }
-            }
-        }
-    }
 }
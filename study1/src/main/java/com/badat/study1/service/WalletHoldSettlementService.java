@@ -0,0 +1,233 @@
+package com.badat.study1.service;
+
+import com.badat.study1.model.WalletHold;
+import com.badat.study1.repository.WalletHoldRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lịch tất toán wallet hold theo expiresAt trên Redis sorted set (thay cho poll DB mỗi 5 giây)
+ * - Hold mới được ZADD (score = expiresAt) sau khi transaction tạo hold commit
+ * - Poller claim các hold tới hạn theo batch bằng Lua: đẩy score lên now + claim-timeout thay vì xóa,
+ *   node chết giữa chừng thì hold tự tới hạn lại và được node khác nhận; tất toán xong mới ZREM
+ * - Tất toán song song trên N lane, mỗi lane 1 thread, chia theo buyer (userId) -> các hold của 1 buyer chạy tuần tự
+ * - Fallback scan DB định kỳ lên lịch lại hold PENDING bị thiếu trong Redis (Redis mất dữ liệu, lỗi khi ZADD);
+ *   Redis lỗi thì hold đã hết hạn được tất toán trực tiếp từ kết quả scan
+ * - An toàn khi nhận trùng: WalletHoldService chuyển PENDING -> COMPLETED/CANCELLED bằng UPDATE có điều kiện
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WalletHoldSettlementService {
+
+    private static final String DUE_KEY = "wallet-hold:due";
+
+    // KEYS: due zset | ARGV: now, limit, claimUntil - trả về các member đã claim
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_DUE_SCRIPT = new DefaultRedisScript<>(
+        "local members = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+        "for i, member in ipairs(members) do redis.call('zadd', KEYS[1], ARGV[3], member) end " +
+        "return members",
+        List.class);
+
+    private final WalletHoldService walletHoldService;
+    private final WalletHoldRepository walletHoldRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${wallet-hold.settlement.workers:8}")
+    private int workerCount;
+
+    @Value("${wallet-hold.settlement.batch-size:100}")
+    private int batchSize;
+
+    @Value("${wallet-hold.settlement.claim-timeout-seconds:60}")
+    private long claimTimeoutSeconds;
+
+    @Value("${wallet-hold.settlement.fallback-scan-interval-ms:60000}")
+    private long fallbackScanIntervalMs;
+
+    @Value("${wallet-hold.settlement.fallback-scan-limit:1000}")
+    private int fallbackScanLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private ExecutorService[] lanes;
+
+    @PostConstruct
+    public void init() {
+        lanes = new ExecutorService[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            String threadName = "wallet-hold-settle-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        log.info("Wallet hold settlement initialized - lanes: {}, batch: {}, claim timeout: {}s",
+                workerCount, batchSize, claimTimeoutSeconds);
+    }
+
+    /**
+     * Lên lịch tất toán hold tại expiresAt - lỗi Redis thì fallback scan sẽ lên lịch lại
+     */
+    public void schedule(Long holdId, Long userId, Instant expiresAt) {
+        try {
+            stringRedisTemplate.opsForZSet().add(DUE_KEY, member(holdId, userId), expiresAt.toEpochMilli());
+        } catch (Exception e) {
+            log.warn("Failed to schedule settlement for hold {}: {}", holdId, e.getMessage());
+        }
+    }
+
+    /**
+     * Claim các hold đã tới hạn và chia vào lane theo buyer.
+     * Chỉ claim thêm khi các lane đã xử lý bớt, phần còn lại nằm trong Redis cho node khác
+     */
+    @Scheduled(fixedDelayString = "${wallet-hold.settlement.poll-interval-ms:250}")
+    public void dispatchDueHolds() {
+        try {
+            while (true) {
+                int capacity = batchSize - inFlight.get();
+                if (capacity <= 0) {
+                    return;
+                }
+                List<String> members = claimDue(capacity);
+                for (String member : members) {
+                    submit(member, true);
+                }
+                if (members.size() < capacity) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Error dispatching due wallet holds: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Fallback từ DB: ZADD NX các hold PENDING sắp tới hạn (trong 1 chu kỳ scan) hoặc đã quá hạn.
+     * Member đã có trong Redis (kể cả đang được claim) giữ nguyên score
+     */
+    @Scheduled(fixedDelayString = "${wallet-hold.settlement.fallback-scan-interval-ms:60000}")
+    public void scanPendingHolds() {
+        List<WalletHold> holds;
+        try {
+            holds = walletHoldRepository.findByStatusAndExpiresAtBeforeOrderByExpiresAtAsc(
+                    WalletHold.Status.PENDING, Instant.now().plusMillis(fallbackScanIntervalMs),
+                    PageRequest.of(0, fallbackScanLimit));
+        } catch (Exception e) {
+            log.error("Error scanning pending wallet holds: {}", e.getMessage());
+            return;
+        }
+        if (holds.isEmpty()) {
+            return;
+        }
+
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        for (WalletHold hold : holds) {
+            tuples.add(new DefaultTypedTuple<>(member(hold.getId(), hold.getUserId()),
+                    (double) hold.getExpiresAt().toEpochMilli()));
+        }
+        try {
+            Long added = stringRedisTemplate.opsForZSet().addIfAbsent(DUE_KEY, tuples);
+            if (added != null && added > 0) {
+                log.warn("Fallback scan scheduled {} wallet holds missing from Redis", added);
+            }
+        } catch (Exception e) {
+            // Redis không dùng được: tất toán trực tiếp các hold đã quá hạn
+            log.error("Redis unavailable for wallet hold schedule ({}), settling expired holds from DB scan", e.getMessage());
+            Instant now = Instant.now();
+            for (WalletHold hold : holds) {
+                if (!hold.getExpiresAt().isAfter(now)) {
+                    submit(member(hold.getId(), hold.getUserId()), false);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> claimDue(int limit) {
+        long now = System.currentTimeMillis();
+        List<String> members = stringRedisTemplate.execute(CLAIM_DUE_SCRIPT, List.of(DUE_KEY),
+                String.valueOf(now), String.valueOf(limit),
+                String.valueOf(now + TimeUnit.SECONDS.toMillis(claimTimeoutSeconds)));
+        return members != null ? members : List.of();
+    }
+
+    private void submit(String member, boolean fromRedis) {
+        int separator = member.indexOf(':');
+        Long holdId;
+        long userId;
+        try {
+            holdId = Long.parseLong(member.substring(0, separator));
+            userId = Long.parseLong(member.substring(separator + 1));
+        } catch (RuntimeException e) {
+            log.warn("Invalid wallet hold schedule entry: {}", member);
+            stringRedisTemplate.opsForZSet().remove(DUE_KEY, member);
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        try {
+            lanes[(int) Math.floorMod(userId, (long) lanes.length)].execute(() -> {
+                try {
+                    if (walletHoldService.settleExpiredHold(holdId) && fromRedis) {
+                        stringRedisTemplate.opsForZSet().remove(DUE_KEY, member);
+                    }
+                } catch (Exception e) {
+                    // Giữ member trong Redis, hết claim-timeout sẽ được thử lại
+                    log.error("Failed to settle wallet hold {}: {}", holdId, e.getMessage());
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            log.warn("Settlement lane rejected wallet hold {}", holdId);
+        }
+    }
+
+    private static String member(Long holdId, Long userId) {
+        return holdId + ":" + userId;
+    }
+
+    /**
+     * Hold đang chờ trong lane được trả lại cho node khác sau claim-timeout
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            try {
+                if (!lane.awaitTermination(30, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+        log.info("Wallet hold settlement lanes stopped");
+    }
+}
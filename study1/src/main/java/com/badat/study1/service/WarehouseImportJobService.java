@@ -0,0 +1,230 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.WarehouseImportResult;
+import com.badat.study1.model.Product;
+import com.badat.study1.model.ProductVariant;
+import com.badat.study1.model.Shop;
+import com.badat.study1.model.UploadHistory;
+import com.badat.study1.model.User;
+import com.badat.study1.repository.ProductVariantRepository;
+import com.badat.study1.repository.UploadHistoryRepository;
+import com.badat.study1.repository.WarehouseRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Import file kho bất đồng bộ
+ * - Request chỉ lưu file xuống đĩa + tạo UploadHistory PROCESSING rồi trả về ngay
+ * - warehouseImportTaskExecutor (pool giới hạn) parse và insert theo batch, cập nhật tiến độ vào UploadHistory
+ * - Xong thì chỉ tính lại quantity của variant được import
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WarehouseImportJobService {
+
+    public static final String STATUS_PROCESSING = "PROCESSING";
+
+    private final UploadHistoryRepository uploadHistoryRepository;
+    private final ProductVariantRepository productVariantRepository;
+    private final WarehouseRepository warehouseRepository;
+    private final WarehouseImportService warehouseImportService;
+    private final StockCounterService stockCounterService;
+    private final Executor warehouseImportTaskExecutor;
+
+    @Value("${warehouse.import.storage-dir:${java.io.tmpdir}/warehouse-imports}")
+    private String storageDir;
+
+    @Value("${warehouse.import.stale-minutes:10}")
+    private long staleMinutes;
+
+    /**
+     * Lưu file upload và đưa vào hàng đợi import, trả về UploadHistory ở trạng thái PROCESSING
+     */
+    public UploadHistory submit(User user, ProductVariant productVariant, Product parentProduct, Shop shop,
+                                MultipartFile file, String fileName) throws IOException {
+        Path storedFile = storeUpload(file);
+        int totalLines;
+        try {
+            totalLines = countLines(storedFile);
+        } catch (IOException e) {
+            deleteQuietly(storedFile);
+            throw e;
+        }
+
+        UploadHistory uploadHistory = uploadHistoryRepository.save(UploadHistory.builder()
+                .fileName(fileName)
+                .productName(productVariant.getName())
+                .isSuccess(false)
+                .result(STATUS_PROCESSING)
+                .status(STATUS_PROCESSING)
+                .totalItems(totalLines)
+                .processedLines(0)
+                .successCount(0)
+                .failureCount(0)
+                .lastProgressAt(Instant.now())
+                .productVariant(productVariant)
+                .product(parentProduct)
+                .user(user)
+                .build());
+
+        final Long uploadId = uploadHistory.getId();
+        try {
+            warehouseImportTaskExecutor.execute(() ->
+                    runImport(uploadId, storedFile, user, productVariant, parentProduct, shop));
+        } catch (RejectedExecutionException e) {
+            log.warn("Warehouse import queue is full, rejecting upload {}", uploadId);
+            deleteQuietly(storedFile);
+            // Caller ghi lại UploadHistory FAILED kèm lý do
+            uploadHistoryRepository.deleteById(uploadId);
+            throw new RuntimeException("Hệ thống đang xử lý nhiều file, vui lòng thử lại sau");
+        }
+
+        log.info("Queued warehouse import {} for productVariant {} ({} lines)", uploadId, productVariant.getId(), totalLines);
+        return uploadHistory;
+    }
+
+    /**
+     * Import job failed nếu quá staleMinutes không cập nhật tiến độ (node bị tắt giữa chừng)
+     */
+    @Scheduled(fixedRate = 60000)
+    public void failStaleImports() {
+        try {
+            Instant threshold = Instant.now().minus(Duration.ofMinutes(staleMinutes));
+            int failed = uploadHistoryRepository.failStaleProcessing(threshold, "Import bị gián đoạn, vui lòng upload lại");
+            if (failed > 0) {
+                log.warn("Marked {} stale warehouse imports as FAILED", failed);
+            }
+        } catch (Exception e) {
+            log.error("Error failing stale warehouse imports: {}", e.getMessage(), e);
+        }
+    }
+
+    private void runImport(Long uploadId, Path storedFile, User user, ProductVariant productVariant,
+                           Product parentProduct, Shop shop) {
+        // Thời gian chờ trong hàng đợi không tính vào stale-minutes; job đã bị sweep đánh FAILED thì không chạy nữa
+        if (uploadHistoryRepository.markStarted(uploadId, Instant.now()) == 0) {
+            log.warn("Warehouse import {} is no longer PROCESSING (failed while queued), skipping", uploadId);
+            deleteQuietly(storedFile);
+            return;
+        }
+        log.info("Starting warehouse import {} for productVariant {}", uploadId, productVariant.getId());
+        WarehouseImportResult result;
+        try (InputStream inputStream = Files.newInputStream(storedFile)) {
+            result = warehouseImportService.importItems(inputStream, productVariant, parentProduct, shop, user,
+                    new WarehouseImportService.ProgressListener() {
+                        @Override
+                        public void onProgress(int processedLines, int successCount, int failureCount) {
+                            uploadHistoryRepository.updateProgress(uploadId, processedLines, successCount, failureCount,
+                                    Instant.now());
+                        }
+
+                        @Override
+                        public void onInserted(int insertedCount) {
+                            // Cộng ngay khi batch commit (variant + product cha): reconcile chạy giữa chừng đếm DB
+                            // đã gồm batch này, cộng dồn ở cuối job sẽ cộng trùng
+                            stockCounterService.adjust(productVariant.getId(), productVariant.getProductId(), insertedCount);
+                        }
+                    });
+        } catch (Exception e) {
+            log.error("Warehouse import {} failed: {}", uploadId, e.getMessage(), e);
+            result = WarehouseImportResult.builder()
+                    .failureCount(1)
+                    .resultDetails("Lỗi xử lý file: " + e.getMessage())
+                    .build();
+        } finally {
+            deleteQuietly(storedFile);
+        }
+
+        try {
+            refreshVariantQuantity(productVariant.getId());
+        } catch (Exception e) {
+            log.error("Failed to refresh quantity for productVariant {} after import {}: {}",
+                    productVariant.getId(), uploadId, e.getMessage());
+        }
+        completeUpload(uploadId, result);
+        log.info("Finished warehouse import {}: {} success, {} failed", uploadId, result.getSuccessCount(), result.getFailureCount());
+    }
+
+    /**
+     * Tính lại quantity / status của riêng variant vừa import
+     */
+    private void refreshVariantQuantity(Long productVariantId) {
+        productVariantRepository.findById(productVariantId).ifPresent(productVariant -> {
+            long warehouseCount = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(productVariantId);
+            productVariant.setQuantity((int) warehouseCount);
+            productVariant.setStatus(warehouseCount > 0 ? ProductVariant.Status.AVAILABLE : ProductVariant.Status.UNAVAILABLE);
+            productVariantRepository.save(productVariant);
+        });
+    }
+
+    private void completeUpload(Long uploadId, WarehouseImportResult result) {
+        try {
+            boolean success = result.getSuccessCount() > 0;
+            int updated = uploadHistoryRepository.completeIfProcessing(uploadId, success,
+                    success ? "SUCCESS" : "FAILED", success ? "COMPLETED" : "FAILED",
+                    result.getTotalLines() > 0 ? result.getTotalLines() : null,
+                    result.getTotalLines(), result.getSuccessCount(), result.getFailureCount(),
+                    result.getResultDetails(), Instant.now());
+            if (updated == 0) {
+                log.warn("Upload history {} was already finalized (stale sweep), keeping its status", uploadId);
+            }
+        } catch (Exception e) {
+            log.error("Failed to complete upload history {}: {}", uploadId, e.getMessage(), e);
+        }
+    }
+
+    private Path storeUpload(MultipartFile file) throws IOException {
+        Path directory = Paths.get(storageDir);
+        Files.createDirectories(directory);
+        Path target = directory.resolve(UUID.randomUUID() + ".txt");
+        try (InputStream in = file.getInputStream(); OutputStream out = Files.newOutputStream(target)) {
+            in.transferTo(out);
+        }
+        return target;
+    }
+
+    private int countLines(Path path) throws IOException {
+        int lines = 0;
+        boolean pendingLine = false;
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                        pendingLine = false;
+                    } else {
+                        pendingLine = true;
+                    }
+                }
+            }
+        }
+        return pendingLine ? lines + 1 : lines;
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete stored upload {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.badat.study1.service;
+
+import com.badat.study1.dto.WarehouseImportResult;
+import com.badat.study1.model.Product;
+import com.badat.study1.model.ProductVariant;
+import com.badat.study1.model.Shop;
+import com.badat.study1.model.User;
+import com.badat.study1.model.Warehouse;
+import com.badat.study1.repository.WarehouseJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Import file kho (mỗi dòng "phần1|phần2") cho 1 productVariant
+ * - Đọc stream từng dòng, không load cả file vào heap
+ * - Insert theo batch JDBC (mặc định 500 dòng)
+ * - Kiểm tra trùng bằng identifier_hash (unique index theo variant) thay vì load toàn bộ item cũ
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WarehouseImportService {
+
+    private static final int BACKFILL_PAGE_SIZE = 1000;
+
+    private final WarehouseJdbcRepository warehouseJdbcRepository;
+
+    @Value("${warehouse.import.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * Callback tiến độ, gọi sau mỗi batch được ghi
+     */
+    public interface ProgressListener {
+        void onProgress(int processedLines, int successCount, int failureCount);
+
+        /**
+         * Số item vừa được insert (đã commit) của 1 batch, kể cả batch cuối
+         */
+        default void onInserted(int insertedCount) {
+        }
+    }
+
+    /**
+     * Parse và insert toàn bộ dòng hợp lệ của file vào kho của productVariant
+     */
+    public WarehouseImportResult importItems(InputStream inputStream, ProductVariant productVariant, Product parentProduct,
+                                             Shop shop, User user) throws IOException {
+        return importItems(inputStream, productVariant, parentProduct, shop, user, null);
+    }
+
+    /**
+     * Parse và insert toàn bộ dòng hợp lệ của file vào kho của productVariant, báo tiến độ qua listener
+     */
+    public WarehouseImportResult importItems(InputStream inputStream, ProductVariant productVariant, Product parentProduct,
+                                             Shop shop, User user, ProgressListener progressListener) throws IOException {
+        final String currentSubcategory = productVariant.getSubcategory();
+        // Use productCategory (loại sản phẩm) instead of subcategory (loại cụ thể) to determine format
+        final String productCategory = parentProduct != null ? parentProduct.getProductCategory() : null;
+        final String categoryForIdentifier = productCategory != null ? productCategory : currentSubcategory;
+        InventoryFormat expectedFormat = determineFormat(categoryForIdentifier);
+
+        // Item cũ chưa có identifier_hash được bổ sung 1 lần để unique index kiểm tra trùng được cả dữ liệu cũ
+        backfillIdentifierHashes(productVariant.getId(), categoryForIdentifier);
+
+        ImportBatch batch = new ImportBatch(productVariant.getId());
+        Set<String> processedItemKeys = new HashSet<>();
+        int lineNumber = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String rawLine;
+            while ((rawLine = reader.readLine()) != null) {
+                lineNumber++;
+                String line = rawLine.replace("\uFEFF", "").trim();
+                if (line.isEmpty()) continue;
+
+                String[] parts = line.split("\\|");
+                // Yêu cầu đúng 2 phần theo định dạng đã công bố
+                if (parts.length != 2) {
+                    batch.fail(lineNumber, "Định dạng không hợp lệ");
+                    continue;
+                }
+                String[] sanitizedParts = new String[] {
+                        cleanPart(parts[0]),
+                        cleanPart(parts[1])
+                };
+                if (sanitizedParts[0] == null || sanitizedParts[1] == null) {
+                    batch.fail(lineNumber, "Thiếu dữ liệu bắt buộc");
+                    continue;
+                }
+                if (!validateLineFormat(expectedFormat, sanitizedParts)) {
+                    batch.fail(lineNumber, "Dữ liệu không đúng định dạng cho loại sản phẩm");
+                    continue;
+                }
+                // Kiểm tra khóa định danh bắt buộc theo subcategory
+                String normalizedKey = normalizeIdentifier(extractIdentifier(categoryForIdentifier, sanitizedParts));
+                if (normalizedKey == null) {
+                    batch.fail(lineNumber, "Không có khóa định danh hợp lệ");
+                    continue;
+                }
+                if (!processedItemKeys.add(normalizedKey)) {
+                    batch.fail(lineNumber, "Dòng trùng lặp trong file");
+                    continue;
+                }
+
+                batch.add(lineNumber, Warehouse.builder()
+                        .itemSubcategory(currentSubcategory)
+                        .itemData(sanitizedParts[0] + "|" + sanitizedParts[1])
+                        .identifierHash(identifierHash(currentSubcategory, normalizedKey))
+                        .productVariant(productVariant)
+                        .shop(shop)
+                        .product(parentProduct)
+                        .user(user)
+                        .build());
+                if (batch.size() >= batchSize) {
+                    flush(batch, progressListener);
+                    if (progressListener != null) {
+                        progressListener.onProgress(lineNumber, batch.successCount, batch.failureCount);
+                    }
+                }
+            }
+        }
+        flush(batch, progressListener);
+
+        log.info("Imported {} warehouse items for productVariant {} ({} failed, {} lines)",
+                batch.successCount, productVariant.getId(), batch.failureCount, lineNumber);
+
+        return WarehouseImportResult.builder()
+                .totalLines(lineNumber)
+                .successCount(batch.successCount)
+                .failureCount(batch.failureCount)
+                .resultDetails(batch.invalidLineDetails.length() > 0 ? batch.invalidLineDetails.toString() : null)
+                .build();
+    }
+
+    /**
+     * Hash định danh của item theo subcategory - khóa của unique index (product_variant_id, identifier_hash)
+     */
+    public static String identifierHash(String subcategory, String normalizedKey) {
+        String scope = subcategory == null ? "" : subcategory.toLowerCase(Locale.ROOT);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((scope + "|" + normalizedKey).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Ghi batch hiện tại: bỏ các dòng đã có trong DB rồi batch insert phần còn lại
+     */
+    private void flush(ImportBatch batch, ProgressListener progressListener) {
+        if (batch.size() == 0) {
+            return;
+        }
+        List<String> hashes = new ArrayList<>(batch.size());
+        for (Warehouse item : batch.items) {
+            hashes.add(item.getIdentifierHash());
+        }
+        Set<String> existingHashes = warehouseJdbcRepository.findExistingIdentifierHashes(batch.productVariantId, hashes);
+
+        List<Warehouse> toInsert = new ArrayList<>(batch.size());
+        List<Integer> toInsertLines = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (existingHashes.contains(batch.items.get(i).getIdentifierHash())) {
+                batch.fail(batch.lineNumbers.get(i), "Đã tồn tại trong hệ thống");
+            } else {
+                toInsert.add(batch.items.get(i));
+                toInsertLines.add(batch.lineNumbers.get(i));
+            }
+        }
+
+        int inserted = 0;
+        if (!toInsert.isEmpty()) {
+            try {
+                warehouseJdbcRepository.batchInsert(toInsert);
+                inserted = toInsert.size();
+            } catch (DuplicateKeyException e) {
+                // Upload khác của cùng variant vừa insert trùng - insert lại từng dòng để biết dòng nào trùng
+                log.warn("Duplicate identifier while batch inserting for productVariant {}, retrying row by row",
+                        batch.productVariantId);
+                for (int i = 0; i < toInsert.size(); i++) {
+                    if (warehouseJdbcRepository.insertIgnore(toInsert.get(i))) {
+                        inserted++;
+                    } else {
+                        batch.fail(toInsertLines.get(i), "Đã tồn tại trong hệ thống");
+                    }
+                }
+            } catch (Exception e) {
+                String errorMessage = e.getMessage() != null ? e.getMessage() : "Lỗi không xác định";
+                for (Integer line : toInsertLines) {
+                    batch.fail(line, "Lỗi xử lý - " + errorMessage);
+                }
+            }
+        }
+        batch.successCount += inserted;
+        batch.clear();
+        if (inserted > 0 && progressListener != null) {
+            progressListener.onInserted(inserted);
+        }
+    }
+
+    /**
+     * Bổ sung identifier_hash cho item được upload trước khi có cột này (theo từng trang id)
+     */
+    private void backfillIdentifierHashes(Long productVariantId, String categoryForIdentifier) {
+        long afterId = 0;
+        int updated = 0;
+        while (true) {
+            List<Object[]> rows = warehouseJdbcRepository.findItemsWithoutIdentifierHash(productVariantId, afterId, BACKFILL_PAGE_SIZE);
+            if (rows.isEmpty()) {
+                break;
+            }
+            List<Object[]> hashAndIds = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                afterId = (Long) row[0];
+                String itemData = (String) row[2];
+                String key = itemData != null ? normalizeIdentifier(extractIdentifier(categoryForIdentifier, itemData.split("\\|"))) : null;
+                if (key != null) {
+                    hashAndIds.add(new Object[] { identifierHash((String) row[1], key), row[0] });
+                }
+            }
+            warehouseJdbcRepository.updateIdentifierHashes(hashAndIds);
+            updated += hashAndIds.size();
+            if (rows.size() < BACKFILL_PAGE_SIZE) {
+                break;
+            }
+        }
+        if (updated > 0) {
+            log.info("Backfilled identifier_hash for {} warehouse items of productVariant {}", updated, productVariantId);
+        }
+    }
+
+    private String normalizeIdentifier(String key) {
+        String cleaned = cleanPart(key);
+        return cleaned == null ? null : cleaned.toLowerCase(Locale.ROOT);
+    }
+
+    private String cleanPart(String value) {
+        if (value == null) {
+            return null;
+        }
+        String cleaned = value.replace("\uFEFF", "").trim();
+        return cleaned.isEmpty() ? null : cleaned;
+    }
+
+    private String extractIdentifier(String category, String[] parts) {
+        if (parts == null || parts.length < 2) return null;
+        String cat = category == null ? "" : category.toLowerCase(Locale.ROOT);
+        String first = cleanPart(parts[0]);
+        String second = cleanPart(parts[1]);
+        if (first == null && second == null) {
+            return null;
+        }
+        // Email/Gmail: email|password -> key = email
+        // productCategory can be "Email" or subcategory can contain "gmail"
+        if (cat.contains("email") || cat.contains("gmail")) {
+            if (first == null || !first.contains("@")) return null;
+            return first;
+        }
+        // Thẻ cào: code|serial -> key = serial
+        // productCategory can be "Thẻ game" or contain "thẻ"/"card"
+        if (cat.contains("thẻ") || cat.contains("card")) {
+            return second;
+        }
+        // Tài khoản: username|password -> key = username
+        // productCategory can be "Tài khoản" or contain "tài khoản"/"account"/"acc"
+        if (cat.contains("tài khoản") || cat.contains("account") || cat.contains("acc")) {
+            return first;
+        }
+        // Default fallback: first part as identifier
+        return first;
+    }
+
+    private InventoryFormat determineFormat(String category) {
+        String cat = category == null ? "" : category.toLowerCase(Locale.ROOT);
+        // Check for Email: productCategory can be "Email" or subcategory can contain "gmail"
+        if (cat.contains("email") || cat.contains("gmail")) {
+            return InventoryFormat.EMAIL;
+        }
+        // Check for Card: productCategory can be "Thẻ game" or contain "thẻ"/"card"
+        if (cat.contains("thẻ") || cat.contains("card")) {
+            return InventoryFormat.CARD;
+        }
+        // Check for Account: productCategory can be "Tài khoản" or contain "tài khoản"/"account"/"acc"
+        if (cat.contains("tài khoản") || cat.contains("account") || cat.contains("acc")) {
+            return InventoryFormat.ACCOUNT;
+        }
+        return InventoryFormat.GENERIC;
+    }
+
+    private boolean validateLineFormat(InventoryFormat format, String[] parts) {
+        if (parts == null || parts.length < 2) {
+            return false;
+        }
+        String first = parts[0];
+        String second = parts[1];
+        if (format == InventoryFormat.EMAIL) {
+            return isValidEmail(first);
+        }
+        if (format == InventoryFormat.CARD) {
+            return isValidCardCode(first) && isValidCardSerial(second);
+        }
+        if (format == InventoryFormat.ACCOUNT) {
+            return isValidAccount(first);
+        }
+        return true;
+    }
+
+    private boolean isValidEmail(String value) {
+        if (value == null) {
+            return false;
+        }
+        int atIndex = value.indexOf('@');
+        if (atIndex <= 0 || atIndex == value.length() - 1) {
+            return false;
+        }
+        if (!value.contains(".")) {
+            return false;
+        }
+        return !value.contains(" ");
+    }
+
+    private boolean isValidCardCode(String value) {
+        return value != null && value.matches("^[A-Za-z0-9]{6,}$");
+    }
+
+    private boolean isValidCardSerial(String value) {
+        return value != null && value.matches("^[A-Za-z0-9-]{6,}$");
+    }
+
+    private boolean isValidAccount(String value) {
+        return value != null && value.length() >= 3;
+    }
+
+    private enum InventoryFormat {
+        EMAIL,
+        CARD,
+        ACCOUNT,
+        GENERIC
+    }
+
+    /**
+     * Các dòng hợp lệ đang chờ ghi + thống kê của 1 lần import
+     */
+    private static class ImportBatch {
+        private final Long productVariantId;
+        private final List<Warehouse> items = new ArrayList<>();
+        private final List<Integer> lineNumbers = new ArrayList<>();
+        private final StringBuilder invalidLineDetails = new StringBuilder();
+        private int successCount;
+        private int failureCount;
+
+        ImportBatch(Long productVariantId) {
+            this.productVariantId = productVariantId;
+        }
+
+        void add(int lineNumber, Warehouse item) {
+            items.add(item);
+            lineNumbers.add(lineNumber);
+        }
+
+        int size() {
+            return items.size();
+        }
+
+        void clear() {
+            items.clear();
+            lineNumbers.clear();
+        }
+
+        void fail(int lineNumber, String message) {
+            failureCount++;
+            if (invalidLineDetails.length() > 0) {
+                invalidLineDetails.append('\n');
+            }
+            invalidLineDetails.append("Dòng ").append(lineNumber).append(": ").append(message);
+        }
+    }
+}
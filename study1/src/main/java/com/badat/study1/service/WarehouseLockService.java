@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
 import org.springframework.data.domain.Pageable;
 
@@ -24,6 +25,7 @@ public class WarehouseLockService {
     
     private final WarehouseRepository warehouseRepository;
     private final RedisLockRegistry redisLockRegistry;
+    private final StockCounterService stockCounterService;
     
     /**
      * Lock một warehouse item cho product
@@ -51,6 +53,7 @@ public class WarehouseLockService {
                     warehouse.setLockedBy(getCurrentUserId());
                     warehouse.setLockedAt(LocalDateTime.now());
                     warehouseRepository.save(warehouse);
+                    stockCounterService.adjustForItems(List.of(warehouse), -1);
                     
                     log.info("Successfully locked warehouse item: {} for product: {}", 
                         warehouse.getId(), productId);
@@ -150,7 +153,7 @@ public class WarehouseLockService {
                         log.info("Acquired lock for product: {}", productId);
                         
                         // 0. Kiểm tra số lượng có sẵn trước khi tìm
-                        long availableCount = warehouseRepository.countByProductIdAndLockedFalseAndIsDeleteFalse(productId);
+                        long availableCount = stockCounterService.getProductStock(productId);
                         log.info("Available stock for product {}: {} items", productId, availableCount);
                         
                         if (availableCount < requiredQuantity) {
@@ -201,6 +204,7 @@ public class WarehouseLockService {
             // 4. Lưu tất cả thay đổi vào CSDL trong 1 lần batch
             if (!itemsToSave.isEmpty()) {
                 warehouseRepository.saveAll(itemsToSave);
+                stockCounterService.adjustForItems(itemsToSave, -1);
                 log.info("Successfully saved {} warehouse items in batch", itemsToSave.size());
             }
 
@@ -227,11 +231,15 @@ public class WarehouseLockService {
         
         Warehouse warehouse = warehouseRepository.findById(warehouseId)
             .orElseThrow(() -> new RuntimeException("Warehouse item not found: " + warehouseId));
+        boolean wasReserved = Boolean.TRUE.equals(warehouse.getLocked()) && !Boolean.TRUE.equals(warehouse.getIsDelete());
             
         warehouse.setLocked(false);
         warehouse.setLockedBy(null);
         warehouse.setLockedAt(null);
         warehouseRepository.save(warehouse);
+        if (wasReserved) {
+            stockCounterService.adjustForItems(List.of(warehouse), 1);
+        }
         
         log.info("Successfully unlocked warehouse item: {}", warehouseId);
     }
@@ -261,10 +269,17 @@ public class WarehouseLockService {
         
         Warehouse warehouse = warehouseRepository.findById(warehouseId)
             .orElseThrow(() -> new RuntimeException("Warehouse item not found: " + warehouseId));
+        // Item đã reserve thì counter đã bị trừ lúc lock, chỉ trừ nếu item đang available
+        boolean wasAvailable = !Boolean.TRUE.equals(warehouse.getLocked()) && !Boolean.TRUE.equals(warehouse.getIsDelete());
             
         warehouse.setIsDelete(true);
         warehouse.setDeletedBy("SYSTEM");
+        // Item đã bán không còn là reservation - giữ cho range locked/reserved_until chỉ gồm reservation đang chờ
+        warehouse.setReservedUntil(null);
         warehouseRepository.save(warehouse);
+        if (wasAvailable) {
+            stockCounterService.adjustForItems(List.of(warehouse), -1);
+        }
         
         log.info("Successfully marked warehouse item as delivered: {}", warehouseId);
     }
@@ -278,22 +293,24 @@ public class WarehouseLockService {
     }
     
     /**
-     * Lấy số lượng hàng có sẵn cho product (không bị lock, không bị xóa)
+     * Lấy số lượng hàng có sẵn cho product (không bị lock, không bị xóa) - đọc từ stock counter Redis
      */
     public long getAvailableStockCount(Long productId) {
-        return warehouseRepository.countByProductIdAndLockedFalseAndIsDeleteFalse(productId);
+        return stockCounterService.getProductStock(productId);
     }
     
     /**
-     * Lấy số lượng hàng có sẵn cho productVariant (không bị lock, không bị xóa)
+     * Lấy số lượng hàng có sẵn cho productVariant (không bị lock, không bị xóa) - đọc từ stock counter Redis
      */
     public long getAvailableStockCountByVariant(Long productVariantId) {
-        return warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(productVariantId);
+        return stockCounterService.getVariantStock(productVariantId);
     }
     
     /**
      * Reserve warehouse items với timeout (tạm thời lock với thời gian hết hạn) - theo productVariantId
-     * Sử dụng để tránh race condition khi nhiều user cùng mua
+     * Giỏ hàng đã qua reservation nhanh trên Redis lúc enqueue (StockCounterService.reserve) nên ở đây
+     * chỉ cần SELECT FOR UPDATE, không cần thêm Redis lock từng variant.
+     * Variant được lock theo thứ tự id tăng dần để các transaction không deadlock lẫn nhau.
      */
     @Transactional
     public List<Warehouse> reserveWarehouseItemsWithTimeoutByVariant(Map<Long, Integer> productVariantQuantities, Long userId, int timeoutMinutes) {
@@ -302,50 +319,36 @@ public class WarehouseLockService {
         log.info("Reserving warehouse items with {} minutes timeout for user: {} (by productVariant)", timeoutMinutes, userId);
         
         try {
-            for (Map.Entry<Long, Integer> entry : productVariantQuantities.entrySet()) {
+            for (Map.Entry<Long, Integer> entry : new TreeMap<>(productVariantQuantities).entrySet()) {
                 Long productVariantId = entry.getKey();
                 Integer requiredQuantity = entry.getValue();
                 
-                String lockKey = "warehouse:reserve:variant:" + productVariantId;
-                Lock lock = redisLockRegistry.obtain(lockKey);
+                // SỬ DỤNG SELECT FOR UPDATE để tránh race condition
+                // Lock database rows ngay từ đầu để đảm bảo atomicity
+                List<Warehouse> items = warehouseRepository.findAvailableItemsForReservationByVariant(productVariantId, requiredQuantity);
                 
-                try {
-                    if (lock.tryLock(5, java.util.concurrent.TimeUnit.SECONDS)) {
-                        log.info("Acquired reservation lock for productVariant: {}", productVariantId);
-                        
-                        // SỬ DỤNG SELECT FOR UPDATE để tránh race condition
-                        // Lock database rows ngay từ đầu để đảm bảo atomicity
-                        List<Warehouse> items = warehouseRepository.findAvailableItemsForReservationByVariant(productVariantId, requiredQuantity);
-                        
-                        if (items.size() < requiredQuantity) {
-                            log.warn("Not enough stock for productVariant {}. Required: {}, Available: {}", 
-                                productVariantId, requiredQuantity, items.size());
-                            throw new RuntimeException("Không đủ hàng cho sản phẩm: " + productVariantId + 
-                                " (cần " + requiredQuantity + ", chỉ có " + items.size() + ")");
-                        }
-                        
-                        // Set reservation timeout
-                        LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(timeoutMinutes);
-                        for (Warehouse item : items) {
-                            item.setLocked(true);
-                            item.setLockedBy(userId);
-                            item.setLockedAt(LocalDateTime.now());
-                            item.setReservedUntil(expiresAt); // Thêm field này vào Warehouse model
-                        }
-                        
-                        warehouseRepository.saveAll(items);
-                        reservedItems.addAll(items);
-                        
-                        log.info("Successfully reserved {} items for productVariant {} until {}", 
-                            items.size(), productVariantId, expiresAt);
-                            
-                    } else {
-                        log.warn("Failed to acquire reservation lock for productVariant: {}", productVariantId);
-                        throw new RuntimeException("Không thể đặt chỗ hàng cho sản phẩm: " + productVariantId);
-                    }
-                } finally {
-                    lock.unlock();
+                if (items.size() < requiredQuantity) {
+                    log.warn("Not enough stock for productVariant {}. Required: {}, Available: {}", 
+                        productVariantId, requiredQuantity, items.size());
+                    throw new RuntimeException("Không đủ hàng cho sản phẩm: " + productVariantId + 
+                        " (cần " + requiredQuantity + ", chỉ có " + items.size() + ")");
                 }
+                
+                // Set reservation timeout
+                LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(timeoutMinutes);
+                for (Warehouse item : items) {
+                    item.setLocked(true);
+                    item.setLockedBy(userId);
+                    item.setLockedAt(LocalDateTime.now());
+                    item.setReservedUntil(expiresAt); // Thêm field này vào Warehouse model
+                }
+                
+                warehouseRepository.saveAll(items);
+                stockCounterService.adjustForItems(items, -1);
+                reservedItems.addAll(items);
+                
+                log.info("Successfully reserved {} items for productVariant {} until {}", 
+                    items.size(), productVariantId, expiresAt);
             }
             
             log.info("Successfully reserved {} total items with timeout (by productVariant)", reservedItems.size());
@@ -408,6 +411,7 @@ public class WarehouseLockService {
                         }
                         
                         warehouseRepository.saveAll(items);
+                        stockCounterService.adjustForItems(items, -1);
                         reservedItems.addAll(items);
                         
                         log.info("Successfully reserved {} items for product {} until {}", 
@@ -454,7 +458,11 @@ public class WarehouseLockService {
             if (!expiredItems.isEmpty()) {
                 log.info("Found {} expired warehouse reservations", expiredItems.size());
                 
+                List<Warehouse> returnedToStock = new ArrayList<>();
                 for (Warehouse item : expiredItems) {
+                    if (!Boolean.TRUE.equals(item.getIsDelete())) {
+                        returnedToStock.add(item);
+                    }
                     item.setLocked(false);
                     item.setLockedBy(null);
                     item.setLockedAt(null);
@@ -462,6 +470,7 @@ public class WarehouseLockService {
                 }
                 
                 warehouseRepository.saveAll(expiredItems);
+                stockCounterService.adjustForItems(returnedToStock, 1);
                 log.info("Released {} expired warehouse reservations", expiredItems.size());
             }
         } catch (Exception e) {
@@ -4,6 +4,7 @@ import com.badat.study1.model.Shop;
 import com.badat.study1.model.User;
 import com.badat.study1.repository.ShopRepository;
 import com.badat.study1.repository.UserRepository;
+import com.badat.study1.service.ImageStoreService;
 import com.badat.study1.service.SellerService;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
@@ -21,11 +22,14 @@ public class SellerServiceImpl implements SellerService {
 
     private final ShopRepository shopRepository;
     private final UserRepository userRepository;
+    private final ImageStoreService imageStoreService;
 
     public SellerServiceImpl(ShopRepository shopRepository,
-                             UserRepository userRepository) {
+                             UserRepository userRepository,
+                             ImageStoreService imageStoreService) {
         this.shopRepository = shopRepository;
         this.userRepository = userRepository;
+        this.imageStoreService = imageStoreService;
     }
 
     @Override
@@ -66,19 +70,19 @@ public class SellerServiceImpl implements SellerService {
             shop.setIsDelete(false);
         }
             
-            // Convert and store CCCD front image as byte array
+            // Store CCCD front image in image store (not public)
             if (cccdFront != null && !cccdFront.isEmpty()) {
                 byte[] frontImageBytes = cccdFront.getBytes();
-                shop.setCccdFrontImage(frontImageBytes);
-                log.info("CCCD front image converted to byte array. Size: {} bytes for user: {}",
+                shop.setCccdFrontImageHash(imageStoreService.store(frontImageBytes, false).getHash());
+                log.info("CCCD front image stored. Size: {} bytes for user: {}",
                         frontImageBytes.length, user.getId());
             }
             
-            // Convert and store CCCD back image as byte array
+            // Store CCCD back image in image store (not public)
             if (cccdBack != null && !cccdBack.isEmpty()) {
                 byte[] backImageBytes = cccdBack.getBytes();
-                shop.setCccdBackImage(backImageBytes);
-                log.info("CCCD back image converted to byte array. Size: {} bytes for user: {}",
+                shop.setCccdBackImageHash(imageStoreService.store(backImageBytes, false).getHash());
+                log.info("CCCD back image stored. Size: {} bytes for user: {}",
                         backImageBytes.length, user.getId());
             }
             
@@ -1,11 +1,12 @@
 package com.badat.study1.service.impl;
 
+import com.badat.study1.dto.ImageRef;
 import com.badat.study1.model.Product;
 import com.badat.study1.model.ProductVariant;
 import com.badat.study1.model.Review;
+import com.badat.study1.model.Shop;
 import com.badat.study1.model.User;
 import com.badat.study1.model.UploadHistory;
-import com.badat.study1.model.Warehouse;
 import com.badat.study1.repository.OrderItemRepository;
 import com.badat.study1.repository.ProductRepository;
 import com.badat.study1.repository.ProductVariantRepository;
@@ -14,6 +15,11 @@ import com.badat.study1.repository.ShopRepository;
 import com.badat.study1.repository.UploadHistoryRepository;
 import com.badat.study1.repository.WarehouseRepository;
 import com.badat.study1.service.ShopService;
+import com.badat.study1.service.WarehouseImportJobService;
+import com.badat.study1.service.StockCounterService;
+import com.badat.study1.service.HomepageRankingService;
+import com.badat.study1.service.ProductSearchService;
+import com.badat.study1.service.ImageStoreService;
 import org.springframework.http.HttpStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -28,19 +34,16 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.charset.StandardCharsets;
 import java.text.NumberFormat;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.stream.Collectors;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -53,6 +56,11 @@ public class ShopServiceImpl implements ShopService {
     private final WarehouseRepository warehouseRepository;
     private final OrderItemRepository orderItemRepository;
     private final ReviewRepository reviewRepository;
+    private final StockCounterService stockCounterService;
+    private final WarehouseImportJobService warehouseImportJobService;
+    private final HomepageRankingService homepageRankingService;
+    private final ProductSearchService productSearchService;
+    private final ImageStoreService imageStoreService;
 
     public ShopServiceImpl(ShopRepository shopRepository,
                            ProductRepository productRepository,
@@ -60,7 +68,12 @@ public class ShopServiceImpl implements ShopService {
                            UploadHistoryRepository uploadHistoryRepository,
                            WarehouseRepository warehouseRepository,
                            OrderItemRepository orderItemRepository,
-                           ReviewRepository reviewRepository) {
+                           ReviewRepository reviewRepository,
+                           StockCounterService stockCounterService,
+                           WarehouseImportJobService warehouseImportJobService,
+                           HomepageRankingService homepageRankingService,
+                           ProductSearchService productSearchService,
+                           ImageStoreService imageStoreService) {
         this.shopRepository = shopRepository;
         this.productRepository = productRepository;
         this.productVariantRepository = productVariantRepository;
@@ -68,6 +81,11 @@ public class ShopServiceImpl implements ShopService {
         this.warehouseRepository = warehouseRepository;
         this.orderItemRepository = orderItemRepository;
         this.reviewRepository = reviewRepository;
+        this.stockCounterService = stockCounterService;
+        this.warehouseImportJobService = warehouseImportJobService;
+        this.homepageRankingService = homepageRankingService;
+        this.productSearchService = productSearchService;
+        this.imageStoreService = imageStoreService;
     }
 
     @Override
@@ -80,7 +98,7 @@ public class ShopServiceImpl implements ShopService {
             var products = productRepository.findByShopIdAndIsDeleteFalse(shop.getId());
             products.forEach(product -> {
                 var productVariants = productVariantRepository.findByProductIdAndIsDeleteFalse(product.getId());
-                int totalStock = (int) warehouseRepository.countAvailableItemsByProductId(product.getId());
+                int totalStock = (int) stockCounterService.getProductStock(product.getId());
                 product.setProductVariantCount(totalStock);
                 if (!productVariants.isEmpty()) {
                     var availableProductVariants = productVariants.stream()
@@ -160,7 +178,7 @@ public class ShopServiceImpl implements ShopService {
         model.addAttribute("product", product);
         var productVariants = productVariantRepository.findByProductIdAndIsDeleteFalse(productId);
         for (ProductVariant pv : productVariants) {
-            long stock = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(pv.getId());
+            long stock = stockCounterService.getVariantStock(pv.getId());
             pv.setQuantity((int) stock);
             pv.setStatus(stock > 0 ? ProductVariant.Status.AVAILABLE : ProductVariant.Status.UNAVAILABLE);
         }
@@ -457,13 +475,16 @@ public class ShopServiceImpl implements ShopService {
             product.setDetailedDescription(detailedDescription);
             product.setProductSubcategory(productSubcategory);
             if (productImageFile != null && !productImageFile.isEmpty()) {
-                byte[] imageData = productImageFile.getBytes();
-                product.setProductImageData(imageData);
+                ImageRef imageRef = imageStoreService.store(productImageFile.getBytes(), true);
+                product.setImageHash(imageRef.getHash());
+                product.setImageThumbnailHash(imageRef.getThumbnailHash());
             }
             product.setStatus("OPEN");
             product.setCreatedAt(java.time.Instant.now());
             product.setDelete(false);
             productRepository.save(product);
+            homepageRankingService.markDirty();
+            productSearchService.reindexProduct(product.getId());
             redirectAttributes.addFlashAttribute("successMessage", "Sản phẩm đã được tạo thành công!");
             return "redirect:/seller/product-management";
         } catch (Exception e) {
@@ -501,8 +522,9 @@ public class ShopServiceImpl implements ShopService {
             product.setDetailedDescription(detailedDescription);
             if (productImageFile != null && !productImageFile.isEmpty()) {
                 try {
-                    byte[] imageData = productImageFile.getBytes();
-                    product.setProductImageData(imageData);
+                    ImageRef imageRef = imageStoreService.store(productImageFile.getBytes(), true);
+                    product.setImageHash(imageRef.getHash());
+                    product.setImageThumbnailHash(imageRef.getThumbnailHash());
                 } catch (Exception e) {
                     redirectAttributes.addFlashAttribute("errorMessage", "Có lỗi xảy ra khi xử lý hình ảnh. Vui lòng thử lại!");
                     return "redirect:/seller/edit-product/" + id;
@@ -510,6 +532,8 @@ public class ShopServiceImpl implements ShopService {
             }
 
             productRepository.save(product);
+            homepageRankingService.markDirty();
+            productSearchService.reindexProduct(product.getId());
             redirectAttributes.addFlashAttribute("successMessage", "Sản phẩm đã được cập nhật thành công!");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("errorMessage", "Có lỗi xảy ra khi cập nhật sản phẩm. Vui lòng thử lại!");
@@ -572,6 +596,7 @@ public class ShopServiceImpl implements ShopService {
             productVariant.setPrice(productPrice);
             productVariant.setUpdatedAt(java.time.LocalDateTime.now());
             productVariantRepository.save(productVariant);
+            homepageRankingService.markDirty();
             redirectAttributes.addFlashAttribute("successMessage", "Biến thể đã được cập nhật thành công!");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("errorMessage", "Có lỗi xảy ra khi cập nhật sản phẩm. Vui lòng thử lại!");
@@ -598,146 +623,10 @@ public class ShopServiceImpl implements ShopService {
             ProductVariant productVariant = productVariantOptional.get();
             var userShop = shopRepository.findByUserId(user.getId());
             Product parentProduct = productRepository.findById(productVariant.getProductId()).orElse(null);
-            String content = new String(file.getBytes(), StandardCharsets.UTF_8)
-                    .replace("\uFEFF", "")
-                    .trim();
-            String[] lines = content.split("\\r?\\n");
-            int successCount = 0;
-            int failureCount = 0;
-            StringBuilder invalidLineDetails = new StringBuilder();
-            Set<String> processedItemKeys = new HashSet<>();
-            // Load existing identifiers (scoped by same subcategory) for this variant for duplicate check in DB
-            // IMPORTANT: Using findByProductVariantId (not findByProductVariantIdAndIsDeleteFalse) to check ALL items
-            // including those with isDelete = true, to prevent uploading duplicate items even if they were deleted
-            var existingItems = warehouseRepository.findByProductVariantId(productVariant.getId());
-            final String currentSubcategory = productVariant.getSubcategory();
-            // Use productCategory (loại sản phẩm) instead of subcategory (loại cụ thể) to determine format
-            final String productCategory = parentProduct != null ? parentProduct.getProductCategory() : null;
-            InventoryFormat expectedFormat = determineFormat(productCategory != null ? productCategory : currentSubcategory);
-            Set<String> existingKeys = new HashSet<>();
-            // Use productCategory (loại sản phẩm) for extracting identifier from existing items to ensure consistency
-            String categoryForExistingItems = productCategory != null ? productCategory : currentSubcategory;
-            // Check ALL existing items (including isDelete = true) to prevent duplicate uploads
-            for (var it : existingItems) {
-                // ensure same subcategory when checking duplicates in DB
-                // Note: We check ALL items regardless of isDelete status to prevent duplicates
-                if (it.getItemSubcategory() != null && currentSubcategory != null
-                        && it.getItemSubcategory().equalsIgnoreCase(currentSubcategory)) {
-                    String[] ep = it.getItemData().split("\\|");
-                    String key = extractIdentifier(categoryForExistingItems, ep);
-                    String normalized = normalizeIdentifier(key);
-                    if (normalized != null) existingKeys.add(normalized);
-                }
-            }
-            for (int i = 0; i < lines.length; i++) {
-                String line = lines[i].trim();
-                if (line.isEmpty()) continue;
-                try {
-                    String[] parts = line.split("\\|");
-                    // Yêu cầu đúng 2 phần theo định dạng đã công bố
-                    if (parts.length != 2) {
-                        failureCount++;
-                        appendInvalidLine(invalidLineDetails, i + 1, "Định dạng không hợp lệ");
-                        continue;
-                    }
-                    String[] sanitizedParts = new String[] {
-                            cleanPart(parts[0]),
-                            cleanPart(parts[1])
-                    };
-                    if (sanitizedParts[0] == null || sanitizedParts[1] == null) {
-                        failureCount++;
-                        appendInvalidLine(invalidLineDetails, i + 1, "Thiếu dữ liệu bắt buộc");
-                        continue;
-                    }
-                    if (!validateLineFormat(expectedFormat, sanitizedParts)) {
-                        failureCount++;
-                        appendInvalidLine(invalidLineDetails, i + 1, "Dữ liệu không đúng định dạng cho loại sản phẩm");
-                        continue;
-                    }
-                    String itemData = sanitizedParts[0] + "|" + sanitizedParts[1];
-                    // Use productCategory (loại sản phẩm) instead of subcategory (loại cụ thể) to extract identifier
-                    String categoryForIdentifier = productCategory != null ? productCategory : productVariant.getSubcategory();
-                    String itemKey = extractIdentifier(categoryForIdentifier, sanitizedParts);
-                    String normalizedKey = normalizeIdentifier(itemKey);
-                    // Kiểm tra khóa định danh bắt buộc theo subcategory
-                    if (normalizedKey == null) {
-                        failureCount++;
-                        appendInvalidLine(invalidLineDetails, i + 1, "Không có khóa định danh hợp lệ");
-                        continue;
-                    }
-                    if (processedItemKeys.contains(normalizedKey)) {
-                        failureCount++;
-                        appendInvalidLine(invalidLineDetails, i + 1, "Dòng trùng lặp trong file");
-                        continue;
-                    }
-                    boolean existsInDb = existingKeys.contains(normalizedKey);
-                    if (existsInDb) {
-                        failureCount++;
-                        appendInvalidLine(invalidLineDetails, i + 1, "Đã tồn tại trong hệ thống");
-                        continue;
-                    }
-                    processedItemKeys.add(normalizedKey);
-                        Warehouse warehouseItem = Warehouse.builder()
-                            .itemSubcategory(productVariant.getSubcategory())
-                                .itemData(itemData)
-                                .productVariant(productVariant)
-                                .shop(userShop.get())
-                                .product(parentProduct)
-                                .user(user)
-                                .build();
-                        warehouseRepository.save(warehouseItem);
-                    successCount++;
-                } catch (Exception ex) {
-                    failureCount++;
-                    String errorMessage = ex.getMessage() != null ? ex.getMessage() : "Lỗi không xác định";
-                    appendInvalidLine(invalidLineDetails, i + 1, "Lỗi xử lý - " + errorMessage);
-                }
-            }
-            long warehouseCount = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(productVariantId);
-            productVariant.setQuantity((int) warehouseCount);
-            if (warehouseCount > 0) {
-                productVariant.setStatus(ProductVariant.Status.AVAILABLE);
-            } else {
-                productVariant.setStatus(ProductVariant.Status.UNAVAILABLE);
-            }
-            productVariantRepository.save(productVariant);
-            try {
-                if (userShop.isPresent()) {
-                    var allProductVariants = productVariantRepository.findByShopIdAndIsDeleteFalse(userShop.get().getId());
-                    for (ProductVariant shopProductVariant : allProductVariants) {
-                        long productVariantWarehouseCount = warehouseRepository.countByProductVariantIdAndLockedFalseAndIsDeleteFalse(shopProductVariant.getId());
-                        shopProductVariant.setQuantity((int) productVariantWarehouseCount);
-                        if (productVariantWarehouseCount > 0) {
-                            shopProductVariant.setStatus(ProductVariant.Status.AVAILABLE);
-                        } else {
-                            shopProductVariant.setStatus(ProductVariant.Status.UNAVAILABLE);
-                        }
-                        productVariantRepository.save(shopProductVariant);
-                    }
-                }
-            } catch (Exception ignore) {}
-            try {
-                UploadHistory uploadHistory = UploadHistory.builder()
-                        .fileName(safeFileName)
-                        .productName(productVariant.getName())
-                        .isSuccess(successCount > 0)
-                        .result(successCount > 0 ? "SUCCESS" : "FAILED")
-                        .status(successCount > 0 ? "COMPLETED" : "FAILED")
-                        .totalItems(lines.length)
-                        .successCount(successCount)
-                        .failureCount(failureCount)
-                        .resultDetails(invalidLineDetails.length() > 0 ? invalidLineDetails.toString() : null)
-                        .productVariant(productVariant)
-                        .product(parentProduct)
-                        .user(user)
-                        .build();
-                uploadHistoryRepository.save(uploadHistory);
-            } catch (Exception ignore) {}
-            if (successCount > 0) {
-                redirectAttributes.addFlashAttribute("successMessage", "Upload thành công! Đã thêm " + successCount + " sản phẩm vào kho. " + (failureCount > 0 ? "Có " + failureCount + " dòng lỗi." : ""));
-            } else {
-                redirectAttributes.addFlashAttribute("errorMessage", "Upload thất bại! Không có sản phẩm nào được thêm vào kho. Vui lòng kiểm tra định dạng file.");
-            }
+            Shop shop = userShop.orElseThrow(() -> new RuntimeException("Không tìm thấy gian hàng của người bán"));
+            // Lưu file và import bất đồng bộ (pool giới hạn) - tiến độ được cập nhật vào lịch sử upload
+            warehouseImportJobService.submit(user, productVariant, parentProduct, shop, file, safeFileName);
+            redirectAttributes.addFlashAttribute("successMessage", "Đã nhận file! Hệ thống đang nhập hàng vào kho, vui lòng theo dõi tiến độ trong lịch sử upload.");
             return "redirect:/seller/add-quantity/" + productVariantId;
         } catch (Exception e) {
             try {
@@ -791,130 +680,11 @@ public class ShopServiceImpl implements ShopService {
             response.put("failureCount", upload.getFailureCount());
             response.put("resultDetails", upload.getResultDetails());
             response.put("isSuccess", upload.getIsSuccess());
+            response.put("status", upload.getStatus());
+            response.put("processedLines", upload.getProcessedLines());
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Internal server error");
         }
     }
-
-    private String normalizeIdentifier(String key) {
-        String cleaned = cleanPart(key);
-        return cleaned == null ? null : cleaned.toLowerCase(Locale.ROOT);
-    }
-
-    private String cleanPart(String value) {
-        if (value == null) {
-            return null;
-        }
-        String cleaned = value.replace("\uFEFF", "").trim();
-        return cleaned.isEmpty() ? null : cleaned;
-    }
-
-    private void appendInvalidLine(StringBuilder builder, int lineNumber, String message) {
-        if (builder == null || message == null) {
-            return;
-        }
-        if (builder.length() > 0) {
-            builder.append('\n');
-        }
-        builder.append("Dòng ").append(lineNumber).append(": ").append(message);
-    }
-
-    private String extractIdentifier(String category, String[] parts) {
-        if (parts == null || parts.length < 2) return null;
-        String cat = category == null ? "" : category.toLowerCase(Locale.ROOT);
-        String first = cleanPart(parts[0]);
-        String second = cleanPart(parts[1]);
-        if (first == null && second == null) {
-            return null;
-        }
-        // Email/Gmail: email|password -> key = email
-        // productCategory can be "Email" or subcategory can contain "gmail"
-        if (cat.contains("email") || cat.contains("gmail")) {
-            if (first == null || !first.contains("@")) return null;
-            return first;
-        }
-        // Thẻ cào: code|serial -> key = serial
-        // productCategory can be "Thẻ game" or contain "thẻ"/"card"
-        if (cat.contains("thẻ") || cat.contains("card")) {
-            return second;
-        }
-        // Tài khoản: username|password -> key = username
-        // productCategory can be "Tài khoản" or contain "tài khoản"/"account"/"acc"
-        if (cat.contains("tài khoản") || cat.contains("account") || cat.contains("acc")) {
-            return first;
-        }
-        // Default fallback: first part as identifier
-        return first;
-    }
-
-    private InventoryFormat determineFormat(String category) {
-        String cat = category == null ? "" : category.toLowerCase(Locale.ROOT);
-        // Check for Email: productCategory can be "Email" or subcategory can contain "gmail"
-        if (cat.contains("email") || cat.contains("gmail")) {
-            return InventoryFormat.EMAIL;
-        }
-        // Check for Card: productCategory can be "Thẻ game" or contain "thẻ"/"card"
-        if (cat.contains("thẻ") || cat.contains("card")) {
-            return InventoryFormat.CARD;
-        }
-        // Check for Account: productCategory can be "Tài khoản" or contain "tài khoản"/"account"/"acc"
-        if (cat.contains("tài khoản") || cat.contains("account") || cat.contains("acc")) {
-            return InventoryFormat.ACCOUNT;
-        }
-        return InventoryFormat.GENERIC;
-    }
-
-    private boolean validateLineFormat(InventoryFormat format, String[] parts) {
-        if (parts == null || parts.length < 2) {
-            return false;
-        }
-        String first = parts[0];
-        String second = parts[1];
-        if (format == InventoryFormat.EMAIL) {
-            return isValidEmail(first);
-        }
-        if (format == InventoryFormat.CARD) {
-            return isValidCardCode(first) && isValidCardSerial(second);
-        }
-        if (format == InventoryFormat.ACCOUNT) {
-            return isValidAccount(first);
-        }
-        return true;
-    }
-
-    private boolean isValidEmail(String value) {
-        if (value == null) {
-            return false;
-        }
-        int atIndex = value.indexOf('@');
-        if (atIndex <= 0 || atIndex == value.length() - 1) {
-            return false;
-        }
-        if (!value.contains(".")) {
-            return false;
-        }
-        return !value.contains(" ");
-    }
-
-    private boolean isValidCardCode(String value) {
-        return value != null && value.matches("^[A-Za-z0-9]{6,}$");
-    }
-
-    private boolean isValidCardSerial(String value) {
-        return value != null && value.matches("^[A-Za-z0-9-]{6,}$");
-    }
-
-    private boolean isValidAccount(String value) {
-        return value != null && value.length() >= 3;
-    }
-
-    private enum InventoryFormat {
-        EMAIL,
-        CARD,
-        ACCOUNT,
-        GENERIC
-    }
 }
-
-
@@ -0,0 +1,190 @@
+package com.badat.study1.util;
+
+import com.badat.study1.dto.CartSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary codec cho CartSnapshot (lưu ở cột payment_queue.cart_snapshot)
+ *
+ * Format v1: MAGIC | VERSION | varint(count) | item*
+ * item: nullableId(productId) | varlong(productVariantId) | varint(quantity)
+ *       | decimal(unitPrice) | nullableId(warehouseId) | string(name)
+ * - nullableId: varlong(id + 1), 0 = null
+ * - decimal: varint(scale + 1) | varint(len) | unscaled bytes, 0 = null
+ * - string: varint(len + 1) | UTF-8 bytes, 0 = null
+ */
+public class CartSnapshotCodec {
+
+    private static final byte MAGIC = (byte) 0xCA;
+    public static final byte VERSION_1 = 1;
+    // nullableId + varlong + varint + decimal + nullableId + string, mỗi trường ít nhất 1 byte
+    private static final int MIN_ITEM_BYTES = 6;
+
+    public static byte[] encode(CartSnapshot snapshot) {
+        List<CartSnapshot.Item> items = snapshot.getItems();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + items.size() * 32);
+        out.write(MAGIC);
+        out.write(VERSION_1);
+        writeVarLong(out, items.size());
+
+        for (CartSnapshot.Item item : items) {
+            writeNullableId(out, item.getProductId());
+            writeVarLong(out, item.getProductVariantId());
+            writeVarLong(out, item.getQuantity());
+            writeDecimal(out, item.getUnitPrice());
+            writeNullableId(out, item.getWarehouseId());
+            writeString(out, item.getName());
+        }
+        return out.toByteArray();
+    }
+
+    public static CartSnapshot decode(byte[] data) {
+        if (data == null || data.length < 2 || data[0] != MAGIC) {
+            throw new IllegalArgumentException("Invalid cart snapshot data");
+        }
+        if (data[1] != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported cart snapshot version: " + data[1]);
+        }
+
+        Reader reader = new Reader(data, 2);
+        long count = reader.readVarLong();
+        // Mỗi item tối thiểu MIN_ITEM_BYTES byte: count lớn hơn phần còn lại là dữ liệu hỏng (không cấp phát theo count)
+        if (count < 0 || count > (data.length - reader.pos) / MIN_ITEM_BYTES) {
+            throw new IllegalArgumentException("Invalid cart snapshot item count: " + count);
+        }
+        List<CartSnapshot.Item> items = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            items.add(CartSnapshot.Item.builder()
+                    .productId(reader.readNullableId())
+                    .productVariantId(reader.readVarLong())
+                    .quantity(reader.readInt())
+                    .unitPrice(reader.readDecimal())
+                    .warehouseId(reader.readNullableId())
+                    .name(reader.readString())
+                    .build());
+        }
+        if (reader.pos != data.length) {
+            throw new IllegalArgumentException("Trailing bytes in cart snapshot data");
+        }
+        return CartSnapshot.builder().items(items).build();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value not supported in cart snapshot: " + value);
+        }
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeNullableId(ByteArrayOutputStream out, Long id) {
+        writeVarLong(out, id == null ? 0 : id + 1);
+    }
+
+    private static void writeDecimal(ByteArrayOutputStream out, BigDecimal value) {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        // Scale âm (vd 1E+3) được chuẩn hóa về 0 để scale luôn >= 0
+        BigDecimal normalized = value.scale() < 0 ? value.setScale(0) : value;
+        byte[] unscaled = normalized.unscaledValue().toByteArray();
+        writeVarLong(out, normalized.scale() + 1L);
+        writeVarLong(out, unscaled.length);
+        out.write(unscaled, 0, unscaled.length);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= data.length) {
+                    throw new IllegalArgumentException("Truncated cart snapshot data");
+                }
+                byte b = data[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new IllegalArgumentException("Malformed varint in cart snapshot data");
+                }
+            }
+        }
+
+        int readInt() {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Value out of range in cart snapshot data: " + value);
+            }
+            return (int) value;
+        }
+
+        Long readNullableId() {
+            long raw = readVarLong();
+            return raw == 0 ? null : raw - 1;
+        }
+
+        BigDecimal readDecimal() {
+            long scalePlusOne = readVarLong();
+            if (scalePlusOne == 0) {
+                return null;
+            }
+            if (scalePlusOne < 0 || scalePlusOne - 1 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid decimal scale in cart snapshot data");
+            }
+            byte[] unscaled = readBytes(readVarLong());
+            if (unscaled.length == 0) {
+                throw new IllegalArgumentException("Invalid decimal in cart snapshot data");
+            }
+            return new BigDecimal(new BigInteger(unscaled), (int) (scalePlusOne - 1));
+        }
+
+        String readString() {
+            long lengthPlusOne = readVarLong();
+            if (lengthPlusOne == 0) {
+                return null;
+            }
+            return new String(readBytes(lengthPlusOne - 1), StandardCharsets.UTF_8);
+        }
+
+        private byte[] readBytes(long length) {
+            if (length < 0 || length > data.length - pos) {
+                throw new IllegalArgumentException("Truncated cart snapshot data");
+            }
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(data, pos, bytes, 0, bytes.length);
+            pos += bytes.length;
+            return bytes;
+        }
+    }
+}
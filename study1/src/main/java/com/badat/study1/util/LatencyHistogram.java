@@ -0,0 +1,154 @@
+package com.badat.study1.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram độ trễ dạng log-linear (giống HDR histogram, 2 chữ số có nghĩa), đơn vị micro giây
+ * - Giá trị < 64 đếm chính xác; từ 64 trở lên mỗi khoảng [2^e, 2^(e+1)) chia 32 bucket -> sai số tương đối <= ~3%
+ * - Giá trị tối đa ~19 giờ (2^36 us), lớn hơn thì gộp vào bucket cuối
+ * - record() không khóa, nhiều thread ghi cùng lúc được
+ *
+ * Format encode: varint(index delta) | varlong(count) cho từng bucket khác 0, index tăng dần
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + 2 * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        maxValue.accumulateAndGet(other.maxValue.get(), Math::max);
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * Giá trị tại phân vị (0-100), trả về điểm giữa bucket chứa phân vị đó (không vượt quá max đã ghi)
+     */
+    public long valueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long lower = lowerBound(i);
+                long upper = lowerBound(i + 1) - 1;
+                return Math.min(lower + (upper - lower) / 2, maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeVarLong(out, maxValue.get());
+        int previous = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, count);
+                previous = i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static LatencyHistogram decode(byte[] data) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (data == null || data.length == 0) {
+            return histogram;
+        }
+        int[] pos = {0};
+        histogram.maxValue.set(readVarLong(data, pos));
+        int index = 0;
+        long total = 0;
+        while (pos[0] < data.length) {
+            index += (int) readVarLong(data, pos);
+            long count = readVarLong(data, pos);
+            if (index < 0 || index >= BUCKET_COUNT) {
+                throw new IllegalArgumentException("Invalid histogram bucket: " + index);
+            }
+            histogram.counts.addAndGet(index, count);
+            total += count;
+        }
+        histogram.totalCount.set(total);
+        return histogram;
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        // mantissa: 6 bit cao nhất, nằm trong [32, 63]
+        int mantissa = (int) (value >>> shift);
+        return shift * SUB_BUCKET_COUNT + mantissa;
+    }
+
+    static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= data.length || shift > 63) {
+                throw new IllegalArgumentException("Truncated histogram data");
+            }
+            byte b = data[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.badat.study1.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CartSnapshotTest {
+
+    @Test
+    void parsesCartItems() {
+        CartSnapshot snapshot = CartSnapshot.fromCartItems(List.of(
+                cartItem(Map.of("productVariantId", 100, "productId", 10, "quantity", "2",
+                        "price", "15000.00", "warehouseId", 1000, "name", "Netflix"))));
+
+        CartSnapshot.Item item = snapshot.getItems().get(0);
+        assertThat(item.getProductVariantId()).isEqualTo(100L);
+        assertThat(item.getProductId()).isEqualTo(10L);
+        assertThat(item.getQuantity()).isEqualTo(2);
+        assertThat(item.getUnitPrice()).isEqualByComparingTo(new BigDecimal("15000.00"));
+        assertThat(item.getWarehouseId()).isEqualTo(1000L);
+        assertThat(item.getName()).isEqualTo("Netflix");
+    }
+
+    @Test
+    void fallsBackToProductIdForLegacyCarts() {
+        CartSnapshot snapshot = CartSnapshot.fromCartItems(List.of(cartItem(Map.of("productId", 7, "quantity", 1))));
+
+        assertThat(snapshot.getItems().get(0).getProductVariantId()).isEqualTo(7L);
+    }
+
+    @Test
+    void sumsQuantitiesPerVariantAndProductSkippingLegacyItems() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of(
+                CartSnapshot.Item.builder().productId(10L).productVariantId(100L).quantity(2).build(),
+                CartSnapshot.Item.builder().productId(10L).productVariantId(101L).quantity(1).build(),
+                CartSnapshot.Item.builder().productId(10L).productVariantId(100L).quantity(3).build(),
+                CartSnapshot.Item.builder().productVariantId(200L).quantity(4).build())).build();
+
+        assertThat(snapshot.variantQuantities()).containsExactly(Map.entry(100L, 5), Map.entry(101L, 1), Map.entry(200L, 4));
+        assertThat(snapshot.productQuantities()).containsExactly(Map.entry(10L, 6));
+    }
+
+    @Test
+    void rejectsZeroOrNegativeQuantity() {
+        assertThatThrownBy(() -> CartSnapshot.fromCartItems(List.of(cartItem(Map.of("productVariantId", 1, "quantity", 0)))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Quantity phải lớn hơn 0");
+        assertThatThrownBy(() -> CartSnapshot.fromCartItems(List.of(cartItem(Map.of("productVariantId", 1, "quantity", -3)))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Quantity phải lớn hơn 0");
+    }
+
+    @Test
+    void rejectsMissingQuantityOrVariant() {
+        assertThatThrownBy(() -> CartSnapshot.fromCartItems(List.of(cartItem(Map.of("productVariantId", 1)))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CartSnapshot.fromCartItems(List.of(cartItem(Map.of("quantity", 1)))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Map<String, Object> cartItem(Map<String, Object> values) {
+        return new HashMap<>(values);
+    }
+}
@@ -0,0 +1,226 @@
+package com.badat.study1.repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Benchmark reserve warehouse theo variant (SELECT ... FOR UPDATE như WarehouseRepository) trên MySQL thật
+ * - Chỉ chạy khi có -Dbenchmark.jdbc-url=jdbc:mysql://.../schema_rieng?rewriteBatchedStatements=true (kèm -Dbenchmark.jdbc-user / -Dbenchmark.jdbc-password)
+ * - Tạo bảng warehouse_benchmark cùng index với DatabaseMigrationRunner.runWarehouseIndexMigration, seed 1 triệu dòng
+ * - Kiểm tra plan của các query nóng dùng đúng index, sau đó đo reserve khi nhiều thread tranh cùng vài variant
+ */
+@EnabledIfSystemProperty(named = "benchmark.jdbc-url", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class WarehouseReservationBenchmark {
+
+    private static final String TABLE = "warehouse_benchmark";
+    private static final int TOTAL_ROWS = 1_000_000;
+    private static final int VARIANT_COUNT = 1_000;
+    private static final int HOT_VARIANT_COUNT = 20;
+    private static final int SEED_BATCH_SIZE = 5_000;
+    private static final int THREADS = 32;
+    private static final int RESERVATIONS_PER_THREAD = 200;
+    private static final int QUANTITY = 2;
+
+    private final String url = System.getProperty("benchmark.jdbc-url");
+    private final String user = System.getProperty("benchmark.jdbc-user", "root");
+    private final String password = System.getProperty("benchmark.jdbc-password", "");
+
+    @BeforeAll
+    void seed() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+            statement.execute("CREATE TABLE " + TABLE + " ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + "product_id BIGINT NOT NULL,"
+                    + "product_variant_id BIGINT NOT NULL,"
+                    + "shop_id BIGINT NOT NULL,"
+                    + "locked BIT(1) NOT NULL,"
+                    + "locked_by BIGINT NULL,"
+                    + "reserved_until DATETIME(6) NULL,"
+                    + "is_delete BIT(1) NOT NULL,"
+                    + "created_at DATETIME(6) NOT NULL,"
+                    + "item_data TEXT NULL,"
+                    + "INDEX idx_warehouse_variant_available (product_variant_id, locked, is_delete, created_at),"
+                    + "INDEX idx_warehouse_product_available (product_id, locked, is_delete, created_at),"
+                    + "INDEX idx_warehouse_shop_available (shop_id, locked, is_delete),"
+                    + "INDEX idx_warehouse_locked_reserved_until (locked, reserved_until))");
+
+            connection.setAutoCommit(false);
+            String insert = "INSERT INTO " + TABLE
+                    + " (product_id, product_variant_id, shop_id, locked, is_delete, created_at, item_data)"
+                    + " VALUES (?, ?, ?, false, false, ?, ?)";
+            LocalDateTime base = LocalDateTime.now().minusDays(30);
+            long start = System.nanoTime();
+            try (PreparedStatement ps = connection.prepareStatement(insert)) {
+                for (int i = 0; i < TOTAL_ROWS; i++) {
+                    long variantId = i % VARIANT_COUNT + 1;
+                    ps.setLong(1, variantId / 4 + 1);
+                    ps.setLong(2, variantId);
+                    ps.setLong(3, variantId % 50 + 1);
+                    ps.setTimestamp(4, Timestamp.valueOf(base.plusSeconds(i)));
+                    ps.setString(5, "account-" + i + "|password-" + i);
+                    ps.addBatch();
+                    if ((i + 1) % SEED_BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                        connection.commit();
+                    }
+                }
+                ps.executeBatch();
+                connection.commit();
+            }
+            statement.execute("ANALYZE TABLE " + TABLE);
+            System.out.printf("Seeded %d warehouse rows in %d ms%n", TOTAL_ROWS, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    @AfterAll
+    void dropTable() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+        }
+    }
+
+    @Test
+    void hotQueriesUseCompositeIndexes() throws SQLException {
+        assertPlanUsesIndex("SELECT * FROM " + TABLE + " WHERE product_variant_id = 7 AND locked = false AND is_delete = false"
+                + " ORDER BY created_at ASC LIMIT 10 FOR UPDATE", "idx_warehouse_variant_available");
+        assertPlanUsesIndex("SELECT COUNT(*) FROM " + TABLE + " WHERE product_id = 7 AND locked = false AND is_delete = false",
+                "idx_warehouse_product_available");
+        assertPlanUsesIndex("SELECT COUNT(*) FROM " + TABLE + " WHERE shop_id = 7 AND locked = false AND is_delete = false",
+                "idx_warehouse_shop_available");
+        assertPlanUsesIndex("SELECT * FROM " + TABLE + " WHERE locked = true AND reserved_until < NOW()",
+                "idx_warehouse_locked_reserved_until");
+    }
+
+    @Test
+    void reservationUnderContention() throws Exception {
+        List<Long> latenciesMicros = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger reservedItems = new AtomicInteger();
+        AtomicInteger shortages = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long userId = t + 1;
+                futures.add(executor.submit(() -> {
+                    try (Connection connection = connect()) {
+                        connection.setAutoCommit(false);
+                        for (int i = 0; i < RESERVATIONS_PER_THREAD; i++) {
+                            long variantId = ThreadLocalRandom.current().nextInt(HOT_VARIANT_COUNT) + 1;
+                            long begin = System.nanoTime();
+                            int reserved = reserve(connection, variantId, userId);
+                            latenciesMicros.add((System.nanoTime() - begin) / 1_000);
+                            if (reserved < QUANTITY) {
+                                shortages.incrementAndGet();
+                            }
+                            reservedItems.addAndGet(reserved);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        List<Long> sorted = new ArrayList<>(latenciesMicros);
+        Collections.sort(sorted);
+        int operations = sorted.size();
+        System.out.printf("Reserved %d items in %d reservations over %d ms (%.0f ops/s) - p50=%d us, p95=%d us, p99=%d us, shortages=%d%n",
+                reservedItems.get(), operations, elapsedMillis, operations * 1000.0 / Math.max(1, elapsedMillis),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), shortages.get());
+
+        // Không item nào bị 2 reservation cùng lấy
+        try (Connection connection = connect(); Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + TABLE + " WHERE locked = true")) {
+            rs.next();
+            assertThat(rs.getInt(1)).isEqualTo(reservedItems.get());
+        }
+        assertThat(operations).isEqualTo(THREADS * RESERVATIONS_PER_THREAD);
+    }
+
+    /**
+     * Cùng shape với WarehouseLockService.reserveWarehouseItemsWithTimeoutByVariant: lock rows rồi đánh dấu reserved
+     */
+    private int reserve(Connection connection, long variantId, long userId) throws SQLException {
+        List<Long> ids = new ArrayList<>(QUANTITY);
+        try (PreparedStatement select = connection.prepareStatement("SELECT id FROM " + TABLE
+                + " WHERE product_variant_id = ? AND locked = false AND is_delete = false ORDER BY created_at ASC LIMIT ? FOR UPDATE")) {
+            select.setLong(1, variantId);
+            select.setInt(2, QUANTITY);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        if (ids.size() < QUANTITY) {
+            connection.rollback();
+            return 0;
+        }
+        try (PreparedStatement update = connection.prepareStatement("UPDATE " + TABLE
+                + " SET locked = true, locked_by = ?, reserved_until = ? WHERE id = ?")) {
+            Timestamp reservedUntil = Timestamp.valueOf(LocalDateTime.now().plusMinutes(5));
+            for (Long id : ids) {
+                update.setLong(1, userId);
+                update.setTimestamp(2, reservedUntil);
+                update.setLong(3, id);
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+        connection.commit();
+        return ids.size();
+    }
+
+    private void assertPlanUsesIndex(String sql, String expectedIndex) throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("EXPLAIN " + sql)) {
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getString("key")).as("plan of %s", sql).isEqualTo(expectedIndex);
+            String extra = rs.getString("Extra");
+            assertThat(extra == null ? "" : extra).as("plan of %s", sql).doesNotContain("Using filesort");
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}
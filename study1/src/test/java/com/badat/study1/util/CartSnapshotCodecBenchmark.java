@@ -0,0 +1,99 @@
+package com.badat.study1.util;
+
+import com.badat.study1.dto.CartSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * So sánh CartSnapshotCodec với đường JSON cũ (cartData = ObjectMapper List<Map> rồi parse lại mỗi lần xử lý)
+ * - Chỉ chạy khi bật: mvn test -Dtest=CartSnapshotCodecBenchmark -Dbenchmark=true
+ * - Đo encode + decode cho giỏ nhỏ / lớn, in ns/op và kích thước payload
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CartSnapshotCodecBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void smallCart() throws Exception {
+        run("3 items", cartItems(3));
+    }
+
+    @Test
+    void largeCart() throws Exception {
+        run("50 items", cartItems(50));
+    }
+
+    private void run(String label, List<Map<String, Object>> cartItems) throws Exception {
+        CartSnapshot snapshot = CartSnapshot.fromCartItems(cartItems);
+
+        byte[] binary = CartSnapshotCodec.encode(snapshot);
+        byte[] json = objectMapper.writeValueAsString(cartItems).getBytes(StandardCharsets.UTF_8);
+        assertThat(CartSnapshotCodec.decode(binary)).isEqualTo(snapshot);
+        assertThat(jsonRoundTrip(cartItems)).isEqualTo(snapshot);
+
+        long codecNanos = measure(() -> CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot)));
+        long jsonNanos = measure(() -> jsonRoundTrip(cartItems));
+
+        System.out.printf("[%s] codec: %d ns/op, %d bytes | json: %d ns/op, %d bytes%n",
+                label, codecNanos, binary.length, jsonNanos, json.length);
+        assertThat(binary.length).isLessThan(json.length);
+    }
+
+    /**
+     * Đường cũ: serialize List<Map> thành JSON khi enqueue, đọc lại và parse sang snapshot khi xử lý
+     */
+    private CartSnapshot jsonRoundTrip(List<Map<String, Object>> cartItems) throws Exception {
+        String cartData = objectMapper.writeValueAsString(cartItems);
+        List<Map<String, Object>> parsed = objectMapper.readValue(cartData,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, Map.class));
+        return CartSnapshot.fromCartItems(parsed);
+    }
+
+    private static long measure(Operation operation) throws Exception {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink = operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink = operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(sink).isNotNull();
+        return elapsed / MEASURED_ITERATIONS;
+    }
+
+    private static List<Map<String, Object>> cartItems(int count) {
+        List<Map<String, Object>> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("productVariantId", 100_000L + i);
+            item.put("productId", 1_000L + i);
+            item.put("quantity", i % 3 + 1);
+            item.put("price", new BigDecimal("15000.00").add(BigDecimal.valueOf(i)).toPlainString());
+            item.put("warehouseId", 50_000L + i);
+            item.put("name", "Tài khoản Netflix " + i);
+            items.add(item);
+        }
+        return items;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        Object run() throws Exception;
+    }
+}
@@ -0,0 +1,171 @@
+package com.badat.study1.util;
+
+import com.badat.study1.dto.CartSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CartSnapshotCodecTest {
+
+    @Test
+    void roundTripsEmptyCart() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of()).build();
+
+        CartSnapshot decoded = CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot));
+
+        assertThat(decoded.getItems()).isEmpty();
+    }
+
+    @Test
+    void roundTripsItems() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of(
+                item(10L, 100L, 2, new BigDecimal("15000.00"), 1000L, "Tài khoản Netflix 1 tháng"),
+                item(11L, 101L, 1, new BigDecimal("0.5"), 1001L, "Key Windows"))).build();
+
+        CartSnapshot decoded = CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot));
+
+        assertThat(decoded).isEqualTo(snapshot);
+    }
+
+    @Test
+    void roundTripsNullOptionalFields() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of(
+                item(null, 100L, 1, null, null, null))).build();
+
+        CartSnapshot decoded = CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot));
+
+        assertThat(decoded).isEqualTo(snapshot);
+        CartSnapshot.Item item = decoded.getItems().get(0);
+        assertThat(item.getProductId()).isNull();
+        assertThat(item.getUnitPrice()).isNull();
+        assertThat(item.getWarehouseId()).isNull();
+        assertThat(item.getName()).isNull();
+    }
+
+    @Test
+    void roundTripsLargeValues() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of(
+                item(Long.MAX_VALUE - 1, Long.MAX_VALUE, Integer.MAX_VALUE,
+                        new BigDecimal("123456789012345678901234567890.123456789"), 0L, ""),
+                item(0L, 0L, 0, BigDecimal.ZERO, 1L, "x"))).build();
+
+        CartSnapshot decoded = CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot));
+
+        assertThat(decoded).isEqualTo(snapshot);
+    }
+
+    @Test
+    void normalizesNegativeScaleWithoutChangingValue() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of(
+                item(1L, 2L, 3, new BigDecimal("1E+3"), null, "a"))).build();
+
+        BigDecimal decoded = CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot)).getItems().get(0).getUnitPrice();
+
+        assertThat(decoded.scale()).isZero();
+        assertThat(decoded).isEqualByComparingTo("1000");
+    }
+
+    @Test
+    void roundTripsManyItems() {
+        List<CartSnapshot.Item> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(item((long) i, 100_000L + i, i % 7 + 1, BigDecimal.valueOf(i, 2), (long) i * 31, "item-" + i));
+        }
+        CartSnapshot snapshot = CartSnapshot.builder().items(items).build();
+
+        CartSnapshot decoded = CartSnapshotCodec.decode(CartSnapshotCodec.encode(snapshot));
+
+        assertThat(decoded).isEqualTo(snapshot);
+        assertThat(decoded.totalQuantity()).isEqualTo(snapshot.totalQuantity());
+    }
+
+    @Test
+    void rejectsNegativeQuantityOnEncode() {
+        CartSnapshot snapshot = CartSnapshot.builder().items(List.of(
+                item(1L, 2L, -1, BigDecimal.ONE, null, null))).build();
+
+        assertThatThrownBy(() -> CartSnapshotCodec.encode(snapshot))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsMissingOrForeignHeader() {
+        assertThatThrownBy(() -> CartSnapshotCodec.decode(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CartSnapshotCodec.decode(new byte[0])).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CartSnapshotCodec.decode("[{\"productVariantId\":1}]".getBytes()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid cart snapshot data");
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] data = CartSnapshotCodec.encode(CartSnapshot.builder().items(List.of()).build());
+        data[1] = (byte) (CartSnapshotCodec.VERSION_1 + 1);
+
+        assertThatThrownBy(() -> CartSnapshotCodec.decode(data))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unsupported cart snapshot version");
+    }
+
+    @Test
+    void rejectsTruncatedData() {
+        byte[] data = CartSnapshotCodec.encode(CartSnapshot.builder().items(List.of(
+                item(1L, 2L, 3, new BigDecimal("99.99"), 4L, "Gmail cổ"))).build());
+
+        for (int length = 2; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThatThrownBy(() -> CartSnapshotCodec.decode(truncated))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void rejectsTrailingBytes() {
+        byte[] data = CartSnapshotCodec.encode(CartSnapshot.builder().items(List.of(
+                item(1L, 2L, 3, BigDecimal.TEN, null, "a"))).build());
+        byte[] padded = Arrays.copyOf(data, data.length + 1);
+
+        assertThatThrownBy(() -> CartSnapshotCodec.decode(padded))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Trailing bytes");
+    }
+
+    @Test
+    void rejectsItemCountLargerThanPayload() {
+        // MAGIC | VERSION | varint(Integer.MAX_VALUE), không có item nào phía sau
+        byte[] data = {(byte) 0xCA, CartSnapshotCodec.VERSION_1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+
+        assertThatThrownBy(() -> CartSnapshotCodec.decode(data))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("item count");
+    }
+
+    @Test
+    void rejectsQuantityOutOfIntRange() {
+        // 1 item: productId null | variantId 1 | quantity 2^31 | unitPrice null | warehouseId null | name null
+        byte[] data = {(byte) 0xCA, CartSnapshotCodec.VERSION_1, 0x01,
+                0x00, 0x01, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08, 0x00, 0x00, 0x00};
+
+        assertThatThrownBy(() -> CartSnapshotCodec.decode(data))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("out of range");
+    }
+
+    private static CartSnapshot.Item item(Long productId, Long variantId, int quantity, BigDecimal unitPrice,
+                                          Long warehouseId, String name) {
+        return CartSnapshot.Item.builder()
+                .productId(productId)
+                .productVariantId(variantId)
+                .quantity(quantity)
+                .unitPrice(unitPrice)
+                .warehouseId(warehouseId)
+                .name(name)
+                .build();
+    }
+}